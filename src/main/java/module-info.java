@@ -19,7 +19,13 @@ module org.example.editor {
     exports org.example.editor.layout_elements;
     opens org.example.editor.layout_elements to javafx.fxml;
     exports org.example.editor.config;
+    exports org.example.editor.document;
     exports org.example.editor.helper;
+    exports org.example.editor.highlight;
+    exports org.example.editor.buffer;
+    exports org.example.editor.io;
+    exports org.example.editor.search;
+    exports org.example.editor.diff;
     exports org.example.editor.layout_api;
     opens org.example.editor.layout_api to javafx.fxml;
 }
\ No newline at end of file
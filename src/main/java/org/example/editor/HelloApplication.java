@@ -11,26 +11,17 @@ import javafx.stage.Stage;
 import org.example.editor.config.DefaultTabNameGenerator;
 import org.example.editor.config.TerminalConfig;
 import org.example.editor.helper.ThreadHelper;
+import org.example.editor.io.EditJournal;
 import org.example.editor.layout_api.EditorLayout;
 import org.example.editor.layout_elements.*;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
 import java.util.List;
 
 public class HelloApplication extends Application {
-    private static File currentFile;
     private String compilerPath = null;
 
-    public static void setCurrentFile(File selectedFile) {
-        currentFile = selectedFile;
-    }
-
-    public static File getCurrentFile() {
-        return currentFile;
-    }
-
     @Override
     public void start(Stage stage) throws IOException {
         // 1. Layout edytora
@@ -50,6 +41,20 @@ public class HelloApplication extends Application {
                         "-fx-background-color: #1e1e1e;"
         );
 
+        // 2b. Drugi widok tego samego pliku (ukryty, włączany przyciskiem "Split View")
+        SplitView splitView = editor.createSplitView("code-1-split");
+        splitView.getRegion().setLayoutX(720);
+        splitView.getRegion().setLayoutY(100);
+        splitView.getRegion().setPrefSize(460, 400);
+        splitView.getRegion().setStyle(
+                "-fx-border-color: #00bfff;" +
+                        "-fx-border-width: 2;" +
+                        "-fx-border-radius: 4;" +
+                        "-fx-background-color: #1e1e1e;"
+        );
+        splitView.getRegion().setVisible(false);
+        layout.addChild(splitView);
+
         // 3. Konsola (wewnątrz EditorLayout)
         ConsoleView consoleView = new ConsoleView("console-1");
         consoleView.getRegion().setLayoutX(100);
@@ -58,21 +63,22 @@ public class HelloApplication extends Application {
         layout.addChild(consoleView);
 
         // 4. Panel otwartych plików
-        OpenFilesPanel openFilesPanel = new OpenFilesPanel(file -> {
-            try {
-                String content = Files.readString(file.toPath());
-                editor.setCode(content);
-                HelloApplication.setCurrentFile(file);
-            } catch (IOException ex) {
-                ex.printStackTrace();
-                new Alert(Alert.AlertType.ERROR, ex.getMessage()).showAndWait();
-            }
-        });
+        OpenFilesPanel openFilesPanel = new OpenFilesPanel(editor::openFile);
+        openFilesPanel.setOnFilesChanged(editor::filesChangedOnDisk); // zmiany w folderach spoza edytora
         openFilesPanel.getRegion().setLayoutX(20);
         openFilesPanel.getRegion().setLayoutY(100);
         openFilesPanel.getRegion().setPrefSize(160, 600);
         layout.addChild(openFilesPanel);
 
+        // 4b. Wyniki szukania w folderach
+        SearchResultsPanel searchPanel = new SearchResultsPanel("search-1", openFilesPanel::getFolders, editor::unsavedSnapshots,
+                match -> editor.openFile(match.file().toFile(),
+                        () -> editor.selectInLine(match.line(), match.column(), match.length())));
+        searchPanel.getRegion().setLayoutX(720);
+        searchPanel.getRegion().setLayoutY(520);
+        searchPanel.getRegion().setPrefSize(460, 150);
+        layout.addChild(searchPanel);
+
         // 5. Terminal jako komponent wewnątrz EditorLayout
 
         // Dodaj to wcześniej w metodzie start(...)
@@ -109,12 +115,25 @@ public class HelloApplication extends Application {
         OpenFolderButton openFolderButton = new OpenFolderButton(stage, editor, openFilesPanel);
         DesignToggleButton designToggleButton = new DesignToggleButton(layout, editor, consoleView, terminalTabPane);
         CompilerSelectButton compilerSelectButton = new CompilerSelectButton(stage);
+        AutoSaveToggleButton autoSaveToggleButton = new AutoSaveToggleButton(editor);
+        Button findInFolderButton = new Button("Find in Folder");
+        findInFolderButton.setOnAction(e -> {
+            String selected = editor.getView().getSelectedText();
+            if (!selected.isEmpty() && selected.indexOf('\n') < 0) {
+                searchPanel.search(selected);
+            }
+            searchPanel.focusQuery();
+        });
+
+        ToggleButton splitButton = new ToggleButton("Split View");
+        splitButton.setOnAction(e -> splitView.getRegion().setVisible(splitButton.isSelected()));
 
         HBox buttonBar = new HBox(10);
         buttonBar.setPadding(new Insets(10));
         buttonBar.setAlignment(Pos.CENTER_LEFT);
         buttonBar.getChildren().addAll(openButton, saveButton, saveAsButton,
-                compilerSelectButton, runButton, openFolderButton, designToggleButton);
+                compilerSelectButton, runButton, openFolderButton, findInFolderButton, splitButton, autoSaveToggleButton,
+                designToggleButton);
 
         // 8. Root VBox: pasek + content
         VBox root = new VBox();
@@ -123,22 +142,28 @@ public class HelloApplication extends Application {
 
 
         //ukrywanie przyciskow
-        var topButtons = List.of(openButton, saveButton, saveAsButton, compilerSelectButton, runButton, openFolderButton);
+        var topButtons = List.of(openButton, saveButton, saveAsButton, compilerSelectButton, runButton, openFolderButton,
+                findInFolderButton, splitButton, autoSaveToggleButton);
 
         layout.modeProperty().addListener((obs, oldMode, newMode) -> {
             boolean isDesign = newMode == EditorLayout.Mode.DESIGN;
             topButtons.forEach(btn -> btn.setDisable(isDesign)); // lub .setVisible(false)
+            searchPanel.setDesignMode(isDesign);
         });
 
         // 9. Scena i pokazanie
         Scene scene = new Scene(root, 1200, 900);
         stage.setScene(scene);
         stage.setTitle("EditorLayout Test");
+        // gwiazdka w tytule = niezapisane zmiany
+        editor.dirtyProperty().addListener((obs, wasDirty, isDirty) ->
+                stage.setTitle((isDirty ? "* " : "") + "EditorLayout Test"));
         stage.show();
     }
 
     @Override
     public void stop() throws Exception {
+        EditJournal.flushAll(); // System.exit nie czeka na wątek dziennika
         ThreadHelper.stopExecutorService();
         Platform.exit();
         System.exit(0);
@@ -0,0 +1,292 @@
+package org.example.editor.buffer;
+
+import javafx.beans.property.ReadOnlyBooleanProperty;
+import javafx.beans.property.ReadOnlyBooleanWrapper;
+import org.example.editor.document.Document;
+import org.example.editor.document.DocumentChange;
+import org.example.editor.document.DocumentListener;
+import org.example.editor.document.DocumentSnapshot;
+import org.example.editor.highlight.SyntaxHighlighter;
+import org.example.editor.io.EditJournal;
+import org.example.editor.io.MappedTextFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One open file: its {@link Document} (with undo history), highlighter, encoding,
+ * dirty state and the caret and scroll position to restore when it is shown again.
+ * <p>
+ * A buffer may be <em>unloaded</em> by the {@link BufferManager} to save memory;
+ * it then keeps only its file and view state and is read from disk again when
+ * next shown. Dirty buffers are never unloaded. Used on the FX thread only.
+ * <p>
+ * While a buffer is dirty its edits are logged to an {@link EditJournal}, so a
+ * crash does not lose them; the journal is dropped once the buffer is clean again.
+ */
+public class Buffer {
+
+    // Rough heap cost per character (UTF-16 text in the piece table's buffers) and
+    // per line (highlighter state and spans)
+    private static final int BYTES_PER_CHAR = 2;
+    private static final int BYTES_PER_LINE = 48;
+
+    private final ReadOnlyBooleanWrapper dirty = new ReadOnlyBooleanWrapper(false);
+    private final DocumentListener editListener = this::onEdited;
+
+    private File file;
+    private Document document;
+    private SyntaxHighlighter highlighter;
+    private MappedTextFile mappedFile;
+    private Charset charset = StandardCharsets.UTF_8;
+    private boolean byteOrderMark;
+    private boolean loading;
+    private long editCount;
+    private long savedEditCount;
+    private EditJournal journal; // null while clean
+
+    // view state, restored when the buffer is shown again
+    private int caret;
+    private int anchor;
+    private double scrollX;
+    private double scrollY;
+
+    Buffer(File file) {
+        this.file = file;
+    }
+
+    /**
+     * The file shown in this buffer, or null for an untitled buffer.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    void setFile(File file) {
+        this.file = file;
+        if (journal != null) { // the journal names the file the text belongs to
+            journal.discard();
+            journal = EditJournal.create(file, charset, byteOrderMark);
+            journal.checkpoint(document.snapshot());
+        }
+    }
+
+    public String getName() {
+        return file == null ? "untitled" : file.getName();
+    }
+
+    public boolean isLoaded() {
+        return document != null;
+    }
+
+    /**
+     * Text of the buffer, or null while it is unloaded. A memory-mapped buffer has an empty document.
+     */
+    public Document getDocument() {
+        return document;
+    }
+
+    public SyntaxHighlighter getHighlighter() {
+        return highlighter;
+    }
+
+    /**
+     * Non-null when the file is too large to edit and is shown read-only from a mapping.
+     */
+    public MappedTextFile getMappedFile() {
+        return mappedFile;
+    }
+
+    /**
+     * Starts the buffer with a fresh, empty document (to be filled by a loader).
+     */
+    public Document load() {
+        unloadText();
+        document = new Document();
+        document.addListener(editListener);
+        highlighter = new SyntaxHighlighter(document);
+        editCount = savedEditCount = 0;
+        dirty.set(false);
+        return document;
+    }
+
+    /**
+     * Shows the buffer read-only from a memory-mapped file.
+     */
+    public void loadMapped(MappedTextFile file) {
+        unloadText();
+        document = new Document();
+        mappedFile = file;
+        charset = StandardCharsets.UTF_8;
+        byteOrderMark = false;
+        editCount = savedEditCount = 0;
+        dirty.set(false);
+    }
+
+    /**
+     * Drops the text, keeping the file and view state. Ignored for dirty buffers.
+     */
+    public void unload() {
+        if (isDirty()) return;
+        unloadText();
+    }
+
+    private void unloadText() {
+        discardJournal();
+        if (document != null) {
+            document.removeListener(editListener);
+        }
+        if (highlighter != null) {
+            highlighter.dispose();
+        }
+        if (mappedFile != null) {
+            try {
+                mappedFile.close();
+            } catch (IOException ignored) {
+            }
+        }
+        document = null;
+        highlighter = null;
+        mappedFile = null;
+        loading = false;
+    }
+
+    /**
+     * True while text is streamed in or when the file is memory-mapped.
+     */
+    public boolean isReadOnly() {
+        return mappedFile != null || loading;
+    }
+
+    public boolean isLoading() {
+        return loading;
+    }
+
+    public void setLoading(boolean loading) {
+        this.loading = loading;
+        if (document != null) {
+            document.getUndoHistory().setEnabled(!loading); // loading is not an edit
+            if (!loading) document.getUndoHistory().clear();
+        }
+        if (!loading) markClean(editCount);
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public boolean hasByteOrderMark() {
+        return byteOrderMark;
+    }
+
+    public void setEncoding(Charset charset, boolean byteOrderMark) {
+        this.charset = charset;
+        this.byteOrderMark = byteOrderMark;
+    }
+
+    // ---------------------------------------------------------------- dirty tracking
+
+    public ReadOnlyBooleanProperty dirtyProperty() {
+        return dirty.getReadOnlyProperty();
+    }
+
+    public boolean isDirty() {
+        return dirty.get();
+    }
+
+    /**
+     * Number of edits so far; pass it to {@link #markClean} once that state is saved.
+     */
+    public long getEditCount() {
+        return editCount;
+    }
+
+    public void markClean(long version) {
+        savedEditCount = version;
+        dirty.set(editCount != savedEditCount);
+        if (!isDirty()) discardJournal();
+    }
+
+    private void onEdited(Document doc, DocumentChange change) {
+        editCount++;
+        if (loading) return;
+        dirty.set(true);
+        if (journal == null) journal = EditJournal.create(file, charset, byteOrderMark);
+        journal.record(doc, change);
+    }
+
+    /**
+     * Fills the buffer with the unsaved text of {@code journal}, left behind by a
+     * run that ended without saving it. The buffer is dirty and keeps logging its
+     * edits to that journal.
+     */
+    public void restore(EditJournal journal) {
+        DocumentSnapshot text = journal.replay();
+        load();
+        setEncoding(journal.getCharset(), journal.hasByteOrderMark());
+        document.removeListener(editListener); // already in the journal
+        document.setText(text);
+        document.addListener(editListener);
+        this.journal = journal;
+        editCount++;
+        dirty.set(true);
+    }
+
+    /**
+     * Replaces the text with the file's new version from disk as one undo step
+     * and takes it as saved. Not logged to the journal - the text is on disk.
+     */
+    public void reload(String text, Charset charset, boolean byteOrderMark) {
+        setEncoding(charset, byteOrderMark);
+        document.removeListener(editListener);
+        document.replaceText(text);
+        document.addListener(editListener);
+        editCount++;
+        markClean(editCount);
+    }
+
+    private void discardJournal() {
+        if (journal == null) return;
+        journal.discard();
+        journal = null;
+    }
+
+    /**
+     * Approximate heap held by the loaded text; 0 when unloaded. Counts the
+     * document's buffers rather than its current length, since the add buffer
+     * keeps every typed, pasted or deleted character, and the undo history.
+     */
+    public long estimatedBytes() {
+        if (mappedFile != null) return mappedFile.lineCount() / 8L; // sparse line index
+        if (document == null) return 0;
+        return document.bufferedChars() * BYTES_PER_CHAR + (long) document.lineCount() * BYTES_PER_LINE
+                + document.getUndoHistory().usedBytes();
+    }
+
+    // ---------------------------------------------------------------- view state
+
+    public int getCaret() {
+        return caret;
+    }
+
+    public int getAnchor() {
+        return anchor;
+    }
+
+    public double getScrollX() {
+        return scrollX;
+    }
+
+    public double getScrollY() {
+        return scrollY;
+    }
+
+    public void saveViewState(int anchor, int caret, double scrollX, double scrollY) {
+        this.anchor = anchor;
+        this.caret = caret;
+        this.scrollX = scrollX;
+        this.scrollY = scrollY;
+    }
+}
@@ -0,0 +1,149 @@
+package org.example.editor.buffer;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Keeps the buffers of recently used files in memory, in least-recently-used order.
+ * <p>
+ * When the loaded buffers together exceed the memory budget, clean buffers are
+ * unloaded starting from the least recently used one (they keep their view state
+ * and are re-read from disk lazily when shown again). Dirty buffers are never
+ * unloaded, so the budget can be exceeded by unsaved text. Used on the FX thread only.
+ */
+public class BufferManager {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 128L << 20;
+
+    private final LinkedHashMap<Path, Buffer> buffers = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private Buffer untitled;
+
+    /**
+     * Buffer of {@code file}, created (unloaded) if it is not known yet. Marks it most recently used.
+     */
+    public Buffer get(File file) {
+        return buffers.computeIfAbsent(key(file), k -> new Buffer(k.toFile()));
+    }
+
+    /**
+     * Buffer of {@code file} if one exists, without creating or touching it.
+     */
+    public Buffer find(File file) {
+        Path key = key(file);
+        for (var entry : buffers.entrySet()) { // get() would count as a use
+            if (entry.getKey().equals(key)) return entry.getValue();
+        }
+        return null;
+    }
+
+    /**
+     * The buffer for text that has no file yet (created on demand).
+     */
+    public Buffer untitled() {
+        if (untitled == null) {
+            untitled = new Buffer(null);
+            untitled.load();
+        }
+        return untitled;
+    }
+
+    /**
+     * Moves a buffer to a new file (after Save As, or when an untitled buffer is
+     * saved). Another buffer already holding that file is dropped.
+     */
+    public void rename(Buffer buffer, File newFile) {
+        if (buffer == untitled) {
+            untitled = null;
+        } else if (buffer.getFile() != null) {
+            buffers.remove(key(buffer.getFile()));
+        }
+        Buffer replaced = buffers.remove(key(newFile));
+        if (replaced != null && replaced != buffer) {
+            replaced.unload();
+        }
+        Path key = key(newFile);
+        buffer.setFile(key.toFile());
+        buffers.put(key, buffer);
+    }
+
+    /**
+     * Forgets a buffer whose file could not be loaded.
+     */
+    public void remove(Buffer buffer) {
+        if (buffer == untitled) {
+            untitled = null;
+        } else if (buffer.getFile() != null) {
+            buffers.remove(key(buffer.getFile()), buffer);
+        }
+        buffer.unload();
+    }
+
+    /**
+     * Unloads clean buffers, least recently used first, until the loaded ones fit
+     * in the budget. {@code keep} (the buffer on screen) is never unloaded.
+     */
+    public void trim(Buffer keep) {
+        long used = usedBytes();
+        Iterator<Buffer> it = buffers.values().iterator();
+        while (used > memoryBudget && it.hasNext()) {
+            Buffer b = it.next();
+            if (b == keep || !b.isLoaded() || b.isDirty() || b.isLoading()) continue;
+            used -= b.estimatedBytes();
+            b.unload();
+        }
+    }
+
+    /**
+     * Approximate heap held by all loaded buffers.
+     */
+    public long usedBytes() {
+        long used = untitled != null ? untitled.estimatedBytes() : 0;
+        for (Buffer b : buffers.values()) {
+            used += b.estimatedBytes();
+        }
+        return used;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    public void setMemoryBudget(long memoryBudget) {
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * All buffers with a file, least recently used first.
+     */
+    public List<Buffer> buffers() {
+        return new ArrayList<>(buffers.values());
+    }
+
+    /**
+     * Buffers with unsaved changes, the untitled one included.
+     */
+    public List<Buffer> dirtyBuffers() {
+        List<Buffer> result = new ArrayList<>();
+        if (untitled != null && untitled.isDirty()) result.add(untitled);
+        for (Buffer b : buffers.values()) {
+            if (b.isDirty()) result.add(b);
+        }
+        return result;
+    }
+
+    /**
+     * Whether {@code file} names the file of {@code buffer}.
+     */
+    public static boolean isFileOf(Buffer buffer, File file) {
+        return buffer.getFile() != null && key(buffer.getFile()).equals(key(file));
+    }
+
+    private static Path key(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+}
@@ -0,0 +1,42 @@
+package org.example.editor.diagnostics;
+
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * One compiler diagnostic, e.g. {@code main.cpp:12:5: error: 'x' was not declared}.
+ * <p>
+ * {@code line} and {@code column} are 0-based, as in the editor; {@code line} is -1
+ * when the compiler gave no location (e.g. a linker error, or a gcc context header
+ * like {@code In instantiation of ...}) and {@code column} is 0 when it gave no column.
+ * {@code file} is null when the record names a tool rather than a file.
+ * <p>
+ * {@code related} holds, in the order printed, the template backtrace that led to
+ * the diagnostic ({@code required from ...}) and the notes that follow it;
+ * {@code omittedRelated} counts entries past {@link DiagnosticParser#MAX_RELATED}.
+ * {@code includedFrom} is the {@code In file included from} chain, innermost first.
+ */
+public record Diagnostic(Path file, int line, int column, Severity severity, String message,
+                         List<Diagnostic> related, List<Diagnostic> includedFrom, int omittedRelated) {
+
+    public enum Severity {
+        // ordered from the least severe: the worst one on a line decides its marker
+        NOTE, WARNING, ERROR
+    }
+
+    public boolean hasLocation() {
+        return file != null && line >= 0;
+    }
+
+    /**
+     * {@code file:line:column: severity: message} with 1-based numbers, as the compiler prints it.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        if (file != null) text.append(file).append(':');
+        if (line >= 0) text.append(line + 1).append(':').append(column + 1).append(':');
+        if (!text.isEmpty()) text.append(' ');
+        return text.append(severity.name().toLowerCase()).append(": ").append(message).toString();
+    }
+}
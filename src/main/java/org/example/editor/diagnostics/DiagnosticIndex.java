@@ -0,0 +1,97 @@
+package org.example.editor.diagnostics;
+
+import org.example.editor.diagnostics.Diagnostic.Severity;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * The diagnostics of one build, in the order printed and by file and line, so
+ * the editor can jump between them and mark their lines without going back to
+ * the compiler output.
+ * <p>
+ * A diagnostic is indexed at its location together with its notes and backtrace
+ * (a note usually points at a declaration in another file), but not its include
+ * chain. Filled by one thread ({@link #add} is a {@link DiagnosticParser} sink)
+ * and then handed over; not thread-safe.
+ */
+public final class DiagnosticIndex {
+
+    private final List<Diagnostic> all = new ArrayList<>();
+    private final Map<Path, TreeMap<Integer, List<Diagnostic>>> byFile = new HashMap<>();
+    private int errors;
+    private int warnings;
+
+    public void add(Diagnostic diagnostic) {
+        all.add(diagnostic);
+        if (diagnostic.severity() == Severity.ERROR) errors++;
+        else if (diagnostic.severity() == Severity.WARNING) warnings++;
+        put(diagnostic);
+        for (Diagnostic related : diagnostic.related()) {
+            put(related);
+        }
+    }
+
+    private void put(Diagnostic entry) {
+        if (!entry.hasLocation()) return;
+        byFile.computeIfAbsent(entry.file(), f -> new TreeMap<>())
+                .computeIfAbsent(entry.line(), l -> new ArrayList<>(1))
+                .add(entry);
+    }
+
+    /**
+     * Errors, warnings and stand-alone notes, in the order printed.
+     */
+    public List<Diagnostic> all() {
+        return Collections.unmodifiableList(all);
+    }
+
+    public boolean isEmpty() {
+        return all.isEmpty();
+    }
+
+    public int errorCount() {
+        return errors;
+    }
+
+    public int warningCount() {
+        return warnings;
+    }
+
+    /**
+     * Entries located on a line (0-based) of a file, including notes; empty if none.
+     */
+    public List<Diagnostic> at(Path file, int line) {
+        TreeMap<Integer, List<Diagnostic>> lines = byFile.get(normalize(file));
+        List<Diagnostic> entries = lines == null ? null : lines.get(line);
+        return entries == null ? List.of() : Collections.unmodifiableList(entries);
+    }
+
+    /**
+     * The worst severity on each line of a file that has diagnostics, e.g. for gutter markers.
+     * O(lines with diagnostics in the file).
+     */
+    public NavigableMap<Integer, Severity> markers(Path file) {
+        TreeMap<Integer, Severity> markers = new TreeMap<>();
+        TreeMap<Integer, List<Diagnostic>> lines = byFile.get(normalize(file));
+        if (lines == null) return markers;
+        lines.forEach((line, entries) -> {
+            Severity worst = Severity.NOTE;
+            for (Diagnostic entry : entries) {
+                if (entry.severity().compareTo(worst) > 0) worst = entry.severity();
+            }
+            markers.put(line, worst);
+        });
+        return markers;
+    }
+
+    private static Path normalize(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+}
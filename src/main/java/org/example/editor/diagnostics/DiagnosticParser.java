@@ -0,0 +1,311 @@
+package org.example.editor.diagnostics;
+
+import org.example.editor.diagnostics.Diagnostic.Severity;
+import org.example.editor.document.AnsiDecoder;
+
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Turns gcc and clang output into {@link Diagnostic}s one line at a time, as the
+ * compiler prints it, so the output never has to be kept and scanned again.
+ * <p>
+ * Recognized lines:
+ * <ul>
+ * <li>{@code file:line[:column]: error|warning|note|fatal error|remark: message}</li>
+ * <li>gcc template backtraces: a context header ({@code file: In instantiation of ...:})
+ * and {@code file:line:column:   required from ...} lines, which gcc prints before
+ * the error they explain</li>
+ * <li>{@code In file included from file:line:column,} and the following
+ * {@code from file:line:column} lines</li>
+ * <li>tool errors without a location ({@code collect2: error: ld returned 1 exit status})</li>
+ * </ul>
+ * Color escape sequences ({@code -fdiagnostics-color}) are removed first.
+ * Notes (clang's {@code in instantiation of ... requested here} too) are attached
+ * to the error or warning before them; source excerpts, carets and summaries are
+ * skipped. A diagnostic is handed to the sink once the next one starts, or on
+ * {@link #finish()}.
+ * <p>
+ * Each line is scanned once, without regular expressions, and file names are
+ * resolved once per distinct name, so a 50k-line template error dump takes well
+ * under a second, on the thread that reads the output. Messages are cut at
+ * {@link #MAX_MESSAGE_CHARS} and a diagnostic keeps at most {@link #MAX_RELATED}
+ * related entries. Not thread-safe.
+ */
+public final class DiagnosticParser {
+
+    public static final int MAX_RELATED = 256;
+    public static final int MAX_MESSAGE_CHARS = 4096;
+
+    private static final String INCLUDED_FROM = "In file included from ";
+    private static final String FROM = "from ";
+    private static final String[] SEVERITY_PREFIXES = {
+            "error: ", "warning: ", "note: ", "fatal error: ", "remark: ", "sorry, unimplemented: "
+    };
+    private static final Severity[] SEVERITIES = {
+            Severity.ERROR, Severity.WARNING, Severity.NOTE, Severity.ERROR, Severity.NOTE, Severity.ERROR
+    };
+
+    /**
+     * Error or warning whose notes may still follow.
+     */
+    private static final class Pending {
+        final Path file;
+        final int line;
+        final int column;
+        final Severity severity;
+        final String message;
+        final List<Diagnostic> related;
+        final List<Diagnostic> includedFrom;
+        int omitted;
+
+        Pending(Path file, int line, int column, Severity severity, String message,
+                List<Diagnostic> related, List<Diagnostic> includedFrom, int omitted) {
+            this.file = file;
+            this.line = line;
+            this.column = column;
+            this.severity = severity;
+            this.message = message;
+            this.related = related;
+            this.includedFrom = includedFrom;
+            this.omitted = omitted;
+        }
+
+        Diagnostic build() {
+            return new Diagnostic(file, line, column, severity, message,
+                    List.copyOf(related), List.copyOf(includedFrom), omitted);
+        }
+    }
+
+    private final Path baseDir;
+    private final Consumer<Diagnostic> sink;
+    private final Map<String, Path> paths = new HashMap<>();
+
+    private Pending current;
+    private List<Diagnostic> context = new ArrayList<>();  // backtrace printed before its error
+    private int omittedContext;
+    private List<Diagnostic> includes = new ArrayList<>();
+    private boolean inIncludeChain;
+    private boolean finished;
+
+    // set by parseLocation and severityAt
+    private Path locFile;
+    private int locLine;
+    private int locColumn;
+    private int locEnd;
+    private int severityEnd;
+
+    /**
+     * @param baseDir the compiler's working directory, relative file names are resolved against it
+     * @param sink    receives every error, warning and stand-alone note
+     */
+    public DiagnosticParser(Path baseDir, Consumer<Diagnostic> sink) {
+        this.baseDir = baseDir.toAbsolutePath();
+        this.sink = sink;
+    }
+
+    /**
+     * Parses one line of output, without its line terminator. Ignored after {@link #finish()}.
+     */
+    public void accept(String line) {
+        if (finished) return;
+        if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+        line = AnsiDecoder.strip(line); // -fdiagnostics-color
+
+        if (line.startsWith(INCLUDED_FROM)) {
+            includes = new ArrayList<>();
+            addInclude(line, INCLUDED_FROM.length());
+            inIncludeChain = true;
+            return;
+        }
+        if (inIncludeChain) {
+            int start = skipSpaces(line, 0);
+            if (start > 0 && line.startsWith(FROM, start)) {
+                addInclude(line, start + FROM.length());
+                return;
+            }
+            inIncludeChain = false;
+        }
+        if (line.isEmpty() || Character.isWhitespace(line.charAt(0))) {
+            return; // source excerpt or caret line
+        }
+
+        if (parseLocation(line)) {
+            int rest = skipSpaces(line, locEnd);
+            Severity severity = severityAt(line, rest);
+            if (severity != null) {
+                diagnostic(locFile, locLine, locColumn, severity, message(line, severityEnd, line.length()));
+            } else {
+                addContext(new Diagnostic(locFile, locLine, locColumn, Severity.NOTE,
+                        message(line, rest, line.length()), List.of(), List.of(), 0));
+            }
+            return;
+        }
+
+        int separator = line.indexOf(": ");
+        if (separator <= 0) return; // "compilation terminated.", "2 errors generated."
+        Severity severity = severityAt(line, separator + 2);
+        if (severity != null) {
+            // no location: the line names a tool, e.g. "cc1plus: fatal error: ..."
+            diagnostic(null, -1, 0, severity,
+                    line.substring(0, separator) + ": " + message(line, severityEnd, line.length()));
+        } else if (line.endsWith(":") && (line.startsWith("In ", separator + 2) || line.startsWith("At ", separator + 2))) {
+            // gcc context header, e.g. "a.cpp: In instantiation of 'void f(T) [with T = int]':"
+            addContext(new Diagnostic(path(line.substring(0, separator)), -1, 0, Severity.NOTE,
+                    message(line, separator + 2, line.length() - 1), List.of(), List.of(), 0));
+        }
+    }
+
+    /**
+     * The output ended: hands over the last diagnostic.
+     */
+    public void finish() {
+        if (finished) return;
+        flush();
+        finished = true;
+        context = new ArrayList<>();
+        includes = new ArrayList<>();
+    }
+
+    private void diagnostic(Path file, int line, int column, Severity severity, String message) {
+        if (severity == Severity.NOTE && current != null) {
+            addRelated(current, new Diagnostic(file, line, column, severity, message, List.of(), List.copyOf(includes), 0));
+            includes = new ArrayList<>();
+            return;
+        }
+        flush();
+        current = new Pending(file, line, column, severity, message, context, includes, omittedContext);
+        context = new ArrayList<>();
+        omittedContext = 0;
+        includes = new ArrayList<>();
+    }
+
+    private void flush() {
+        if (current == null) return;
+        Pending done = current;
+        current = null;
+        sink.accept(done.build());
+    }
+
+    private static void addRelated(Pending diagnostic, Diagnostic entry) {
+        if (diagnostic.related.size() < MAX_RELATED) {
+            diagnostic.related.add(entry);
+        } else {
+            diagnostic.omitted++;
+        }
+    }
+
+    private void addContext(Diagnostic entry) {
+        if (context.size() < MAX_RELATED) {
+            context.add(entry);
+        } else {
+            omittedContext++;
+        }
+    }
+
+    /**
+     * One {@code file:line[:column]} of an include chain, followed by ',' or ':'.
+     */
+    private void addInclude(String line, int from) {
+        int end = line.length();
+        while (end > from && (line.charAt(end - 1) == ',' || line.charAt(end - 1) == ':')) end--;
+        int last = line.lastIndexOf(':', end - 1);
+        if (last <= from || digitsEnd(line, last + 1) != end || end == last + 1) return;
+        int before = line.lastIndexOf(':', last - 1);
+        String file;
+        int lineNumber;
+        int column = 0;
+        if (before > from && digitsEnd(line, before + 1) == last && last > before + 1) {
+            file = line.substring(from, before);
+            lineNumber = number(line, before + 1, last);
+            column = number(line, last + 1, end) - 1;
+        } else {
+            file = line.substring(from, last);
+            lineNumber = number(line, last + 1, end);
+        }
+        includes.add(new Diagnostic(path(file), lineNumber - 1, Math.max(0, column), Severity.NOTE,
+                "included from here", List.of(), List.of(), 0));
+    }
+
+    /**
+     * Finds {@code file:line[:column]:} followed by a space or the end of the line.
+     * The first colon followed by digits decides, so Windows drive letters and
+     * {@code ::} in names are skipped.
+     */
+    private boolean parseLocation(String line) {
+        int length = line.length();
+        for (int colon = line.indexOf(':'); colon > 0; colon = line.indexOf(':', colon + 1)) {
+            int lineEnd = digitsEnd(line, colon + 1);
+            if (lineEnd == colon + 1 || lineEnd == length || line.charAt(lineEnd) != ':') continue;
+            int end = lineEnd + 1;
+            int column = 0;
+            int columnEnd = digitsEnd(line, end);
+            if (columnEnd > end && columnEnd < length && line.charAt(columnEnd) == ':') {
+                column = number(line, end, columnEnd) - 1;
+                end = columnEnd + 1;
+            }
+            if (end < length && line.charAt(end) != ' ') continue;
+            locFile = path(line.substring(0, colon));
+            locLine = number(line, colon + 1, lineEnd) - 1;
+            locColumn = Math.max(0, column);
+            locEnd = end;
+            return true;
+        }
+        return false;
+    }
+
+    private Severity severityAt(String line, int pos) {
+        for (int i = 0; i < SEVERITY_PREFIXES.length; i++) {
+            if (line.startsWith(SEVERITY_PREFIXES[i], pos)) {
+                severityEnd = pos + SEVERITY_PREFIXES[i].length();
+                return SEVERITIES[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resolved file, the same instance for every mention; null for names like {@code <command-line>}.
+     */
+    private Path path(String name) {
+        Path path = paths.get(name);
+        if (path != null || paths.containsKey(name)) return path;
+        if (!name.startsWith("<")) {
+            try {
+                path = baseDir.resolve(name).normalize();
+            } catch (InvalidPathException ignored) {
+                // not a file name after all
+            }
+        }
+        paths.put(name, path);
+        return path;
+    }
+
+    private static String message(String line, int from, int to) {
+        if (to - from <= MAX_MESSAGE_CHARS) return line.substring(from, to);
+        return line.substring(from, from + MAX_MESSAGE_CHARS) + "…";
+    }
+
+    private static int skipSpaces(String line, int pos) {
+        while (pos < line.length() && line.charAt(pos) == ' ') pos++;
+        return pos;
+    }
+
+    private static int digitsEnd(String line, int pos) {
+        while (pos < line.length() && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') pos++;
+        return pos;
+    }
+
+    private static int number(String line, int from, int to) {
+        long value = 0;
+        for (int i = from; i < to && value <= Integer.MAX_VALUE; i++) {
+            value = value * 10 + (line.charAt(i) - '0');
+        }
+        return (int) Math.min(value, Integer.MAX_VALUE);
+    }
+}
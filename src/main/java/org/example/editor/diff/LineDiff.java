@@ -0,0 +1,269 @@
+package org.example.editor.diff;
+
+import org.example.editor.document.DocumentSnapshot;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Line diff of two texts: Myers' O((N+M)D) algorithm in its linear-space form
+ * (divide and conquer on the middle snake), run on 64-bit hashes of the lines.
+ * <p>
+ * Before the search the common prefix and suffix are matched directly, and
+ * lines whose hash does not occur on the other side at all are set aside - they
+ * can only be changes - so two quite different files cost little more than
+ * hashing them. When a sub-problem still needs more than {@link #TOO_EXPENSIVE}
+ * edit steps, it is split at the furthest point reached instead of the middle
+ * snake, as GNU diff does: the result is a valid diff, just not always the
+ * shortest, and the time stays bounded.
+ * <p>
+ * Lines are compared without their terminators, so a file that only switched
+ * between "\n" and "\r\n" compares equal. Equal hashes are taken as equal lines.
+ */
+public final class LineDiff {
+
+    private static final int TOO_EXPENSIVE = 256; // edit steps before settling for a non-minimal split
+    private static final int COPY_CHUNK = 1 << 14;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "line-diff");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Lines {@code [leftFrom, leftTo)} of the left text are replaced by lines
+     * {@code [rightFrom, rightTo)} of the right one. One of the ranges may be
+     * empty (a pure insertion or deletion).
+     */
+    public record Hunk(int leftFrom, int leftTo, int rightFrom, int rightTo) {
+    }
+
+    private final long[] left;
+    private final long[] right;
+    private final BooleanSupplier stop;
+    private final int[] partner; // partner[i] = right line matched with left line i, or -1
+    private int[] forward = new int[0];
+    private int[] backward = new int[0];
+
+    private LineDiff(long[] left, long[] right, BooleanSupplier stop) {
+        this.left = left;
+        this.right = right;
+        this.stop = stop;
+        this.partner = new int[left.length];
+        Arrays.fill(partner, -1);
+    }
+
+    /**
+     * Diffs two snapshots on a background thread. Diffs run one at a time;
+     * {@code stop} lets a caller abandon one that is no longer needed (the
+     * future then completes with a {@link CancellationException}).
+     */
+    public static CompletableFuture<List<Hunk>> compute(DocumentSnapshot left, DocumentSnapshot right,
+                                                        BooleanSupplier stop) {
+        return CompletableFuture.supplyAsync(() -> diff(hashLines(left), hashLines(right), stop), EXECUTOR);
+    }
+
+    /**
+     * Hunks turning the lines hashed in {@code left} into those in {@code right},
+     * in order.
+     */
+    public static List<Hunk> diff(long[] left, long[] right, BooleanSupplier stop) {
+        return new LineDiff(left, right, stop).run();
+    }
+
+    /**
+     * 64-bit FNV-1a hash of every line of the text, terminator excluded.
+     */
+    public static long[] hashLines(DocumentSnapshot text) {
+        long[] hashes = new long[text.lineCount()];
+        char[] buf = new char[COPY_CHUNK];
+        int length = text.length();
+        int line = 0;
+        long h = 0xcbf29ce484222325L;
+        boolean carriageReturn = false; // a '\r' not hashed yet - it may end the line
+        for (int pos = 0; pos < length; pos += COPY_CHUNK) {
+            int n = Math.min(COPY_CHUNK, length - pos);
+            text.getChars(pos, pos + n, buf, 0);
+            for (int i = 0; i < n; i++) {
+                char c = buf[i];
+                if (c == '\n') {
+                    hashes[line++] = h;
+                    h = 0xcbf29ce484222325L;
+                    carriageReturn = false;
+                    continue;
+                }
+                if (carriageReturn) h = (h ^ '\r') * 0x100000001b3L;
+                carriageReturn = c == '\r';
+                if (!carriageReturn) h = (h ^ c) * 0x100000001b3L;
+            }
+        }
+        if (carriageReturn) h = (h ^ '\r') * 0x100000001b3L;
+        hashes[line] = h;
+        return hashes;
+    }
+
+    private List<Hunk> run() {
+        // lines that occur on one side only are changes whatever else happens
+        Set<Long> inLeft = new HashSet<>(left.length * 2);
+        Set<Long> inRight = new HashSet<>(right.length * 2);
+        for (long h : left) inLeft.add(h);
+        for (long h : right) inRight.add(h);
+        int[] leftKept = kept(left, inRight);
+        int[] rightKept = kept(right, inLeft);
+        long[] a = new long[leftKept.length];
+        long[] b = new long[rightKept.length];
+        for (int i = 0; i < a.length; i++) a[i] = left[leftKept[i]];
+        for (int i = 0; i < b.length; i++) b[i] = right[rightKept[i]];
+
+        int[] matched = new int[a.length];
+        Arrays.fill(matched, -1);
+        compare(a, 0, a.length, b, 0, b.length, matched);
+        for (int i = 0; i < a.length; i++) {
+            if (matched[i] >= 0) partner[leftKept[i]] = rightKept[matched[i]];
+        }
+        return hunks();
+    }
+
+    private static int[] kept(long[] lines, Set<Long> other) {
+        int[] result = new int[lines.length];
+        int n = 0;
+        for (int i = 0; i < lines.length; i++) {
+            if (other.contains(lines[i])) result[n++] = i;
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private List<Hunk> hunks() {
+        List<Hunk> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < left.length || j < right.length) {
+            if (i < left.length && partner[i] == j) {
+                i++;
+                j++;
+                continue;
+            }
+            int nextI = i;
+            while (nextI < left.length && partner[nextI] < 0) nextI++;
+            int nextJ = nextI < left.length ? partner[nextI] : right.length;
+            hunks.add(new Hunk(i, nextI, j, nextJ));
+            i = nextI;
+            j = nextJ;
+        }
+        return hunks;
+    }
+
+    /**
+     * Matches lines of {@code a[aFrom, aTo)} with {@code b[bFrom, bTo)} into {@code matched}.
+     */
+    private void compare(long[] a, int aFrom, int aTo, long[] b, int bFrom, int bTo, int[] matched) {
+        while (aFrom < aTo && bFrom < bTo && a[aFrom] == b[bFrom]) {
+            matched[aFrom++] = bFrom++;
+        }
+        while (aFrom < aTo && bFrom < bTo && a[aTo - 1] == b[bTo - 1]) {
+            matched[--aTo] = --bTo;
+        }
+        if (aFrom == aTo || bFrom == bTo) return;
+        if (stop.getAsBoolean()) throw new CancellationException();
+
+        int[] snake = middleSnake(a, aFrom, aTo, b, bFrom, bTo);
+        int x = snake[0];
+        int y = snake[1];
+        int u = snake[2];
+        int v = snake[3];
+        compare(a, aFrom, x, b, bFrom, y, matched);
+        for (int k = 0; k < u - x; k++) {
+            matched[x + k] = y + k;
+        }
+        compare(a, u, aTo, b, v, bTo, matched);
+    }
+
+    /**
+     * Start and end {x, y, u, v} of the middle snake of an optimal path through
+     * the two ranges (positions absolute), searched from both ends at once.
+     * Both ranges are non-empty and differ in their first and last lines.
+     */
+    private int[] middleSnake(long[] a, int aFrom, int aTo, long[] b, int bFrom, int bTo) {
+        int n = aTo - aFrom;
+        int m = bTo - bFrom;
+        int delta = n - m;
+        boolean odd = (delta & 1) != 0;
+        int max = (n + m + 1) / 2;
+        int offset = max + 1;
+        int size = 2 * max + 3;
+        if (forward.length < size) {
+            forward = new int[size];
+            backward = new int[size];
+        }
+        int[] vf = forward;
+        int[] vb = backward; // furthest x reached from the end, counted backwards
+        vf[offset + 1] = 0;
+        vb[offset + 1] = 0;
+
+        for (int d = 0; d <= max; d++) {
+            if (d > TOO_EXPENSIVE) return furthestPoint(vf, offset, d - 1, n, m, aFrom, bFrom);
+
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && vf[offset + k - 1] < vf[offset + k + 1])
+                        ? vf[offset + k + 1] : vf[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aFrom + x] == b[bFrom + y]) {
+                    x++;
+                    y++;
+                }
+                vf[offset + k] = x;
+                int reverseK = delta - k;
+                if (odd && reverseK >= -(d - 1) && reverseK <= d - 1 && x + vb[offset + reverseK] >= n) {
+                    return new int[]{aFrom + startX, bFrom + startY, aFrom + x, bFrom + y};
+                }
+            }
+            for (int k = -d; k <= d; k += 2) {
+                int x = k == -d || (k != d && vb[offset + k - 1] < vb[offset + k + 1])
+                        ? vb[offset + k + 1] : vb[offset + k - 1] + 1;
+                int y = x - k;
+                int startX = x;
+                int startY = y;
+                while (x < n && y < m && a[aTo - 1 - x] == b[bTo - 1 - y]) {
+                    x++;
+                    y++;
+                }
+                vb[offset + k] = x;
+                int forwardK = delta - k;
+                if (!odd && forwardK >= -d && forwardK <= d && x + vf[offset + forwardK] >= n) {
+                    return new int[]{aTo - x, bTo - y, aTo - startX, bTo - startY};
+                }
+            }
+        }
+        throw new IllegalStateException("no middle snake"); // the paths always meet by d = max
+    }
+
+    /**
+     * Split for a sub-problem that got too expensive: the forward point furthest
+     * along its diagonal, with an empty snake.
+     */
+    private static int[] furthestPoint(int[] vf, int offset, int d, int n, int m, int aFrom, int bFrom) {
+        int bestX = 0;
+        int bestY = 0;
+        for (int k = -d; k <= d; k += 2) {
+            int x = Math.min(vf[offset + k], n);
+            int y = x - k;
+            if (y < 0 || y > m) continue;
+            if (x + y > bestX + bestY) {
+                bestX = x;
+                bestY = y;
+            }
+        }
+        return new int[]{aFrom + bestX, bFrom + bestY, aFrom + bestX, bFrom + bestY};
+    }
+}
@@ -0,0 +1,324 @@
+package org.example.editor.document;
+
+/**
+ * Incremental decoder for ANSI escape sequences in program and compiler output,
+ * fed one character at a time so a sequence may be split between two writes.
+ * <p>
+ * SGR sequences ({@code ESC [ ... m}) update the current {@link #style()}: the
+ * 16 standard colors, the 256-color palette ({@code 38;5;n}), 24-bit colors
+ * ({@code 38;2;r;g;b}, mapped to the nearest palette entry) - also in the
+ * ITU form with colons ({@code 38:5:n}, {@code 38:2::r:g:b} with an optional
+ * color space id, {@code 38:2:r:g:b} without one) - and bold, faint,
+ * italic, underline and inverse. Every other escape sequence (cursor movement,
+ * erasing, window titles) is swallowed. A style is packed into one int - no
+ * objects are created while decoding:
+ * <ul>
+ * <li>bits 0-8: foreground, 0 for the default, otherwise palette index + 1</li>
+ * <li>bits 9-17: background, the same way</li>
+ * <li>bits 18-22: {@link #BOLD}, {@link #FAINT}, {@link #ITALIC}, {@link #UNDERLINE}, {@link #INVERSE}</li>
+ * </ul>
+ * 0 is the default style. Not thread-safe.
+ */
+public final class AnsiDecoder {
+
+    public static final char ESC = '\u001b';
+
+    public static final int BOLD = 1 << 18;
+    public static final int FAINT = 1 << 19;
+    public static final int ITALIC = 1 << 20;
+    public static final int UNDERLINE = 1 << 21;
+    public static final int INVERSE = 1 << 22;
+
+    private static final int COLOR_MASK = (1 << 9) - 1;
+    private static final int BACKGROUND_SHIFT = 9;
+    private static final int MAX_PARAMS = 32;
+    private static final int MAX_PARAM_VALUE = 65535;
+
+    // states
+    private static final int TEXT = 0;
+    private static final int ESCAPE = 1;           // after ESC
+    private static final int CSI = 2;              // after ESC [
+    private static final int STRING = 3;           // OSC, DCS and friends, up to BEL or ESC \
+    private static final int STRING_ESCAPE = 4;    // ESC inside a string
+
+    private static final int[] STANDARD_COLORS = {
+            0x000000, 0xcd3131, 0x0dbc79, 0xe5e510, 0x2472c8, 0xbc3fbc, 0x11a8cd, 0xe5e5e5,
+            0x666666, 0xf14c4c, 0x23d18b, 0xf5f543, 0x3b8eea, 0xd670d6, 0x29b8db, 0xffffff
+    };
+
+    private final int[] params = new int[MAX_PARAMS];
+    private int paramCount;
+    private int param;
+    private boolean colon;        // the current parameter follows ':', i.e. is a subparameter
+    private int subparams;        // bit i: params[i] is a subparameter of the one before it
+    private boolean sgr;          // no private marker or intermediate byte seen, so 'm' means SGR
+    private int state = TEXT;
+    private int style;
+
+    /**
+     * Style set by the SGR sequences so far.
+     */
+    public int style() {
+        return style;
+    }
+
+    /**
+     * Whether an escape sequence has started and not ended yet; until it ends
+     * every character should go to {@link #accept}.
+     */
+    public boolean inSequence() {
+        return state != TEXT;
+    }
+
+    /**
+     * Back to the default style, outside any sequence.
+     */
+    public void reset() {
+        state = TEXT;
+        style = 0;
+    }
+
+    /**
+     * Feeds {@link #ESC} or a character while {@link #inSequence()}. Returns false
+     * when the character is not part of the sequence and must be handled as text:
+     * a line break or other control character aborts an unfinished sequence.
+     */
+    public boolean accept(char c) {
+        switch (state) {
+            case TEXT -> {
+                if (c != ESC) return false;
+                state = ESCAPE;
+            }
+            case ESCAPE -> {
+                if (c == '[') {
+                    state = CSI;
+                    paramCount = 0;
+                    param = 0;
+                    colon = false;
+                    subparams = 0;
+                    sgr = true;
+                } else if (c == ']' || c == 'P' || c == 'X' || c == '^' || c == '_') {
+                    state = STRING;
+                } else if (c == ESC) {
+                    state = ESCAPE;
+                } else if (c < 0x20) {
+                    state = TEXT;
+                    return false;
+                } else if (c >= 0x30) {
+                    state = TEXT; // final byte of a two-character sequence such as ESC 7 or ESC ( B
+                }
+            }
+            case CSI -> {
+                if (c >= '0' && c <= '9') {
+                    param = Math.min(MAX_PARAM_VALUE, param * 10 + (c - '0'));
+                } else if (c == ';' || c == ':') {
+                    addParam();
+                    colon = c == ':';
+                } else if (c >= 0x40 && c <= 0x7e) {
+                    addParam();
+                    if (c == 'm' && sgr) applySgr();
+                    state = TEXT;
+                } else if (c == ESC) {
+                    state = ESCAPE;
+                } else if (c < 0x20) {
+                    state = TEXT;
+                    return false;
+                } else {
+                    sgr = false; // '?', '>' and the like, or an intermediate byte
+                }
+            }
+            case STRING -> {
+                if (c == 0x07) {
+                    state = TEXT;
+                } else if (c == ESC) {
+                    state = STRING_ESCAPE;
+                } else if (c == '\n' || c == '\r') {
+                    state = TEXT;
+                    return false;
+                }
+            }
+            default -> { // STRING_ESCAPE
+                if (c == '\\') {
+                    state = TEXT;
+                } else {
+                    state = ESCAPE;
+                    return accept(c);
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Feeds {@code text[from, to)} while a sequence lasts ({@link #ESC} first when
+     * none has started) and returns the index of the first character that is text
+     * again: the one after the sequence, or a control character that aborted it.
+     */
+    public int accept(CharSequence text, int from, int to) {
+        int i = from;
+        while (i < to) {
+            char c = text.charAt(i);
+            if (state == CSI && c >= '0' && c <= '9') {
+                param = Math.min(MAX_PARAM_VALUE, param * 10 + (c - '0'));
+            } else if (!accept(c)) {
+                return i;
+            } else if (state == TEXT) {
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    private void addParam() {
+        if (paramCount < MAX_PARAMS) {
+            if (colon) subparams |= 1 << paramCount;
+            params[paramCount++] = param;
+        }
+        param = 0;
+    }
+
+    private void applySgr() {
+        int s = style;
+        for (int i = 0; i < paramCount; i++) {
+            int p = params[i];
+            int groupEnd = i + 1; // past the subparameters of p
+            while (groupEnd < paramCount && (subparams & (1 << groupEnd)) != 0) groupEnd++;
+            if (groupEnd > i + 1) {
+                s = applyGroup(s, p, i + 1, groupEnd);
+                i = groupEnd - 1;
+            } else if (p == 0) {
+                s = 0;
+            } else if (p == 1) {
+                s |= BOLD;
+            } else if (p == 2) {
+                s |= FAINT;
+            } else if (p == 3) {
+                s |= ITALIC;
+            } else if (p == 4) {
+                s |= UNDERLINE;
+            } else if (p == 7) {
+                s |= INVERSE;
+            } else if (p == 22) {
+                s &= ~(BOLD | FAINT);
+            } else if (p == 23) {
+                s &= ~ITALIC;
+            } else if (p == 24) {
+                s &= ~UNDERLINE;
+            } else if (p == 27) {
+                s &= ~INVERSE;
+            } else if (p >= 30 && p <= 37) {
+                s = withForeground(s, p - 30);
+            } else if (p >= 90 && p <= 97) {
+                s = withForeground(s, p - 90 + 8);
+            } else if (p == 39) {
+                s &= ~COLOR_MASK;
+            } else if (p >= 40 && p <= 47) {
+                s = withBackground(s, p - 40);
+            } else if (p >= 100 && p <= 107) {
+                s = withBackground(s, p - 100 + 8);
+            } else if (p == 49) {
+                s &= ~(COLOR_MASK << BACKGROUND_SHIFT);
+            } else if ((p == 38 || p == 48) && i + 1 < paramCount) {
+                int color = -1;
+                if (params[i + 1] == 5 && i + 2 < paramCount) {
+                    color = params[i + 2] & 0xff;
+                    i += 2;
+                } else if (params[i + 1] == 2 && i + 4 < paramCount) {
+                    color = nearest(params[i + 2], params[i + 3], params[i + 4]);
+                    i += 4;
+                } else {
+                    i++;
+                }
+                if (color >= 0) s = p == 38 ? withForeground(s, color) : withBackground(s, color);
+            }
+        }
+        style = s;
+    }
+
+    /**
+     * Applies {@code p} with the colon-separated subparameters {@code params[from, to)}.
+     */
+    private int applyGroup(int s, int p, int from, int to) {
+        if (p == 38 || p == 48) {
+            int color = -1;
+            int count = to - from;
+            if (params[from] == 5 && count >= 2) {
+                color = params[from + 1] & 0xff;
+            } else if (params[from] == 2 && count >= 4) {
+                int rgb = to - 3; // r:g:b are last, after the color space id if there is one
+                color = nearest(params[rgb], params[rgb + 1], params[rgb + 2]);
+            }
+            if (color >= 0) s = p == 38 ? withForeground(s, color) : withBackground(s, color);
+        } else if (p == 4) {
+            s = params[from] == 0 ? s & ~UNDERLINE : s | UNDERLINE; // 4:3 curly and the like
+        }
+        return s;
+    }
+
+    private static int withForeground(int style, int color) {
+        return (style & ~COLOR_MASK) | (color + 1);
+    }
+
+    private static int withBackground(int style, int color) {
+        return (style & ~(COLOR_MASK << BACKGROUND_SHIFT)) | ((color + 1) << BACKGROUND_SHIFT);
+    }
+
+    /**
+     * Nearest entry of the 6x6x6 color cube of the 256-color palette.
+     */
+    private static int nearest(int r, int g, int b) {
+        return 16 + 36 * cubeLevel(r) + 6 * cubeLevel(g) + cubeLevel(b);
+    }
+
+    private static int cubeLevel(int value) {
+        value = Math.min(255, value);
+        return value < 48 ? 0 : value < 115 ? 1 : (value - 35) / 40;
+    }
+
+    /**
+     * Foreground palette index of a style, -1 for the default color.
+     */
+    public static int foreground(int style) {
+        return (style & COLOR_MASK) - 1;
+    }
+
+    /**
+     * Background palette index of a style, -1 for the default color.
+     */
+    public static int background(int style) {
+        return ((style >>> BACKGROUND_SHIFT) & COLOR_MASK) - 1;
+    }
+
+    /**
+     * RGB of a palette index (0-255), as {@code 0xRRGGBB}.
+     */
+    public static int rgb(int index) {
+        if (index < 16) return STANDARD_COLORS[index];
+        if (index < 232) {
+            int cube = index - 16;
+            return (level(cube / 36) << 16) | (level(cube / 6 % 6) << 8) | level(cube % 6);
+        }
+        int gray = 8 + 10 * (index - 232);
+        return (gray << 16) | (gray << 8) | gray;
+    }
+
+    private static int level(int step) {
+        return step == 0 ? 0 : 55 + 40 * step;
+    }
+
+    /**
+     * The text of a line without its escape sequences (styles are dropped).
+     */
+    public static String strip(String line) {
+        if (line.indexOf(ESC) < 0) return line;
+        AnsiDecoder decoder = new AnsiDecoder();
+        StringBuilder text = new StringBuilder(line.length());
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if ((c == ESC || decoder.inSequence()) && decoder.accept(c)) continue;
+            text.append(c);
+        }
+        return text.toString();
+    }
+}
@@ -0,0 +1,130 @@
+package org.example.editor.document;
+
+import java.util.Arrays;
+
+/**
+ * Append-only "add buffer" of the piece table.
+ * Text is stored in fixed-size chunks which are never reallocated,
+ * so readers on other threads can safely read any range below a length they
+ * have already observed while the FX thread keeps appending.
+ */
+final class AppendBuffer implements TextBuffer {
+
+    private static final int CHUNK_BITS = 16;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private volatile char[][] chunks = new char[8][];
+    private volatile int length;
+
+    // Sorted positions of '\n'. The array is only replaced (never shrunk) and
+    // entries below breakCount never change, same publication rules as chunks.
+    private volatile int[] breaks = new int[64];
+    private volatile int breakCount;
+
+    int length() {
+        return length;
+    }
+
+    /**
+     * Appends text and returns the offset at which it starts.
+     */
+    int append(CharSequence text) {
+        int start = length;
+        int n = text.length();
+        ensureCapacity(start + n);
+
+        char[][] cs = chunks;
+        int written = 0;
+        while (written < n) {
+            int pos = start + written;
+            char[] chunk = cs[pos >>> CHUNK_BITS];
+            int inChunk = pos & CHUNK_MASK;
+            int count = Math.min(n - written, CHUNK_SIZE - inChunk);
+            copy(text, written, written + count, chunk, inChunk);
+            indexBreaks(chunk, inChunk, inChunk + count, pos - inChunk);
+            written += count;
+        }
+        length = start + n; // volatile write publishes the new characters
+        return start;
+    }
+
+    @Override
+    public int lineBreaks(int start, int end) {
+        int count = breakCount;
+        int[] b = breaks;
+        return TextBuffer.lowerBound(b, count, end) - TextBuffer.lowerBound(b, count, start);
+    }
+
+    @Override
+    public int nthLineBreak(int from, int n) {
+        int count = breakCount;
+        int[] b = breaks;
+        return b[TextBuffer.lowerBound(b, count, from) + n];
+    }
+
+    private void indexBreaks(char[] chunk, int from, int to, int chunkBase) {
+        int[] b = breaks;
+        int count = breakCount;
+        for (int i = from; i < to; i++) {
+            if (chunk[i] == '\n') {
+                if (count == b.length) {
+                    b = Arrays.copyOf(b, count * 2);
+                    breaks = b;
+                }
+                b[count++] = chunkBase + i;
+            }
+        }
+        breakCount = count;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return chunks[index >>> CHUNK_BITS][index & CHUNK_MASK];
+    }
+
+    @Override
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        char[][] cs = chunks;
+        while (start < end) {
+            int inChunk = start & CHUNK_MASK;
+            int count = Math.min(end - start, CHUNK_SIZE - inChunk);
+            System.arraycopy(cs[start >>> CHUNK_BITS], inChunk, dst, dstBegin, count);
+            start += count;
+            dstBegin += count;
+        }
+    }
+
+    private void ensureCapacity(int newLength) {
+        if (newLength < 0) {
+            throw new IllegalStateException("Document too large");
+        }
+        int needed = newLength == 0 ? 0 : ((newLength - 1) >>> CHUNK_BITS) + 1;
+        char[][] cs = chunks;
+        if (needed > cs.length) {
+            char[][] grown = new char[Math.max(needed, cs.length * 2)][];
+            System.arraycopy(cs, 0, grown, 0, cs.length);
+            cs = grown;
+        }
+        for (int i = 0; i < needed; i++) {
+            if (cs[i] == null) {
+                cs[i] = new char[CHUNK_SIZE];
+            }
+        }
+        chunks = cs;
+    }
+
+    private static void copy(CharSequence src, int from, int to, char[] dst, int dstBegin) {
+        if (src instanceof String s) {
+            s.getChars(from, to, dst, dstBegin);
+        } else if (src instanceof StringBuilder sb) {
+            sb.getChars(from, to, dst, dstBegin);
+        } else if (src instanceof DocumentSnapshot snapshot) {
+            snapshot.getChars(from, to, dst, dstBegin);
+        } else {
+            for (int i = from; i < to; i++) {
+                dst[dstBegin++] = src.charAt(i);
+            }
+        }
+    }
+}
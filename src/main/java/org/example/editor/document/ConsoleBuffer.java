@@ -0,0 +1,285 @@
+package org.example.editor.document;
+
+import java.util.Arrays;
+
+/**
+ * Console output kept as a ring of lines, capped both in the number of lines
+ * and in the memory they take; past either cap the oldest lines are dropped,
+ * so a program that prints forever costs a bounded amount of memory.
+ * <p>
+ * Appending is amortized O(1) per character and reading a line is O(1), so a
+ * view can fetch just the lines it shows. Text after the last line break forms
+ * the open last line, which later appends extend; a carriage return that is
+ * not part of a CRLF starts the open line over (progress output), and a line
+ * longer than {@link #MAX_LINE_CHARS} is broken. Used on the FX thread only.
+ * <p>
+ * ANSI escape sequences are decoded by an {@link AnsiDecoder} on the way in:
+ * they never reach the text, and the colors they set are kept per line as
+ * style runs. Lines with the default style only carry no runs at all.
+ */
+public final class ConsoleBuffer implements StyledLineSource {
+
+    public static final int DEFAULT_MAX_LINES = 100_000;
+    public static final long DEFAULT_MAX_BYTES = 32L << 20;
+    public static final int MAX_LINE_CHARS = 1 << 16;
+
+    private static final int INITIAL_CAPACITY = 256;
+    private static final int LINE_OVERHEAD = 56; // String and array headers plus the ring slot
+
+    private final StringBuilder open = new StringBuilder();
+    private final AnsiDecoder decoder = new AnsiDecoder();
+    private int[] openRuns = new int[8];  // (start, style) pairs of the open line
+    private int openRunCount;
+    private String[] ring = new String[INITIAL_CAPACITY];
+    private int[][] styles = new int[INITIAL_CAPACITY][]; // runs of the ring's lines, null when unstyled
+    private int head;
+    private int count;           // closed lines in the ring
+    private long bytes;          // estimated heap of the closed lines
+    private long dropped;        // lines dropped from the start so far
+    private boolean pendingCr;   // the last append ended with '\r'
+    private int maxLines;
+    private long maxBytes;
+
+    public ConsoleBuffer() {
+        this(DEFAULT_MAX_LINES, DEFAULT_MAX_BYTES);
+    }
+
+    public ConsoleBuffer(int maxLines, long maxBytes) {
+        setLimits(maxLines, maxBytes);
+    }
+
+    /**
+     * Sets the caps; lines over the new caps are dropped right away.
+     */
+    public void setLimits(int maxLines, long maxBytes) {
+        if (maxLines < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("limits must be positive: " + maxLines + " lines, " + maxBytes + " bytes");
+        }
+        this.maxLines = maxLines;
+        this.maxBytes = maxBytes;
+        trim();
+    }
+
+    public int getMaxLines() {
+        return maxLines;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Appends output; {@code \n}, {@code \r\n}, {@code \r} and escape sequences
+     * are recognized even when split between two calls.
+     */
+    public void append(CharSequence text) {
+        int length = text.length();
+        int i = 0;
+        while (i < length) {
+            if (decoder.inSequence()) {
+                // the rest of a sequence; a control char ends it and is then taken as text
+                i = decoder.accept(text, i, length);
+                if (!decoder.inSequence()) styleChanged();
+                continue;
+            }
+            if (pendingCr) {
+                pendingCr = false;
+                if (text.charAt(i) == '\n') {
+                    i++;
+                    closeLine();
+                } else {
+                    restartLine(); // a lone CR returns to the start of the line
+                }
+                continue;
+            }
+            // plain text up to the next line break or escape, copied in one go
+            int runStart = i;
+            char c = 0;
+            while (i < length && (c = text.charAt(i)) != '\n' && c != '\r' && c != AnsiDecoder.ESC) i++;
+            appendRun(text, runStart, i);
+            if (i == length) break;
+            i++;
+            if (c == '\n') {
+                closeLine();
+            } else if (c == '\r') {
+                pendingCr = true;
+            } else {
+                i = decoder.accept(text, i - 1, length);
+                if (!decoder.inSequence()) styleChanged();
+            }
+        }
+        trim();
+    }
+
+    private void styleChanged() {
+        int style = decoder.style();
+        int last = 2 * (openRunCount - 1);
+        if (openRunCount > 0 && openRuns[last + 1] == style) return;
+        if (openRunCount > 0 && openRuns[last] == open.length()) {
+            openRuns[last + 1] = style; // nothing written in the previous style
+            return;
+        }
+        if (openRunCount == 0 && style == 0) return;
+        if (2 * openRunCount == openRuns.length) {
+            openRuns = Arrays.copyOf(openRuns, 2 * openRuns.length);
+        }
+        openRuns[2 * openRunCount] = open.length();
+        openRuns[2 * openRunCount + 1] = style;
+        openRunCount++;
+    }
+
+    private void restartLine() {
+        open.setLength(0);
+        openRunCount = 0;
+        styleChanged(); // the style goes on on the next line
+    }
+
+    /**
+     * The open line's runs as {@code (start, length, style)} triples, null if all default.
+     */
+    private int[] openStyles() {
+        int n = 0;
+        for (int i = 0; i < openRunCount; i++) {
+            if (openRuns[2 * i + 1] != 0 && runEnd(i) > openRuns[2 * i]) n++;
+        }
+        if (n == 0) return null;
+        int[] runs = new int[3 * n];
+        int k = 0;
+        for (int i = 0; i < openRunCount; i++) {
+            int start = openRuns[2 * i];
+            int end = runEnd(i);
+            if (openRuns[2 * i + 1] == 0 || end <= start) continue;
+            runs[k++] = start;
+            runs[k++] = end - start;
+            runs[k++] = openRuns[2 * i + 1];
+        }
+        return runs;
+    }
+
+    private int runEnd(int run) {
+        return run + 1 < openRunCount ? openRuns[2 * run + 2] : open.length();
+    }
+
+    private void appendRun(CharSequence text, int from, int to) {
+        while (from < to) {
+            int n = Math.min(to - from, MAX_LINE_CHARS - open.length());
+            open.append(text, from, from + n);
+            from += n;
+            if (open.length() >= MAX_LINE_CHARS) closeLine();
+        }
+    }
+
+    private void closeLine() {
+        String line = open.toString();
+        int[] runs = openStyles();
+        restartLine();
+        if (count == ring.length) {
+            if (ring.length < maxLines) {
+                grow();
+            } else {
+                dropOldest();
+            }
+        }
+        int slot = (head + count) % ring.length;
+        ring[slot] = line;
+        styles[slot] = runs;
+        count++;
+        bytes += sizeOf(line) + sizeOf(runs);
+    }
+
+    private void grow() {
+        int capacity = (int) Math.min(maxLines, 2L * ring.length);
+        String[] bigger = new String[capacity];
+        int[][] biggerStyles = new int[capacity][];
+        for (int i = 0; i < count; i++) {
+            bigger[i] = ring[(head + i) % ring.length];
+            biggerStyles[i] = styles[(head + i) % ring.length];
+        }
+        ring = bigger;
+        styles = biggerStyles;
+        head = 0;
+    }
+
+    private void trim() {
+        while (count > 0 && (count > maxLines || bytes + sizeOf(open) > maxBytes)) {
+            dropOldest();
+        }
+    }
+
+    private void dropOldest() {
+        bytes -= sizeOf(ring[head]) + sizeOf(styles[head]);
+        ring[head] = null;
+        styles[head] = null;
+        head = (head + 1) % ring.length;
+        count--;
+        dropped++;
+    }
+
+    private static long sizeOf(CharSequence line) {
+        return 2L * line.length() + LINE_OVERHEAD;
+    }
+
+    private static long sizeOf(int[] runs) {
+        return runs == null ? 0 : 4L * runs.length + 16;
+    }
+
+    /**
+     * Removes all output.
+     */
+    public void clear() {
+        ring = new String[INITIAL_CAPACITY];
+        styles = new int[INITIAL_CAPACITY][];
+        head = 0;
+        count = 0;
+        bytes = 0;
+        pendingCr = false;
+        decoder.reset();
+        open.setLength(0);
+        openRunCount = 0;
+    }
+
+    /**
+     * Number of lines dropped from the start since the buffer was created; the
+     * difference between two calls tells a view how far its lines moved up.
+     */
+    public long droppedLines() {
+        return dropped;
+    }
+
+    /**
+     * Lines held, the open last line included (so never 0).
+     */
+    @Override
+    public int lineCount() {
+        return count + 1;
+    }
+
+    @Override
+    public String getLine(int line) {
+        if (line == count) return open.toString();
+        if (line < 0 || line > count) {
+            throw new IndexOutOfBoundsException("line " + line + ", line count " + lineCount());
+        }
+        return ring[(head + line) % ring.length];
+    }
+
+    @Override
+    public int[] styles(int line) {
+        if (line == count) return openStyles();
+        if (line < 0 || line > count) {
+            throw new IndexOutOfBoundsException("line " + line + ", line count " + lineCount());
+        }
+        return styles[(head + line) % ring.length];
+    }
+
+    /**
+     * All output still held, lines separated by {@code \n}.
+     */
+    public String getText() {
+        StringBuilder text = new StringBuilder((int) Math.min(Integer.MAX_VALUE - 8, bytes / 2 + open.length()));
+        for (int i = 0; i < count; i++) {
+            text.append(ring[(head + i) % ring.length]).append('\n');
+        }
+        return text.append(open).toString();
+    }
+}
@@ -0,0 +1,271 @@
+package org.example.editor.document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Editable text backed by a piece table.
+ * <p>
+ * The original text (e.g. a loaded file) is kept as is, typed or pasted text is
+ * appended to an add buffer, and a persistent balanced tree of pieces stitches
+ * them together. Insert and delete are O(log n), {@link #snapshot()} is O(1).
+ * Every document keeps its own {@link UndoHistory}.
+ * <p>
+ * Mutations are expected on a single thread (the FX thread); snapshots may be
+ * read anywhere. Each change bumps the {@link #getVersion() version}, which
+ * snapshots carry along.
+ */
+public class Document implements LineSource {
+
+    private final AppendBuffer added = new AppendBuffer();
+    private final List<DocumentListener> listeners = new CopyOnWriteArrayList<>();
+    private final UndoHistory history = new UndoHistory(this);
+    private PieceTree.Node root;
+    private int originalChars; // length of the text last wrapped as the original buffer
+    private volatile long version; // changes made so far, read by background tasks through their snapshots
+
+    public Document() {
+    }
+
+    public Document(String text) {
+        root = PieceTree.leaf(TextBuffer.of(text), 0, text.length());
+        originalChars = text.length();
+    }
+
+    public int length() {
+        return PieceTree.size(root);
+    }
+
+    /**
+     * Characters held by the document's buffers: the original text plus
+     * everything ever appended to the add buffer, which only grows - typed,
+     * pasted and streamed text, including text deleted since. Text kept only by
+     * the undo history is counted in {@link UndoHistory#usedBytes()}.
+     */
+    public long bufferedChars() {
+        return (long) originalChars + added.length();
+    }
+
+    public char charAt(int offset) {
+        return PieceTree.charAt(root, offset);
+    }
+
+    public DocumentSnapshot snapshot() {
+        return new DocumentSnapshot(root, this, version);
+    }
+
+    /**
+     * Number of changes made to the document so far. Every change, undo and redo
+     * included, moves it forward, so a snapshot of an older version is out of date
+     * even when the text happens to read the same again.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public String getText(int offset, int length) {
+        checkRange(offset, length);
+        char[] chars = new char[length];
+        PieceTree.getChars(root, offset, offset + length, chars, 0);
+        return new String(chars);
+    }
+
+    @Override
+    public int lineCount() {
+        return PieceTree.lineCount(root);
+    }
+
+    /**
+     * Offset of the first character of {@code line} (0-based). O(log n).
+     */
+    public int lineStart(int line) {
+        return PieceTree.lineStart(root, line);
+    }
+
+    /**
+     * Offset just past the last character of {@code line}, line terminator excluded. O(log n).
+     */
+    public int lineEnd(int line) {
+        return PieceTree.lineEnd(root, line);
+    }
+
+    /**
+     * Line (0-based) containing {@code offset}. O(log n).
+     */
+    public int lineOfOffset(int offset) {
+        if (offset < 0 || offset > length()) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length());
+        }
+        return PieceTree.breaksBefore(root, offset);
+    }
+
+    @Override
+    public String getLine(int line) {
+        int start = lineStart(line);
+        return getText(start, lineEnd(line) - start);
+    }
+
+    public void insert(int offset, CharSequence text) {
+        replace(offset, 0, text);
+    }
+
+    public void delete(int offset, int length) {
+        replace(offset, length, "");
+    }
+
+    public void replace(int offset, int length, CharSequence text) {
+        checkRange(offset, length);
+        if (length == 0 && text.length() == 0) return;
+
+        int startLine = PieceTree.breaksBefore(root, offset);
+        int removedBreaks = length == 0 ? 0 : PieceTree.breaksBefore(root, offset + length) - startLine;
+        boolean recording = history.isRecording();
+        PieceTree.Node removed = recording && length > 0 ? PieceTree.slice(root, offset, offset + length) : null;
+        PieceTree.Node newRoot = PieceTree.delete(root, offset, length);
+        if (text.length() > 0) {
+            int start = added.append(text);
+            newRoot = PieceTree.insert(newRoot, offset, added, start, text.length());
+        }
+        root = newRoot;
+        if (recording) {
+            PieceTree.Node inserted = text.length() > 0 ? PieceTree.slice(root, offset, offset + text.length()) : null;
+            history.record(offset, removed, inserted);
+        }
+        int insertedBreaks = text.length() == 0 ? 0 : PieceTree.breaksBefore(root, offset + text.length()) - startLine;
+        fireChanged(new DocumentChange(offset, length, text.length(), startLine, removedBreaks, insertedBreaks));
+    }
+
+    /**
+     * Replaces many ranges at once, e.g. for replace-all. {@code ranges} holds
+     * {@code count} sorted, non-overlapping {@code [start, end)} pairs and
+     * {@code texts[i]} replaces pair {@code i}. The new text between the first
+     * and the last range is built bottom-up as one balanced piece subtree
+     * (unchanged text is shared, not copied) and spliced in, so listeners see
+     * one change and the undo history gets one step. O(count log n).
+     */
+    public void replaceAll(int[] ranges, CharSequence[] texts, int count) {
+        if (count == 0) return;
+        int from = ranges[0];
+        int to = ranges[2 * count - 1];
+        checkRange(from, to - from);
+
+        List<PieceTree.Node> pieces = new ArrayList<>(2 * count + 16);
+        int pos = from;
+        CharSequence previous = null;
+        int previousStart = 0;
+        for (int i = 0; i < count; i++) {
+            int start = ranges[2 * i];
+            int end = ranges[2 * i + 1];
+            if (start < pos || end < start) {
+                throw new IllegalArgumentException("ranges must be sorted and must not overlap: [" + start + ", " + end + ")");
+            }
+            PieceTree.collectPieces(root, pos, start, pieces); // unchanged text between matches
+            pos = end;
+
+            CharSequence text = texts[i];
+            if (text.length() > 0) {
+                if (text != previous) { // the same replacement is appended only once
+                    previous = text;
+                    previousStart = added.append(text);
+                }
+                pieces.add(PieceTree.leaf(added, previousStart, text.length()));
+            }
+        }
+        PieceTree.Node tree = PieceTree.build(pieces.toArray(new PieceTree.Node[0]), pieces.size());
+
+        int startLine = PieceTree.breaksBefore(root, from);
+        int removedBreaks = PieceTree.breaksBefore(root, to) - startLine;
+        PieceTree.Node removed = history.isRecording() ? PieceTree.slice(root, from, to) : null;
+        root = PieceTree.insertTree(PieceTree.delete(root, from, to - from), from, tree);
+        if (removed != null) {
+            history.seal();
+            history.record(from, removed, tree);
+            history.seal();
+        }
+        fireChanged(new DocumentChange(from, to - from, PieceTree.size(tree), startLine,
+                removedBreaks, PieceTree.totalBreaks(tree)));
+    }
+
+    /**
+     * Replaces {@code [offset, offset + length)} with a piece subtree holding
+     * earlier text of this document (used by undo/redo). O(log n).
+     */
+    void replace(int offset, int length, PieceTree.Node tree) {
+        checkRange(offset, length);
+        int startLine = PieceTree.breaksBefore(root, offset);
+        int removedBreaks = length == 0 ? 0 : PieceTree.breaksBefore(root, offset + length) - startLine;
+        root = PieceTree.insertTree(PieceTree.delete(root, offset, length), offset, tree);
+        int insertedLength = PieceTree.size(tree);
+        fireChanged(new DocumentChange(offset, length, insertedLength, startLine,
+                removedBreaks, PieceTree.totalBreaks(tree)));
+    }
+
+    /**
+     * Replaces the whole content with {@code text} as one undo step, e.g. with
+     * the file's new version from disk. Like {@link #setText} the string becomes
+     * a new original buffer instead of being copied into the add buffer, so
+     * reloading a large file over and over does not make the document grow.
+     */
+    public void replaceText(String text) {
+        int oldLength = length();
+        int oldBreaks = PieceTree.totalBreaks(root);
+        PieceTree.Node removed = root;
+        root = text.isEmpty() ? null : PieceTree.leaf(TextBuffer.of(text), 0, text.length());
+        originalChars = text.length();
+        if (history.isRecording()) {
+            history.recordReplacement(removed, root);
+        }
+        fireChanged(new DocumentChange(0, oldLength, length(), 0, oldBreaks, PieceTree.totalBreaks(root)));
+    }
+
+    public UndoHistory getUndoHistory() {
+        return history;
+    }
+
+    /**
+     * Replaces the whole content. A String is wrapped as the new original
+     * buffer, so no copy is made. The undo history starts over.
+     */
+    public void setText(CharSequence text) {
+        history.clear();
+        int oldLength = length();
+        int oldBreaks = PieceTree.totalBreaks(root);
+        originalChars = 0;
+        if (text instanceof String s) {
+            root = PieceTree.leaf(TextBuffer.of(s), 0, s.length());
+            originalChars = s.length();
+        } else if (text instanceof DocumentSnapshot snapshot) {
+            root = snapshot.root();
+            originalChars = snapshot.length(); // the buffers of the document it was taken from
+        } else {
+            root = null;
+            if (text.length() > 0) {
+                root = PieceTree.leaf(added, added.append(text), text.length());
+            }
+        }
+        fireChanged(new DocumentChange(0, oldLength, length(), 0, oldBreaks, PieceTree.totalBreaks(root)));
+    }
+
+    public void addListener(DocumentListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(DocumentListener listener) {
+        listeners.remove(listener);
+    }
+
+    private void fireChanged(DocumentChange change) {
+        version++;
+        for (DocumentListener l : listeners) {
+            l.documentChanged(this, change);
+        }
+    }
+
+    private void checkRange(int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > length()) {
+            throw new IndexOutOfBoundsException(
+                    "range [" + offset + ", " + (offset + length) + "), length " + length());
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.example.editor.document;
+
+/**
+ * Describes one edit: {@code removedLength} characters at {@code offset}
+ * were replaced by {@code insertedLength} new characters.
+ * Line information lets views and highlighters update only the affected lines:
+ * the edit starts on {@code startLine}, removed {@code removedLineBreaks} and
+ * inserted {@code insertedLineBreaks} line breaks.
+ */
+public record DocumentChange(int offset, int removedLength, int insertedLength,
+                             int startLine, int removedLineBreaks, int insertedLineBreaks) {
+
+    /**
+     * Change of the document's line count caused by this edit.
+     */
+    public int lineDelta() {
+        return insertedLineBreaks - removedLineBreaks;
+    }
+
+    /**
+     * Maps a position from before the edit to after it. Positions inside the
+     * replaced range move to the end of the inserted text.
+     */
+    public int mapOffset(int position) {
+        if (position <= offset) return position;
+        if (position >= offset + removedLength) return position - removedLength + insertedLength;
+        return offset + insertedLength;
+    }
+}
@@ -0,0 +1,9 @@
+package org.example.editor.document;
+
+/**
+ * Notified on the thread that modified the document (normally the FX thread).
+ */
+@FunctionalInterface
+public interface DocumentListener {
+    void documentChanged(Document document, DocumentChange change);
+}
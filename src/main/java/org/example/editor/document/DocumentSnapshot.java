@@ -0,0 +1,216 @@
+package org.example.editor.document;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+/**
+ * Immutable view of a {@link Document} at one point in time.
+ * <p>
+ * Taking a snapshot is O(1) - it shares the piece tree with the document.
+ * Snapshots can be read from any thread, e.g. to save, compile or search
+ * while the user keeps typing.
+ * <p>
+ * A snapshot remembers the {@link Document#getVersion() version} of the
+ * document it was taken from. A background task publishes its result only
+ * while {@link #isCurrent()} holds and drops it otherwise - the text has moved
+ * on, and a newer task is due.
+ */
+public final class DocumentSnapshot implements CharSequence, LineSource {
+
+    private static final int COPY_CHUNK = 8192;
+
+    private final PieceTree.Node root;
+    private final Document source; // null for a slice, which is never current
+    private final long version;
+
+    // Last piece hit by charAt(), makes sequential scans (regex, lexers) O(1) per char.
+    // Racy by design: Hit is immutable, so a stale value is only a cache miss.
+    private Hit lastHit;
+
+    DocumentSnapshot(PieceTree.Node root, Document source, long version) {
+        this.root = root;
+        this.source = source;
+        this.version = version;
+    }
+
+    PieceTree.Node root() {
+        return root;
+    }
+
+    /**
+     * Version of the document this snapshot was taken at.
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * Whether the document is still at this snapshot's version. Safe to call
+     * from any thread.
+     */
+    public boolean isCurrent() {
+        return source != null && source.getVersion() == version;
+    }
+
+    @Override
+    public int length() {
+        return PieceTree.size(root);
+    }
+
+    @Override
+    public char charAt(int index) {
+        Hit hit = lastHit;
+        if (hit != null && index >= hit.from && index < hit.from + hit.node.length) {
+            return hit.node.buffer.charAt(hit.node.start + index - hit.from);
+        }
+        if (index < 0 || index >= length()) {
+            throw new IndexOutOfBoundsException("index " + index + ", length " + length());
+        }
+        PieceTree.Node t = root;
+        int base = 0;
+        while (true) {
+            int leftSize = PieceTree.size(t.left);
+            int local = index - base;
+            if (local < leftSize) {
+                t = t.left;
+            } else if (local < leftSize + t.length) {
+                lastHit = new Hit(t, base + leftSize);
+                return t.buffer.charAt(t.start + local - leftSize);
+            } else {
+                base += leftSize + t.length;
+                t = t.right;
+            }
+        }
+    }
+
+    /**
+     * O(log n) - the returned sequence shares pieces with this snapshot.
+     */
+    @Override
+    public DocumentSnapshot subSequence(int start, int end) {
+        checkRange(start, end);
+        return new DocumentSnapshot(PieceTree.slice(root, start, end), null, version);
+    }
+
+    @Override
+    public int lineCount() {
+        return PieceTree.lineCount(root);
+    }
+
+    /**
+     * Offset of the first character of {@code line} (0-based). O(log n).
+     */
+    public int lineStart(int line) {
+        return PieceTree.lineStart(root, line);
+    }
+
+    /**
+     * Offset just past the last character of {@code line}, line terminator excluded. O(log n).
+     */
+    public int lineEnd(int line) {
+        return PieceTree.lineEnd(root, line);
+    }
+
+    /**
+     * Line (0-based) containing {@code offset}. O(log n).
+     */
+    public int lineOfOffset(int offset) {
+        if (offset < 0 || offset > length()) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length());
+        }
+        return PieceTree.breaksBefore(root, offset);
+    }
+
+    @Override
+    public String getLine(int line) {
+        int start = lineStart(line);
+        return getText(start, lineEnd(line) - start);
+    }
+
+    public String getText(int offset, int length) {
+        char[] chars = new char[length];
+        getChars(offset, offset + length, chars, 0);
+        return new String(chars);
+    }
+
+    public void getChars(int srcBegin, int srcEnd, char[] dst, int dstBegin) {
+        checkRange(srcBegin, srcEnd);
+        PieceTree.getChars(root, srcBegin, srcEnd, dst, dstBegin);
+    }
+
+    /**
+     * Copies the whole text into a String. Prefer {@link #reader()} or
+     * {@link #writeTo(Writer)} for large documents.
+     */
+    @Override
+    public String toString() {
+        char[] chars = new char[length()];
+        PieceTree.getChars(root, 0, chars.length, chars, 0);
+        return new String(chars);
+    }
+
+    /**
+     * Streaming view of the text - never materializes the whole document.
+     */
+    public Reader reader() {
+        return new SnapshotReader(0, length());
+    }
+
+    public void writeTo(Writer writer) throws IOException {
+        char[] buf = new char[COPY_CHUNK];
+        int length = length();
+        for (int pos = 0; pos < length; pos += COPY_CHUNK) {
+            int n = Math.min(COPY_CHUNK, length - pos);
+            PieceTree.getChars(root, pos, pos + n, buf, 0);
+            writer.write(buf, 0, n);
+        }
+    }
+
+    private void checkRange(int start, int end) {
+        if (start < 0 || end > length() || start > end) {
+            throw new IndexOutOfBoundsException("range [" + start + ", " + end + "), length " + length());
+        }
+    }
+
+    private static final class Hit {
+        final PieceTree.Node node;
+        final int from;
+
+        Hit(PieceTree.Node node, int from) {
+            this.node = node;
+            this.from = from;
+        }
+    }
+
+    private final class SnapshotReader extends Reader {
+        private int position;
+        private final int end;
+
+        SnapshotReader(int start, int end) {
+            this.position = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            if (len == 0) return 0;
+            int n = Math.min(len, end - position);
+            if (n <= 0) return -1;
+            PieceTree.getChars(root, position, position + n, cbuf, off);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) {
+            int skipped = (int) Math.min(Math.max(n, 0), end - position);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package org.example.editor.document;
+
+/**
+ * Anything that can hand out text one line at a time - what {@code EditorView}
+ * needs to paint. Implemented by {@link Document} and {@link DocumentSnapshot},
+ * and by read-only sources such as a memory-mapped file.
+ */
+public interface LineSource {
+
+    /**
+     * Number of lines currently available; may grow while a source is still being indexed.
+     */
+    int lineCount();
+
+    /**
+     * Text of {@code line} (0-based) without its line terminator.
+     */
+    String getLine(int line);
+}
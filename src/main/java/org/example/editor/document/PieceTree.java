@@ -0,0 +1,371 @@
+package org.example.editor.document;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Persistent (immutable) balanced tree of pieces - the core of the piece table.
+ * <p>
+ * Every node describes one piece: a range of a {@link TextBuffer}. The in-order
+ * sequence of pieces is the document text. The tree is a treap ordered by
+ * document offset, so split / merge / insert / delete are O(log n) expected.
+ * Operations never modify existing nodes, they copy the path they touch, which
+ * makes a snapshot of the whole document a single reference.
+ * <p>
+ * Nodes also count line breaks, which gives O(log n) offset/line lookups.
+ */
+final class PieceTree {
+
+    private PieceTree() {
+    }
+
+    static final class Node {
+        final TextBuffer buffer;
+        final int start;
+        final int length;
+        final int breaks;      // '\n' characters in this piece
+        final Node left;
+        final Node right;
+        final int size;        // total characters in this subtree
+        final int totalBreaks; // total '\n' characters in this subtree
+        final int pieces;      // total pieces in this subtree
+        final int priority;
+
+        Node(TextBuffer buffer, int start, int length, int breaks, Node left, Node right, int priority) {
+            this.buffer = buffer;
+            this.start = start;
+            this.length = length;
+            this.breaks = breaks;
+            this.left = left;
+            this.right = right;
+            this.size = size(left) + length + size(right);
+            this.totalBreaks = totalBreaks(left) + breaks + totalBreaks(right);
+            this.pieces = pieces(left) + 1 + pieces(right);
+            this.priority = priority;
+        }
+
+        Node withChildren(Node newLeft, Node newRight) {
+            if (newLeft == left && newRight == right) return this;
+            return new Node(buffer, start, length, breaks, newLeft, newRight, priority);
+        }
+    }
+
+    static int size(Node t) {
+        return t == null ? 0 : t.size;
+    }
+
+    static int totalBreaks(Node t) {
+        return t == null ? 0 : t.totalBreaks;
+    }
+
+    static int pieces(Node t) {
+        return t == null ? 0 : t.pieces;
+    }
+
+    static Node leaf(TextBuffer buffer, int start, int length) {
+        if (length == 0) return null;
+        return new Node(buffer, start, length, buffer.lineBreaks(start, start + length),
+                null, null, ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * Splits the tree into [0, offset) and [offset, size).
+     */
+    static Node[] split(Node t, int offset) {
+        if (t == null) return new Node[]{null, null};
+        if (offset <= 0) return new Node[]{null, t};
+        if (offset >= t.size) return new Node[]{t, null};
+
+        int leftSize = size(t.left);
+        if (offset <= leftSize) {
+            Node[] p = split(t.left, offset);
+            return new Node[]{p[0], t.withChildren(p[1], t.right)};
+        }
+        int pieceEnd = leftSize + t.length;
+        if (offset >= pieceEnd) {
+            Node[] p = split(t.right, offset - pieceEnd);
+            return new Node[]{t.withChildren(t.left, p[0]), p[1]};
+        }
+        // offset falls inside this node's piece - cut the piece in two. The right
+        // half gets a fresh priority: halves sharing one would pile up into a
+        // degenerate chain after many cuts of the same piece (e.g. replace-all).
+        int cut = offset - leftSize;
+        int leftBreaks = t.buffer.lineBreaks(t.start, t.start + cut);
+        Node l = new Node(t.buffer, t.start, cut, leftBreaks, t.left, null, t.priority);
+        Node r = merge(new Node(t.buffer, t.start + cut, t.length - cut, t.breaks - leftBreaks, null, null,
+                ThreadLocalRandom.current().nextInt()), t.right);
+        return new Node[]{l, r};
+    }
+
+    static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            return a.withChildren(a.left, merge(a.right, b));
+        }
+        return b.withChildren(merge(a, b.left), b.right);
+    }
+
+    /**
+     * Inserts {@code length} characters of {@code buffer} starting at {@code start}
+     * into the document at {@code offset}. When the piece directly before the
+     * insertion point ends exactly where the new text starts (typical for typing),
+     * that piece is extended instead of adding a new one.
+     */
+    static Node insert(Node root, int offset, TextBuffer buffer, int start, int length) {
+        if (length == 0) return root;
+        Node[] parts = split(root, offset);
+        Node left = parts[0];
+        Node last = last(left);
+        if (last != null && last.buffer == buffer && last.start + last.length == start) {
+            left = extendLast(left, length);
+        } else {
+            left = merge(left, leaf(buffer, start, length));
+        }
+        return merge(left, parts[1]);
+    }
+
+    /**
+     * Inserts a whole subtree (e.g. a previously removed range) at {@code offset}.
+     */
+    static Node insertTree(Node root, int offset, Node tree) {
+        if (tree == null) return root;
+        Node[] parts = split(root, offset);
+        return merge(merge(parts[0], tree), parts[1]);
+    }
+
+    /**
+     * Concatenates two trees. When one side is a single piece that continues the
+     * adjacent piece of the other in the same buffer, that piece is extended
+     * instead (keeps coalesced undo steps at one piece).
+     */
+    static Node concat(Node a, Node b) {
+        if (a == null || b == null) return a == null ? b : a;
+        if (b.left == null && b.right == null) {
+            Node last = last(a);
+            if (last.buffer == b.buffer && last.start + last.length == b.start) {
+                return extendLast(a, b.length);
+            }
+        }
+        if (a.left == null && a.right == null) {
+            Node first = first(b);
+            if (first.buffer == a.buffer && a.start + a.length == first.start) {
+                return extendFirst(b, a.length);
+            }
+        }
+        return merge(a, b);
+    }
+
+    /**
+     * Adds the pieces covering {@code [from, to)} to {@code out} in order, as
+     * stand-alone leaves (pieces sticking out of the range are cut).
+     */
+    static void collectPieces(Node t, int from, int to, List<Node> out) {
+        while (t != null && from < to) {
+            int leftSize = size(t.left);
+            if (from < leftSize) {
+                collectPieces(t.left, from, Math.min(to, leftSize), out);
+            }
+            int pieceEnd = leftSize + t.length;
+            int a = Math.max(from, leftSize);
+            int b = Math.min(to, pieceEnd);
+            if (a < b) {
+                out.add(a == leftSize && b == pieceEnd && t.left == null && t.right == null ? t
+                        : leaf(t.buffer, t.start + a - leftSize, b - a));
+            }
+            // continue in the right subtree without recursion
+            from = Math.max(0, from - pieceEnd);
+            to -= pieceEnd;
+            t = t.right;
+        }
+    }
+
+    /**
+     * Builds a balanced tree of {@code count} leaves, in order. O(count log count)
+     * for sorting fresh random priorities so the result is a valid treap.
+     */
+    static Node build(Node[] leaves, int count) {
+        int[] priorities = new int[count];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < count; i++) {
+            priorities[i] = random.nextInt();
+        }
+        Arrays.sort(priorities);
+        return build(leaves, priorities, 0, count, new int[1]);
+    }
+
+    /**
+     * Node {@code i} of a complete binary tree in breadth-first numbering; leaves
+     * are taken in order, priorities decrease with the number.
+     */
+    private static Node build(Node[] leaves, int[] priorities, int i, int count, int[] next) {
+        if (i >= count) return null;
+        Node left = build(leaves, priorities, 2 * i + 1, count, next);
+        Node piece = leaves[next[0]++];
+        Node right = build(leaves, priorities, 2 * i + 2, count, next);
+        return new Node(piece.buffer, piece.start, piece.length, piece.breaks, left, right,
+                priorities[count - 1 - i]);
+    }
+
+    /**
+     * Returns the subtree holding {@code [from, to)}.
+     */
+    static Node slice(Node root, int from, int to) {
+        Node[] tail = split(root, from);
+        return split(tail[1], to - from)[0];
+    }
+
+    static Node delete(Node root, int offset, int length) {
+        if (length == 0) return root;
+        Node[] tail = split(root, offset);
+        Node[] rest = split(tail[1], length);
+        return merge(tail[0], rest[1]);
+    }
+
+    static char charAt(Node t, int offset) {
+        while (t != null) {
+            int leftSize = size(t.left);
+            if (offset < leftSize) {
+                t = t.left;
+            } else if (offset < leftSize + t.length) {
+                return t.buffer.charAt(t.start + offset - leftSize);
+            } else {
+                offset -= leftSize + t.length;
+                t = t.right;
+            }
+        }
+        throw new IndexOutOfBoundsException("offset " + offset);
+    }
+
+    /**
+     * Copies characters {@code [from, to)} of the subtree into {@code dst}.
+     */
+    static void getChars(Node t, int from, int to, char[] dst, int dstBegin) {
+        while (t != null && from < to) {
+            int leftSize = size(t.left);
+            int pieceEnd = leftSize + t.length;
+            if (from < leftSize) {
+                int leftTo = Math.min(to, leftSize);
+                getChars(t.left, from, leftTo, dst, dstBegin);
+                dstBegin += leftTo - from;
+                from = leftTo;
+            }
+            if (from >= to) return;
+            if (from < pieceEnd) {
+                int pieceTo = Math.min(to, pieceEnd);
+                t.buffer.getChars(t.start + from - leftSize, t.start + pieceTo - leftSize, dst, dstBegin);
+                dstBegin += pieceTo - from;
+                from = pieceTo;
+            }
+            // continue in the right subtree without recursion
+            from -= pieceEnd;
+            to -= pieceEnd;
+            t = t.right;
+        }
+    }
+
+    /**
+     * Number of '\n' characters in {@code [0, offset)}, i.e. the line containing offset.
+     */
+    static int breaksBefore(Node t, int offset) {
+        int count = 0;
+        while (t != null) {
+            int leftSize = size(t.left);
+            if (offset <= leftSize) {
+                t = t.left;
+                continue;
+            }
+            count += totalBreaks(t.left);
+            int inPiece = offset - leftSize;
+            if (inPiece <= t.length) {
+                return count + t.buffer.lineBreaks(t.start, t.start + inPiece);
+            }
+            count += t.breaks;
+            offset = inPiece - t.length;
+            t = t.right;
+        }
+        return count;
+    }
+
+    /**
+     * Offset right after the {@code n}-th (1-based) '\n' - the start of line {@code n}.
+     */
+    static int offsetAfterBreak(Node t, int n) {
+        if (n <= 0) return 0;
+        int base = 0;
+        while (t != null) {
+            int leftBreaks = totalBreaks(t.left);
+            if (n <= leftBreaks) {
+                t = t.left;
+                continue;
+            }
+            int leftSize = size(t.left);
+            if (n <= leftBreaks + t.breaks) {
+                int pos = t.buffer.nthLineBreak(t.start, n - leftBreaks - 1);
+                return base + leftSize + (pos - t.start) + 1;
+            }
+            n -= leftBreaks + t.breaks;
+            base += leftSize + t.length;
+            t = t.right;
+        }
+        throw new IndexOutOfBoundsException("line break " + n);
+    }
+
+    static int lineCount(Node t) {
+        return totalBreaks(t) + 1;
+    }
+
+    static int lineStart(Node t, int line) {
+        checkLine(t, line);
+        return offsetAfterBreak(t, line);
+    }
+
+    /**
+     * End of the line's content, excluding its "\n" or "\r\n" terminator.
+     */
+    static int lineEnd(Node t, int line) {
+        checkLine(t, line);
+        if (line == totalBreaks(t)) {
+            return size(t);
+        }
+        int end = offsetAfterBreak(t, line + 1) - 1;
+        if (end > 0 && end > offsetAfterBreak(t, line) && charAt(t, end - 1) == '\r') {
+            end--;
+        }
+        return end;
+    }
+
+    private static void checkLine(Node t, int line) {
+        if (line < 0 || line > totalBreaks(t)) {
+            throw new IndexOutOfBoundsException("line " + line + ", line count " + lineCount(t));
+        }
+    }
+
+    private static Node last(Node t) {
+        if (t == null) return null;
+        while (t.right != null) t = t.right;
+        return t;
+    }
+
+    private static Node first(Node t) {
+        while (t.left != null) t = t.left;
+        return t;
+    }
+
+    private static Node extendFirst(Node t, int extra) {
+        if (t.left == null) {
+            int extraBreaks = t.buffer.lineBreaks(t.start - extra, t.start);
+            return new Node(t.buffer, t.start - extra, t.length + extra, t.breaks + extraBreaks, null, t.right, t.priority);
+        }
+        return t.withChildren(extendFirst(t.left, extra), t.right);
+    }
+
+    private static Node extendLast(Node t, int extra) {
+        if (t.right == null) {
+            int extraBreaks = t.buffer.lineBreaks(t.start + t.length, t.start + t.length + extra);
+            return new Node(t.buffer, t.start, t.length + extra, t.breaks + extraBreaks, t.left, null, t.priority);
+        }
+        return t.withChildren(t.left, extendLast(t.right, extra));
+    }
+}
@@ -0,0 +1,15 @@
+package org.example.editor.document;
+
+/**
+ * A {@link LineSource} whose lines carry their own colors, such as console
+ * output decoded by {@link AnsiDecoder}.
+ */
+public interface StyledLineSource extends LineSource {
+
+    /**
+     * Styled runs of {@code line} as {@code (start, length, style)} triples, the
+     * style packed as described in {@link AnsiDecoder}, or null when the whole
+     * line has the default style. Runs are sorted and do not overlap.
+     */
+    int[] styles(int line);
+}
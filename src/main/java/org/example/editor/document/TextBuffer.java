@@ -0,0 +1,80 @@
+package org.example.editor.document;
+
+import java.util.Arrays;
+
+/**
+ * Read-only character storage referenced by pieces of a {@link PieceTree}.
+ * Implementations never change characters that were already handed out,
+ * so pieces (and snapshots built from them) stay valid forever.
+ */
+interface TextBuffer {
+
+    char charAt(int index);
+
+    /**
+     * Copies characters {@code [start, end)} into {@code dst} at {@code dstBegin}.
+     */
+    void getChars(int start, int end, char[] dst, int dstBegin);
+
+    /**
+     * Number of '\n' characters in {@code [start, end)}.
+     */
+    int lineBreaks(int start, int end);
+
+    /**
+     * Position of the {@code n}-th (0-based) '\n' at or after {@code from}.
+     */
+    int nthLineBreak(int from, int n);
+
+    /**
+     * Wraps a String (e.g. the content of a freshly loaded file) without copying it.
+     * Only the positions of its line breaks are indexed.
+     */
+    static TextBuffer of(String text) {
+        int[] breaks = new int[16];
+        int count = 0;
+        for (int i = text.indexOf('\n'); i >= 0; i = text.indexOf('\n', i + 1)) {
+            if (count == breaks.length) {
+                breaks = Arrays.copyOf(breaks, count * 2);
+            }
+            breaks[count++] = i;
+        }
+        int[] positions = breaks;
+        int total = count;
+        return new TextBuffer() {
+            @Override
+            public char charAt(int index) {
+                return text.charAt(index);
+            }
+
+            @Override
+            public void getChars(int start, int end, char[] dst, int dstBegin) {
+                text.getChars(start, end, dst, dstBegin);
+            }
+
+            @Override
+            public int lineBreaks(int start, int end) {
+                return lowerBound(positions, total, end) - lowerBound(positions, total, start);
+            }
+
+            @Override
+            public int nthLineBreak(int from, int n) {
+                return positions[lowerBound(positions, total, from) + n];
+            }
+        };
+    }
+
+    /**
+     * First index in {@code a[0, count)} whose value is {@code >= key}.
+     */
+    static int lowerBound(int[] a, int count, int key) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (a[mid] < key) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+}
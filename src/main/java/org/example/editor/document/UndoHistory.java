@@ -0,0 +1,259 @@
+package org.example.editor.document;
+
+/**
+ * Undo/redo history of one {@link Document}.
+ * <p>
+ * Every edit is stored as a delta: its offset plus the removed and inserted text
+ * as piece-tree slices. Slices share the document's buffers, so a delta costs a
+ * few tree nodes no matter how much text it covers, and undoing a huge paste or
+ * delete is one O(log n) tree splice rather than a copy of the text.
+ * <p>
+ * Deltas live in a ring buffer limited by an approximate byte budget; when it is
+ * exceeded the oldest steps are dropped. Consecutive keystrokes (typing, Backspace,
+ * Delete at adjacent positions, less than {@link #COALESCE_MILLIS} apart) are
+ * coalesced into one undo step, which ends after a typed whitespace character or
+ * when {@link #seal()} is called (e.g. on caret moves).
+ */
+public class UndoHistory {
+
+    public static final long DEFAULT_BYTE_BUDGET = 8L << 20;
+    static final long COALESCE_MILLIS = 1000;
+
+    // Rough heap cost of an entry and of one piece-tree node it keeps alive
+    private static final int ENTRY_BYTES = 64;
+    private static final int PIECE_BYTES = 48;
+
+    private final Document document;
+    private Entry[] ring = new Entry[64];
+    private int head;        // ring index of the oldest entry
+    private int size;        // entries stored, undoable and redoable
+    private int position;    // entries [0, position) can be undone, [position, size) redone
+    private long bytes;
+    private long byteBudget = DEFAULT_BYTE_BUDGET;
+    private boolean enabled = true;
+    private boolean applying;
+    private boolean sealed = true;
+
+    private static final class Entry {
+        int offset;
+        PieceTree.Node removed;
+        PieceTree.Node inserted;
+        long time;
+        long bytes;
+    }
+
+    UndoHistory(Document document) {
+        this.document = document;
+    }
+
+    public boolean canUndo() {
+        return position > 0;
+    }
+
+    public boolean canRedo() {
+        return position < size;
+    }
+
+    /**
+     * Reverts the last undo step. Returns the offset just after the restored
+     * text (where a caret should go), or -1 if there is nothing to undo.
+     */
+    public int undo() {
+        if (position == 0) return -1;
+        Entry e = at(--position);
+        apply(e.offset, PieceTree.size(e.inserted), e.removed);
+        return e.offset + PieceTree.size(e.removed);
+    }
+
+    /**
+     * Re-applies the last undone step. Returns the offset just after the
+     * re-inserted text, or -1 if there is nothing to redo.
+     */
+    public int redo() {
+        if (position == size) return -1;
+        Entry e = at(position++);
+        apply(e.offset, PieceTree.size(e.removed), e.inserted);
+        return e.offset + PieceTree.size(e.inserted);
+    }
+
+    private void apply(int offset, int length, PieceTree.Node tree) {
+        sealed = true;
+        applying = true;
+        try {
+            document.replace(offset, length, tree);
+        } finally {
+            applying = false;
+        }
+    }
+
+    /**
+     * Ends the current undo step; the next edit starts a new one.
+     */
+    public void seal() {
+        sealed = true;
+    }
+
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            ring[(head + i) % ring.length] = null;
+        }
+        head = size = position = 0;
+        bytes = 0;
+        sealed = true;
+    }
+
+    /**
+     * Stops (or resumes) recording, e.g. while a file is streamed into the document.
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        sealed = true;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    public void setByteBudget(long byteBudget) {
+        this.byteBudget = Math.max(0, byteBudget);
+        trim();
+    }
+
+    /**
+     * Approximate heap used by the stored steps.
+     */
+    public long usedBytes() {
+        return bytes;
+    }
+
+    /**
+     * Whether the next edit should capture its removed and inserted slices.
+     */
+    boolean isRecording() {
+        return enabled && !applying;
+    }
+
+    /**
+     * Called by the document after an edit, with the slices it removed and inserted.
+     */
+    void record(int offset, PieceTree.Node removed, PieceTree.Node inserted) {
+        dropRedo();
+
+        long now = System.currentTimeMillis();
+        int removedLength = PieceTree.size(removed);
+        int insertedLength = PieceTree.size(inserted);
+        boolean keystroke = insertedLength == 1 || (insertedLength == 0 && removedLength <= 2);
+
+        Entry last = position > 0 ? at(position - 1) : null;
+        if (keystroke && !sealed && last != null && now - last.time <= COALESCE_MILLIS
+                && coalesce(last, offset, removed, removedLength, inserted, insertedLength)) {
+            last.time = now;
+            bytes -= last.bytes;
+            last.bytes = cost(last);
+            bytes += last.bytes;
+        } else {
+            Entry e = new Entry();
+            e.offset = offset;
+            e.removed = removed;
+            e.inserted = inserted;
+            e.time = now;
+            e.bytes = cost(e);
+            push(e);
+        }
+
+        // typing stays one step up to the end of a word; pastes are never extended
+        sealed = !keystroke || (insertedLength == 1 && Character.isWhitespace(PieceTree.charAt(inserted, 0)));
+        trim();
+    }
+
+    /**
+     * Called by the document after its whole text was replaced, e.g. by a reload.
+     * The old text usually sits in a buffer nothing else refers to, so the step
+     * is charged for its characters as well: a few reloads of a large file use
+     * up the budget instead of keeping every old version alive.
+     */
+    void recordReplacement(PieceTree.Node removed, PieceTree.Node inserted) {
+        dropRedo();
+        Entry e = new Entry();
+        e.removed = removed;
+        e.inserted = inserted;
+        e.time = System.currentTimeMillis();
+        e.bytes = cost(e) + 2L * PieceTree.size(removed);
+        push(e);
+        sealed = true;
+        trim();
+    }
+
+    /**
+     * A new edit makes the redo branch unreachable.
+     */
+    private void dropRedo() {
+        for (int i = position; i < size; i++) {
+            Entry dropped = at(i);
+            bytes -= dropped.bytes;
+            ring[(head + i) % ring.length] = null;
+        }
+        size = position;
+    }
+
+    private static boolean coalesce(Entry last, int offset, PieceTree.Node removed, int removedLength,
+                                    PieceTree.Node inserted, int insertedLength) {
+        int lastInserted = PieceTree.size(last.inserted);
+        if (removedLength == 0 && lastInserted > 0 && offset == last.offset + lastInserted) {
+            last.inserted = PieceTree.concat(last.inserted, inserted);        // typing
+            return true;
+        }
+        if (insertedLength == 0 && lastInserted == 0) {
+            if (offset + removedLength == last.offset) {                      // Backspace
+                last.removed = PieceTree.concat(removed, last.removed);
+                last.offset = offset;
+                return true;
+            }
+            if (offset == last.offset) {                                      // Delete
+                last.removed = PieceTree.concat(last.removed, removed);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static long cost(Entry e) {
+        return ENTRY_BYTES + (long) PIECE_BYTES * (PieceTree.pieces(e.removed) + PieceTree.pieces(e.inserted));
+    }
+
+    private void push(Entry e) {
+        if (size == ring.length) {
+            Entry[] bigger = new Entry[ring.length * 2];
+            for (int i = 0; i < size; i++) {
+                bigger[i] = ring[(head + i) % ring.length];
+            }
+            ring = bigger;
+            head = 0;
+        }
+        ring[(head + size) % ring.length] = e;
+        size++;
+        position = size;
+        bytes += e.bytes;
+    }
+
+    /**
+     * Drops the oldest steps until the budget is met, always keeping the latest one.
+     */
+    private void trim() {
+        while (bytes > byteBudget && position > 1) {
+            bytes -= ring[head].bytes;
+            ring[head] = null;
+            head = (head + 1) % ring.length;
+            size--;
+            position--;
+        }
+    }
+
+    private Entry at(int index) {
+        return ring[(head + index) % ring.length];
+    }
+}
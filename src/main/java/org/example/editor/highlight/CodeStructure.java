@@ -0,0 +1,458 @@
+package org.example.editor.highlight;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Structure of a C++ document - brackets, preprocessor conditionals, block
+ * comments and declarations - kept per line by {@link SyntaxHighlighter} as the
+ * lexer goes. Used for bracket matching, folding and the outline.
+ * <p>
+ * Persistent (immutable) treap of {@link LineStructure} items in line order;
+ * lines not lexed yet are held as runs with no structure. Every node keeps the
+ * sum and the lowest prefix sum of the open (+1) / close (-1) events below it,
+ * so the partner of a bracket is found in O(log n) by skipping whole subtrees
+ * whose prefix sums never get low enough. An edit replaces only the lines it
+ * touched, see {@link #replace}.
+ */
+public final class CodeStructure {
+
+    /**
+     * A bracket and its partner. When {@code matched} is false the brackets are
+     * of different kinds, or the partner is missing and its line/column are -1.
+     */
+    public record BracketPair(int openLine, int openColumn, int closeLine, int closeColumn, boolean matched) {
+    }
+
+    /**
+     * A declaration with a body, lines {@code [line, endLine]}. {@code depth}
+     * counts the declarations it is nested in.
+     */
+    public record Symbol(Kind kind, String name, int line, int endLine, int depth) {
+
+        public enum Kind {
+            NAMESPACE, CLASS, STRUCT, UNION, ENUM, FUNCTION
+        }
+    }
+
+    // how far below a declaration its "{" may still be
+    private static final int BODY_LOOKAHEAD = 3;
+
+    private static final class Node {
+        final LineStructure item;
+        final Node left;
+        final Node right;
+        final int priority;
+        final int lines;      // total lines in this subtree
+        final int symbols;    // total lines with a declaration in this subtree
+        final int bracketSum;
+        final int bracketMin; // lowest prefix sum of the bracket events, empty prefix included
+        final int regionSum;
+        final int regionMin;
+
+        Node(LineStructure item, Node left, Node right, int priority) {
+            this.item = item;
+            this.left = left;
+            this.right = right;
+            this.priority = priority;
+            this.lines = lines(left) + item.lines + lines(right);
+            this.symbols = symbols(left) + (item.symbolKind != null ? 1 : 0) + symbols(right);
+            this.bracketSum = sum(left, LineStructure.BRACKETS) + item.sum(LineStructure.BRACKETS)
+                    + sum(right, LineStructure.BRACKETS);
+            this.bracketMin = lowest(left, item, right, LineStructure.BRACKETS);
+            this.regionSum = sum(left, LineStructure.REGIONS) + item.sum(LineStructure.REGIONS)
+                    + sum(right, LineStructure.REGIONS);
+            this.regionMin = lowest(left, item, right, LineStructure.REGIONS);
+        }
+
+        Node withChildren(Node newLeft, Node newRight) {
+            if (newLeft == left && newRight == right) return this;
+            return new Node(item, newLeft, newRight, priority);
+        }
+
+        private static int lowest(Node left, LineStructure item, Node right, int channel) {
+            int leftSum = sum(left, channel);
+            int itemSum = leftSum + item.sum(channel);
+            return Math.min(Math.min(CodeStructure.min(left, channel), leftSum + item.min(channel)),
+                    itemSum + CodeStructure.min(right, channel));
+        }
+    }
+
+    private final Node root;
+
+    private CodeStructure(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Structure of a document of {@code lines} lines, none of them lexed yet.
+     */
+    static CodeStructure unparsed(int lines) {
+        return new CodeStructure(leaf(LineStructure.unparsed(lines)));
+    }
+
+    public int lineCount() {
+        return lines(root);
+    }
+
+    /**
+     * Returns a structure with lines {@code [fromLine, fromLine + removedLines)}
+     * replaced by the first {@code count} items.
+     */
+    CodeStructure replace(int fromLine, int removedLines, LineStructure[] items, int count) {
+        Node[] head = split(root, fromLine);
+        Node[] tail = split(head[1], removedLines);
+        return new CodeStructure(merge(merge(head[0], build(items, count)), tail[1]));
+    }
+
+    /**
+     * The bracket at {@code line}/{@code column} and its partner, or null if
+     * there is no bracket there (or the line has not been lexed yet).
+     */
+    public BracketPair matchBracket(int line, int column) {
+        if (line < 0 || line >= lineCount()) return null;
+        LineStructure item = itemAt(line);
+        int[] events = item.brackets;
+        for (int i = 0; i < events.length; i++) {
+            if (LineStructure.column(events[i]) != column) continue;
+            long partner = partner(line, item, i, LineStructure.BRACKETS);
+            boolean open = LineStructure.value(events[i]) > 0;
+            if (partner < 0) {
+                return open ? new BracketPair(line, column, -1, -1, false)
+                        : new BracketPair(-1, -1, line, column, false);
+            }
+            int otherLine = (int) (partner >>> 32);
+            int otherEvent = itemAt(otherLine).brackets[(int) partner];
+            boolean matched = LineStructure.code(events[i]) % LineStructure.CLOSE
+                    == LineStructure.code(otherEvent) % LineStructure.CLOSE;
+            int otherColumn = LineStructure.column(otherEvent);
+            return open ? new BracketPair(line, column, otherLine, otherColumn, matched)
+                    : new BracketPair(otherLine, otherColumn, line, column, matched);
+        }
+        return null;
+    }
+
+    /**
+     * Last line of the block that starts on {@code line} - the line of the
+     * closing bracket, {@code #endif} or end of comment of the outermost one
+     * opened there and left open - or -1 when nothing closes at least two lines
+     * further down.
+     */
+    public int foldEnd(int line) {
+        if (line < 0 || line >= lineCount()) return -1;
+        LineStructure item = itemAt(line);
+        int end = -1;
+        for (int channel = LineStructure.BRACKETS; channel <= LineStructure.REGIONS; channel++) {
+            int[] events = item.events(channel);
+            // the outermost event still open at the end of the line
+            int open = -1;
+            int depth = 0;
+            for (int i = events.length - 1; i >= 0; i--) {
+                depth -= LineStructure.value(events[i]);
+                if (depth < 0) {
+                    open = i;
+                    depth = 0;
+                }
+            }
+            if (open < 0) continue;
+            long partner = partner(line, item, open, channel);
+            if (partner >= 0) end = Math.max(end, (int) (partner >>> 32));
+        }
+        return end > line + 1 ? end : -1;
+    }
+
+    /**
+     * Namespaces, types and functions that have a body, in document order.
+     * Declarations inside function bodies are left out.
+     */
+    public List<Symbol> outline() {
+        List<Integer> lines = new ArrayList<>();
+        collectSymbolLines(root, 0, lines);
+
+        List<Symbol> result = new ArrayList<>();
+        List<Symbol> open = new ArrayList<>();
+        for (int line : lines) {
+            LineStructure item = itemAt(line);
+            int endLine = bodyEnd(line, item);
+            if (endLine < 0) continue;
+            while (!open.isEmpty() && open.get(open.size() - 1).endLine() < line) {
+                open.remove(open.size() - 1);
+            }
+            if (!open.isEmpty() && open.get(open.size() - 1).kind() == Symbol.Kind.FUNCTION) continue;
+            Symbol symbol = new Symbol(item.symbolKind, item.symbolName, line, endLine, open.size());
+            result.add(symbol);
+            open.add(symbol);
+        }
+        return result;
+    }
+
+    /**
+     * Line of the "}" closing the body of the declaration on {@code line}, or -1
+     * when there is no body (a prototype, a call, a forward declaration).
+     */
+    private int bodyEnd(int line, LineStructure item) {
+        int fromLine = line;
+        int fromColumn = item.symbolColumn;
+        if (item.symbolKind == Symbol.Kind.FUNCTION) {
+            BracketPair parameters = matchBracket(line, item.symbolColumn);
+            if (parameters == null || !parameters.matched()) return -1;
+            fromLine = parameters.closeLine();
+            fromColumn = parameters.closeColumn() + 1;
+        }
+
+        // the next bracket must be "{"; "( )" and "[ ]" groups (initializer
+        // lists, attributes, noexcept(...)) are skipped, a ";" ends the search
+        int limit = Math.min(lineCount() - 1, fromLine + BODY_LOOKAHEAD);
+        for (int l = fromLine; l <= limit; l++) {
+            LineStructure current = itemAt(l);
+            int[] events = current.brackets;
+            int i = 0;
+            while (i < events.length && LineStructure.column(events[i]) < fromColumn) i++;
+            for (; i < events.length; i++) {
+                int column = LineStructure.column(events[i]);
+                if (hasSemicolon(current, fromColumn, column)) return -1;
+                char c = LineStructure.bracketChar(events[i]);
+                if (c == '{') {
+                    BracketPair body = matchBracket(l, column);
+                    return body.closeLine() >= 0 ? body.closeLine() : lineCount() - 1;
+                }
+                if (c != '(' && c != '[') return -1;
+                BracketPair group = matchBracket(l, column);
+                if (group.closeLine() < 0) return -1;
+                if (group.closeLine() != l) {
+                    // continue right after the group, on its last line
+                    limit = Math.min(lineCount() - 1, group.closeLine() + BODY_LOOKAHEAD);
+                    l = group.closeLine() - 1;
+                    fromColumn = group.closeColumn() + 1;
+                    break;
+                }
+                while (LineStructure.column(events[i]) < group.closeColumn()) i++;
+                fromColumn = group.closeColumn() + 1;
+            }
+            if (i == events.length) {
+                if (hasSemicolon(current, fromColumn, Integer.MAX_VALUE)) return -1;
+                fromColumn = 0;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean hasSemicolon(LineStructure item, int fromColumn, int toColumn) {
+        for (int column : item.semicolons) {
+            if (column >= fromColumn && column < toColumn) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Finds the partner of event {@code index} of {@code item} (on {@code line})
+     * and returns its line in the upper and its index in the lower 32 bits, or
+     * -1 if there is none.
+     */
+    private long partner(int line, LineStructure item, int index, int channel) {
+        int[] events = item.events(channel);
+        if (LineStructure.value(events[index]) > 0) {
+            // first later event taking the running sum back below the level before the opening one
+            int sum = 0;
+            for (int i = index; i < events.length; i++) {
+                sum += LineStructure.value(events[i]);
+                if (sum <= 0) return (long) line << 32 | i;
+            }
+            int threshold = prefixBefore(line + 1, channel) - sum;
+            int[] found = new int[1];
+            int at = findFirst(root, 0, 0, line + 1, threshold, channel, found);
+            return at < 0 ? -1 : (long) at << 32 | found[0];
+        }
+        // last earlier event the running sum was as low as right after the closing one
+        int sum = 0;
+        for (int i = index - 1; i >= 0; i--) {
+            sum -= LineStructure.value(events[i]);
+            if (sum < 0) return (long) line << 32 | i;
+        }
+        int threshold = prefixBefore(line, channel) - sum - 1;
+        int[] found = new int[1];
+        int at = findLast(root, 0, 0, line, threshold, channel, found);
+        return at < 0 ? -1 : (long) at << 32 | found[0];
+    }
+
+    /**
+     * First event on a line {@code >= fromLine} after which the running sum is
+     * at most {@code threshold}.
+     */
+    private static int findFirst(Node t, int lineBase, int sumBase, int fromLine, int threshold,
+                                 int channel, int[] found) {
+        if (t == null || lineBase + t.lines <= fromLine) return -1;
+        if (lineBase >= fromLine && sumBase + min(t, channel) > threshold) return -1;
+
+        int at = findFirst(t.left, lineBase, sumBase, fromLine, threshold, channel, found);
+        if (at >= 0) return at;
+        int itemLine = lineBase + lines(t.left);
+        int sum = sumBase + sum(t.left, channel);
+        if (itemLine >= fromLine) {
+            int[] events = t.item.events(channel);
+            for (int i = 0; i < events.length; i++) {
+                sum += LineStructure.value(events[i]);
+                if (sum <= threshold) {
+                    found[0] = i;
+                    return itemLine;
+                }
+            }
+        } else {
+            sum += t.item.sum(channel);
+        }
+        return findFirst(t.right, itemLine + t.item.lines, sum, fromLine, threshold, channel, found);
+    }
+
+    /**
+     * Last event on a line {@code < toLine} before which the running sum is at
+     * most {@code threshold}.
+     */
+    private static int findLast(Node t, int lineBase, int sumBase, int toLine, int threshold,
+                                int channel, int[] found) {
+        if (t == null || lineBase >= toLine) return -1;
+        if (lineBase + t.lines <= toLine && sumBase + min(t, channel) > threshold) return -1;
+
+        int itemLine = lineBase + lines(t.left);
+        int itemBase = sumBase + sum(t.left, channel);
+        int at = findLast(t.right, itemLine + t.item.lines, itemBase + t.item.sum(channel), toLine,
+                threshold, channel, found);
+        if (at >= 0) return at;
+        if (itemLine < toLine) {
+            int[] events = t.item.events(channel);
+            int sum = itemBase;
+            int last = -1;
+            for (int i = 0; i < events.length; i++) {
+                if (sum <= threshold) last = i;
+                sum += LineStructure.value(events[i]);
+            }
+            if (last >= 0) {
+                found[0] = last;
+                return itemLine;
+            }
+        }
+        return findLast(t.left, lineBase, sumBase, toLine, threshold, channel, found);
+    }
+
+    /**
+     * Sum of the events on lines {@code [0, line)}.
+     */
+    private int prefixBefore(int line, int channel) {
+        int sum = 0;
+        Node t = root;
+        while (t != null) {
+            int leftLines = lines(t.left);
+            if (line <= leftLines) {
+                t = t.left;
+                continue;
+            }
+            sum += sum(t.left, channel);
+            if (line < leftLines + t.item.lines) return sum; // inside an unlexed run
+            sum += t.item.sum(channel);
+            line -= leftLines + t.item.lines;
+            t = t.right;
+        }
+        return sum;
+    }
+
+    private LineStructure itemAt(int line) {
+        Node t = root;
+        while (t != null) {
+            int leftLines = lines(t.left);
+            if (line < leftLines) {
+                t = t.left;
+            } else if (line < leftLines + t.item.lines) {
+                return t.item;
+            } else {
+                line -= leftLines + t.item.lines;
+                t = t.right;
+            }
+        }
+        throw new IndexOutOfBoundsException("line " + line);
+    }
+
+    private static void collectSymbolLines(Node t, int lineBase, List<Integer> out) {
+        if (t == null || t.symbols == 0) return;
+        collectSymbolLines(t.left, lineBase, out);
+        int itemLine = lineBase + lines(t.left);
+        if (t.item.symbolKind != null) out.add(itemLine);
+        collectSymbolLines(t.right, itemLine + t.item.lines, out);
+    }
+
+    private static int lines(Node t) {
+        return t == null ? 0 : t.lines;
+    }
+
+    private static int symbols(Node t) {
+        return t == null ? 0 : t.symbols;
+    }
+
+    private static int sum(Node t, int channel) {
+        return t == null ? 0 : channel == LineStructure.BRACKETS ? t.bracketSum : t.regionSum;
+    }
+
+    private static int min(Node t, int channel) {
+        return t == null ? 0 : channel == LineStructure.BRACKETS ? t.bracketMin : t.regionMin;
+    }
+
+    private static Node leaf(LineStructure item) {
+        return new Node(item, null, null, ThreadLocalRandom.current().nextInt());
+    }
+
+    /**
+     * Splits the tree into lines [0, line) and [line, lineCount); a run of
+     * unlexed lines is cut in two.
+     */
+    private static Node[] split(Node t, int line) {
+        if (t == null) return new Node[]{null, null};
+        if (line <= 0) return new Node[]{null, t};
+        if (line >= t.lines) return new Node[]{t, null};
+
+        int leftLines = lines(t.left);
+        if (line <= leftLines) {
+            Node[] p = split(t.left, line);
+            return new Node[]{p[0], t.withChildren(p[1], t.right)};
+        }
+        int itemEnd = leftLines + t.item.lines;
+        if (line >= itemEnd) {
+            Node[] p = split(t.right, line - itemEnd);
+            return new Node[]{t.withChildren(t.left, p[0]), p[1]};
+        }
+        // the right half gets a fresh priority, as in the document's piece tree
+        int cut = line - leftLines;
+        Node l = new Node(LineStructure.unparsed(cut), t.left, null, t.priority);
+        Node r = merge(leaf(LineStructure.unparsed(t.item.lines - cut)), t.right);
+        return new Node[]{l, r};
+    }
+
+    private static Node merge(Node a, Node b) {
+        if (a == null) return b;
+        if (b == null) return a;
+        if (a.priority > b.priority) {
+            return a.withChildren(a.left, merge(a.right, b));
+        }
+        return b.withChildren(merge(a, b.left), b.right);
+    }
+
+    /**
+     * Builds a balanced treap of the first {@code count} items, in order.
+     */
+    private static Node build(LineStructure[] items, int count) {
+        int[] priorities = new int[count];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < count; i++) {
+            priorities[i] = random.nextInt();
+        }
+        Arrays.sort(priorities);
+        return build(items, priorities, 0, count, new int[1]);
+    }
+
+    private static Node build(LineStructure[] items, int[] priorities, int i, int count, int[] next) {
+        if (i >= count) return null;
+        Node left = build(items, priorities, 2 * i + 1, count, next);
+        LineStructure item = items[next[0]++];
+        Node right = build(items, priorities, 2 * i + 2, count, next);
+        return new Node(item, left, right, priorities[count - 1 - i]);
+    }
+}
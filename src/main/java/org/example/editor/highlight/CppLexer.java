@@ -0,0 +1,306 @@
+package org.example.editor.highlight;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Line-oriented C++ lexer.
+ * <p>
+ * Lexing is resumable: {@link #lexLine} takes the state at the start of a line
+ * and returns the state at its end (inside a block comment, a raw string,
+ * a string or directive continued with a backslash...). Storing that state per
+ * line lets the highlighter re-lex only from an edited line until the state
+ * converges again. The lexer is stateless and thread-safe.
+ */
+public final class CppLexer {
+
+    public static final int NORMAL = 0;
+
+    private static final int BLOCK_COMMENT = 1;
+    private static final int LINE_COMMENT = 2;   // "//" comment continued with a backslash
+    private static final int STRING = 3;         // "..." continued with a backslash
+    private static final int DIRECTIVE = 4;      // preprocessor line continued with a backslash
+    private static final int RAW_STRING = 5;     // R"delim( ... )delim", delimiter id in the upper bits
+
+    private static final Set<String> KEYWORDS = Set.of(
+            "alignas", "alignof", "asm", "break", "case", "catch", "class", "co_await", "co_return",
+            "co_yield", "concept", "const", "const_cast", "consteval", "constexpr", "constinit",
+            "continue", "decltype", "default", "delete", "do", "dynamic_cast", "else", "enum",
+            "explicit", "export", "extern", "false", "final", "for", "friend", "goto", "if", "inline",
+            "mutable", "namespace", "new", "noexcept", "nullptr", "operator", "override", "private",
+            "protected", "public", "register", "reinterpret_cast", "requires", "return", "sizeof",
+            "static", "static_assert", "static_cast", "struct", "switch", "template", "this",
+            "thread_local", "throw", "true", "try", "typedef", "typeid", "typename", "union", "using",
+            "virtual", "volatile", "while");
+
+    private static final Set<String> TYPES = Set.of(
+            "auto", "bool", "char", "char8_t", "char16_t", "char32_t", "double", "float", "int", "long",
+            "short", "signed", "unsigned", "void", "wchar_t", "size_t", "ptrdiff_t", "int8_t", "int16_t",
+            "int32_t", "int64_t", "uint8_t", "uint16_t", "uint32_t", "uint64_t", "string", "vector");
+
+    // Raw string delimiters are interned so that the lexer state stays a plain int
+    private static final Map<String, Integer> DELIMITER_IDS = new ConcurrentHashMap<>();
+    private static final List<String> DELIMITERS = new ArrayList<>();
+
+    private CppLexer() {
+    }
+
+    /**
+     * Receives tokens of one line in order; offsets are relative to the line start.
+     */
+    @FunctionalInterface
+    public interface TokenSink {
+        void token(int start, int length, TokenType type);
+    }
+
+    public static boolean isKeyword(String word) {
+        return KEYWORDS.contains(word) || TYPES.contains(word);
+    }
+
+    /**
+     * True when a line starting in {@code state} begins inside a comment or literal.
+     */
+    public static boolean isInsideCommentOrLiteral(int state) {
+        int kind = state & 0xFF;
+        return kind == BLOCK_COMMENT || kind == LINE_COMMENT || kind == STRING || kind == RAW_STRING;
+    }
+
+    /**
+     * True when a line starting in {@code state} begins inside a block comment.
+     */
+    static boolean isInsideBlockComment(int state) {
+        return (state & 0xFF) == BLOCK_COMMENT;
+    }
+
+    /**
+     * Lexes one line (without its terminator) and returns the state at its end.
+     */
+    public static int lexLine(CharSequence line, int state, TokenSink sink) {
+        int n = line.length();
+        int i = 0;
+        int kind = state & 0xFF;
+
+        // Finish whatever construct the previous line left open
+        switch (kind) {
+            case BLOCK_COMMENT -> {
+                int end = indexOf(line, "*/", 0);
+                if (end < 0) {
+                    emit(sink, 0, n, TokenType.COMMENT);
+                    return state;
+                }
+                emit(sink, 0, end + 2, TokenType.COMMENT);
+                i = end + 2;
+            }
+            case LINE_COMMENT -> {
+                emit(sink, 0, n, TokenType.COMMENT);
+                return endsWithBackslash(line) ? LINE_COMMENT : NORMAL;
+            }
+            case STRING -> {
+                int end = scanQuoted(line, 0, '"');
+                emit(sink, 0, end, TokenType.STRING);
+                if (end == n && endsWithBackslash(line)) return STRING;
+                i = end;
+            }
+            case RAW_STRING -> {
+                String close = ")" + delimiter(state >>> 8) + "\"";
+                int end = indexOf(line, close, 0);
+                if (end < 0) {
+                    emit(sink, 0, n, TokenType.STRING);
+                    return state;
+                }
+                emit(sink, 0, end + close.length(), TokenType.STRING);
+                i = end + close.length();
+            }
+            default -> {
+            }
+        }
+
+        boolean directive = kind == DIRECTIVE;
+        boolean includeDirective = false;
+        int firstNonBlank = skipBlanks(line, i);
+        if (kind != DIRECTIVE && firstNonBlank < n && line.charAt(firstNonBlank) == '#') {
+            int nameStart = skipBlanks(line, firstNonBlank + 1);
+            int nameEnd = nameStart;
+            while (nameEnd < n && Character.isLetter(line.charAt(nameEnd))) nameEnd++;
+            emit(sink, firstNonBlank, nameEnd - firstNonBlank, TokenType.PREPROCESSOR);
+            includeDirective = "include".contentEquals(line.subSequence(nameStart, nameEnd));
+            directive = true;
+            i = nameEnd;
+        }
+
+        while (i < n) {
+            char c = line.charAt(i);
+            if (c == ' ' || c == '\t' || c == '\r' || c == '\f') {
+                i++;
+            } else if (c == '/' && i + 1 < n && line.charAt(i + 1) == '/') {
+                emit(sink, i, n - i, TokenType.COMMENT);
+                return endsWithBackslash(line) ? LINE_COMMENT : NORMAL;
+            } else if (c == '/' && i + 1 < n && line.charAt(i + 1) == '*') {
+                int end = indexOf(line, "*/", i + 2);
+                if (end < 0) {
+                    emit(sink, i, n - i, TokenType.COMMENT);
+                    return BLOCK_COMMENT;
+                }
+                emit(sink, i, end + 2 - i, TokenType.COMMENT);
+                i = end + 2;
+            } else if (includeDirective && c == '<') {
+                int end = indexOf(line, ">", i + 1);
+                end = end < 0 ? n : end + 1;
+                emit(sink, i, end - i, TokenType.STRING);
+                i = end;
+            } else if (c == '"') {
+                int end = scanQuoted(line, i + 1, '"');
+                emit(sink, i, end - i, TokenType.STRING);
+                if (end == n && endsWithBackslash(line)) return STRING;
+                i = end;
+            } else if (c == '\'') {
+                int end = scanQuoted(line, i + 1, '\'');
+                emit(sink, i, end - i, TokenType.CHAR);
+                i = end;
+            } else if (Character.isDigit(c) || (c == '.' && i + 1 < n && Character.isDigit(line.charAt(i + 1)))) {
+                int end = scanNumber(line, i);
+                emit(sink, i, end - i, TokenType.NUMBER);
+                i = end;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                int end = i + 1;
+                while (end < n && Character.isJavaIdentifierPart(line.charAt(end))) end++;
+                String word = line.subSequence(i, end).toString();
+                if (end < n && line.charAt(end) == '"' && isRawPrefix(word)) {
+                    return lexRawString(line, i, end, sink, directive);
+                }
+                if (end < n && (line.charAt(end) == '"' || line.charAt(end) == '\'') && isStringPrefix(word)) {
+                    char quote = line.charAt(end);
+                    int litEnd = scanQuoted(line, end + 1, quote);
+                    emit(sink, end - word.length(), litEnd - end + word.length(),
+                            quote == '"' ? TokenType.STRING : TokenType.CHAR);
+                    if (quote == '"' && litEnd == n && endsWithBackslash(line)) return STRING;
+                    i = litEnd;
+                    continue;
+                }
+                TokenType type = KEYWORDS.contains(word) ? TokenType.KEYWORD
+                        : TYPES.contains(word) ? TokenType.TYPE : TokenType.IDENTIFIER;
+                emit(sink, i, end - i, type);
+                i = end;
+            } else if (c == '(' || c == ')' || c == '{' || c == '}' || c == '[' || c == ']') {
+                emit(sink, i, 1, TokenType.BRACKET);
+                i++;
+            } else {
+                emit(sink, i, 1, TokenType.OPERATOR);
+                i++;
+            }
+        }
+        return directive && endsWithBackslash(line) ? DIRECTIVE : NORMAL;
+    }
+
+    private static int lexRawString(CharSequence line, int prefixStart, int quote, TokenSink sink, boolean directive) {
+        int n = line.length();
+        int open = indexOf(line, "(", quote + 1);
+        if (open < 0) {
+            emit(sink, prefixStart, n - prefixStart, TokenType.STRING);
+            return NORMAL;
+        }
+        String delim = line.subSequence(quote + 1, open).toString();
+        String close = ")" + delim + "\"";
+        int end = indexOf(line, close, open + 1);
+        if (end < 0) {
+            emit(sink, prefixStart, n - prefixStart, TokenType.STRING);
+            return RAW_STRING | (delimiterId(delim) << 8);
+        }
+        int after = end + close.length();
+        emit(sink, prefixStart, after - prefixStart, TokenType.STRING);
+        // Rare: more code after a one-line raw string - lex the rest as its own line
+        CharSequence rest = line.subSequence(after, n);
+        return lexLine(rest, directive ? DIRECTIVE : NORMAL,
+                (start, length, type) -> sink.token(start + after, length, type));
+    }
+
+    private static boolean isRawPrefix(String word) {
+        return word.equals("R") || word.equals("LR") || word.equals("uR") || word.equals("UR") || word.equals("u8R");
+    }
+
+    private static boolean isStringPrefix(String word) {
+        return word.equals("L") || word.equals("u") || word.equals("U") || word.equals("u8");
+    }
+
+    private static int scanQuoted(CharSequence line, int from, char quote) {
+        int n = line.length();
+        int i = from;
+        while (i < n) {
+            char c = line.charAt(i);
+            if (c == '\\') {
+                i += 2;
+            } else if (c == quote) {
+                return i + 1;
+            } else {
+                i++;
+            }
+        }
+        return n;
+    }
+
+    private static int scanNumber(CharSequence line, int from) {
+        int n = line.length();
+        int i = from;
+        while (i < n) {
+            char c = line.charAt(i);
+            if (Character.isLetterOrDigit(c) || c == '.' || c == '\'' || c == '_') {
+                i++;
+            } else if ((c == '+' || c == '-') && i > from) {
+                char prev = Character.toLowerCase(line.charAt(i - 1));
+                if (prev != 'e' && prev != 'p') break;
+                i++;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static int skipBlanks(CharSequence line, int from) {
+        int i = from;
+        while (i < line.length() && (line.charAt(i) == ' ' || line.charAt(i) == '\t')) i++;
+        return i;
+    }
+
+    private static boolean endsWithBackslash(CharSequence line) {
+        int i = line.length() - 1;
+        while (i >= 0 && (line.charAt(i) == '\r' || line.charAt(i) == ' ')) i--;
+        return i >= 0 && line.charAt(i) == '\\';
+    }
+
+    private static int indexOf(CharSequence line, String needle, int from) {
+        int last = line.length() - needle.length();
+        outer:
+        for (int i = from; i <= last; i++) {
+            for (int k = 0; k < needle.length(); k++) {
+                if (line.charAt(i + k) != needle.charAt(k)) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static void emit(TokenSink sink, int start, int length, TokenType type) {
+        if (length > 0) sink.token(start, length, type);
+    }
+
+    private static int delimiterId(String delim) {
+        Integer id = DELIMITER_IDS.get(delim);
+        if (id != null) return id;
+        synchronized (DELIMITERS) {
+            return DELIMITER_IDS.computeIfAbsent(delim, d -> {
+                DELIMITERS.add(d);
+                return DELIMITERS.size() - 1;
+            });
+        }
+    }
+
+    private static String delimiter(int id) {
+        synchronized (DELIMITERS) {
+            return DELIMITERS.get(id);
+        }
+    }
+}
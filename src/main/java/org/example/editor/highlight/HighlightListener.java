@@ -0,0 +1,9 @@
+package org.example.editor.highlight;
+
+/**
+ * Called on the FX thread when styles of lines {@code [fromLine, toLine]} were updated.
+ */
+@FunctionalInterface
+public interface HighlightListener {
+    void linesHighlighted(int fromLine, int toLine);
+}
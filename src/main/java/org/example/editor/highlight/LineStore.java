@@ -0,0 +1,124 @@
+package org.example.editor.highlight;
+
+import java.util.Arrays;
+
+/**
+ * Per-line lexer start states, style spans and identifier ids (in the
+ * highlighter's {@link PrefixTrie}), kept in gap buffers.
+ * <p>
+ * Edits insert or remove lines where the user types, so the gap follows the
+ * edit position and line shifts cost O(lines changed) instead of moving the
+ * whole array. Spans are line-relative, so lines after an edit keep theirs.
+ */
+final class LineStore {
+
+    static final int UNKNOWN = -1;
+
+    private int[] states = new int[64];
+    private int[][] spans = new int[64][];
+    private int[][] words = new int[64][];
+    private int gapStart = 0;
+    private int gapEnd = 64;
+
+    LineStore() {
+        insert(0, 1);
+    }
+
+    int size() {
+        return states.length - (gapEnd - gapStart);
+    }
+
+    int state(int line) {
+        return states[index(line)];
+    }
+
+    void setState(int line, int state) {
+        states[index(line)] = state;
+    }
+
+    int[] spans(int line) {
+        return spans[index(line)];
+    }
+
+    void setSpans(int line, int[] lineSpans) {
+        spans[index(line)] = lineSpans;
+    }
+
+    /**
+     * Ids of the identifiers counted for the line, or null if none were yet.
+     */
+    int[] words(int line) {
+        return words[index(line)];
+    }
+
+    void setWords(int line, int[] lineWords) {
+        words[index(line)] = lineWords;
+    }
+
+    /**
+     * Inserts {@code count} lines before {@code line}, with unknown state and no spans.
+     */
+    void insert(int line, int count) {
+        if (count <= 0) return;
+        moveGap(line);
+        ensureGap(count);
+        Arrays.fill(states, gapStart, gapStart + count, UNKNOWN);
+        Arrays.fill(spans, gapStart, gapStart + count, null);
+        Arrays.fill(words, gapStart, gapStart + count, null);
+        gapStart += count;
+    }
+
+    void remove(int line, int count) {
+        if (count <= 0) return;
+        moveGap(line);
+        Arrays.fill(spans, gapEnd, gapEnd + count, null);
+        Arrays.fill(words, gapEnd, gapEnd + count, null);
+        gapEnd += count;
+    }
+
+    private int index(int line) {
+        return line < gapStart ? line : line + (gapEnd - gapStart);
+    }
+
+    private void moveGap(int line) {
+        if (line < gapStart) {
+            int count = gapStart - line;
+            System.arraycopy(states, line, states, gapEnd - count, count);
+            System.arraycopy(spans, line, spans, gapEnd - count, count);
+            System.arraycopy(words, line, words, gapEnd - count, count);
+            Arrays.fill(spans, line, Math.min(gapStart, gapEnd - count), null);
+            Arrays.fill(words, line, Math.min(gapStart, gapEnd - count), null);
+            gapStart = line;
+            gapEnd -= count;
+        } else if (line > gapStart) {
+            int count = line - gapStart;
+            System.arraycopy(states, gapEnd, states, gapStart, count);
+            System.arraycopy(spans, gapEnd, spans, gapStart, count);
+            System.arraycopy(words, gapEnd, words, gapStart, count);
+            Arrays.fill(spans, Math.max(gapEnd, gapStart + count), gapEnd + count, null);
+            Arrays.fill(words, Math.max(gapEnd, gapStart + count), gapEnd + count, null);
+            gapStart += count;
+            gapEnd += count;
+        }
+    }
+
+    private void ensureGap(int count) {
+        if (gapEnd - gapStart >= count) return;
+        int size = size();
+        int capacity = Math.max(states.length * 2, size + count + 64);
+        int tail = states.length - gapEnd;
+        int[] newStates = new int[capacity];
+        int[][] newSpans = new int[capacity][];
+        int[][] newWords = new int[capacity][];
+        System.arraycopy(states, 0, newStates, 0, gapStart);
+        System.arraycopy(spans, 0, newSpans, 0, gapStart);
+        System.arraycopy(words, 0, newWords, 0, gapStart);
+        System.arraycopy(states, gapEnd, newStates, capacity - tail, tail);
+        System.arraycopy(spans, gapEnd, newSpans, capacity - tail, tail);
+        System.arraycopy(words, gapEnd, newWords, capacity - tail, tail);
+        states = newStates;
+        spans = newSpans;
+        words = newWords;
+        gapEnd = capacity - tail;
+    }
+}
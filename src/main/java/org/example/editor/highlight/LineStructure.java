@@ -0,0 +1,260 @@
+package org.example.editor.highlight;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Structural summary of one lexed line - or of a run of lines not lexed yet -
+ * as stored in the leaves of {@link CodeStructure}. Immutable.
+ * <p>
+ * It keeps the brackets outside comments and literals, the preprocessor
+ * conditionals and block comment boundaries (both as open/close "region"
+ * events), the columns of {@code ;} and a declaration that may start on the
+ * line. Events are packed as {@code column << 3 | code}; codes below
+ * {@link #CLOSE} open (+1), the others close (-1).
+ */
+final class LineStructure {
+
+    static final int BRACKETS = 0;
+    static final int REGIONS = 1;
+
+    // bracket codes: "([{" open, ")]}" close
+    static final int CLOSE = 3;
+    private static final String BRACKET_CHARS = "([{)]}";
+
+    // region codes
+    static final int IF = 0;          // #if, #ifdef, #ifndef
+    static final int ELSE = 1;        // the branch opened by #else / #elif
+    static final int COMMENT = 2;     // "/*" of a comment that goes on to the next lines
+    static final int END_IF = 3;      // #endif, and the end of the branch before #else / #elif
+    static final int END_COMMENT = 4; // "*/" of a comment that began on an earlier line
+
+    private static final int[] NONE = new int[0];
+    static final LineStructure EMPTY = unparsed(1);
+
+    private static final Map<String, CodeStructure.Symbol.Kind> TYPE_KEYWORDS = Map.of(
+            "namespace", CodeStructure.Symbol.Kind.NAMESPACE,
+            "class", CodeStructure.Symbol.Kind.CLASS,
+            "struct", CodeStructure.Symbol.Kind.STRUCT,
+            "union", CodeStructure.Symbol.Kind.UNION,
+            "enum", CodeStructure.Symbol.Kind.ENUM);
+
+    // keywords that may come before a function name; any other one means "not a declaration"
+    private static final Set<String> SPECIFIERS = Set.of(
+            "const", "constexpr", "consteval", "constinit", "static", "inline", "virtual", "explicit",
+            "extern", "template", "typename", "volatile", "mutable", "friend", "thread_local", "register");
+
+    final int lines;
+    final int[] brackets;
+    final int[] regions;
+    final int[] semicolons;
+    final CodeStructure.Symbol.Kind symbolKind; // null when no declaration starts here
+    final String symbolName;
+    final int symbolColumn;                      // '(' of a function, the keyword of a type
+
+    private final int bracketSum;
+    private final int bracketMin;
+    private final int regionSum;
+    private final int regionMin;
+
+    private LineStructure(int lines, int[] brackets, int[] regions, int[] semicolons,
+                          CodeStructure.Symbol.Kind symbolKind, String symbolName, int symbolColumn) {
+        this.lines = lines;
+        this.brackets = brackets;
+        this.regions = regions;
+        this.semicolons = semicolons;
+        this.symbolKind = symbolKind;
+        this.symbolName = symbolName;
+        this.symbolColumn = symbolColumn;
+        int sum = 0;
+        int min = 0;
+        for (int e : brackets) {
+            sum += value(e);
+            min = Math.min(min, sum);
+        }
+        bracketSum = sum;
+        bracketMin = min;
+        sum = 0;
+        min = 0;
+        for (int e : regions) {
+            sum += value(e);
+            min = Math.min(min, sum);
+        }
+        regionSum = sum;
+        regionMin = min;
+    }
+
+    static LineStructure unparsed(int lines) {
+        return new LineStructure(lines, NONE, NONE, NONE, null, null, -1);
+    }
+
+    static int value(int event) {
+        return (event & 7) < CLOSE ? 1 : -1;
+    }
+
+    static int column(int event) {
+        return event >>> 3;
+    }
+
+    static int code(int event) {
+        return event & 7;
+    }
+
+    static char bracketChar(int event) {
+        return BRACKET_CHARS.charAt(code(event));
+    }
+
+    int[] events(int channel) {
+        return channel == BRACKETS ? brackets : regions;
+    }
+
+    int sum(int channel) {
+        return channel == BRACKETS ? bracketSum : regionSum;
+    }
+
+    /**
+     * Lowest running sum of the events, counting the empty prefix (so at most 0).
+     */
+    int min(int channel) {
+        return channel == BRACKETS ? bracketMin : regionMin;
+    }
+
+    /**
+     * Summarizes a line from its text, the lexer states around it and its
+     * spans as produced by {@link CppLexer}.
+     */
+    static LineStructure of(CharSequence text, int startState, int[] spans, int endState) {
+        int tokens = spans.length / 3;
+        int[] brackets = new int[tokens];
+        int[] regions = new int[tokens + 1];
+        int[] semicolons = new int[tokens];
+        int nb = 0;
+        int nr = 0;
+        int ns = 0;
+        for (int i = 0; i < spans.length; i += 3) {
+            int start = spans[i];
+            int length = spans[i + 1];
+            switch (TokenType.of(spans[i + 2])) {
+                case BRACKET -> brackets[nb++] = start << 3 | BRACKET_CHARS.indexOf(text.charAt(start));
+                case OPERATOR -> {
+                    if (text.charAt(start) == ';') semicolons[ns++] = start;
+                }
+                case PREPROCESSOR -> {
+                    String name = text.subSequence(start + 1, start + length).toString().strip();
+                    switch (name) {
+                        case "if", "ifdef", "ifndef" -> regions[nr++] = start << 3 | IF;
+                        case "else", "elif", "elifdef", "elifndef" -> {
+                            regions[nr++] = start << 3 | END_IF;
+                            regions[nr++] = start << 3 | ELSE;
+                        }
+                        case "endif" -> regions[nr++] = start << 3 | END_IF;
+                        default -> {
+                        }
+                    }
+                }
+                case COMMENT -> {
+                    boolean continued = i == 0 && start == 0 && CppLexer.isInsideBlockComment(startState);
+                    boolean staysOpen = i + 3 >= spans.length && CppLexer.isInsideBlockComment(endState);
+                    if (continued && !staysOpen) {
+                        regions[nr++] = Math.max(0, start + length - 2) << 3 | END_COMMENT;
+                    } else if (!continued && staysOpen && startsWith(text, start, "/*")) {
+                        regions[nr++] = start << 3 | COMMENT;
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        LineStructure line = new LineStructure(1, trim(brackets, nb), trim(regions, nr), trim(semicolons, ns),
+                null, null, -1);
+        return declaration(text, spans, line);
+    }
+
+    /**
+     * Adds the declaration that may start on the line: a type ("class Name") or
+     * a function ("Type name(", "Scope::name("). Whether a body follows is only
+     * known across lines, so {@link CodeStructure#outline()} checks that later.
+     */
+    private static LineStructure declaration(CharSequence text, int[] spans, LineStructure line) {
+        int angle = 0;
+        int nameStart = -1;
+        int previousEnd = -1;
+        TokenType previous = null;
+        for (int i = 0; i < spans.length; i += 3) {
+            int start = spans[i];
+            int end = start + spans[i + 1];
+            TokenType type = TokenType.of(spans[i + 2]);
+            switch (type) {
+                case COMMENT -> {
+                    continue;
+                }
+                case KEYWORD -> {
+                    String word = text.subSequence(start, end).toString();
+                    CodeStructure.Symbol.Kind kind = TYPE_KEYWORDS.get(word);
+                    if (kind != null && angle == 0) {
+                        return withSymbol(line, kind, typeName(text, spans, i + 3), start);
+                    }
+                    if (!SPECIFIERS.contains(word) && angle == 0) return line;
+                }
+                case IDENTIFIER -> {
+                    boolean chained = previous == TokenType.OPERATOR && previousEnd > 0
+                            && (text.charAt(previousEnd - 1) == ':' || text.charAt(previousEnd - 1) == '~');
+                    if (!chained) nameStart = start;
+                }
+                case OPERATOR -> {
+                    char c = text.charAt(start);
+                    if (c == '<') {
+                        angle++;
+                    } else if (c == '>') {
+                        angle--;
+                    } else if (c == '~') {
+                        if (previous != TokenType.OPERATOR || text.charAt(previousEnd - 1) != ':') nameStart = start;
+                    } else if (c != ':' && c != '*' && c != '&' && !(c == ',' && angle > 0)) {
+                        return line;
+                    }
+                }
+                case BRACKET -> {
+                    if (text.charAt(start) != '(' || angle != 0 || previous != TokenType.IDENTIFIER) return line;
+                    String name = text.subSequence(nameStart, previousEnd).toString().replaceAll("\\s+", "");
+                    return withSymbol(line, CodeStructure.Symbol.Kind.FUNCTION, name, start);
+                }
+                case TYPE -> {
+                }
+                default -> {
+                    if (angle == 0) return line;
+                }
+            }
+            previous = type;
+            previousEnd = end;
+        }
+        return line;
+    }
+
+    private static String typeName(CharSequence text, int[] spans, int from) {
+        for (int i = from; i < spans.length; i += 3) {
+            TokenType type = TokenType.of(spans[i + 2]);
+            String word = text.subSequence(spans[i], spans[i] + spans[i + 1]).toString();
+            if (type == TokenType.IDENTIFIER) return word;
+            if (type != TokenType.KEYWORD && type != TokenType.COMMENT) break; // "enum class Name"
+        }
+        return "(anonymous)";
+    }
+
+    private static LineStructure withSymbol(LineStructure line, CodeStructure.Symbol.Kind kind, String name, int column) {
+        return new LineStructure(1, line.brackets, line.regions, line.semicolons, kind, name, column);
+    }
+
+    private static boolean startsWith(CharSequence text, int at, String prefix) {
+        if (at + prefix.length() > text.length()) return false;
+        for (int k = 0; k < prefix.length(); k++) {
+            if (text.charAt(at + k) != prefix.charAt(k)) return false;
+        }
+        return true;
+    }
+
+    private static int[] trim(int[] values, int count) {
+        return count == 0 ? NONE : count == values.length ? values : Arrays.copyOf(values, count);
+    }
+}
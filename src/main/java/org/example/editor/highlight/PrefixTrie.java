@@ -0,0 +1,204 @@
+package org.example.editor.highlight;
+
+import java.util.Arrays;
+
+/**
+ * Counted set of words in a trie made of parallel primitive arrays: a node is
+ * an index, with its character, parent, first child and next sibling. A word
+ * is identified by the index of its last node, so callers can keep word ids
+ * in {@code int} arrays and change counts without looking the word up again.
+ * <p>
+ * Every node also keeps the highest count below it, which lets {@link #top}
+ * return the most frequent words with a prefix in order while visiting only
+ * the branches that can still contribute, however many words share the prefix.
+ * Nodes of words whose count drops to 0 are kept for reuse. Not thread-safe;
+ * once no longer modified it may be read from any thread.
+ */
+public final class PrefixTrie {
+
+    private static final int ROOT = 0;
+
+    private char[] chars = new char[256];
+    private int[] parent = new int[256];
+    private int[] firstChild = new int[256];
+    private int[] nextSibling = new int[256];
+    private int[] count = new int[256];
+    private int[] best = new int[256]; // highest count of a word ending in the node's subtree
+    private int nodes = 1;
+    private int words;                 // words with a count above 0
+
+    public PrefixTrie() {
+        parent[ROOT] = -1;
+        firstChild[ROOT] = -1;
+        nextSibling[ROOT] = -1;
+    }
+
+    /**
+     * Number of distinct words with a count above 0.
+     */
+    public int size() {
+        return words;
+    }
+
+    /**
+     * Adds {@code delta} to the count of {@code word} (never below 0) and returns its id.
+     */
+    public int add(CharSequence word, int delta) {
+        int node = ROOT;
+        for (int i = 0; i < word.length(); i++) {
+            node = child(node, word.charAt(i), true);
+        }
+        addCount(node, delta);
+        return node;
+    }
+
+    /**
+     * Adds {@code delta} to the count of the word with id {@code id} (never below 0).
+     */
+    public void addCount(int id, int delta) {
+        int old = count[id];
+        int updated = Math.max(0, old + delta);
+        if (updated == old) return;
+        count[id] = updated;
+        if (old == 0) words++;
+        else if (updated == 0) words--;
+
+        if (updated > old) {
+            for (int n = id; n >= 0 && best[n] < updated; n = parent[n]) {
+                best[n] = updated;
+            }
+            return;
+        }
+        // the maximum may have come from this word: recompute upwards while it did
+        for (int n = id; n >= 0 && best[n] == old; n = parent[n]) {
+            int max = count[n];
+            for (int c = firstChild[n]; c >= 0; c = nextSibling[c]) {
+                max = Math.max(max, best[c]);
+            }
+            if (max == old) return;
+            best[n] = max;
+        }
+    }
+
+    /**
+     * Count of {@code word}, 0 if it is not in the trie.
+     */
+    public int count(CharSequence word) {
+        int node = find(word);
+        return node < 0 ? 0 : count[node];
+    }
+
+    public int countOf(int id) {
+        return count[id];
+    }
+
+    /**
+     * The word with id {@code id}.
+     */
+    public String word(int id) {
+        int length = 0;
+        for (int n = id; n != ROOT; n = parent[n]) length++;
+        char[] text = new char[length];
+        for (int n = id; n != ROOT; n = parent[n]) text[--length] = chars[n];
+        return new String(text);
+    }
+
+    /**
+     * Fills {@code out} with the ids of the most frequent words starting with
+     * {@code prefix} (the prefix itself included), most frequent first, and
+     * returns how many were found. Ties come in no particular order.
+     */
+    public int top(CharSequence prefix, int[] out) {
+        int start = find(prefix);
+        if (start < 0 || best[start] == 0 || out.length == 0) return 0;
+
+        // best-first search; an entry is (key << 32 | node << 1 | isWord), the largest key first
+        long[] heap = new long[16];
+        int size = 0;
+        heap[size++] = entry(best[start], start, false);
+        int found = 0;
+        while (size > 0 && found < out.length) {
+            long top = heap[0];
+            heap[0] = heap[--size];
+            siftDown(heap, size);
+
+            int node = (int) (top >>> 1) & 0x7FFFFFFF;
+            if ((top & 1) != 0) {
+                out[found++] = node;
+                continue;
+            }
+            int children = 1;
+            for (int c = firstChild[node]; c >= 0; c = nextSibling[c]) children++;
+            if (size + children > heap.length) heap = Arrays.copyOf(heap, Math.max(2 * heap.length, size + children));
+            if (count[node] > 0) size = push(heap, size, entry(count[node], node, true));
+            for (int c = firstChild[node]; c >= 0; c = nextSibling[c]) {
+                if (best[c] > 0) size = push(heap, size, entry(best[c], c, false));
+            }
+        }
+        return found;
+    }
+
+    private int find(CharSequence word) {
+        int node = ROOT;
+        for (int i = 0; i < word.length() && node >= 0; i++) {
+            node = child(node, word.charAt(i), false);
+        }
+        return node;
+    }
+
+    private int child(int node, char c, boolean create) {
+        for (int n = firstChild[node]; n >= 0; n = nextSibling[n]) {
+            if (chars[n] == c) return n;
+        }
+        if (!create) return -1;
+        if (nodes == chars.length) grow();
+        int n = nodes++;
+        chars[n] = c;
+        parent[n] = node;
+        firstChild[n] = -1;
+        nextSibling[n] = firstChild[node];
+        firstChild[node] = n;
+        return n;
+    }
+
+    private void grow() {
+        int capacity = chars.length * 2;
+        chars = Arrays.copyOf(chars, capacity);
+        parent = Arrays.copyOf(parent, capacity);
+        firstChild = Arrays.copyOf(firstChild, capacity);
+        nextSibling = Arrays.copyOf(nextSibling, capacity);
+        count = Arrays.copyOf(count, capacity);
+        best = Arrays.copyOf(best, capacity);
+    }
+
+    private static long entry(int key, int node, boolean word) {
+        return (long) key << 32 | (long) node << 1 | (word ? 1 : 0);
+    }
+
+    private static int push(long[] heap, int size, long value) {
+        int i = size;
+        while (i > 0) {
+            int up = (i - 1) >>> 1;
+            if (heap[up] >= value) break;
+            heap[i] = heap[up];
+            i = up;
+        }
+        heap[i] = value;
+        return size + 1;
+    }
+
+    private static void siftDown(long[] heap, int size) {
+        if (size == 0) return;
+        long value = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) break;
+            if (child + 1 < size && heap[child + 1] > heap[child]) child++;
+            if (heap[child] <= value) break;
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = value;
+    }
+}
@@ -0,0 +1,370 @@
+package org.example.editor.highlight;
+
+import javafx.application.Platform;
+import org.example.editor.document.Document;
+import org.example.editor.document.DocumentChange;
+import org.example.editor.document.DocumentListener;
+import org.example.editor.document.DocumentSnapshot;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Incremental, background C++ highlighter for one {@link Document}.
+ * <p>
+ * The lexer state at the start of every line is remembered. After an edit only
+ * the edited lines are marked dirty; a background job re-lexes from the first
+ * dirty line against a document snapshot and stops as soon as a line ends in
+ * the same state the next line already starts with. Work is done in batches of
+ * at most {@link #BATCH_LINES} lines, each applied on the FX thread in one go.
+ * When the viewport is far below the dirty region (e.g. right after opening a
+ * big file) visible lines are lexed first from their best known state.
+ * <p>
+ * Alongside the colours it keeps the {@link CodeStructure} of the document,
+ * updated from the same lexed lines: edited lines become unlexed runs until the
+ * sequential pass gets to them. The identifiers of the lexed lines are counted
+ * in a {@link PrefixTrie} for completion; each line keeps the ids it added, so
+ * re-lexing or deleting it takes back exactly those.
+ * <p>
+ * All public methods must be called on the FX thread.
+ */
+public class SyntaxHighlighter {
+
+    static final int BATCH_LINES = 2000;
+    static final int MIN_WORD = 2; // shorter identifiers are not worth completing
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "syntax-highlighter");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final Document document;
+    private final LineStore lines = new LineStore();
+    private CodeStructure structure;
+    private final PrefixTrie words = new PrefixTrie();
+    private final List<HighlightListener> listeners = new CopyOnWriteArrayList<>();
+    private final DocumentListener documentListener = (doc, change) -> onDocumentChanged(change);
+
+    // Dirty line range [dirtyFrom, dirtyTo]; dirtyFrom < 0 means everything is up to date
+    private int dirtyFrom = -1;
+    private int dirtyTo = -1;
+    private boolean running;
+    private boolean disposed;
+
+    private int visibleFrom;
+    private int visibleTo;
+    private long provisionalVersion = -1;
+    private int provisionalFrom = -1;
+
+    public SyntaxHighlighter(Document document) {
+        this.document = document;
+        lines.insert(1, document.lineCount() - 1);
+        structure = CodeStructure.unparsed(document.lineCount());
+        markDirty(0, document.lineCount() - 1);
+        document.addListener(documentListener);
+        schedule();
+    }
+
+    public Document getDocument() {
+        return document;
+    }
+
+    /**
+     * Stops listening to the document.
+     */
+    public void dispose() {
+        document.removeListener(documentListener);
+        disposed = true;
+    }
+
+    public void addListener(HighlightListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(HighlightListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Style spans of a line as {@code (start, length, TokenType ordinal)} triples,
+     * or null if the line has not been lexed yet. May be one edit behind the text.
+     */
+    public int[] spans(int line) {
+        return line >= 0 && line < lines.size() ? lines.spans(line) : null;
+    }
+
+    /**
+     * Structure of the document, for bracket matching, folding and the outline.
+     * Lines the lexer has not reached yet have none; may be one edit behind the text.
+     */
+    public CodeStructure getStructure() {
+        return structure;
+    }
+
+    /**
+     * Identifiers of the document with their number of occurrences, outside
+     * comments and literals. Lines the lexer has not reached yet are missing, and
+     * edited lines count with their old text until they are lexed again.
+     */
+    public PrefixTrie getWords() {
+        return words;
+    }
+
+    /**
+     * True when every line of the document is in {@link #getStructure()}.
+     */
+    public boolean isStructureCurrent() {
+        return dirtyFrom < 0 && structure.lineCount() == lines.size();
+    }
+
+    /**
+     * Tells the highlighter which lines are on screen, so they get lexed first.
+     */
+    public void setVisibleLines(int fromLine, int toLine) {
+        if (fromLine == visibleFrom && toLine == visibleTo) return;
+        visibleFrom = fromLine;
+        visibleTo = toLine;
+        schedule();
+    }
+
+    private void onDocumentChanged(DocumentChange change) {
+        int line = change.startLine();
+        int delta = change.lineDelta();
+        if (delta > 0) {
+            lines.insert(line + 1, delta);
+        } else if (delta < 0) {
+            for (int i = line + 1; i <= line - delta; i++) uncount(lines.words(i));
+            lines.remove(line + 1, -delta);
+        }
+        structure = structure.replace(line, change.removedLineBreaks() + 1,
+                new LineStructure[]{LineStructure.unparsed(change.insertedLineBreaks() + 1)}, 1);
+
+        // Shift the pending dirty range like the lines it describes
+        if (dirtyFrom >= 0) {
+            int removedEnd = line + change.removedLineBreaks();
+            if (dirtyFrom > removedEnd) dirtyFrom += delta;
+            else if (dirtyFrom > line) dirtyFrom = line;
+            if (dirtyTo > removedEnd) dirtyTo += delta;
+            else if (dirtyTo > line) dirtyTo = line;
+        }
+        markDirty(line, line + change.insertedLineBreaks());
+        schedule();
+    }
+
+    private void markDirty(int from, int to) {
+        if (dirtyFrom < 0) {
+            dirtyFrom = from;
+            dirtyTo = to;
+        } else {
+            dirtyFrom = Math.min(dirtyFrom, from);
+            dirtyTo = Math.max(dirtyTo, to);
+        }
+    }
+
+    private void schedule() {
+        if (running || disposed || dirtyFrom < 0) return;
+
+        int lineCount = lines.size();
+        int from = Math.min(dirtyFrom, lineCount - 1);
+        int count = Math.min(BATCH_LINES, lineCount - from);
+        int fromState = from == 0 ? CppLexer.NORMAL : lines.state(from);
+        if (fromState == LineStore.UNKNOWN) fromState = CppLexer.NORMAL;
+
+        // Start states the following lines had before, used to detect convergence
+        int[] expected = new int[count];
+        for (int i = 0; i < count; i++) {
+            expected[i] = from + i + 1 < lineCount ? lines.state(from + i + 1) : LineStore.UNKNOWN;
+        }
+
+        Job job = new Job(document.snapshot(), from, fromState, expected, dirtyTo);
+        if (visibleFrom >= from + count && visibleFrom < lineCount
+                && (provisionalVersion != job.snapshot.version() || provisionalFrom != visibleFrom)) {
+            int state = lines.state(visibleFrom);
+            job.visibleFrom = visibleFrom;
+            job.visibleTo = Math.min(visibleTo, lineCount - 1);
+            job.visibleState = state == LineStore.UNKNOWN ? CppLexer.NORMAL : state;
+        }
+
+        running = true;
+        EXECUTOR.execute(() -> {
+            job.run();
+            Platform.runLater(() -> apply(job));
+        });
+    }
+
+    private void apply(Job job) {
+        running = false;
+        if (disposed) return;
+        if (!job.snapshot.isCurrent()) {
+            schedule(); // the text changed meanwhile; dirty range was already updated
+            return;
+        }
+
+        int n = job.spans.length;
+        for (int i = 0; i < n; i++) {
+            lines.setSpans(job.from + i, job.spans[i]);
+            uncount(lines.words(job.from + i));
+            lines.setWords(job.from + i, count(job.words[i]));
+            if (job.from + i > 0) lines.setState(job.from + i, job.startStates[i]);
+        }
+        if (job.from + n < lines.size()) {
+            lines.setState(job.from + n, job.startStates[n]);
+        }
+        structure = structure.replace(job.from, n, job.structure, n);
+
+        if (job.converged || job.from + n >= lines.size()) {
+            dirtyFrom = dirtyTo = -1;
+        } else {
+            dirtyFrom = job.from + n;
+            dirtyTo = Math.max(dirtyTo, dirtyFrom);
+        }
+
+        if (job.visibleSpans != null) {
+            // provisional colours for lines the sequential pass has not reached yet
+            for (int i = 0; i < job.visibleSpans.length; i++) {
+                int line = job.visibleFrom + i;
+                if (dirtyFrom >= 0 && line >= dirtyFrom) lines.setSpans(line, job.visibleSpans[i]);
+            }
+            provisionalVersion = job.snapshot.version();
+            provisionalFrom = job.visibleFrom;
+            fireHighlighted(job.visibleFrom, job.visibleFrom + job.visibleSpans.length - 1);
+        }
+        if (n > 0) fireHighlighted(job.from, job.from + n - 1);
+        schedule();
+    }
+
+    private int[] count(String[] lineWords) {
+        if (lineWords.length == 0) return null;
+        int[] ids = new int[lineWords.length];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = words.add(lineWords[i], 1);
+        }
+        return ids;
+    }
+
+    private void uncount(int[] ids) {
+        if (ids == null) return;
+        for (int id : ids) {
+            words.addCount(id, -1);
+        }
+    }
+
+    private void fireHighlighted(int from, int to) {
+        for (HighlightListener l : listeners) {
+            l.linesHighlighted(from, to);
+        }
+    }
+
+    /**
+     * One batch of work, executed on the highlighter thread against a snapshot.
+     */
+    private static final class Job {
+        static final String[] NO_WORDS = new String[0];
+
+        final DocumentSnapshot snapshot;
+        final int from;
+        final int fromState;
+        final int[] expected;
+        final int dirtyTo;
+
+        int visibleFrom = -1;
+        int visibleTo = -1;
+        int visibleState;
+
+        int[][] spans;
+        int[] startStates;
+        LineStructure[] structure;
+        String[][] words;
+        boolean converged;
+        int[][] visibleSpans;
+
+        Job(DocumentSnapshot snapshot, int from, int fromState, int[] expected, int dirtyTo) {
+            this.snapshot = snapshot;
+            this.from = from;
+            this.fromState = fromState;
+            this.expected = expected;
+            this.dirtyTo = dirtyTo;
+        }
+
+        void run() {
+            SpanCollector collector = new SpanCollector();
+            if (visibleFrom >= 0) {
+                visibleSpans = new int[visibleTo - visibleFrom + 1][];
+                int state = visibleState;
+                for (int line = visibleFrom; line <= visibleTo; line++) {
+                    state = CppLexer.lexLine(snapshot.getLine(line), state, collector);
+                    visibleSpans[line - visibleFrom] = collector.take();
+                }
+            }
+
+            int max = expected.length;
+            int[][] lineSpans = new int[max][];
+            LineStructure[] lineStructure = new LineStructure[max];
+            String[][] lineWords = new String[max][];
+            int[] states = new int[max + 1];
+            states[0] = fromState;
+            int n = 0;
+            int state = fromState;
+            while (n < max) {
+                int line = from + n;
+                CharSequence text = snapshot.getLine(line);
+                state = CppLexer.lexLine(text, state, collector);
+                lineSpans[n] = collector.take();
+                states[n + 1] = state;
+                lineStructure[n] = LineStructure.of(text, states[n], lineSpans[n], state);
+                lineWords[n] = identifiers(text, lineSpans[n]);
+                n++;
+                if (line >= dirtyTo && state == expected[n - 1]) {
+                    converged = true;
+                    break;
+                }
+            }
+            spans = n == max ? lineSpans : Arrays.copyOf(lineSpans, n);
+            startStates = Arrays.copyOf(states, n + 1);
+            structure = lineStructure;
+            words = lineWords;
+        }
+
+        private static String[] identifiers(CharSequence text, int[] spans) {
+            int n = 0;
+            for (int i = 0; i < spans.length; i += 3) {
+                if (spans[i + 2] == TokenType.IDENTIFIER.ordinal() && spans[i + 1] >= MIN_WORD) n++;
+            }
+            if (n == 0) return NO_WORDS;
+            String[] result = new String[n];
+            n = 0;
+            for (int i = 0; i < spans.length; i += 3) {
+                if (spans[i + 2] == TokenType.IDENTIFIER.ordinal() && spans[i + 1] >= MIN_WORD) {
+                    result[n++] = text.subSequence(spans[i], spans[i] + spans[i + 1]).toString();
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Packs tokens of one line into an int array of (start, length, type) triples.
+     */
+    private static final class SpanCollector implements CppLexer.TokenSink {
+        private int[] buf = new int[96];
+        private int size;
+
+        @Override
+        public void token(int start, int length, TokenType type) {
+            if (size + 3 > buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+            buf[size++] = start;
+            buf[size++] = length;
+            buf[size++] = type.ordinal();
+        }
+
+        int[] take() {
+            int[] result = Arrays.copyOf(buf, size);
+            size = 0;
+            return result;
+        }
+    }
+}
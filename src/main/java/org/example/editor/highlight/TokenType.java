@@ -0,0 +1,23 @@
+package org.example.editor.highlight;
+
+/**
+ * Kinds of tokens produced by {@link CppLexer}.
+ */
+public enum TokenType {
+    IDENTIFIER,
+    KEYWORD,
+    TYPE,
+    NUMBER,
+    STRING,
+    CHAR,
+    COMMENT,
+    PREPROCESSOR,
+    BRACKET,
+    OPERATOR;
+
+    private static final TokenType[] VALUES = values();
+
+    public static TokenType of(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
@@ -0,0 +1,506 @@
+package org.example.editor.io;
+
+import org.example.editor.document.Document;
+import org.example.editor.document.DocumentChange;
+import org.example.editor.document.DocumentSnapshot;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+/**
+ * Write-ahead journal of one buffer's unsaved edits, so that they survive a crash
+ * or a kill of the editor.
+ * <p>
+ * A journal starts with a checkpoint - the whole text - followed by one small
+ * record per edit: offset, removed length and the inserted characters. Recording
+ * an edit on the FX thread only queues it; the inserted text is an O(log n) slice
+ * of a {@link DocumentSnapshot}, so nothing is copied or encoded while typing.
+ * A single background thread writes everything queued for a journal in one go
+ * and forces it to disk once (group commit), at most {@link #FLUSH_MILLIS} after
+ * the edit - that bounds what a crash can lose. Once the edits logged since the
+ * last checkpoint outweigh the text, the journal is compacted: a new checkpoint
+ * is written to a temporary file and renamed over the journal.
+ * <p>
+ * Every record carries a CRC32, so a record torn by a crash ends the replay
+ * instead of corrupting the text. Journals left behind by an earlier run are
+ * read back by {@link #recover()}; a buffer that gets saved discards its journal.
+ */
+public final class EditJournal {
+
+    private static final Path DIRECTORY = Path.of(System.getProperty("user.home"), ".editor", "journal");
+    private static final long FLUSH_MILLIS = 200;
+    private static final long COMPACT_MIN_CHARS = 1 << 18; // logged before a checkpoint is worth rewriting
+    private static final int RECORD_OVERHEAD = 16;         // counted per edit, so deletions add up too
+    private static final int MAGIC = 0x454A4E31;           // "EJN1"
+    private static final byte HEADER = 'H';
+    private static final byte CHECKPOINT = 'C';
+    private static final byte EDIT = 'E';
+    private static final int CHUNK_CHARS = 1 << 13;
+    private static final int SMALL_INSERT = 64; // copied right away, larger ones are snapshot slices
+
+    private static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "edit-journal");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // journals with records waiting for the next flush
+    private static final Set<EditJournal> QUEUED = ConcurrentHashMap.newKeySet();
+
+    private record Checkpoint(CharSequence text) {
+    }
+
+    private record Edit(int offset, int removedLength, CharSequence text) {
+    }
+
+    private final Path path;
+    private final File file;
+    private final Charset charset;
+    private final boolean byteOrderMark;
+
+    // FX thread
+    private long checkpointChars = -1; // no checkpoint yet
+    private long loggedChars;          // logged since the last checkpoint
+    private List<Object> recovered;    // read by recover(), until replayed
+
+    // guarded by this
+    private List<Object> pending = new ArrayList<>();
+    private boolean flushScheduled;
+    private boolean discarded;
+
+    // journal thread
+    private FileChannel channel;
+    private boolean failed;
+
+    private EditJournal(Path path, File file, Charset charset, boolean byteOrderMark) {
+        this.path = path;
+        this.file = file;
+        this.charset = charset;
+        this.byteOrderMark = byteOrderMark;
+    }
+
+    /**
+     * A new journal for the buffer of {@code file} (null for an untitled buffer).
+     * Nothing is written before the first {@link #record}.
+     */
+    public static EditJournal create(File file, Charset charset, boolean byteOrderMark) {
+        String name = file == null ? "untitled" : file.getName().replaceAll("[^A-Za-z0-9._-]", "_");
+        Path path = DIRECTORY.resolve(name + "-" + UUID.randomUUID() + ".journal");
+        return new EditJournal(path, file, charset, byteOrderMark);
+    }
+
+    /**
+     * The file the journaled text belongs to, or null for an untitled buffer.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public boolean hasByteOrderMark() {
+        return byteOrderMark;
+    }
+
+    /**
+     * Logs an edit just made to {@code document}. Called on the FX thread by the
+     * document's listener; the first edit and every compaction log the whole text.
+     */
+    public void record(Document document, DocumentChange change) {
+        if (checkpointChars < 0 || loggedChars > Math.max(COMPACT_MIN_CHARS, checkpointChars)) {
+            checkpoint(document.snapshot());
+            return;
+        }
+        CharSequence text = change.insertedLength() <= SMALL_INSERT
+                ? document.getText(change.offset(), change.insertedLength())
+                : document.snapshot().subSequence(change.offset(), change.offset() + change.insertedLength());
+        loggedChars += change.insertedLength() + RECORD_OVERHEAD;
+        enqueue(new Edit(change.offset(), change.removedLength(), text));
+    }
+
+    /**
+     * Replaces everything logged so far by {@code snapshot}, the current text.
+     */
+    public void checkpoint(DocumentSnapshot snapshot) {
+        checkpointChars = snapshot.length();
+        loggedChars = 0;
+        enqueue(new Checkpoint(snapshot));
+    }
+
+    /**
+     * Deletes the journal, e.g. once its buffer has been saved. Records still
+     * queued are dropped.
+     */
+    public void discard() {
+        synchronized (this) {
+            discarded = true;
+            pending.clear();
+            QUEUED.remove(this);
+        }
+        EXECUTOR.execute(() -> {
+            closeChannel();
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Writes out what is still queued in all journals, waiting at most a second.
+     * Called right before the editor exits.
+     */
+    public static void flushAll() {
+        try {
+            EXECUTOR.submit(() -> List.copyOf(QUEUED).forEach(EditJournal::flush)).get(1, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void enqueue(Object record) {
+        if (discarded) return;
+        pending.add(record);
+        if (!flushScheduled) {
+            flushScheduled = true;
+            QUEUED.add(this);
+            EXECUTOR.schedule(this::flush, FLUSH_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // ---------------------------------------------------------------- writing (journal thread)
+
+    private void flush() {
+        List<Object> batch;
+        synchronized (this) {
+            if (!flushScheduled) return; // already flushed by flushAll()
+            batch = pending;
+            pending = new ArrayList<>();
+            flushScheduled = false;
+            QUEUED.remove(this);
+        }
+        if (batch.isEmpty() || failed) return;
+
+        int start = 0; // the last checkpoint makes everything before it redundant
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            if (batch.get(i) instanceof Checkpoint) {
+                start = i;
+                break;
+            }
+        }
+        try {
+            if (batch.get(start) instanceof Checkpoint checkpoint) {
+                writeCheckpoint(checkpoint.text());
+                start++;
+            }
+            if (start == batch.size()) return;
+            RecordWriter out = new RecordWriter(channel);
+            for (Object record : batch.subList(start, batch.size())) {
+                Edit edit = (Edit) record;
+                out.begin(EDIT, 12 + 2 * edit.text().length());
+                out.putInt(edit.offset());
+                out.putInt(edit.removedLength());
+                out.putInt(edit.text().length());
+                out.putChars(edit.text());
+                out.end();
+            }
+            out.drain();
+            channel.force(false);
+        } catch (IOException | RuntimeException e) {
+            failed = true; // unsaved edits of this buffer are no longer protected
+            closeChannel();
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Writes a fresh journal holding only {@code text} next to the old one and
+     * renames it over it, so a crash leaves one of the two intact.
+     */
+    private void writeCheckpoint(CharSequence text) throws IOException {
+        Files.createDirectories(DIRECTORY);
+        Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            RecordWriter writer = new RecordWriter(out);
+            writer.putInt(MAGIC);
+            byte[] name = file == null ? new byte[0] : file.getAbsolutePath().getBytes(StandardCharsets.UTF_8);
+            byte[] encoding = charset.name().getBytes(StandardCharsets.UTF_8);
+            writer.begin(HEADER, 4 + name.length + 4 + encoding.length + 1);
+            writer.putBytes(name);
+            writer.putBytes(encoding);
+            writer.putByte((byte) (byteOrderMark ? 1 : 0));
+            writer.end();
+            writer.begin(CHECKPOINT, 4 + 2 * text.length());
+            writer.putInt(text.length());
+            writer.putChars(text);
+            writer.end();
+            writer.drain();
+            out.force(true);
+        }
+        closeChannel();
+        try {
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+        }
+        channel = FileChannel.open(path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void closeChannel() {
+        if (channel == null) return;
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        channel = null;
+    }
+
+    /**
+     * Buffers records and checksums each one: type, payload length, payload, CRC32
+     * of the first three.
+     */
+    private static final class RecordWriter {
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(1 << 16);
+        private final CRC32 crc = new CRC32();
+        private final char[] chars = new char[CHUNK_CHARS];
+        private int recordStart = -1; // in buffer, -1 between records
+
+        RecordWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        void begin(byte type, int payloadLength) throws IOException {
+            ensure(5);
+            crc.reset();
+            recordStart = buffer.position();
+            buffer.put(type);
+            buffer.putInt(payloadLength);
+        }
+
+        void end() throws IOException {
+            crc.update(buffer.duplicate().limit(buffer.position()).position(recordStart));
+            recordStart = -1;
+            putInt((int) crc.getValue());
+        }
+
+        void putByte(byte b) throws IOException {
+            ensure(1);
+            buffer.put(b);
+        }
+
+        void putInt(int value) throws IOException {
+            ensure(4);
+            buffer.putInt(value);
+        }
+
+        void putBytes(byte[] bytes) throws IOException {
+            putInt(bytes.length);
+            for (byte b : bytes) {
+                putByte(b);
+            }
+        }
+
+        void putChars(CharSequence text) throws IOException {
+            int length = text.length();
+            for (int pos = 0; pos < length; pos += CHUNK_CHARS) {
+                int n = Math.min(CHUNK_CHARS, length - pos);
+                if (text instanceof DocumentSnapshot snapshot) {
+                    snapshot.getChars(pos, pos + n, chars, 0);
+                } else {
+                    for (int i = 0; i < n; i++) {
+                        chars[i] = text.charAt(pos + i);
+                    }
+                }
+                for (int i = 0; i < n; i++) {
+                    ensure(2);
+                    buffer.putChar(chars[i]);
+                }
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) drain();
+        }
+
+        void drain() throws IOException {
+            if (recordStart >= 0) {
+                crc.update(buffer.duplicate().limit(buffer.position()).position(recordStart));
+                recordStart = 0;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    // ---------------------------------------------------------------- recovery
+
+    /**
+     * Journals left behind by an earlier run, newest first; each still has to be
+     * {@link #replay() replayed}. Unreadable journals are deleted. Called once at startup.
+     */
+    public static List<EditJournal> recover() {
+        List<Path> paths = new ArrayList<>();
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(DIRECTORY)) {
+            for (Path path : dir) {
+                String name = path.getFileName().toString();
+                if (name.endsWith(".tmp")) {
+                    Files.deleteIfExists(path); // a compaction cut short - the journal itself is intact
+                } else if (name.endsWith(".journal")) {
+                    paths.add(path);
+                }
+            }
+        } catch (NoSuchFileException ignored) {
+            // nothing was ever journaled
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        paths.sort(Comparator.comparing((Path path) -> path.toFile().lastModified()).reversed());
+
+        List<EditJournal> journals = new ArrayList<>();
+        for (Path path : paths) {
+            EditJournal journal = read(path);
+            if (journal != null) {
+                journals.add(journal);
+            } else {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        return journals;
+    }
+
+    /**
+     * Reads the valid records of a journal; null when not even the header and the
+     * first checkpoint survived.
+     */
+    private static EditJournal read(Path path) {
+        List<Object> records = new ArrayList<>();
+        File file = null;
+        Charset charset = StandardCharsets.UTF_8;
+        boolean byteOrderMark = false;
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(path)), new CRC32());
+             DataInputStream in = new DataInputStream(checked)) {
+            if (in.readInt() != MAGIC) return null;
+            ByteBuffer header = readRecord(in, checked, HEADER);
+            if (header == null) return null;
+            String name = new String(getBytes(header), StandardCharsets.UTF_8);
+            file = name.isEmpty() ? null : new File(name);
+            String encoding = new String(getBytes(header), StandardCharsets.UTF_8);
+            if (Charset.isSupported(encoding)) charset = Charset.forName(encoding);
+            byteOrderMark = header.get() != 0;
+
+            ByteBuffer record;
+            while ((record = readRecord(in, checked, records.isEmpty() ? CHECKPOINT : EDIT)) != null) {
+                if (records.isEmpty()) {
+                    records.add(new Checkpoint(getChars(record, record.getInt())));
+                } else {
+                    int offset = record.getInt();
+                    int removedLength = record.getInt();
+                    records.add(new Edit(offset, removedLength, getChars(record, record.getInt())));
+                }
+            }
+        } catch (EOFException e) {
+            // torn by a crash - keep what was read so far
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+        }
+        if (records.isEmpty()) return null;
+        EditJournal journal = new EditJournal(path, file, charset, byteOrderMark);
+        journal.recovered = records;
+        return journal;
+    }
+
+    /**
+     * Payload of the next record if it is intact and of the expected type, otherwise null.
+     */
+    private static ByteBuffer readRecord(DataInputStream in, CheckedInputStream checked, byte expected)
+            throws IOException {
+        checked.getChecksum().reset();
+        int type = in.read();
+        if (type != expected) return null;
+        int length = in.readInt();
+        if (length < 0 || length > Integer.MAX_VALUE - 8) return null;
+        byte[] payload = in.readNBytes(length);
+        if (payload.length < length) return null;
+        int crc = (int) checked.getChecksum().getValue();
+        if (in.readInt() != crc) return null;
+        return ByteBuffer.wrap(payload);
+    }
+
+    private static byte[] getBytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String getChars(ByteBuffer buffer, int length) {
+        char[] chars = new char[length];
+        buffer.asCharBuffer().get(chars);
+        return new String(chars);
+    }
+
+    /**
+     * Rebuilds the journaled text: the checkpoint and then the edits in order.
+     * Edits that do not fit the text (a damaged journal) end the replay. The
+     * journal is compacted to the result and from then on logs the edits of the
+     * buffer it is restored into.
+     */
+    public DocumentSnapshot replay() {
+        Document document = new Document();
+        document.getUndoHistory().setEnabled(false);
+        for (Object record : recovered) {
+            if (record instanceof Checkpoint checkpoint) {
+                document.setText(checkpoint.text());
+            } else if (record instanceof Edit edit) {
+                if (edit.offset() < 0 || edit.removedLength() < 0
+                        || edit.offset() > document.length() - edit.removedLength()) break;
+                document.replace(edit.offset(), edit.removedLength(), edit.text());
+            }
+        }
+        recovered = null;
+        DocumentSnapshot text = document.snapshot();
+        checkpoint(text);
+        return text;
+    }
+}
@@ -0,0 +1,232 @@
+package org.example.editor.io;
+
+import javafx.application.Platform;
+import javafx.concurrent.Task;
+import org.example.editor.document.Document;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Streams a file into a {@link Document} on a worker thread.
+ * <p>
+ * The file is read in chunks and decoded incrementally: a UTF-8 or UTF-16 byte
+ * order mark selects that encoding, anything else is decoded as UTF-8. The first
+ * malformed UTF-8 sequence restarts the load as Latin-1, which accepts any byte.
+ * Decoded text is appended to the document on the FX thread as it arrives, so
+ * the beginning of the file is visible (and highlighted) while the rest is still
+ * loading. Chunks are coalesced into one FX event, and the reader blocks when
+ * the FX thread falls too far behind.
+ * <p>
+ * The result is the charset that was used. The caller should clear the document
+ * before starting the task and discard the partial text if it is cancelled or fails.
+ */
+public class FileLoader extends Task<Charset> {
+
+    private static final int CHUNK_BYTES = 1 << 18;
+    private static final int MAX_PENDING_CHARS = 1 << 22;
+
+    private final Path path;
+    private final Document document;
+
+    // Text decoded but not yet appended; guarded by itself
+    private final StringBuilder pending = new StringBuilder();
+    private boolean drainScheduled;
+    private boolean resetPending;
+    private volatile boolean byteOrderMark;
+
+    public FileLoader(Path path, Document document) {
+        this.path = path;
+        this.document = document;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * Whether the file started with a byte order mark (not part of the loaded text).
+     */
+    public boolean hasByteOrderMark() {
+        return byteOrderMark;
+    }
+
+    /**
+     * Text of a file read by {@link #read}, with the encoding it was decoded with.
+     */
+    public record Text(String text, Charset charset, boolean byteOrderMark) {
+    }
+
+    /**
+     * Reads a whole file into a string at once, choosing the encoding the same
+     * way the task does - for callers that need the text but not a document,
+     * e.g. to compare a file with a buffer. The byte order mark is dropped.
+     */
+    public static String readText(Path path) throws IOException {
+        return read(path).text();
+    }
+
+    /**
+     * Like {@link #readText}, but also tells which encoding was chosen, e.g. to
+     * reload a buffer that is later saved the same way.
+     */
+    public static Text read(Path path) throws IOException {
+        byte[] bytes = Files.readAllBytes(path);
+        int b0 = bytes.length > 0 ? bytes[0] & 0xFF : -1;
+        int b1 = bytes.length > 1 ? bytes[1] & 0xFF : -1;
+        int b2 = bytes.length > 2 ? bytes[2] & 0xFF : -1;
+        if ((b0 == 0xFE && b1 == 0xFF) || (b0 == 0xFF && b1 == 0xFE)) {
+            Charset utf16 = b0 == 0xFE ? StandardCharsets.UTF_16BE : StandardCharsets.UTF_16LE;
+            return new Text(new String(bytes, 2, bytes.length - 2, utf16), utf16, true);
+        }
+        int bom = b0 == 0xEF && b1 == 0xBB && b2 == 0xBF ? 3 : 0;
+        try {
+            String text = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                    .decode(ByteBuffer.wrap(bytes, bom, bytes.length - bom))
+                    .toString();
+            return new Text(text, StandardCharsets.UTF_8, bom > 0);
+        } catch (CharacterCodingException e) {
+            return new Text(new String(bytes, StandardCharsets.ISO_8859_1), StandardCharsets.ISO_8859_1, false);
+        }
+    }
+
+    @Override
+    protected Charset call() throws IOException, InterruptedException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer head = ByteBuffer.allocate(3);
+            while (head.hasRemaining() && channel.read(head) >= 0) {
+                // a short read is fine, keep reading until 3 bytes or EOF
+            }
+            int b0 = head.position() > 0 ? head.get(0) & 0xFF : -1;
+            int b1 = head.position() > 1 ? head.get(1) & 0xFF : -1;
+            int b2 = head.position() > 2 ? head.get(2) & 0xFF : -1;
+
+            Charset charset = StandardCharsets.UTF_8;
+            int bom = 0;
+            if (b0 == 0xEF && b1 == 0xBB && b2 == 0xBF) {
+                bom = 3;
+            } else if (b0 == 0xFE && b1 == 0xFF) {
+                charset = StandardCharsets.UTF_16BE;
+                bom = 2;
+            } else if (b0 == 0xFF && b1 == 0xFE) {
+                charset = StandardCharsets.UTF_16LE;
+                bom = 2;
+            }
+
+            byteOrderMark = bom > 0;
+            updateMessage(charset.name());
+            if (!decode(channel, charset, bom, size)) {
+                // not UTF-8 after all - start over as Latin-1
+                charset = StandardCharsets.ISO_8859_1;
+                byteOrderMark = false;
+                updateMessage(charset.name());
+                reset();
+                decode(channel, charset, 0, size);
+            }
+            return charset;
+        }
+    }
+
+    /**
+     * Decodes {@code [from, size)} and publishes the text. Returns false on
+     * malformed input (only reported for UTF-8).
+     */
+    private boolean decode(FileChannel channel, Charset charset, long from, long size)
+            throws IOException, InterruptedException {
+        boolean strict = charset == StandardCharsets.UTF_8;
+        CharsetDecoder decoder = charset.newDecoder()
+                .onMalformedInput(strict ? CodingErrorAction.REPORT : CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate(CHUNK_BYTES);
+        CharBuffer chars = CharBuffer.allocate(CHUNK_BYTES);
+        long position = from;
+        boolean eof = false;
+
+        while (!eof) {
+            if (isCancelled()) return true;
+            int n = channel.read(bytes, position);
+            if (n < 0) {
+                eof = true;
+            } else {
+                position += n;
+            }
+            bytes.flip();
+            CoderResult result;
+            while ((result = decoder.decode(bytes, chars, eof)).isOverflow()) {
+                publish(chars);
+            }
+            if (result.isError()) return false;
+            if (eof) {
+                while (decoder.flush(chars).isOverflow()) {
+                    publish(chars);
+                }
+            }
+            bytes.compact();
+            publish(chars);
+            updateProgress(Math.min(position, size), size);
+        }
+        return true;
+    }
+
+    private void publish(CharBuffer chars) throws InterruptedException {
+        chars.flip();
+        if (chars.hasRemaining()) {
+            synchronized (pending) {
+                while (pending.length() > MAX_PENDING_CHARS && !isCancelled()) {
+                    pending.wait(100);
+                }
+                pending.append(chars);
+                scheduleDrain();
+            }
+        }
+        chars.clear();
+    }
+
+    private void reset() {
+        synchronized (pending) {
+            pending.setLength(0);
+            resetPending = true;
+            scheduleDrain();
+        }
+    }
+
+    private void scheduleDrain() {
+        if (!drainScheduled) {
+            drainScheduled = true;
+            Platform.runLater(this::drain);
+        }
+    }
+
+    /**
+     * Appends everything decoded so far; runs on the FX thread.
+     */
+    private void drain() {
+        String text;
+        boolean reset;
+        synchronized (pending) {
+            text = pending.toString();
+            pending.setLength(0);
+            reset = resetPending;
+            resetPending = false;
+            drainScheduled = false;
+            pending.notifyAll();
+        }
+        if (isCancelled()) return;
+        if (reset) document.setText("");
+        if (!text.isEmpty()) document.insert(document.length(), text);
+    }
+}
@@ -0,0 +1,201 @@
+package org.example.editor.io;
+
+import javafx.application.Platform;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Watches folder trees for files created, changed or deleted outside the editor.
+ * <p>
+ * Every directory of a watched tree (hidden ones excepted, as in Find in Folder)
+ * is registered with a {@link WatchService}. Events are not passed on one by one:
+ * after the first one the watcher keeps collecting until nothing has happened
+ * for {@link #QUIET_MILLIS} (or {@link #MAX_DELAY_MILLIS} have passed), then
+ * checks each path touched once and reports the whole burst as a single
+ * {@link Changes} on the FX thread. A build writing a thousand files thus costs
+ * one update of the listener, and files that came and went within the burst
+ * (temporary files) are not reported at all. When the system drops events, the
+ * affected folder is reported as needing a rescan instead.
+ */
+public final class FolderWatcher {
+
+    private static final long QUIET_MILLIS = 150;
+    private static final long MAX_DELAY_MILLIS = 1000;
+
+    /**
+     * One burst of changes. {@code changed} holds regular files that now exist and
+     * were created or written, {@code deleted} files that are gone; {@code rescan}
+     * holds watched folders whose events were lost, to be walked again.
+     */
+    public record Changes(Set<Path> changed, Set<Path> deleted, Set<Path> rescan) {
+    }
+
+    private final Consumer<Changes> listener;
+    private final Map<WatchKey, Path> roots = new HashMap<>(); // key -> watched folder it belongs to
+    private WatchService service;
+
+    /**
+     * @param listener called on the FX thread with every burst of changes
+     */
+    public FolderWatcher(Consumer<Changes> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts watching {@code folder} and everything below it. Registering a large
+     * tree takes a while, so it happens on a background thread.
+     */
+    public void watch(Path folder) {
+        Path root = folder.toAbsolutePath().normalize();
+        WatchService ws;
+        synchronized (this) {
+            if (roots.containsValue(root)) return;
+            if (service == null) {
+                try {
+                    service = FileSystems.getDefault().newWatchService();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    return;
+                }
+                Thread t = new Thread(this::run, "folder-watcher");
+                t.setDaemon(true);
+                t.start();
+            }
+            ws = service;
+        }
+        Thread t = new Thread(() -> register(ws, root, root, null), "folder-watcher-register");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    /**
+     * Stops watching {@code folder}.
+     */
+    public synchronized void unwatch(Path folder) {
+        Path root = folder.toAbsolutePath().normalize();
+        roots.entrySet().removeIf(e -> {
+            if (!e.getValue().equals(root)) return false;
+            e.getKey().cancel();
+            return true;
+        });
+    }
+
+    /**
+     * Registers {@code dir} and its subdirectories. Files already inside a directory
+     * that was just created are added to {@code found}, as their own events were
+     * raised before anyone listened.
+     */
+    private void register(WatchService ws, Path root, Path dir, Set<Path> found) {
+        try {
+            Files.walkFileTree(dir, new SimpleFileVisitor<>() {
+                @Override
+                public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) throws IOException {
+                    Path name = d.getFileName();
+                    if (name != null && name.toString().startsWith(".") && !d.equals(root)) {
+                        return FileVisitResult.SKIP_SUBTREE;
+                    }
+                    WatchKey key = d.register(ws, StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                    synchronized (FolderWatcher.this) {
+                        roots.put(key, root);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                    if (found != null && attrs.isRegularFile()) found.add(file.toAbsolutePath().normalize());
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException | ClosedWatchServiceException e) {
+            e.printStackTrace(); // e.g. out of inotify watches - the rest of the tree is not watched
+        }
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Set<Path> touched = new LinkedHashSet<>();
+                Set<Path> created = new HashSet<>(); // first seen being created - gone again means never there
+                Set<Path> rescan = new LinkedHashSet<>();
+                long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(MAX_DELAY_MILLIS);
+                while (key != null) {
+                    collect(key, touched, created, rescan);
+                    long left = deadline - System.nanoTime();
+                    if (left <= 0) break;
+                    key = service.poll(Math.min(left, TimeUnit.MILLISECONDS.toNanos(QUIET_MILLIS)), TimeUnit.NANOSECONDS);
+                }
+                deliver(touched, created, rescan);
+            }
+        } catch (InterruptedException | ClosedWatchServiceException ignored) {
+        }
+    }
+
+    private void collect(WatchKey key, Set<Path> touched, Set<Path> created, Set<Path> rescan) {
+        Path dir = (Path) key.watchable();
+        Path root;
+        synchronized (this) {
+            root = roots.get(key);
+        }
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (root == null) continue; // unwatched meanwhile
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                rescan.add(root);
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context()).toAbsolutePath().normalize();
+            boolean creation = event.kind() == StandardWatchEventKinds.ENTRY_CREATE;
+            if (creation && Files.isDirectory(path)) {
+                register(service, root, path, touched);
+            } else if (touched.add(path) && creation) {
+                created.add(path);
+            }
+        }
+        if (!key.reset()) {
+            synchronized (this) {
+                roots.remove(key);
+            }
+            if (root != null && !dir.equals(root)) rescan.add(root); // a subfolder was deleted with its files
+        }
+    }
+
+    private void deliver(Set<Path> touched, Set<Path> created, Set<Path> rescan) {
+        Set<Path> changed = new LinkedHashSet<>();
+        Set<Path> deleted = new LinkedHashSet<>();
+        for (Path path : touched) {
+            if (Files.isRegularFile(path)) {
+                changed.add(path);
+            } else if (!created.contains(path) && !Files.exists(path)) {
+                deleted.add(path);
+            }
+        }
+        if (changed.isEmpty() && deleted.isEmpty() && rescan.isEmpty()) return;
+        Changes changes = new Changes(changed, deleted, rescan);
+        Platform.runLater(() -> listener.accept(changes));
+    }
+}
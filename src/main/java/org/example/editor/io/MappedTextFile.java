@@ -0,0 +1,345 @@
+package org.example.editor.io;
+
+import org.example.editor.document.LineSource;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Read-only view of a (very) large text file through {@link FileChannel#map}.
+ * <p>
+ * Nothing is copied onto the heap up front: the file is mapped in segments of
+ * at most 1 GiB (a single mapping cannot exceed 2 GiB) and the OS pages in only
+ * what is actually read - in practice the lines on screen. A background thread
+ * scans the mapping once and keeps a sparse line index, the byte offset of
+ * every {@value #STRIDE}th line, so heap use stays at 8 bytes per 64 lines.
+ * A line is located by jumping to its checkpoint and skipping the remaining
+ * line breaks. {@link #lineCount()} grows while the index is being built.
+ * <p>
+ * The text is decoded as UTF-8 (which also covers plain ASCII); other
+ * ASCII-compatible encodings show replacement characters for non-ASCII bytes.
+ * <p>
+ * A file that another process is still writing (captured program output) is
+ * opened with {@link #follow}: the indexer then keeps polling its size and
+ * indexes what was appended, until {@link #stopFollowing()}. A read-only
+ * mapping cannot reach past the end of the file, so appended bytes are read
+ * into a small heap tail first, and the last segment is mapped again only once
+ * that tail is full - after the mapped part of the segment has doubled, or at
+ * most {@value #MAX_TAIL_BYTES} bytes later. A long capture thus leaves a few
+ * hundred stale mappings per GiB for the garbage collector, not one per poll.
+ */
+public class MappedTextFile implements LineSource, Closeable {
+
+    /**
+     * Files bigger than this are opened in the mapped, read-only viewer instead of the editor.
+     * Well above the tens of MB of generated sources the editor is expected to edit.
+     */
+    public static final long MAPPED_THRESHOLD = 256L << 20;
+
+    private static final int SEGMENT_SHIFT = 30;
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+    private static final int STRIDE_SHIFT = 6;
+    private static final int STRIDE = 1 << STRIDE_SHIFT;
+    private static final int MAX_LINE_BYTES = 1 << 16;     // longer lines are cut for display
+    private static final int SCAN_BUFFER = 1 << 16;
+    private static final long PROGRESS_INTERVAL_NANOS = 100_000_000L;
+    private static final long FOLLOW_POLL_MILLIS = 50;
+    private static final int MIN_TAIL_BYTES = 1 << 16;
+    private static final int MAX_TAIL_BYTES = 8 << 20;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final long textStart;      // 3 when the file starts with a UTF-8 BOM
+
+    /**
+     * The bytes readers can see: {@code [0, mappedSize)} through the segments and
+     * {@code [mappedSize, size)} from the heap tail of a followed file. Replaced as
+     * a whole when the file grows; tail bytes below {@code size} never change.
+     */
+    private record Contents(MappedByteBuffer[] segments, long mappedSize, byte[] tail, long size) {
+    }
+
+    private static final byte[] NO_TAIL = new byte[0];
+
+    private volatile Contents contents = new Contents(new MappedByteBuffer[0], 0, NO_TAIL, 0);
+
+    // checkpoints[i] = byte offset of line i * STRIDE; published through lineCount
+    private volatile long[] checkpoints = new long[256];
+    private volatile int lineCount;
+    private volatile long indexedBytes;
+    private volatile boolean indexed;
+    private volatile boolean closed;
+    private volatile boolean following;
+    private Thread indexer;
+
+    private MappedTextFile(Path path, FileChannel channel) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        map(channel.size());
+        Contents c = contents;
+        textStart = c.size >= 3 && byteAt(c, 0) == (byte) 0xEF && byteAt(c, 1) == (byte) 0xBB && byteAt(c, 2) == (byte) 0xBF ? 3 : 0;
+        checkpoints[0] = textStart;
+    }
+
+    public static MappedTextFile open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new MappedTextFile(path, channel);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Opens a file that another process is still appending to. The indexer keeps
+     * picking up new text until {@link #stopFollowing()} is called.
+     */
+    public static MappedTextFile follow(Path path) throws IOException {
+        MappedTextFile file = open(path);
+        file.following = true;
+        return file;
+    }
+
+    /**
+     * The writer is done: the indexer takes in what is left and finishes.
+     */
+    public void stopFollowing() {
+        following = false;
+    }
+
+    /**
+     * Maps the file up to {@code newSize}, keeping the segments that are complete
+     * already. While following, a new heap tail takes in what is appended next.
+     */
+    private void map(long newSize) throws IOException {
+        int count = (int) ((newSize + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+        MappedByteBuffer[] mapped = Arrays.copyOf(contents.segments, count);
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << SEGMENT_SHIFT;
+            long length = Math.min(SEGMENT_MASK + 1, newSize - start);
+            if (mapped[i] == null || mapped[i].limit() != length) {
+                mapped[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            }
+        }
+        byte[] tail = NO_TAIL;
+        if (following) {
+            long inLastSegment = newSize - ((newSize - 1) & ~SEGMENT_MASK);
+            tail = new byte[(int) Math.min(MAX_TAIL_BYTES, Math.max(MIN_TAIL_BYTES, inLastSegment))];
+        }
+        contents = new Contents(mapped, newSize, tail, newSize);
+    }
+
+    /**
+     * Takes in what a writer appended, up to {@code newSize}: into the heap tail
+     * while it fits, otherwise by mapping the file again.
+     */
+    private void grow(long newSize) throws IOException {
+        Contents c = contents;
+        if (newSize > c.mappedSize + c.tail.length) {
+            map(newSize);
+            return;
+        }
+        int at = (int) (c.size - c.mappedSize);
+        ByteBuffer dst = ByteBuffer.wrap(c.tail, at, (int) (newSize - c.size));
+        while (dst.hasRemaining() && channel.read(dst, c.mappedSize + dst.position()) >= 0) {
+            // a short read is fine, keep reading up to newSize or EOF
+        }
+        contents = new Contents(c.segments, c.mappedSize, c.tail, c.mappedSize + dst.position());
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * File size in bytes.
+     */
+    public long size() {
+        return contents.size;
+    }
+
+    public boolean isIndexed() {
+        return indexed;
+    }
+
+    /**
+     * Fraction of the file scanned by the line indexer, 0..1.
+     */
+    public double indexProgress() {
+        long size = contents.size;
+        return size == 0 ? 1 : (double) indexedBytes / size;
+    }
+
+    /**
+     * Starts building the line index on a daemon thread. {@code onProgress} is
+     * called from that thread a few times per second while new lines become
+     * available, and once more when the index is complete.
+     */
+    public synchronized void startIndexing(Runnable onProgress) {
+        if (indexer != null) return;
+        indexer = new Thread(() -> buildIndex(onProgress), "line-index-" + path.getFileName());
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    private void buildIndex(Runnable onProgress) {
+        byte[] buf = new byte[SCAN_BUFFER];
+        long[] marks = checkpoints;
+        int breaks = 0;
+        long lastProgress = System.nanoTime();
+        long pos = textStart;
+        boolean full = false; // more lines than a view can address, show what we have
+
+        while (!closed && !full) {
+            Contents c = contents;
+            long end = c.size;
+            while (pos < end && !closed && !full) {
+                int n = get(c, pos, buf, 0, (int) Math.min(buf.length, end - pos));
+                for (int i = 0; i < n; i++) {
+                    if (buf[i] != '\n') continue;
+                    if (breaks == Integer.MAX_VALUE - 1) {
+                        full = true;
+                        break;
+                    }
+                    breaks++;
+                    if ((breaks & (STRIDE - 1)) == 0) {
+                        int slot = breaks >>> STRIDE_SHIFT;
+                        if (slot == marks.length) {
+                            marks = Arrays.copyOf(marks, marks.length * 2);
+                            checkpoints = marks;
+                        }
+                        marks[slot] = pos + i + 1;
+                    }
+                }
+                pos += n;
+
+                long now = System.nanoTime();
+                if (now - lastProgress >= PROGRESS_INTERVAL_NANOS) {
+                    lastProgress = now;
+                    checkpoints = marks;  // volatile writes publish the checkpoints before the count
+                    indexedBytes = pos;
+                    lineCount = breaks + 1; // the line after the last break is read up to its end anyway
+                    onProgress.run();
+                }
+            }
+
+            boolean writing = following; // read before the size: a writer that is done has written it all
+            long grown;
+            try {
+                grown = channel.size();
+                if (grown > end) {
+                    grow(grown);
+                    continue;
+                }
+            } catch (IOException e) {
+                break; // closed
+            }
+            if (!writing) break;
+            if (lineCount != breaks + 1) {
+                checkpoints = marks;
+                indexedBytes = pos;
+                lineCount = breaks + 1;
+                onProgress.run();
+            }
+            try {
+                Thread.sleep(FOLLOW_POLL_MILLIS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+
+        if (!full && !closed && !following && contents.tail.length > 0) {
+            try {
+                map(contents.size); // done growing, the heap tail is not needed any more
+            } catch (IOException ignored) {
+                // closed meanwhile
+            }
+        }
+        checkpoints = marks;
+        indexedBytes = contents.size;
+        lineCount = breaks + 1; // the last line has no terminator (it may be empty)
+        indexed = true;
+        onProgress.run();
+    }
+
+    /**
+     * Number of lines indexed so far; only final once {@link #isIndexed()}.
+     */
+    @Override
+    public int lineCount() {
+        return lineCount;
+    }
+
+    /**
+     * Decodes one line from the mapping. Lines longer than 64 KiB are truncated.
+     */
+    @Override
+    public String getLine(int line) {
+        if (line < 0 || line >= lineCount) {
+            throw new IndexOutOfBoundsException("line " + line + ", line count " + lineCount);
+        }
+        Contents c = contents;
+        long start = checkpoints[line >>> STRIDE_SHIFT];
+        for (int skip = line & (STRIDE - 1); skip > 0; skip--) {
+            start = indexOfBreak(c, start, c.size) + 1;
+        }
+        long end = indexOfBreak(c, start, Math.min(c.size, start + MAX_LINE_BYTES));
+        if (end > start && end < c.size && byteAt(c, end) == '\n' && byteAt(c, end - 1) == '\r') {
+            end--;
+        }
+        byte[] bytes = new byte[(int) (end - start)];
+        for (int done = 0; done < bytes.length; ) {
+            done += get(c, start + done, bytes, done, bytes.length - done);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Position of the first '\n' in {@code [from, limit)}, or {@code limit}.
+     */
+    private static long indexOfBreak(Contents c, long from, long limit) {
+        for (long pos = from; pos < limit; pos++) {
+            if (byteAt(c, pos) == '\n') return pos;
+        }
+        return limit;
+    }
+
+    private static byte byteAt(Contents c, long pos) {
+        if (pos >= c.mappedSize) return c.tail[(int) (pos - c.mappedSize)];
+        return c.segments[(int) (pos >>> SEGMENT_SHIFT)].get((int) (pos & SEGMENT_MASK));
+    }
+
+    /**
+     * Copies up to {@code length} bytes (all below the size) from {@code pos} into
+     * {@code dst}, stopping at the end of a segment; returns how many.
+     */
+    private static int get(Contents c, long pos, byte[] dst, int offset, int length) {
+        if (pos >= c.mappedSize) {
+            System.arraycopy(c.tail, (int) (pos - c.mappedSize), dst, offset, length);
+            return length;
+        }
+        MappedByteBuffer segment = c.segments[(int) (pos >>> SEGMENT_SHIFT)];
+        int inSegment = (int) (pos & SEGMENT_MASK);
+        int n = Math.min(length, segment.limit() - inSegment);
+        segment.get(inSegment, dst, offset, n);
+        return n;
+    }
+
+    /**
+     * Stops indexing and closes the channel. The mappings themselves are released
+     * by the garbage collector once no line is being read from them.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        channel.close();
+    }
+}
@@ -0,0 +1,229 @@
+package org.example.editor.io;
+
+import org.example.editor.document.DocumentSnapshot;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Writes document snapshots to disk on a background thread.
+ * <p>
+ * A save encodes the snapshot chunk by chunk straight into a {@link FileChannel}
+ * on a temporary file next to the target, forces it to disk and renames it over
+ * the target atomically, so a crash leaves either the old or the new file, never
+ * a truncated one. The hash of the last text saved (or loaded) for every path is
+ * remembered; when the text and the file on disk are unchanged the write is skipped.
+ * <p>
+ * Saves run one at a time in submission order, so a later save of the same file
+ * always wins.
+ */
+public class SaveService {
+
+    private static final int CHUNK_CHARS = 1 << 14;
+
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "save-service");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * What was last written to (or read from) a path, used to skip redundant writes.
+     */
+    private record Saved(long hash, int length, Charset charset, boolean bom, long size, FileTime modified) {
+    }
+
+    private final Map<Path, Saved> saved = new ConcurrentHashMap<>();
+
+    /**
+     * Saves {@code snapshot} to {@code target}. Completes with true when the file
+     * was written and false when the write was skipped because nothing changed.
+     *
+     * @param bom whether to start the file with a byte order mark
+     */
+    public CompletableFuture<Boolean> save(Path target, DocumentSnapshot snapshot, Charset charset, boolean bom) {
+        Path path = target.toAbsolutePath();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return write(path, snapshot, charset, bom);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, EXECUTOR);
+    }
+
+    /**
+     * Records that {@code target} currently holds {@code snapshot} (e.g. right after
+     * loading it), so that saving it unchanged does not touch the disk.
+     */
+    public void remember(Path target, DocumentSnapshot snapshot, Charset charset, boolean bom) {
+        Path path = target.toAbsolutePath();
+        EXECUTOR.execute(() -> {
+            try {
+                saved.put(path, new Saved(hash(snapshot), snapshot.length(), charset, bom,
+                        Files.size(path), Files.getLastModifiedTime(path)));
+            } catch (IOException ignored) {
+                saved.remove(path);
+            }
+        });
+    }
+
+    /**
+     * Whether {@code target} was modified or deleted by someone else since the
+     * editor last loaded or saved it. False for files it knows nothing about.
+     */
+    public boolean isChangedOnDisk(Path target) {
+        Saved last = saved.get(target.toAbsolutePath());
+        if (last == null) return false;
+        try {
+            return Files.size(target) != last.size || !Files.getLastModifiedTime(target).equals(last.modified);
+        } catch (IOException e) {
+            return true; // gone or unreadable
+        }
+    }
+
+    /**
+     * Takes the current file on disk as known - the user has seen how it
+     * differs - so {@link #isChangedOnDisk} stops reporting it. The next save
+     * writes the file whatever the text.
+     */
+    public void acknowledgeDiskVersion(Path target) {
+        Path path = target.toAbsolutePath();
+        EXECUTOR.execute(() -> {
+            try {
+                saved.put(path, new Saved(0, -1, StandardCharsets.UTF_8, false,
+                        Files.size(path), Files.getLastModifiedTime(path)));
+            } catch (IOException ignored) {
+                saved.remove(path);
+            }
+        });
+    }
+
+    private boolean write(Path path, DocumentSnapshot snapshot, Charset charset, boolean bom) throws IOException {
+        long hash = hash(snapshot);
+        Saved last = saved.get(path);
+        if (last != null && last.hash == hash && last.length == snapshot.length()
+                && last.charset.equals(charset) && last.bom == bom && Files.exists(path)
+                && Files.size(path) == last.size && Files.getLastModifiedTime(path).equals(last.modified)) {
+            return false;
+        }
+
+        Path dir = path.getParent();
+        Path tmp = Files.createTempFile(dir, "." + path.getFileName() + "-", ".tmp");
+        try {
+            copyPermissions(path, tmp);
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                encode(snapshot, charset, bom, channel);
+                channel.force(true);
+            }
+            try {
+                Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        saved.put(path, new Saved(hash, snapshot.length(), charset, bom,
+                Files.size(path), Files.getLastModifiedTime(path)));
+        return true;
+    }
+
+    /**
+     * Temp files are created owner-only; keep the permissions the target already had.
+     */
+    private static void copyPermissions(Path from, Path to) throws IOException {
+        if (!Files.exists(from)) return;
+        try {
+            Files.setPosixFilePermissions(to, Files.getPosixFilePermissions(from));
+        } catch (UnsupportedOperationException ignored) {
+            // not a POSIX file system
+        }
+    }
+
+    private static void encode(DocumentSnapshot snapshot, Charset charset, boolean bom, FileChannel channel)
+            throws IOException {
+        CharsetEncoder encoder = charset.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer bytes = ByteBuffer.allocate((int) (CHUNK_CHARS * encoder.maxBytesPerChar()) + 16);
+        char[] buf = new char[CHUNK_CHARS];
+        CharBuffer chars = CharBuffer.wrap(buf);
+        chars.limit(0);
+
+        if (bom && (charset == StandardCharsets.UTF_8 || charset == StandardCharsets.UTF_16BE
+                || charset == StandardCharsets.UTF_16LE)) {
+            encoder.encode(CharBuffer.wrap("\uFEFF"), bytes, false);
+        }
+        int length = snapshot.length();
+        int pos = 0;
+        while (true) {
+            chars.compact(); // keeps a leftover half of a surrogate pair at the start
+            int n = Math.min(chars.remaining(), length - pos);
+            snapshot.getChars(pos, pos + n, buf, chars.position());
+            chars.position(chars.position() + n);
+            chars.flip();
+            pos += n;
+            boolean last = pos == length;
+
+            CoderResult result;
+            while ((result = encoder.encode(chars, bytes, last)).isOverflow()) {
+                drain(bytes, channel);
+            }
+            if (last) {
+                while (encoder.flush(bytes).isOverflow()) {
+                    drain(bytes, channel);
+                }
+                drain(bytes, channel);
+                return;
+            }
+            if (result.isError()) result.throwException();
+            drain(bytes, channel);
+        }
+    }
+
+    private static void drain(ByteBuffer bytes, FileChannel channel) throws IOException {
+        bytes.flip();
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+        bytes.clear();
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters of the snapshot.
+     */
+    private static long hash(DocumentSnapshot snapshot) {
+        char[] buf = new char[CHUNK_CHARS];
+        long h = 0xcbf29ce484222325L;
+        int length = snapshot.length();
+        for (int pos = 0; pos < length; pos += CHUNK_CHARS) {
+            int n = Math.min(CHUNK_CHARS, length - pos);
+            snapshot.getChars(pos, pos + n, buf, 0);
+            for (int i = 0; i < n; i++) {
+                h = (h ^ buf[i]) * 0x100000001b3L;
+            }
+        }
+        return h;
+    }
+}
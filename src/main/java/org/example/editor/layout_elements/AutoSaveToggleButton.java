@@ -0,0 +1,18 @@
+package org.example.editor.layout_elements;
+
+import javafx.scene.control.ToggleButton;
+
+public class AutoSaveToggleButton extends ToggleButton {
+    public AutoSaveToggleButton(CodeEditor codeEditor) {
+        super("Autosave");
+
+        setOnAction(e -> {
+            codeEditor.setAutoSave(isSelected());
+            setText(isSelected() ? "Autosave: ON" : "Autosave: OFF");
+        });
+
+        // autosave is opt-in
+        setSelected(false);
+        setText("Autosave: OFF");
+    }
+}
@@ -1,29 +1,215 @@
     package org.example.editor.layout_elements;
 
-    import javafx.scene.control.TextArea;
+    import javafx.animation.PauseTransition;
+    import javafx.application.Platform;
+    import javafx.beans.property.ReadOnlyBooleanProperty;
+    import javafx.beans.property.ReadOnlyBooleanWrapper;
+    import javafx.geometry.Insets;
+    import javafx.geometry.Pos;
+    import javafx.scene.control.Alert;
+    import javafx.scene.control.Button;
+    import javafx.scene.control.ChoiceDialog;
+    import javafx.scene.control.Label;
+    import javafx.scene.control.ProgressBar;
+    import javafx.scene.control.TextInputDialog;
+    import javafx.scene.input.KeyCode;
+    import javafx.scene.input.KeyEvent;
+    import javafx.scene.input.MouseEvent;
+    import javafx.scene.input.ScrollEvent;
+    import javafx.scene.layout.HBox;
     import javafx.scene.layout.Pane;
+    import javafx.util.Duration;
+    import org.example.editor.buffer.Buffer;
+    import org.example.editor.buffer.BufferManager;
+    import org.example.editor.diagnostics.Diagnostic;
+    import org.example.editor.diagnostics.DiagnosticIndex;
+    import org.example.editor.document.Document;
+    import org.example.editor.document.DocumentListener;
+    import org.example.editor.document.DocumentSnapshot;
+    import org.example.editor.highlight.CodeStructure;
+    import org.example.editor.highlight.SyntaxHighlighter;
+    import org.example.editor.io.EditJournal;
+    import org.example.editor.io.FileLoader;
+    import org.example.editor.io.FolderWatcher;
+    import org.example.editor.io.MappedTextFile;
+    import org.example.editor.io.SaveService;
     import org.example.editor.layout_api.Component;
+    import org.example.editor.search.SymbolIndex;
+    import org.example.editor.search.TrigramIndex;
+
+    import java.io.File;
+    import java.io.IOException;
+    import java.io.UncheckedIOException;
+    import java.nio.file.Path;
+    import java.util.ArrayList;
+    import java.util.HashMap;
+    import java.util.List;
+    import java.util.Map;
+    import java.util.TreeMap;
+    import java.util.concurrent.CompletableFuture;
 
     /**
-     * Komponent do edytowania kodu – oparty o JavaFX TextArea
+     * Komponent do edytowania kodu – oparty o wirtualizowany {@link EditorView},
+     * który rysuje tylko widoczne linie, kolorowane w tle przez {@link SyntaxHighlighter}.
+     * Tekst jest trzymany w {@link Document} (piece table) – zapis i kompilacja
+     * czytają z jego snapshotu zamiast kopiować cały bufor do Stringa.
+     * Pliki są wczytywane w tle przez {@link FileLoader} (z paskiem postępu i anulowaniem),
+     * bardzo duże pliki są pokazywane tylko do odczytu przez {@link MappedTextFile}.
+     * Zapis idzie w tle przez {@link SaveService}; edytor śledzi niezapisane zmiany
+     * i opcjonalnie zapisuje sam po chwili bezczynności (autosave).
+     * Otwarte pliki są trzymane przez {@link BufferManager} – przełączanie między
+     * ostatnio używanymi plikami nie czyta ich z dysku i zachowuje kursor, przewinięcie i historię cofania.
+     * Pliki zmienione poza edytorem ({@link FolderWatcher}) są wczytywane na nowo,
+     * a gdy bufor ma niezapisane zmiany – nad tekstem pojawia się pasek z wyborem.
+     * Niezapisane zmiany trafiają na bieżąco do dziennika ({@link EditJournal}) – po awarii
+     * edytor przywraca je przy następnym uruchomieniu.
+     * Błędy i ostrzeżenia ostatniej kompilacji ({@link DiagnosticIndex}) są zaznaczone
+     * na marginesie, F8 / Shift+F8 przechodzi do następnego / poprzedniego.
      */
     public class CodeEditor extends Component {
 
-        private final TextArea textArea;
+        private static final SaveService SAVE_SERVICE = new SaveService();
+        private static final Duration AUTOSAVE_DELAY = Duration.seconds(2);
+
+        private final BufferManager buffers = new BufferManager();
+        private final EditorView view;
+        private final HBox loadingBar;
+        private final HBox diskBar;
+        private final Label diskLabel = new Label();
+        private final Button reloadButton = new Button("Reload");
+        private final Button compareButton = new Button("Compare…");
+        private final FindBar findBar;
+        private final CompletionPopup completion;
+        private final List<SplitView> splits = new ArrayList<>();
+        private final Label loadingLabel = new Label();
+        private final ProgressBar loadingProgress = new ProgressBar();
+        private final DocumentListener editListener = (doc, change) -> onEdited();
+        private Buffer current;              // bufor pokazywany w edytorze
+        private FileLoader loader;           // != null w trakcie wczytywania bieżącego bufora
+        private boolean designMode;
+        private DiagnosticIndex diagnostics = new DiagnosticIndex();
+        private int diagnosticCursor = -1;   // ostatnia diagnostyka, do której przeszedł F8
+
+        private final ReadOnlyBooleanWrapper dirty = new ReadOnlyBooleanWrapper(false);
+        private final PauseTransition autoSaveTimer = new PauseTransition(AUTOSAVE_DELAY);
+        private boolean autoSave;
 
         public CodeEditor(String id) {
             super(new Pane(), id);  // Base region is a Pane
-            textArea = new TextArea();
-            textArea.setPromptText("Start typing your code here...");
-            textArea.setWrapText(false);
-            textArea.setStyle("-fx-font-family: 'Consolas'; -fx-font-size: 13px;");
+            Buffer untitled = buffers.untitled();
+            view = new EditorView(untitled.getDocument());
+            autoSaveTimer.setOnFinished(e -> autoSave());
+
+            Button cancel = new Button("Cancel");
+            cancel.setOnAction(e -> cancelLoading());
+            loadingLabel.setStyle("-fx-text-fill: #d4d4d4;");
+            loadingProgress.setPrefWidth(160);
+            loadingBar = new HBox(8, loadingLabel, loadingProgress, cancel);
+            loadingBar.setAlignment(Pos.CENTER_LEFT);
+            loadingBar.setPadding(new Insets(6, 10, 6, 10));
+            loadingBar.setStyle("-fx-background-color: #2d2d30; -fx-background-radius: 4;");
+            loadingBar.relocate(8, 8);
+            loadingBar.setVisible(false);
+
+            Button dismiss = new Button("Keep Mine");
+            reloadButton.setOnAction(e -> reloadFromDisk(current));
+            compareButton.setOnAction(e -> compareWithDisk());
+            dismiss.setOnAction(e -> keepMine());
+            diskLabel.setStyle("-fx-text-fill: #d7ba7d;");
+            diskBar = new HBox(8, diskLabel, reloadButton, compareButton, dismiss);
+            diskBar.setAlignment(Pos.CENTER_LEFT);
+            diskBar.setPadding(new Insets(6, 10, 6, 10));
+            diskBar.setStyle("-fx-background-color: #2d2d30; -fx-background-radius: 4;");
+            diskBar.relocate(8, 8);
+            diskBar.setVisible(false);
+
+            findBar = new FindBar(this);
+            findBar.setLayoutY(8);
 
             Pane pane = (Pane) this.region;
-            pane.getChildren().add(textArea);
+            completion = new CompletionPopup(view);
+            pane.getChildren().addAll(view, loadingBar, diskBar, findBar, completion);
+            findBar.layoutXProperty().bind(pane.widthProperty().subtract(findBar.widthProperty()).subtract(24));
+
+// Dopasowanie rozmiaru widoku do regionu
+            pane.widthProperty().addListener((obs, oldVal, newVal) -> view.setPrefWidth(newVal.doubleValue()));
+            pane.heightProperty().addListener((obs, oldVal, newVal) -> view.setPrefHeight(newVal.doubleValue()));
 
-// Dopasowanie rozmiaru TextArea do regionu
-            pane.widthProperty().addListener((obs, oldVal, newVal) -> textArea.setPrefWidth(newVal.doubleValue()));
-            pane.heightProperty().addListener((obs, oldVal, newVal) -> textArea.setPrefHeight(newVal.doubleValue()));
+// Ctrl+G – przejście do linii, Ctrl+F / Ctrl+H – szukanie i zamiana, Ctrl+Shift+O – lista symboli,
+// F12 – przejście do definicji, Ctrl+T – symbol z całego folderu, Ctrl+Spacja – podpowiedzi,
+// F8 / Shift+F8 – następny / poprzedni błąd kompilacji
+            view.addEventHandler(KeyEvent.KEY_PRESSED, e -> {
+                if (designMode) return;
+                if (e.getCode() == KeyCode.SPACE && e.isControlDown()) {
+                    completion.update(true);
+                } else if (e.getCode() == KeyCode.G && e.isShortcutDown()) {
+                    showGoToLineDialog();
+                } else if (e.getCode() == KeyCode.O && e.isShortcutDown() && e.isShiftDown()) {
+                    showOutlineDialog();
+                } else if (e.getCode() == KeyCode.F12) {
+                    goToDefinition();
+                } else if (e.getCode() == KeyCode.F8) {
+                    goToNextDiagnostic(!e.isShiftDown());
+                } else if (e.getCode() == KeyCode.T && e.isShortcutDown()) {
+                    showFindSymbolDialog();
+                } else if (e.getCode() == KeyCode.F && e.isShortcutDown()) {
+                    findBar.open(false);
+                } else if (e.getCode() == KeyCode.H && e.isShortcutDown()) {
+                    findBar.open(true);
+                } else if (e.getCode() == KeyCode.ESCAPE && findBar.isVisible()) {
+                    findBar.close();
+                } else {
+                    return;
+                }
+                e.consume();
+            });
+
+// Podpowiedzi: otwarta lista przejmuje strzałki, Enter, Tab i Escape, zanim dostanie je widok,
+// a po każdym wpisanym znaku (już wstawionym przez widok) liczy się od nowa
+            view.addEventFilter(KeyEvent.KEY_PRESSED, e -> {
+                if (completion.handleKey(e)) e.consume();
+            });
+            view.addEventHandler(KeyEvent.KEY_PRESSED, e -> {
+                if (!completion.isVisible()) return;
+                switch (e.getCode()) {
+                    case BACK_SPACE, DELETE, LEFT, RIGHT, HOME, END -> completion.update(false);
+                    default -> {
+                    }
+                }
+            });
+            view.addEventHandler(KeyEvent.KEY_TYPED, e -> {
+                String ch = e.getCharacter();
+                if (designMode || ch.isEmpty() || (e.isControlDown() && !e.isAltDown()) || e.isMetaDown()) return;
+                if (CompletionPopup.isWordChar(ch.charAt(0))) completion.update(false);
+                else completion.hide();
+            });
+            view.addEventHandler(MouseEvent.MOUSE_PRESSED, e -> completion.hide());
+            view.addEventHandler(ScrollEvent.SCROLL, e -> completion.hide());
+            view.focusedProperty().addListener((obs, was, focused) -> {
+                if (!focused) completion.hide();
+            });
+
+            show(untitled);
+            restoreJournals();
+        }
+
+        /**
+         * Przywraca niezapisane zmiany z dzienników zostawionych przez poprzednie
+         * uruchomienie (awaria, zabity proces) i pokazuje ostatnio zmieniany plik
+         */
+        private void restoreJournals() {
+            Buffer shown = null;
+            for (EditJournal journal : EditJournal.recover()) { // najnowsze najpierw
+                File file = journal.getFile();
+                Buffer buffer = file == null ? buffers.untitled() : buffers.get(file);
+                if (buffer.isDirty()) { // starszy dziennik tego samego pliku
+                    journal.discard();
+                    continue;
+                }
+                buffer.restore(journal);
+                if (shown == null) shown = buffer;
+            }
+            if (shown != null) show(shown);
         }
 
 
@@ -31,33 +217,679 @@
          * Pobiera tekst z edytora kodu
          */
         public String getCode() {
-            return textArea.getText();
+            return getDocument().snapshot().toString();
         }
 
         /**
          * Ustawia cały kod w edytorze
          */
         public void setCode(String code) {
-            textArea.setText(code);
+            if (current.isReadOnly()) {
+                show(buffers.untitled());
+            }
+            getDocument().setText(code);
+            view.setCaretPosition(0);
+        }
+
+        // ------------------------------------------------------------ bufory
+
+        public void openFile(File file) {
+            openFile(file, () -> {
+            });
+        }
+
+        /**
+         * Pokazuje plik. Plik trzymany jeszcze w pamięci pojawia się od razu (z kursorem,
+         * przewinięciem i historią cofania), inne są wczytywane w tle – pliki większe niż
+         * {@link MappedTextFile#MAPPED_THRESHOLD} są mapowane do pamięci i pokazywane tylko
+         * do odczytu. {@code onOpened} jest wołane (na wątku FX) po udanym otwarciu,
+         * błędy są pokazywane w oknie dialogowym.
+         */
+        public void openFile(File file, Runnable onOpened) {
+            Buffer buffer = buffers.get(file);
+            if (buffer == current && buffer.isLoading()) return; // już się wczytuje
+            if (buffer.isLoaded()) {
+                show(buffer);
+                onOpened.run();
+                return;
+            }
+
+            if (file.length() > MappedTextFile.MAPPED_THRESHOLD) {
+                MappedTextFile mapped;
+                try {
+                    mapped = MappedTextFile.open(file.toPath());
+                } catch (IOException ex) {
+                    buffers.remove(buffer);
+                    ex.printStackTrace();
+                    new Alert(Alert.AlertType.ERROR, ex.getMessage()).showAndWait();
+                    return;
+                }
+                buffer.loadMapped(mapped);
+                show(buffer);
+                mapped.startIndexing(() -> Platform.runLater(view::requestRepaint));
+                onOpened.run();
+                return;
+            }
+
+            Document document = buffer.load();
+            buffer.setLoading(true);
+            show(buffer);
+            FileLoader task = new FileLoader(file.toPath(), document);
+            loader = task;
+            loadingLabel.setText("Loading " + file.getName());
+            loadingProgress.progressProperty().bind(task.progressProperty());
+            loadingBar.setVisible(true);
+
+            task.setOnSucceeded(e -> {
+                if (!finishLoading(task)) return;
+                buffer.setEncoding(task.getValue(), task.hasByteOrderMark());
+                buffer.setLoading(false);
+                SAVE_SERVICE.remember(file.toPath(), document.snapshot(), buffer.getCharset(), buffer.hasByteOrderMark());
+                updateEditable();
+                showDiagnosticMarkers();
+                buffers.trim(buffer);
+                onOpened.run();
+            });
+            task.setOnFailed(e -> {
+                if (!finishLoading(task)) return;
+                buffers.remove(buffer);
+                show(buffers.untitled());
+                Throwable ex = task.getException();
+                ex.printStackTrace();
+                new Alert(Alert.AlertType.ERROR, ex.getMessage()).showAndWait();
+            });
+            Thread thread = new Thread(task, "file-loader");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        /**
+         * Przełącza edytor na bufor, przywracając jego kursor i przewinięcie
+         */
+        private void show(Buffer buffer) {
+            if (current != null && current != buffer) {
+                leave(current);
+            }
+            current = buffer;
+            completion.hide();
+            Document document = buffer.getDocument();
+            view.setDocument(document);
+            view.setHighlighter(buffer.getHighlighter());
+            view.setLineSource(buffer.getMappedFile());
+            view.restoreViewState(buffer.getAnchor(), buffer.getCaret(), buffer.getScrollX(), buffer.getScrollY());
+            for (SplitView split : splits) {
+                split.show(buffer);
+            }
+            document.removeListener(editListener);
+            document.addListener(editListener);
+            dirty.bind(buffer.dirtyProperty());
+            updateEditable();
+            findBar.documentSwitched();
+            updateDiskBar();
+            showDiagnosticMarkers();
+            buffers.trim(buffer);
+        }
+
+        /**
+         * Zapamiętuje stan opuszczanego bufora; niedokończone wczytywanie jest przerywane
+         */
+        private void leave(Buffer buffer) {
+            buffer.saveViewState(view.getAnchor(), view.getCaretPosition(), view.getScrollX(), view.getScrollY());
+            if (buffer.getDocument() != null) {
+                buffer.getDocument().removeListener(editListener);
+            }
+            FileLoader task = loader;
+            if (task != null) {
+                finishLoading(task);
+                task.cancel();
+                buffers.remove(buffer); // częściowo wczytany tekst jest usuwany
+                return;
+            }
+            autoSaveTimer.stop();
+            if (canAutoSave(buffer)) {
+                saveBuffer(buffer, buffer.getFile()).whenComplete((written, ex) -> {
+                    if (ex != null) ex.printStackTrace();
+                });
+            }
+        }
+
+        /**
+         * Przerywa wczytywanie pliku – częściowo wczytany tekst jest usuwany
+         */
+        public void cancelLoading() {
+            if (loader == null) return;
+            show(buffers.untitled());
+        }
+
+        public boolean isLoading() {
+            return loader != null;
+        }
+
+        private boolean finishLoading(FileLoader task) {
+            if (loader != task) return false; // zastąpione przez nowsze otwarcie
+            loader = null;
+            loadingProgress.progressProperty().unbind();
+            loadingBar.setVisible(false);
+            return true;
+        }
+
+        /**
+         * Czy tekstu w edytorze nie można teraz zmieniać ani zapisać – duży plik
+         * zmapowany do pamięci albo plik, który jeszcze się wczytuje
+         */
+        public boolean isReadOnly() {
+            return current.isReadOnly();
+        }
+
+        private void updateEditable() {
+            view.setEditable(!designMode && !isReadOnly());
+            for (SplitView split : splits) {
+                split.setEditable(!designMode && !isReadOnly());
+            }
+        }
+
+        /**
+         * Tworzy drugi widok pliku z edytora ({@link SplitView}) – ten sam dokument
+         * i historia cofania, własny kursor i przewinięcie; widok idzie za edytorem
+         * przy przełączaniu plików
+         */
+        public SplitView createSplitView(String id) {
+            SplitView split = new SplitView(id, current);
+            splits.add(split);
+            split.setEditable(!designMode && !isReadOnly());
+            split.setDesignMode(designMode);
+            return split;
+        }
+
+        /**
+         * Plik pokazywany w edytorze albo null
+         */
+        public File getFile() {
+            return current.getFile();
+        }
+
+        /**
+         * Bufor pokazywany w edytorze
+         */
+        public Buffer getBuffer() {
+            return current;
+        }
+
+        public BufferManager getBufferManager() {
+            return buffers;
+        }
+
+        /**
+         * Snapshoty plików z niezapisanymi zmianami (ścieżki bezwzględne) – dla zadań
+         * w tle, które mają widzieć tekst z edytora zamiast tego z dysku
+         */
+        public Map<Path, DocumentSnapshot> unsavedSnapshots() {
+            Map<Path, DocumentSnapshot> result = new HashMap<>();
+            for (Buffer buffer : buffers.dirtyBuffers()) {
+                if (buffer.getFile() == null || !buffer.isLoaded() || buffer.isReadOnly()) continue;
+                result.put(buffer.getFile().toPath().toAbsolutePath().normalize(), buffer.getDocument().snapshot());
+            }
+            return result;
+        }
+
+        // ------------------------------------------------------------ zapis
+
+        /**
+         * Autozapis nie nadpisuje pliku zmienionego na dysku przez kogoś innego –
+         * o tym decyduje użytkownik przy zwykłym zapisie
+         */
+        private boolean canAutoSave(Buffer buffer) {
+            return autoSave && buffer.isDirty() && buffer.getFile() != null && !buffer.isReadOnly()
+                    && !SAVE_SERVICE.isChangedOnDisk(buffer.getFile().toPath());
+        }
+
+        /**
+         * Czy plik bieżącego bufora zmienił się na dysku od wczytania albo ostatniego zapisu
+         */
+        public boolean isChangedOnDisk() {
+            File file = getFile();
+            return file != null && !isReadOnly() && SAVE_SERVICE.isChangedOnDisk(file.toPath());
+        }
+
+        /**
+         * Pokazuje różnice między buforem a plikiem na dysku; zmiany z dysku można
+         * przenieść do bufora. Od tej chwili wersja na dysku uchodzi za znaną, więc
+         * następny zapis już o nią nie pyta.
+         */
+        public void compareWithDisk() {
+            File file = getFile();
+            if (file == null || isReadOnly()) return;
+            SAVE_SERVICE.acknowledgeDiskVersion(file.toPath());
+            diskBar.setVisible(false);
+            DiffView.compareWithDisk(getDocument(), file);
+        }
+
+        // ------------------------------------------------------------ zmiany na dysku
+
+        /**
+         * Pliki zmienione albo usunięte poza edytorem (z {@link FolderWatcher}). Czyste
+         * bufory są wczytywane na nowo – bieżący od razu, pozostałe dopiero przy
+         * następnym pokazaniu; przy niezapisanych zmianach decyduje użytkownik.
+         * Własne zapisy edytora są pomijane, bo {@link SaveService} zna już ich wersję.
+         */
+        public void filesChangedOnDisk(FolderWatcher.Changes changes) {
+            for (Buffer buffer : buffers.buffers()) {
+                if (!buffer.isLoaded() || buffer.isReadOnly()) continue;
+                Path path = buffer.getFile().toPath().toAbsolutePath().normalize();
+                boolean touched = changes.changed().contains(path) || changes.deleted().contains(path)
+                        || changes.rescan().stream().anyMatch(path::startsWith);
+                if (!touched || !SAVE_SERVICE.isChangedOnDisk(path)) continue;
+                if (buffer == current) {
+                    if (!buffer.isDirty() && path.toFile().isFile()) reloadFromDisk(buffer);
+                    else updateDiskBar();
+                } else if (!buffer.isDirty()) {
+                    buffer.unload();
+                }
+            }
+        }
+
+        /**
+         * Pokazuje pasek, gdy plik bieżącego bufora zmienił się albo zniknął z dysku
+         */
+        private void updateDiskBar() {
+            File file = getFile();
+            if (!isChangedOnDisk()) {
+                diskBar.setVisible(false);
+                return;
+            }
+            boolean exists = file.isFile();
+            diskLabel.setText(file.getName() + (exists ? " was changed on disk." : " was deleted from disk."));
+            reloadButton.setVisible(exists);
+            reloadButton.setManaged(exists);
+            compareButton.setVisible(exists);
+            compareButton.setManaged(exists);
+            diskBar.setVisible(true);
+        }
+
+        /**
+         * Zostawia tekst edytora; wersja z dysku uchodzi za znaną, więc zapis już o nią nie pyta
+         */
+        private void keepMine() {
+            SAVE_SERVICE.acknowledgeDiskVersion(getFile().toPath());
+            diskBar.setVisible(false);
+        }
+
+        /**
+         * Zastępuje tekst bufora wersją z dysku jednym krokiem cofania (Ctrl+Z przywraca
+         * poprzednią); kursor zostaje w tej samej linii i kolumnie. Gdy w trakcie
+         * czytania pliku tekst się zmienił, nic nie jest podmieniane.
+         */
+        private void reloadFromDisk(Buffer buffer) {
+            File file = buffer.getFile();
+            long version = buffer.getEditCount();
+            diskBar.setVisible(false);
+            CompletableFuture.supplyAsync(() -> {
+                try {
+                    return FileLoader.read(file.toPath());
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).whenCompleteAsync((read, ex) -> {
+                if (ex != null) {
+                    ex.printStackTrace();
+                    return;
+                }
+                if (!buffer.isLoaded() || buffer.isReadOnly() || buffer.getEditCount() != version) return;
+                boolean shown = buffer == current;
+                int line = shown ? getCaretLine() : 0;
+                int column = shown ? getCaretColumn() : 0;
+                double scrollX = view.getScrollX();
+                double scrollY = view.getScrollY();
+                Document document = buffer.getDocument();
+                // bez kopii do bufora dopisków; setText wyczyściłby historię cofania
+                buffer.reload(read.text(), read.charset(), read.byteOrderMark());
+                // sprawdzone wyżej: tekst nie zmienił się w trakcie czytania, więc to jest wersja z dysku
+                SAVE_SERVICE.remember(file.toPath(), document.snapshot(), read.charset(), read.byteOrderMark());
+                if (!shown) return;
+                int caret = offsetOf(Math.min(line, document.lineCount() - 1), column);
+                view.restoreViewState(caret, caret, scrollX, scrollY);
+            }, Platform::runLater);
+        }
+
+        /**
+         * Zapisuje aktualny tekst do pliku w tle (plik tymczasowy, fsync, atomowa zamiana).
+         * Zwraca future zakończone na wątku FX: true gdy plik zapisano, false gdy
+         * zapis pominięto, bo nic się nie zmieniło.
+         */
+        public CompletableFuture<Boolean> save(File target) {
+            autoSaveTimer.stop();
+            return saveBuffer(current, target);
+        }
+
+        private CompletableFuture<Boolean> saveBuffer(Buffer buffer, File target) {
+            if (buffer.isReadOnly()) {
+                return CompletableFuture.failedFuture(new IOException(
+                        "The file is still loading or too large to edit, so it cannot be saved from the editor."));
+            }
+            long version = buffer.getEditCount();
+            return SAVE_SERVICE.save(target.toPath(), buffer.getDocument().snapshot(),
+                            buffer.getCharset(), buffer.hasByteOrderMark())
+                    .whenCompleteAsync((written, ex) -> {
+                        if (ex != null) return;
+                        if (!BufferManager.isFileOf(buffer, target)) {
+                            buffers.rename(buffer, target); // Save As albo pierwszy zapis
+                        }
+                        buffer.markClean(version);
+                        if (buffer == current) diskBar.setVisible(false); // dysk ma teraz wersję edytora
+                        if (written) {
+                            TrigramIndex.fileChanged(target.toPath()); // "Find in Folder" od razu widzi zmiany
+                            SymbolIndex.fileChanged(target.toPath());
+                        }
+                    }, Platform::runLater);
+        }
+
+        /**
+         * Czy bieżący bufor ma niezapisane zmiany
+         */
+        public ReadOnlyBooleanProperty dirtyProperty() {
+            return dirty.getReadOnlyProperty();
+        }
+
+        public boolean isDirty() {
+            return dirty.get();
+        }
+
+        /**
+         * Włącza zapis po {@link #AUTOSAVE_DELAY} bez zmian w tekście
+         */
+        public void setAutoSave(boolean enabled) {
+            autoSave = enabled;
+            if (enabled && isDirty()) {
+                autoSaveTimer.playFromStart();
+            } else {
+                autoSaveTimer.stop();
+            }
+        }
+
+        public boolean isAutoSave() {
+            return autoSave;
+        }
+
+        private void onEdited() {
+            if (current.isLoading()) return; // tekst dopiero się wczytuje
+            if (autoSave) autoSaveTimer.playFromStart(); // debounce – liczy od ostatniej zmiany
+        }
+
+        private void autoSave() {
+            if (!canAutoSave(current)) return;
+            save(getFile()).whenComplete((written, ex) -> {
+                if (ex != null) ex.printStackTrace();
+            });
         }
 
         /**
          * Dodaje tekst na końcu edytora
          */
         public void appendCode(String code) {
-            textArea.appendText(code);
+            Document document = getDocument();
+            document.insert(document.length(), code);
+        }
+
+        /**
+         * Model dokumentu (piece table) bieżącego bufora
+         */
+        public Document getDocument() {
+            return current.getDocument();
+        }
+
+        /**
+         * Niezmienny widok aktualnego tekstu – O(1), bezpieczny do czytania z innych wątków
+         */
+        public DocumentSnapshot snapshot() {
+            return getDocument().snapshot();
+        }
+
+        // ------------------------------------------------------------ linie i kolumny
+
+        /**
+         * Linia (od 0) zawierająca offset – O(log n), dokument trzyma indeks początków linii
+         */
+        public int lineOfOffset(int offset) {
+            return getDocument().lineOfOffset(offset);
+        }
+
+        /**
+         * Kolumna (od 0, w znakach) offsetu w jego linii – O(log n)
+         */
+        public int columnOfOffset(int offset) {
+            Document document = getDocument();
+            return offset - document.lineStart(document.lineOfOffset(offset));
+        }
+
+        /**
+         * Offset znaku w linii i kolumnie (od 0); kolumna jest przycinana do długości linii – O(log n)
+         */
+        public int offsetOf(int line, int column) {
+            Document document = getDocument();
+            int start = document.lineStart(line);
+            return start + Math.max(0, Math.min(document.lineEnd(line) - start, column));
+        }
+
+        public int getCaretLine() {
+            return lineOfOffset(view.getCaretPosition());
+        }
+
+        public int getCaretColumn() {
+            return columnOfOffset(view.getCaretPosition());
+        }
+
+        /**
+         * Przenosi kursor na początek linii (od 0) i pokazuje ją na środku widoku
+         */
+        public void goToLine(int line) {
+            goToLine(line, 0);
+        }
+
+        public void goToLine(int line, int column) {
+            view.goToLine(line, column);
+            view.requestFocus();
+        }
+
+        /**
+         * Przechodzi do linii i zaznacza {@code length} znaków od kolumny (np. trafienie wyszukiwania)
+         */
+        public void selectInLine(int line, int column, int length) {
+            goToLine(line, column);
+            if (isReadOnly() || line >= getDocument().lineCount()) return;
+            int start = offsetOf(line, column);
+            view.select(start, Math.min(getDocument().length(), start + length));
+        }
+
+        /**
+         * Pyta o numer linii ("linia" albo "linia:kolumna", liczone od 1) i przechodzi do niej
+         */
+        public void showGoToLineDialog() {
+            int lineCount = view.getLineSource().lineCount();
+            TextInputDialog dialog = new TextInputDialog(String.valueOf(getCaretLine() + 1));
+            dialog.setTitle("Go to Line");
+            dialog.setHeaderText(null);
+            dialog.setContentText("Line [1.." + lineCount + "] or line:column:");
+            dialog.showAndWait().ifPresent(input -> {
+                String[] parts = input.trim().split(":", 2);
+                try {
+                    int line = Integer.parseInt(parts[0].trim()) - 1;
+                    int column = parts.length > 1 ? Integer.parseInt(parts[1].trim()) - 1 : 0;
+                    goToLine(line, column);
+                } catch (NumberFormatException ignored) {
+                    // nie liczba – zostajemy w miejscu
+                }
+            });
+        }
+
+        /**
+         * Pokazuje przestrzenie nazw, klasy i funkcje pliku (z {@link CodeStructure}) i przechodzi do wybranej
+         */
+        public void showOutlineDialog() {
+            SyntaxHighlighter highlighter = view.getHighlighter();
+            if (highlighter == null || isReadOnly()) return;
+            List<CodeStructure.Symbol> symbols = highlighter.getStructure().outline();
+            if (symbols.isEmpty()) return;
+
+            List<String> labels = new ArrayList<>();
+            for (CodeStructure.Symbol symbol : symbols) {
+                labels.add("  ".repeat(symbol.depth()) + symbol.kind().name().toLowerCase() + " "
+                        + symbol.name() + "  :" + (symbol.line() + 1));
+            }
+            // domyślnie symbol, w którym stoi kursor
+            int caretLine = getCaretLine();
+            String selected = labels.get(0);
+            for (int i = 0; i < symbols.size(); i++) {
+                if (symbols.get(i).line() <= caretLine && caretLine <= symbols.get(i).endLine()) selected = labels.get(i);
+            }
+            ChoiceDialog<String> dialog = new ChoiceDialog<>(selected, labels);
+            dialog.setTitle("Outline");
+            dialog.setHeaderText(highlighter.isStructureCurrent() ? null : "File is still being parsed");
+            dialog.setContentText("Symbol:");
+            dialog.showAndWait().ifPresent(label -> goToLine(symbols.get(labels.indexOf(label)).line()));
+        }
+
+        /**
+         * Przechodzi do definicji słowa pod kursorem – z indeksu symboli otwartych folderów
+         * ({@link SymbolIndex}), a gdy go tam nie ma, z konspektu bieżącego pliku.
+         * Kilka definicji (np. przeciążenia) – wybór w oknie dialogowym.
+         */
+        public void goToDefinition() {
+            if (isReadOnly()) return;
+            String word = wordAtCaret();
+            if (word.isEmpty()) return;
+            List<SymbolIndex.Symbol> found = SymbolIndex.findDefinitions(word);
+            if (found.isEmpty()) {
+                SyntaxHighlighter highlighter = view.getHighlighter();
+                if (highlighter == null) return;
+                for (CodeStructure.Symbol symbol : highlighter.getStructure().outline()) {
+                    String name = symbol.name();
+                    if (name.equals(word) || name.endsWith("::" + word)) {
+                        goToLine(symbol.line()); // plik spoza otwartych folderów albo jeszcze niezapisany
+                        return;
+                    }
+                }
+                return;
+            }
+            if (found.size() == 1) {
+                showSymbol(found.get(0));
+            } else {
+                chooseSymbol("Go to Definition", word, found);
+            }
+        }
+
+        /**
+         * Pyta o (fragment) nazwy i pokazuje pasujące symbole ze wszystkich otwartych folderów
+         */
+        public void showFindSymbolDialog() {
+            TextInputDialog dialog = new TextInputDialog(isReadOnly() ? "" : wordAtCaret());
+            dialog.setTitle("Find Symbol");
+            dialog.setHeaderText(null);
+            dialog.setContentText("Symbol name:");
+            dialog.showAndWait().map(String::trim).filter(query -> !query.isEmpty()).ifPresent(query -> {
+                List<SymbolIndex.Symbol> found = SymbolIndex.findSymbols(query, 500);
+                if (found.isEmpty()) {
+                    new Alert(Alert.AlertType.INFORMATION, "No symbol matches \"" + query + "\".").showAndWait();
+                } else {
+                    chooseSymbol("Find Symbol", query, found);
+                }
+            });
+        }
+
+        private void chooseSymbol(String title, String query, List<SymbolIndex.Symbol> symbols) {
+            List<String> labels = new ArrayList<>();
+            for (SymbolIndex.Symbol symbol : symbols) {
+                labels.add(symbol.kind().name().toLowerCase() + " " + symbol.qualifiedName() + "  "
+                        + symbol.file().getFileName() + ":" + (symbol.line() + 1));
+            }
+            ChoiceDialog<String> dialog = new ChoiceDialog<>(labels.get(0), labels);
+            dialog.setTitle(title);
+            dialog.setHeaderText(symbols.size() + " symbols for \"" + query + "\"");
+            dialog.setContentText("Symbol:");
+            dialog.showAndWait().ifPresent(label -> showSymbol(symbols.get(labels.indexOf(label))));
+        }
+
+        /**
+         * Otwiera plik symbolu (jeśli trzeba) i zaznacza jego nazwę
+         */
+        private void showSymbol(SymbolIndex.Symbol symbol) {
+            openFile(symbol.file().toFile(), () -> selectInLine(symbol.line(), symbol.column(), symbol.name().length()));
+        }
+
+        /**
+         * Identyfikator, w którym (albo tuż za którym) stoi kursor; pusty, gdy żaden
+         */
+        private String wordAtCaret() {
+            String line = getDocument().getLine(getCaretLine());
+            int column = Math.min(getCaretColumn(), line.length());
+            int start = column;
+            int end = column;
+            while (start > 0 && isWordChar(line.charAt(start - 1))) start--;
+            while (end < line.length() && isWordChar(line.charAt(end))) end++;
+            return line.substring(start, end);
+        }
+
+        private static boolean isWordChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_';
+        }
+
+        /**
+         * Pokazuje wynik kompilacji: zaznacza linie z diagnostykami na marginesie;
+         * F8 zaczyna od pierwszej z nich. Znaczniki przesuwają się razem z edytowanym
+         * tekstem, a przy przełączeniu pliku są odtwarzane z numerów linii kompilatora.
+         */
+        public void setDiagnostics(DiagnosticIndex index) {
+            diagnostics = index == null ? new DiagnosticIndex() : index;
+            diagnosticCursor = -1;
+            showDiagnosticMarkers();
+        }
+
+        public DiagnosticIndex getDiagnostics() {
+            return diagnostics;
+        }
+
+        private void showDiagnosticMarkers() {
+            File file = current.getFile();
+            // wczytywany tekst dopiero przybywa – znaczniki po wczytaniu
+            boolean show = file != null && !current.isLoading() && !diagnostics.isEmpty();
+            view.setLineMarkers(show ? diagnostics.markers(file.toPath()) : new TreeMap<>());
+        }
+
+        /**
+         * Przechodzi do następnej (albo poprzedniej) diagnostyki z ostatniej kompilacji,
+         * w kolejności wypisania przez kompilator, otwierając jej plik; na końcu listy wraca na początek
+         */
+        public void goToNextDiagnostic(boolean forward) {
+            List<Diagnostic> all = diagnostics.all();
+            int count = all.size();
+            int from = diagnosticCursor >= 0 ? diagnosticCursor : (forward ? -1 : count);
+            for (int step = 1; step <= count; step++) {
+                int i = Math.floorMod(from + (forward ? step : -step), count);
+                Diagnostic diagnostic = all.get(i);
+                if (!diagnostic.hasLocation()) continue; // np. błąd linkera
+                diagnosticCursor = i;
+                openFile(diagnostic.file().toFile(), () -> goToLine(diagnostic.line(), diagnostic.column()));
+                return;
+            }
+        }
+
+        public FindBar getFindBar() {
+            return findBar;
         }
 
         /**
-         * Zwraca wewnętrzne TextArea – przydatne do stylowania lub wiązania rozmiaru
+         * Zwraca wewnętrzny widok edytora – przydatne do stylowania lub wiązania rozmiaru
          */
-        public TextArea getTextArea() {
-            return textArea;
+        public EditorView getView() {
+            return view;
         }
 
         public void setDesignMode(boolean isDesign) {
-            textArea.setMouseTransparent(isDesign); // wyłącza przechwytywanie kliknięć
-            textArea.setFocusTraversable(!isDesign); // nie łapie focusa
-            textArea.setEditable(!isDesign);         // nie można edytować
+            designMode = isDesign;
+            view.setMouseTransparent(isDesign); // wyłącza przechwytywanie kliknięć
+            view.setFocusTraversable(!isDesign); // nie łapie focusa
+            updateEditable();                    // nie można edytować
+            for (SplitView split : splits) {
+                split.setDesignMode(isDesign);
+            }
         }
     }
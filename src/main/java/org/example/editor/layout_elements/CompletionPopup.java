@@ -0,0 +1,188 @@
+package org.example.editor.layout_elements;
+
+import javafx.geometry.Bounds;
+import javafx.scene.control.ListView;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseButton;
+import org.example.editor.document.Document;
+import org.example.editor.highlight.PrefixTrie;
+import org.example.editor.highlight.SyntaxHighlighter;
+import org.example.editor.search.SymbolIndex;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Lista podpowiedzi identyfikatora pod kursorem (Ctrl+Spacja albo samo pisanie).
+ * Kandydaci to słowa dokumentu – liczone przez {@link SyntaxHighlighter} przy
+ * kolorowaniu w {@link PrefixTrie} – i nazwy z indeksu symboli otwartych folderów
+ * ({@link SymbolIndex}), ułożone wg częstości i tego, jak niedawno je wybrano.
+ * Z każdej trie bierzemy tylko kilkadziesiąt najczęstszych słów z prefiksem, więc
+ * lista liczy się przy każdym znaku w ułamku klatki niezależnie od wielkości projektu.
+ * Klawisze obsługuje edytor ({@link #handleKey}) – lista nigdy nie bierze fokusu.
+ */
+final class CompletionPopup extends ListView<String> {
+
+    static final int MIN_PREFIX = 2;          // od tylu znaków lista otwiera się sama
+    private static final int CANDIDATES = 48; // najczęstszych słów z każdego źródła
+    private static final int ROWS = 10;
+    private static final int RECENT = 64;
+    private static final double RECENT_BONUS = 8;
+
+    // ostatnio wybrane słowa, najnowsze na końcu – wspólne dla wszystkich plików
+    private static final LinkedHashMap<String, Boolean> RECENTLY_CHOSEN = new LinkedHashMap<>();
+
+    private final EditorView view;
+    private final int[] ids = new int[CANDIDATES];
+    private int prefixStart;                  // offset początku uzupełnianego słowa
+
+    CompletionPopup(EditorView view) {
+        this.view = view;
+        setFocusTraversable(false);
+        setVisible(false);
+        setManaged(false);
+        setPrefWidth(320);
+        setStyle("-fx-background-color: #252526; -fx-control-inner-background: #252526; "
+                + "-fx-font-family: monospace; -fx-border-color: #454545;");
+        setOnMouseClicked(e -> {
+            if (e.getButton() == MouseButton.PRIMARY && e.getClickCount() == 2) accept();
+        });
+    }
+
+    /**
+     * Przelicza listę dla słowa przed kursorem. Bez {@code explicit} zamknięta lista
+     * otwiera się dopiero od {@link #MIN_PREFIX} znaków; bez kandydatów się zamyka.
+     */
+    void update(boolean explicit) {
+        SyntaxHighlighter highlighter = view.getHighlighter();
+        if (!view.isEditable() || highlighter == null || view.getAnchor() != view.getCaretPosition()) {
+            hide();
+            return;
+        }
+        Document document = view.getDocument();
+        int caret = view.getCaretPosition();
+        int start = caret;
+        int lineStart = document.lineStart(document.lineOfOffset(caret));
+        while (start > lineStart && isWordChar(document.charAt(start - 1))) start--;
+        if (start < caret && Character.isDigit(document.charAt(start))) {
+            hide(); // liczba, nie identyfikator
+            return;
+        }
+        if (!explicit && !isVisible() && caret - start < MIN_PREFIX) return;
+
+        String prefix = document.getText(start, caret - start);
+        List<String> words = rank(prefix, highlighter.getWords());
+        if (words.isEmpty()) {
+            hide();
+            return;
+        }
+        prefixStart = start;
+        getItems().setAll(words);
+        getSelectionModel().select(0);
+        scrollTo(0);
+        show();
+    }
+
+    /**
+     * Najlepsze słowa zaczynające się od {@code prefix}: wynik to logarytm liczby
+     * wystąpień w dokumencie i definicji w folderach plus premia za niedawny wybór.
+     */
+    private List<String> rank(String prefix, PrefixTrie documentWords) {
+        Map<String, Integer> frequency = new HashMap<>();
+        int found = documentWords.top(prefix, ids);
+        for (int i = 0; i < found; i++) {
+            frequency.put(documentWords.word(ids[i]), documentWords.countOf(ids[i]));
+        }
+        SymbolIndex.namesStartingWith(prefix, CANDIDATES).forEach((word, count) -> frequency.merge(word, count, Integer::sum));
+
+        Map<String, Double> score = new HashMap<>();
+        frequency.forEach((word, count) -> score.put(word, Math.log(1 + count)));
+        int age = RECENTLY_CHOSEN.size();
+        for (String word : RECENTLY_CHOSEN.keySet()) {
+            if (word.startsWith(prefix)) score.merge(word, RECENT_BONUS / age, Double::sum);
+            age--;
+        }
+        score.remove(prefix); // samo wpisane słowo nic nie uzupełnia
+
+        List<String> words = new ArrayList<>(score.keySet());
+        words.sort((a, b) -> {
+            int byScore = Double.compare(score.get(b), score.get(a));
+            return byScore != 0 ? byScore : a.compareTo(b);
+        });
+        return words.size() > CANDIDATES ? words.subList(0, CANDIDATES) : words;
+    }
+
+    /**
+     * Strzałki, PageUp/PageDown, Enter/Tab (wstawienie) i Escape przy otwartej liście;
+     * zwraca true, gdy klawisz został obsłużony.
+     */
+    boolean handleKey(KeyEvent e) {
+        if (!isVisible()) return false;
+        int selected = getSelectionModel().getSelectedIndex();
+        int last = getItems().size() - 1;
+        switch (e.getCode()) {
+            case UP -> select(selected > 0 ? selected - 1 : last);
+            case DOWN -> select(selected < last ? selected + 1 : 0);
+            case PAGE_UP -> select(Math.max(0, selected - ROWS + 1));
+            case PAGE_DOWN -> select(Math.min(last, selected + ROWS - 1));
+            case ENTER, TAB -> accept();
+            case ESCAPE -> hide();
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void select(int index) {
+        getSelectionModel().select(index);
+        scrollTo(Math.max(0, index - ROWS / 2));
+    }
+
+    /**
+     * Zastępuje słowo przed kursorem wybranym i zapamiętuje wybór
+     */
+    void accept() {
+        String word = getSelectionModel().getSelectedItem();
+        hide();
+        if (word == null) return;
+        int caret = view.getCaretPosition();
+        if (prefixStart > caret) return;
+        view.select(prefixStart, caret);
+        view.replaceSelection(word);
+        view.requestFocus();
+
+        RECENTLY_CHOSEN.remove(word);
+        RECENTLY_CHOSEN.put(word, Boolean.TRUE);
+        if (RECENTLY_CHOSEN.size() > RECENT) {
+            Iterator<String> oldest = RECENTLY_CHOSEN.keySet().iterator();
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    void hide() {
+        setVisible(false);
+    }
+
+    /**
+     * Pokazuje listę pod kursorem, a gdy brakuje miejsca – nad nim
+     */
+    private void show() {
+        double height = Math.min(getItems().size(), ROWS) * 24 + 4;
+        Bounds caret = view.getCaretBounds();
+        double y = caret.getMaxY();
+        if (y + height > view.getHeight() && caret.getMinY() - height >= 0) y = caret.getMinY() - height;
+        resize(getPrefWidth(), height);
+        relocate(Math.max(0, Math.min(caret.getMinX(), view.getWidth() - getPrefWidth())), y);
+        setVisible(true);
+    }
+
+    static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+}
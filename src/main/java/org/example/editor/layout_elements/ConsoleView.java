@@ -1,68 +1,200 @@
 package org.example.editor.layout_elements;
 
-import javafx.scene.control.TextArea;
+import javafx.application.Platform;
+import javafx.beans.property.BooleanProperty;
+import javafx.beans.property.SimpleBooleanProperty;
+import javafx.scene.control.CheckMenuItem;
+import javafx.scene.control.ContextMenu;
+import javafx.scene.control.MenuItem;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
 import javafx.scene.layout.Pane;
+import org.example.editor.document.AnsiDecoder;
+import org.example.editor.document.ConsoleBuffer;
+import org.example.editor.document.Document;
+import org.example.editor.document.StyledLineSource;
+import org.example.editor.io.MappedTextFile;
 import org.example.editor.layout_api.Component;
 
+import java.io.IOException;
+
 /**
  * Komponent konsoli tekstowej, służący do wyświetlania logów lub wyników.
+ * Tekst trzyma {@link ConsoleBuffer} – pierścień linii z limitem liczby linii i pamięci
+ * (najstarsze linie są usuwane), a {@link EditorView} rysuje tylko widoczne linie.
+ * Dopisywanie kosztuje tyle samo niezależnie od tego, ile program już wypisał;
+ * widok odświeża się raz na klatkę, nawet przy tysiącach dopisań. Kolory z sekwencji
+ * ANSI (np. kolorowe komunikaty kompilatora) są rysowane, a same sekwencje nie trafiają do tekstu.
+ * <p>
+ * W trybie przechwytywania ({@link #captureOutputProperty()}) program pisze prosto do
+ * pliku, a konsola pokazuje pod swoim tekstem ten plik przez {@link MappedTextFile} –
+ * całe wyjście zostaje na dysku, a do pamięci trafiają tylko widoczne linie.
  */
 public class ConsoleView extends Component {
 
-    private final TextArea consoleArea;
+    private final ConsoleBuffer lines = new ConsoleBuffer();
+    private final EditorView view = new EditorView(new Document());
+    private final BooleanProperty captureOutput = new SimpleBooleanProperty(false);
+    private MappedTextFile capture; // pokazywany pod tekstem konsoli albo null
+    private boolean refreshPending;
+    private long droppedShown;   // linie usunięte z początku, o których widok już wie
+
+    /**
+     * Linie konsoli, a pod nimi przechwycony plik
+     */
+    private final StyledLineSource output = new StyledLineSource() {
+        @Override
+        public int lineCount() {
+            if (capture == null) return lines.lineCount();
+            return ownLines() + capture.lineCount();
+        }
+
+        @Override
+        public String getLine(int line) {
+            if (capture == null) return lines.getLine(line);
+            int own = ownLines();
+            return line < own ? lines.getLine(line) : AnsiDecoder.strip(capture.getLine(line - own));
+        }
+
+        /**
+         * Kolory tylko dla linii konsoli – w przechwyconym pliku sekwencje są tylko usuwane
+         */
+        @Override
+        public int[] styles(int line) {
+            if (capture == null) return lines.styles(line);
+            return line < ownLines() ? lines.styles(line) : null;
+        }
+
+        /**
+         * Linie konsoli nad plikiem – bez pustej ostatniej linii po końcowym znaku nowej linii
+         */
+        private int ownLines() {
+            int last = lines.lineCount() - 1;
+            return lines.getLine(last).isEmpty() ? last : last + 1;
+        }
+    };
 
     public ConsoleView(String id) {
         super(new Pane(), id);
-        consoleArea = new TextArea();
-        consoleArea.setEditable(false);
-        consoleArea.setWrapText(true);
-        consoleArea.setStyle("-fx-font-family: 'Consolas'; -fx-font-size: 12px;");
+        view.setLineSource(output);
+        view.setEditable(false);
+
+        MenuItem copyAll = new MenuItem("Copy All");
+        copyAll.setOnAction(e -> {
+            ClipboardContent content = new ClipboardContent();
+            content.putString(getText());
+            Clipboard.getSystemClipboard().setContent(content);
+        });
+        MenuItem clear = new MenuItem("Clear");
+        clear.setOnAction(e -> clear());
+        CheckMenuItem captureItem = new CheckMenuItem("Capture Program Output to File");
+        captureItem.selectedProperty().bindBidirectional(captureOutput);
+        ContextMenu menu = new ContextMenu(copyAll, clear, captureItem);
+        view.setOnContextMenuRequested(e -> menu.show(view, e.getScreenX(), e.getScreenY()));
 
         Pane pane = (Pane) this.region;
-        pane.getChildren().add(consoleArea);
+        pane.getChildren().add(view);
 
-        pane.widthProperty().addListener((obs, oldVal, newVal) -> consoleArea.setPrefWidth(newVal.doubleValue()));
-        pane.heightProperty().addListener((obs, oldVal, newVal) -> consoleArea.setPrefHeight(newVal.doubleValue()));
+        pane.widthProperty().addListener((obs, oldVal, newVal) -> view.setPrefWidth(newVal.doubleValue()));
+        pane.heightProperty().addListener((obs, oldVal, newVal) -> view.setPrefHeight(newVal.doubleValue()));
     }
 
     /**
      * Czyści całą zawartość konsoli.
      */
     public void clear() {
-        consoleArea.clear();
+        closeCapture();
+        lines.clear();
+        droppedShown = lines.droppedLines();
+        view.setLineSource(output); // od początku, bez przewinięcia
     }
 
     /**
      * Ustawia nowy tekst w konsoli.
      */
     public void setCode(String text) {
-        consoleArea.setText(text);
+        clear();
+        appendCode(text);
     }
 
     /**
      * Dodaje nową linię tekstu na końcu konsoli.
      */
     public void appendCode(String text) {
-        consoleArea.appendText(text);
+        lines.append(text);
+        requestRefresh();
+    }
+
+    private void requestRefresh() {
+        if (refreshPending) return;
+        refreshPending = true;
+        Platform.runLater(() -> {
+            refreshPending = false;
+            long dropped = lines.droppedLines();
+            view.lineSourceChanged((int) Math.min(Integer.MAX_VALUE, dropped - droppedShown));
+            droppedShown = dropped;
+        });
+    }
+
+    /**
+     * Pokazuje pod tekstem konsoli plik, do którego pisze uruchomiony program; widok
+     * idzie za plikiem, dopóki {@link MappedTextFile#stopFollowing()}. Plik jest
+     * zamykany przy {@link #clear()}.
+     */
+    public void showCapture(MappedTextFile file) {
+        closeCapture();
+        capture = file;
+        file.startIndexing(() -> Platform.runLater(() -> {
+            if (capture == file) requestRefresh();
+        }));
+        requestRefresh();
+    }
+
+    private void closeCapture() {
+        if (capture == null) return;
+        try {
+            capture.close();
+        } catch (IOException ignored) {
+        }
+        capture = null;
     }
 
     /**
-     * Zwraca cały tekst znajdujący się w konsoli.
+     * Czy program ma pisać wyjście prosto do pliku zamiast przez konsolę
+     */
+    public BooleanProperty captureOutputProperty() {
+        return captureOutput;
+    }
+
+    public boolean isCaptureOutput() {
+        return captureOutput.get();
+    }
+
+    /**
+     * Zwraca cały tekst znajdujący się w konsoli (bez linii usuniętych przez limit
+     * i bez przechwyconego pliku, który zostaje na dysku).
      */
     public String getText() {
-        return consoleArea.getText();
+        return lines.getText();
+    }
+
+    /**
+     * Limit liczby linii i pamięci (w bajtach) trzymanych przez konsolę
+     */
+    public void setLimits(int maxLines, long maxBytes) {
+        lines.setLimits(maxLines, maxBytes);
+        appendCode(""); // odświeża widok po usunięciu linii
     }
 
     /**
-     * Zwraca referencję do TextArea, jeśli potrzebna do dalszej konfiguracji.
+     * Zwraca widok konsoli, jeśli potrzebny do dalszej konfiguracji.
      */
-    public TextArea getTextArea() {
-        return consoleArea;
+    public EditorView getView() {
+        return view;
     }
 
     public void setDesignMode(boolean isDesign) {
-        consoleArea.setMouseTransparent(isDesign); // wyłącza przechwytywanie kliknięć
-        consoleArea.setFocusTraversable(!isDesign); // nie łapie focusa
-        consoleArea.setEditable(!isDesign);         // nie można edytować
+        view.setMouseTransparent(isDesign); // wyłącza przechwytywanie kliknięć
+        view.setFocusTraversable(!isDesign); // nie łapie focusa
     }
 }
@@ -1,6 +1,10 @@
 package org.example.editor.layout_elements;
 
+import org.example.editor.diagnostics.DiagnosticIndex;
+import org.example.editor.diagnostics.DiagnosticParser;
+
 import java.io.*;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.*;
@@ -52,16 +56,22 @@ public class CppCompiler {
         pb.redirectErrorStream(true);
 
         Process proc = pb.start();
-        // Start wątki do czytania outputu i błędów na żywo
+        // Start wątki do czytania outputu i błędów na żywo. Linie od razu przechodzą przez
+        // parser diagnostyk; do bufora trafiają tylko wtedy, gdy nikt ich nie dostaje na żywo
         StringBuilder stdoutBuf = new StringBuilder();
         StringBuilder stderrBuf = new StringBuilder();
+        DiagnosticIndex diagnostics = new DiagnosticIndex();
+        DiagnosticParser parser = new DiagnosticParser(Path.of(""), diagnostics::add);
 
         Thread stdoutThread = new Thread(() -> {
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getInputStream()))) {
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    stdoutBuf.append(line).append(System.lineSeparator());
+                    synchronized (parser) {
+                        parser.accept(line);
+                    }
                     if (liveOutput != null) liveOutput.accept(line);
+                    else stdoutBuf.append(line).append(System.lineSeparator());
                 }
             } catch (IOException ignored) {}
         });
@@ -70,8 +80,11 @@ public class CppCompiler {
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(proc.getErrorStream()))) {
                 String line;
                 while ((line = reader.readLine()) != null) {
-                    stderrBuf.append(line).append(System.lineSeparator());
+                    synchronized (parser) {
+                        parser.accept(line);
+                    }
                     if (liveOutput != null) liveOutput.accept("err: " + line);
+                    else stderrBuf.append(line).append(System.lineSeparator());
                 }
             } catch (IOException ignored) {}
         });
@@ -87,24 +100,34 @@ public class CppCompiler {
             proc.destroyForcibly();
             stdoutThread.join(200);
             stderrThread.join(200);
+            synchronized (parser) {
+                parser.finish();
+            }
             return new CompilationResult(
                     -1,
                     stdoutBuf.toString(),
                     stderrBuf.toString(),
-                    "Timed out after " + timeoutSeconds + " seconds"
+                    "Timed out after " + timeoutSeconds + " seconds",
+                    diagnostics
             );
         }
 
         int exitCode = proc.exitValue();
-        stdoutThread.join(200);
-        stderrThread.join(200);
+        // proces już się zakończył, więc strumienie zaraz się skończą – czekamy na
+        // ostatnie linie, żeby żadna diagnostyka nie przepadła przy długim wyjściu
+        stdoutThread.join();
+        stderrThread.join();
+        synchronized (parser) {
+            parser.finish();
+        }
 
         if (exitCode != 0) {
             return new CompilationResult(
                     exitCode,
                     stdoutBuf.toString(),
                     stderrBuf.toString(),
-                    "Compilation failed with exit code " + exitCode
+                    "Compilation failed with exit code " + exitCode,
+                    diagnostics
             );
         }
 
@@ -112,7 +135,8 @@ public class CppCompiler {
                 0,
                 stdoutBuf.toString(),
                 stderrBuf.toString(),
-                ""
+                "",
+                diagnostics
         );
 
     }
@@ -141,16 +165,22 @@ public class CppCompiler {
         public final String stdout;
         public final String stderr;
         public final String message;
+        public final DiagnosticIndex diagnostics; // błędy i ostrzeżenia kompilatora według pliku i linii
 
         public CompilationResult(int exitCode, String stdout, String stderr) {
             this(exitCode, stdout, stderr, "");
         }
 
         public CompilationResult(int exitCode, String stdout, String stderr, String message) {
+            this(exitCode, stdout, stderr, message, new DiagnosticIndex());
+        }
+
+        public CompilationResult(int exitCode, String stdout, String stderr, String message, DiagnosticIndex diagnostics) {
             this.exitCode = exitCode;
             this.stdout = stdout;
             this.stderr = stderr;
             this.message = message;
+            this.diagnostics = diagnostics;
         }
 
         public boolean success() {
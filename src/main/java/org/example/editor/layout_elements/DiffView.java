@@ -0,0 +1,538 @@
+package org.example.editor.layout_elements;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Orientation;
+import javafx.geometry.Pos;
+import javafx.scene.Scene;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.Alert;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.BorderPane;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.stage.Stage;
+import javafx.util.Duration;
+import org.example.editor.diff.LineDiff;
+import org.example.editor.document.Document;
+import org.example.editor.document.DocumentListener;
+import org.example.editor.document.DocumentSnapshot;
+import org.example.editor.io.FileLoader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Porównanie dwóch tekstów obok siebie, w osobnym oknie: bufor edytora z plikiem
+ * na dysku albo dwa pliki. Diff liczy się w tle ({@link LineDiff}); wiersze obu stron
+ * są wyrównane – linie bez odpowiednika mają po drugiej stronie pusty pas – i
+ * rysowane tylko w obrębie widoku, więc pliki po 100k linii przewijają się płynnie.
+ * <p>
+ * Przy porównaniu z dyskiem zmiany można przenosić do bufora kawałkami (strzałka
+ * między stronami, "Take" albo Alt+←) zamiast wczytywać plik od nowa; każda edycja
+ * bufora liczy diff ponownie. F7 / Shift+F7 – następna / poprzednia zmiana.
+ */
+public class DiffView extends Region {
+
+    private static final double PADDING = 4;
+    private static final double MIDDLE = 22;
+    private static final Duration REDIFF_DELAY = Duration.millis(200);
+    private static final Color BACKGROUND = Color.web("#1e1e1e");
+    private static final Color TEXT = Color.web("#d4d4d4");
+    private static final Color LINE_NUMBER = Color.web("#858585");
+    private static final Color FILLER = Color.web("#252526");
+    private static final Color REMOVED = Color.web("#4b1818");
+    private static final Color ADDED = Color.web("#1e3a1e");
+    private static final Color CHANGED = Color.web("#1f3550");
+    private static final Color CURRENT = Color.web("#d7ba7d");
+
+    private final Canvas canvas = new Canvas();
+    private final ScrollBar vbar = new ScrollBar();
+    private final ScrollBar hbar = new ScrollBar();
+    private final GlyphCache glyphs = new GlyphCache(EditorView.pickFont());
+    private final Label status = new Label("Comparing…");
+    private final PauseTransition rediffTimer = new PauseTransition(REDIFF_DELAY);
+    private final DocumentListener documentListener = (doc, change) -> leftChanged();
+
+    private final Document left;          // przy scalaniu: żywy dokument bufora
+    private final DocumentSnapshot right;
+    private final String leftTitle;
+    private final String rightTitle;
+    private final boolean mergeable;
+
+    private DocumentSnapshot leftSnapshot; // tekst, dla którego policzono wiersze
+    private List<LineDiff.Hunk> hunks = List.of();
+    private int[] leftLineOfRow = new int[0];  // -1 = pusty pas
+    private int[] rightLineOfRow = new int[0];
+    private int[] hunkOfRow = new int[0];      // -1 poza zmianami
+    private int[] hunkFirstRow = new int[0];
+    private int rowCount;
+    private int current = -1;                  // wybrana zmiana
+    private volatile boolean disposed;         // czytane też przez wątek diffu
+    private boolean stale = true;              // wiersze nie odpowiadają jeszcze tekstowi
+    private double contentWidth;
+    private boolean repaintPending;
+
+    /**
+     * @param mergeable czy zmiany z prawej strony można przenosić do {@code left}
+     */
+    public DiffView(Document left, String leftTitle, DocumentSnapshot right, String rightTitle, boolean mergeable) {
+        this.left = left;
+        this.right = right;
+        this.leftTitle = leftTitle;
+        this.rightTitle = rightTitle;
+        this.mergeable = mergeable;
+        setFocusTraversable(true);
+        vbar.setOrientation(Orientation.VERTICAL);
+        getChildren().addAll(canvas, vbar, hbar);
+        vbar.valueProperty().addListener((obs, oldVal, newVal) -> requestRepaint());
+        hbar.valueProperty().addListener((obs, oldVal, newVal) -> requestRepaint());
+        rediffTimer.setOnFinished(e -> rediff());
+        status.setStyle("-fx-text-fill: #d4d4d4;");
+
+        addEventHandler(MouseEvent.MOUSE_PRESSED, this::onMousePressed);
+        addEventHandler(ScrollEvent.SCROLL, e -> {
+            if (e.isShiftDown() || e.getDeltaX() != 0) {
+                hbar.setValue(clamp(hbar, hbar.getValue() - (e.getDeltaX() != 0 ? e.getDeltaX() : e.getDeltaY())));
+            } else {
+                vbar.setValue(clamp(vbar, vbar.getValue() - e.getDeltaY()));
+            }
+            e.consume();
+        });
+        addEventHandler(KeyEvent.KEY_PRESSED, this::onKeyPressed);
+
+        if (mergeable) left.addListener(documentListener);
+        rediff();
+    }
+
+    // ------------------------------------------------------------ otwieranie
+
+    /**
+     * Porównuje bufor (po lewej, tu trafiają przeniesione zmiany) z plikiem na dysku
+     */
+    public static void compareWithDisk(Document buffer, File file) {
+        CompletableFuture.supplyAsync(() -> read(file))
+                .whenCompleteAsync((text, ex) -> {
+                    if (ex != null) {
+                        showError(ex);
+                        return;
+                    }
+                    new DiffView(buffer, "Editor", new Document(text).snapshot(), file.getName() + " (on disk)", true)
+                            .openWindow("Compare " + file.getName() + " with disk");
+                }, Platform::runLater);
+    }
+
+    /**
+     * Porównuje dwa pliki z dysku (tylko do odczytu)
+     */
+    public static void compareFiles(File leftFile, File rightFile) {
+        CompletableFuture<String> leftText = CompletableFuture.supplyAsync(() -> read(leftFile));
+        CompletableFuture<String> rightText = CompletableFuture.supplyAsync(() -> read(rightFile));
+        leftText.thenCombine(rightText, (a, b) -> new String[]{a, b})
+                .whenCompleteAsync((texts, ex) -> {
+                    if (ex != null) {
+                        showError(ex);
+                        return;
+                    }
+                    new DiffView(new Document(texts[0]), leftFile.getName(), new Document(texts[1]).snapshot(),
+                            rightFile.getName(), false)
+                            .openWindow(leftFile.getName() + " ↔ " + rightFile.getName());
+                }, Platform::runLater);
+    }
+
+    private static String read(File file) {
+        try {
+            return FileLoader.readText(file.toPath());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void showError(Throwable ex) {
+        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+        cause.printStackTrace();
+        new Alert(Alert.AlertType.ERROR, cause.getMessage()).showAndWait();
+    }
+
+    private void openWindow(String title) {
+        Button previous = new Button("↑ Previous");
+        Button next = new Button("↓ Next");
+        previous.setOnAction(e -> select(current - 1));
+        next.setOnAction(e -> select(current + 1));
+        HBox toolbar = new HBox(6, previous, next);
+        if (mergeable) {
+            Button take = new Button("← Take");
+            Button takeAll = new Button("⇇ Take All");
+            take.setOnAction(e -> take(current));
+            takeAll.setOnAction(e -> takeAll());
+            toolbar.getChildren().addAll(take, takeAll);
+        }
+        toolbar.getChildren().add(status);
+        toolbar.setAlignment(Pos.CENTER_LEFT);
+        toolbar.setPadding(new Insets(6, 10, 6, 10));
+        toolbar.setStyle("-fx-background-color: #2d2d30;");
+
+        BorderPane root = new BorderPane(this);
+        root.setTop(toolbar);
+        Stage stage = new Stage();
+        stage.setTitle(title);
+        stage.setScene(new Scene(root, 1100, 700));
+        stage.setOnHidden(e -> dispose());
+        stage.show();
+        requestFocus();
+    }
+
+    /**
+     * Przestaje śledzić bufor
+     */
+    public void dispose() {
+        left.removeListener(documentListener);
+        rediffTimer.stop();
+        disposed = true;
+    }
+
+    // ------------------------------------------------------------ diff
+
+    private void leftChanged() {
+        stale = true;
+        status.setText("Comparing…");
+        rediffTimer.playFromStart();
+    }
+
+    private void rediff() {
+        DocumentSnapshot snapshot = left.snapshot();
+        LineDiff.compute(snapshot, right, () -> disposed || !snapshot.isCurrent())
+                .whenCompleteAsync((result, ex) -> {
+                    // tekst zmienił się w międzyczasie – liczy się już nowy diff
+                    if (disposed || !snapshot.isCurrent()) return;
+                    if (ex != null) {
+                        status.setText("Comparison failed");
+                        ex.printStackTrace();
+                        return;
+                    }
+                    apply(snapshot, result);
+                }, Platform::runLater);
+    }
+
+    /**
+     * Układa wiersze: równe linie w parach, a w każdej zmianie tyle wierszy, ile ma dłuższa strona
+     */
+    private void apply(DocumentSnapshot snapshot, List<LineDiff.Hunk> result) {
+        boolean first = leftSnapshot == null;
+        int leftLines = snapshot.lineCount();
+        int rows = right.lineCount();
+        for (LineDiff.Hunk h : result) {
+            rows += Math.max(0, (h.leftTo() - h.leftFrom()) - (h.rightTo() - h.rightFrom()));
+        }
+        int[] leftOfRow = new int[rows];
+        int[] rightOfRow = new int[rows];
+        int[] hunkOf = new int[rows];
+        int[] firstRows = new int[result.size()];
+        int row = 0;
+        int l = 0;
+        int r = 0;
+        for (int i = 0; i <= result.size(); i++) {
+            LineDiff.Hunk h = i < result.size() ? result.get(i) : null;
+            int equalTo = h != null ? h.leftFrom() : leftLines;
+            while (l < equalTo) {
+                leftOfRow[row] = l++;
+                rightOfRow[row] = r++;
+                hunkOf[row++] = -1;
+            }
+            if (h == null) break;
+            firstRows[i] = row;
+            int leftCount = h.leftTo() - h.leftFrom();
+            int rightCount = h.rightTo() - h.rightFrom();
+            for (int k = 0; k < Math.max(leftCount, rightCount); k++) {
+                leftOfRow[row] = k < leftCount ? h.leftFrom() + k : -1;
+                rightOfRow[row] = k < rightCount ? h.rightFrom() + k : -1;
+                hunkOf[row++] = i;
+            }
+            l = h.leftTo();
+            r = h.rightTo();
+        }
+
+        leftSnapshot = snapshot;
+        hunks = result;
+        leftLineOfRow = leftOfRow;
+        rightLineOfRow = rightOfRow;
+        hunkOfRow = hunkOf;
+        hunkFirstRow = firstRows;
+        rowCount = row;
+        stale = false;
+        status.setText(hunks.isEmpty() ? "Identical" : hunks.size() + (hunks.size() == 1 ? " change" : " changes"));
+        current = hunks.isEmpty() ? -1 : Math.min(Math.max(current, 0), hunks.size() - 1);
+        updateScrollBars();
+        if (first && current >= 0) {
+            scrollToRow(hunkFirstRow[current]); // pierwsze otwarcie – od razu pierwsza zmiana
+        }
+        requestRepaint();
+    }
+
+    // ------------------------------------------------------------ nawigacja i scalanie
+
+    private void select(int hunk) {
+        if (hunks.isEmpty()) return;
+        current = Math.floorMod(hunk, hunks.size());
+        scrollToRow(hunkFirstRow[current]);
+        requestRepaint();
+    }
+
+    private void scrollToRow(int row) {
+        double lh = glyphs.lineHeight();
+        vbar.setValue(clamp(vbar, row * lh - canvas.getHeight() / 3));
+    }
+
+    /**
+     * Zastępuje linie zmiany po lewej liniami z prawej
+     */
+    private void take(int hunk) {
+        if (!mergeable || stale || hunk < 0 || hunk >= hunks.size()) return;
+        Replacement replacement = replacement(hunks.get(hunk));
+        left.replace(replacement.start, replacement.end - replacement.start, replacement.text);
+    }
+
+    /**
+     * Przenosi wszystkie zmiany jedną edycją – jeden krok cofania
+     */
+    private void takeAll() {
+        if (!mergeable || stale || hunks.isEmpty()) return;
+        int[] ranges = new int[2 * hunks.size()];
+        CharSequence[] texts = new CharSequence[hunks.size()];
+        for (int i = 0; i < hunks.size(); i++) {
+            Replacement replacement = replacement(hunks.get(i));
+            ranges[2 * i] = replacement.start;
+            ranges[2 * i + 1] = replacement.end;
+            texts[i] = replacement.text;
+        }
+        left.replaceAll(ranges, texts, texts.length);
+    }
+
+    private record Replacement(int start, int end, String text) {
+    }
+
+    /**
+     * Edycja lewej strony zamieniająca zmianę na wersję z prawej. Znaki końca linii
+     * idą razem z liniami; na końcu pliku (bez końcowego '\n') trzeba je dodać albo
+     * zabrać osobno.
+     */
+    private Replacement replacement(LineDiff.Hunk h) {
+        DocumentSnapshot l = leftSnapshot;
+        int leftLines = l.lineCount();
+        boolean removes = h.leftTo() > h.leftFrom();
+        boolean inserts = h.rightTo() > h.rightFrom();
+        String text = inserts
+                ? right.getText(right.lineStart(h.rightFrom()),
+                right.lineEnd(h.rightTo() - 1) - right.lineStart(h.rightFrom()))
+                : "";
+        if (removes && inserts) {
+            return new Replacement(l.lineStart(h.leftFrom()), l.lineEnd(h.leftTo() - 1), text);
+        }
+        if (inserts) {
+            if (h.leftFrom() < leftLines) {
+                int at = l.lineStart(h.leftFrom());
+                return new Replacement(at, at, text + lineBreakBefore(right, h.rightTo()));
+            }
+            return new Replacement(l.length(), l.length(), lineBreakBefore(right, h.rightFrom()) + text);
+        }
+        if (h.leftTo() < leftLines) {
+            return new Replacement(l.lineStart(h.leftFrom()), l.lineStart(h.leftTo()), "");
+        }
+        int start = h.leftFrom() > 0 ? l.lineEnd(h.leftFrom() - 1) : 0;
+        return new Replacement(start, l.length(), "");
+    }
+
+    /**
+     * Znaki końca linii ("\n" albo "\r\n") stojące przed linią {@code line}
+     */
+    private static String lineBreakBefore(DocumentSnapshot text, int line) {
+        int previousEnd = text.lineEnd(line - 1);
+        return text.getText(previousEnd, text.lineStart(line) - previousEnd);
+    }
+
+    private void onKeyPressed(KeyEvent e) {
+        if (e.getCode() == KeyCode.F7) {
+            select(e.isShiftDown() ? current - 1 : current + 1);
+        } else if (e.getCode() == KeyCode.LEFT && e.isAltDown()) {
+            take(current);
+        } else if (e.getCode() == KeyCode.PAGE_DOWN || e.getCode() == KeyCode.PAGE_UP) {
+            double page = canvas.getHeight() - glyphs.lineHeight();
+            vbar.setValue(clamp(vbar, vbar.getValue() + (e.getCode() == KeyCode.PAGE_DOWN ? page : -page)));
+        } else {
+            return;
+        }
+        e.consume();
+    }
+
+    private void onMousePressed(MouseEvent e) {
+        requestFocus();
+        int row = (int) ((e.getY() + vbar.getValue()) / glyphs.lineHeight());
+        if (row < 0 || row >= rowCount || hunkOfRow[row] < 0) return;
+        current = hunkOfRow[row];
+        double middle = (canvas.getWidth() - MIDDLE) / 2;
+        if (mergeable && e.getX() >= middle && e.getX() < middle + MIDDLE && row == hunkFirstRow[current]) {
+            take(current);
+        }
+        requestRepaint();
+    }
+
+    // ------------------------------------------------------------ rysowanie
+
+    @Override
+    protected void layoutChildren() {
+        double vw = vbar.prefWidth(-1);
+        double hh = hbar.prefHeight(-1);
+        double viewW = Math.max(0, getWidth() - vw);
+        double viewH = Math.max(0, getHeight() - hh);
+        canvas.setWidth(viewW);
+        canvas.setHeight(viewH);
+        canvas.relocate(0, 0);
+        vbar.resizeRelocate(viewW, 0, vw, viewH);
+        hbar.resizeRelocate(0, viewH, viewW, hh);
+        paint();
+    }
+
+    private void requestRepaint() {
+        if (!repaintPending) {
+            repaintPending = true;
+            Platform.runLater(() -> {
+                repaintPending = false;
+                paint();
+            });
+        }
+    }
+
+    private int firstVisibleRow() {
+        return Math.max(0, (int) (vbar.getValue() / glyphs.lineHeight()));
+    }
+
+    private void paint() {
+        updateScrollBars();
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        double w = canvas.getWidth();
+        double h = canvas.getHeight();
+        g.setFill(BACKGROUND);
+        g.fillRect(0, 0, w, h);
+        if (w <= 0 || h <= 0) return;
+        g.setFont(glyphs.font());
+
+        double lh = glyphs.lineHeight();
+        double half = (w - MIDDLE) / 2;
+        double gutter = gutterWidth();
+        double scrollY = vbar.getValue();
+        int first = firstVisibleRow();
+        int last = Math.min(rowCount - 1, (int) ((scrollY + h) / lh));
+
+        for (int row = first; row <= last; row++) {
+            double y = row * lh - scrollY;
+            int hunk = hunkOfRow[row];
+            if (hunk >= 0) {
+                LineDiff.Hunk change = hunks.get(hunk);
+                boolean removed = change.rightTo() == change.rightFrom();
+                boolean added = change.leftTo() == change.leftFrom();
+                g.setFill(leftLineOfRow[row] < 0 ? FILLER : removed ? REMOVED : CHANGED);
+                g.fillRect(0, y, half, lh);
+                g.setFill(rightLineOfRow[row] < 0 ? FILLER : added ? ADDED : CHANGED);
+                g.fillRect(half + MIDDLE, y, half, lh);
+                if (mergeable && row == hunkFirstRow[hunk]) {
+                    g.setFill(hunk == current ? CURRENT : LINE_NUMBER);
+                    g.fillText("◀", half + MIDDLE / 2 - glyphs.advance('◀') / 2, y + glyphs.baseline());
+                }
+            }
+            if (leftLineOfRow[row] >= 0) {
+                paintLine(g, leftSnapshot.getLine(leftLineOfRow[row]), leftLineOfRow[row], 0, half, gutter, y);
+            }
+            if (rightLineOfRow[row] >= 0) {
+                paintLine(g, right.getLine(rightLineOfRow[row]), rightLineOfRow[row], half + MIDDLE, half, gutter, y);
+            }
+        }
+
+        if (current >= 0 && current < hunks.size()) {
+            LineDiff.Hunk change = hunks.get(current);
+            int from = hunkFirstRow[current];
+            int rows = Math.max(change.leftTo() - change.leftFrom(), change.rightTo() - change.rightFrom());
+            g.setStroke(CURRENT);
+            g.setLineWidth(1);
+            g.strokeRect(0.5, from * lh - scrollY + 0.5, w - 1, Math.max(1, rows) * lh - 1);
+        }
+        g.setStroke(LINE_NUMBER);
+        g.strokeLine(half + 0.5, 0, half + 0.5, h);
+        g.strokeLine(half + MIDDLE + 0.5, 0, half + MIDDLE + 0.5, h);
+
+        g.setFill(LINE_NUMBER);
+        if (rowCount == 0) g.fillText(stale ? "Comparing " + leftTitle + " with " + rightTitle + "…" : "", PADDING, glyphs.baseline());
+    }
+
+    /**
+     * Szerokość numerów linii jednej strony
+     */
+    private double gutterWidth() {
+        int lines = Math.max(leftSnapshot == null ? 0 : leftSnapshot.lineCount(), right.lineCount());
+        return glyphs.advance('0') * Math.max(4, String.valueOf(lines).length()) + 2 * PADDING;
+    }
+
+    private void paintLine(GraphicsContext g, String text, int line, double x, double width, double gutter, double y) {
+        g.save();
+        g.beginPath();
+        g.rect(x, y, width, glyphs.lineHeight());
+        g.clip();
+        g.setFill(LINE_NUMBER);
+        String number = String.valueOf(line + 1);
+        g.fillText(number, x + gutter - PADDING - glyphs.width(number), y + glyphs.baseline());
+        g.beginPath();
+        g.rect(x + gutter, y, width - gutter, glyphs.lineHeight());
+        g.clip();
+        g.setFill(TEXT);
+        g.fillText(expandTabs(text), x + gutter + PADDING - hbar.getValue(), y + glyphs.baseline());
+        g.restore();
+        contentWidth = Math.max(contentWidth, glyphs.width(text));
+    }
+
+    private static String expandTabs(String text) {
+        if (text.indexOf('\t') < 0) return text;
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '\t') {
+                do sb.append(' '); while (sb.length() % GlyphCache.TAB_SIZE != 0);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private void updateScrollBars() {
+        double lh = glyphs.lineHeight();
+        double half = (canvas.getWidth() - MIDDLE) / 2;
+        configure(vbar, rowCount * lh + PADDING, canvas.getHeight(), lh);
+        configure(hbar, contentWidth + 2 * PADDING, half - gutterWidth(), glyphs.advance(' ') * 4);
+    }
+
+    private static void configure(ScrollBar bar, double content, double view, double unit) {
+        double max = Math.max(0, content - view);
+        bar.setMin(0);
+        bar.setMax(max);
+        bar.setVisibleAmount(content > 0 ? max * view / content : 0);
+        bar.setUnitIncrement(unit);
+        bar.setBlockIncrement(Math.max(unit, view - unit));
+        if (bar.getValue() > max) bar.setValue(max);
+    }
+
+    private static double clamp(ScrollBar bar, double value) {
+        return Math.max(bar.getMin(), Math.min(bar.getMax(), value));
+    }
+}
@@ -0,0 +1,1227 @@
+package org.example.editor.layout_elements;
+
+import javafx.animation.Animation;
+import javafx.animation.KeyFrame;
+import javafx.animation.Timeline;
+import javafx.application.Platform;
+import javafx.geometry.BoundingBox;
+import javafx.geometry.Bounds;
+import javafx.geometry.Orientation;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.control.ScrollBar;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.util.Duration;
+import org.example.editor.diagnostics.Diagnostic;
+import org.example.editor.document.AnsiDecoder;
+import org.example.editor.document.Document;
+import org.example.editor.document.DocumentChange;
+import org.example.editor.document.DocumentListener;
+import org.example.editor.document.LineSource;
+import org.example.editor.document.StyledLineSource;
+import org.example.editor.highlight.CodeStructure;
+import org.example.editor.highlight.HighlightListener;
+import org.example.editor.highlight.SyntaxHighlighter;
+import org.example.editor.highlight.TokenType;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.NavigableMap;
+
+/**
+ * Virtualized text view drawn on a Canvas.
+ * <p>
+ * Only the lines inside the viewport are fetched from the {@link Document}
+ * (plus a small overscan, cached for smooth scrolling) and painted, so scroll
+ * and keystroke cost does not depend on the size of the file. The canvas is
+ * never bigger than the viewport.
+ * <p>
+ * Instead of the document, any read-only {@link LineSource} can be shown (see
+ * {@link #setLineSource}); the view then only scrolls, with no caret or selection.
+ * <p>
+ * With a highlighter the view also folds blocks (gutter markers, Ctrl+Shift+[ / ])
+ * and marks the bracket matching the one at the caret, both from the
+ * highlighter's {@link CodeStructure}. Folding works on rows: a row is a line
+ * that is not hidden by a fold, and scrolling, painting and vertical caret
+ * moves count rows instead of lines.
+ * <p>
+ * Several views may show the same document (and highlighter) at once, each
+ * with its own caret, selection, folds and scroll position: every view maps
+ * its state through the document's changes and keeps its viewport on the same
+ * text when lines are inserted or removed above it.
+ */
+public class EditorView extends Region {
+
+    private static final int OVERSCAN = 16;
+    private static final double PADDING = 4;
+    private static final double FOLD_GUTTER = 14;
+    private static final int FOLD_SEARCH_LINES = 2000; // how far up Ctrl+Shift+[ looks for the enclosing block
+    private static final Color BACKGROUND = Color.web("#1e1e1e");
+    private static final Color TEXT = Color.web("#d4d4d4");
+    private static final Color CURRENT_LINE = Color.web("#282828");
+    private static final Color SELECTION = Color.web("#264f78");
+    private static final Color MATCH = Color.web("#623315");
+    private static final Color CARET = Color.web("#aeafad");
+    private static final Color FOLD_MARKER = Color.web("#858585");
+    private static final Color BRACKET_MATCH = Color.web("#888888");
+    private static final Color BRACKET_MISMATCH = Color.web("#f44747");
+    private static final Color[] MARKER_COLORS = {   // by Diagnostic.Severity
+            Color.web("#3794ff"), Color.web("#cca700"), Color.web("#f44747")
+    };
+    private static final Color[] TOKEN_COLORS = new Color[TokenType.values().length];
+    private static final Color[] ANSI_COLORS = new Color[256];
+    private static final double FAINT_OPACITY = 0.6;
+
+    static {
+        TOKEN_COLORS[TokenType.IDENTIFIER.ordinal()] = TEXT;
+        TOKEN_COLORS[TokenType.KEYWORD.ordinal()] = Color.web("#569cd6");
+        TOKEN_COLORS[TokenType.TYPE.ordinal()] = Color.web("#4ec9b0");
+        TOKEN_COLORS[TokenType.NUMBER.ordinal()] = Color.web("#b5cea8");
+        TOKEN_COLORS[TokenType.STRING.ordinal()] = Color.web("#ce9178");
+        TOKEN_COLORS[TokenType.CHAR.ordinal()] = Color.web("#ce9178");
+        TOKEN_COLORS[TokenType.COMMENT.ordinal()] = Color.web("#6a9955");
+        TOKEN_COLORS[TokenType.PREPROCESSOR.ordinal()] = Color.web("#c586c0");
+        TOKEN_COLORS[TokenType.BRACKET.ordinal()] = Color.web("#ffd700");
+        TOKEN_COLORS[TokenType.OPERATOR.ordinal()] = TEXT;
+        for (int i = 0; i < ANSI_COLORS.length; i++) {
+            int rgb = AnsiDecoder.rgb(i);
+            ANSI_COLORS[i] = Color.rgb(rgb >> 16, (rgb >> 8) & 0xff, rgb & 0xff);
+        }
+    }
+
+    private final Canvas canvas = new Canvas();
+    private final ScrollBar vbar = new ScrollBar();
+    private final ScrollBar hbar = new ScrollBar();
+    private final GlyphCache glyphs = new GlyphCache(pickFont());
+    private final Timeline caretBlink;
+    private final DocumentListener documentListener = (doc, change) -> onDocumentChanged(change);
+    private final HighlightListener highlightListener = this::onLinesHighlighted;
+    private final FoldModel folds = new FoldModel();
+
+    private Document document;
+    private LineSource source;        // what is painted: the document or a read-only source
+    private SyntaxHighlighter highlighter;
+    private int firstVisibleLine;
+    private int lastVisibleLine;      // may be far below firstVisibleLine when lines are folded
+    private int caret;
+    private int anchor;
+    private double preferredX = -1;   // remembered x for vertical caret moves
+    private boolean editable = true;
+    private boolean caretOn = true;
+    private boolean repaintPending = false;
+    private boolean dragSelecting = false;
+    private double contentWidth;      // widest line seen so far, drives the horizontal scrollbar
+    private int[] marks = new int[0];  // sorted [start, end) pairs, e.g. search matches
+    private int markCount;
+    private int[] markerLines = new int[0];   // sorted lines with a diagnostic marker in the gutter
+    private Diagnostic.Severity[] markerSeverities = new Diagnostic.Severity[0];
+
+    // Rows [cacheFirst, cacheFirst + cachedLines.length) - viewport plus overscan
+    private int cacheFirst;
+    private int[] cachedLineNumbers = new int[0];
+    private String[] cachedLines = new String[0];
+    private int[] cachedStarts = new int[0];
+
+    public EditorView(Document document) {
+        getStyleClass().add("editor-view");
+        setFocusTraversable(true);
+
+        vbar.setOrientation(Orientation.VERTICAL);
+        getChildren().addAll(canvas, vbar, hbar);
+        vbar.valueProperty().addListener((obs, oldVal, newVal) -> requestRepaint());
+        hbar.valueProperty().addListener((obs, oldVal, newVal) -> requestRepaint());
+
+        caretBlink = new Timeline(new KeyFrame(Duration.millis(530), e -> {
+            caretOn = !caretOn;
+            requestRepaint();
+        }));
+        caretBlink.setCycleCount(Animation.INDEFINITE);
+        focusedProperty().addListener((obs, was, isFocused) -> {
+            if (isFocused) {
+                restartBlink();
+            } else {
+                caretBlink.stop();
+                requestRepaint();
+            }
+        });
+
+        addEventHandler(KeyEvent.KEY_PRESSED, this::onKeyPressed);
+        addEventHandler(KeyEvent.KEY_TYPED, this::onKeyTyped);
+        addEventHandler(MouseEvent.MOUSE_PRESSED, this::onMousePressed);
+        addEventHandler(MouseEvent.MOUSE_DRAGGED, this::onMouseDragged);
+        addEventHandler(ScrollEvent.SCROLL, this::onScroll);
+
+        setDocument(document);
+    }
+
+    static Font pickFont() {
+        String family = Font.getFamilies().contains("Consolas") ? "Consolas" : "Monospaced";
+        return Font.font(family, 13);
+    }
+
+    // ---------------------------------------------------------------- model
+
+    public Document getDocument() {
+        return document;
+    }
+
+    public void setDocument(Document newDocument) {
+        if (document != null) {
+            document.removeListener(documentListener);
+        }
+        document = newDocument;
+        document.addListener(documentListener);
+        source = document;
+        markCount = 0;
+        markerLines = new int[0];
+        markerSeverities = new Diagnostic.Severity[0];
+        resetView();
+    }
+
+    /**
+     * Shows a read-only line source instead of the document, or the document
+     * again when {@code newSource} is null or the document itself.
+     */
+    public void setLineSource(LineSource newSource) {
+        source = newSource == null ? document : newSource;
+        resetView();
+    }
+
+    public LineSource getLineSource() {
+        return source;
+    }
+
+    /**
+     * Tells the view that its read-only source changed: {@code removedFromTop}
+     * lines were dropped from its start and more may have been appended. The
+     * viewport stays on the same text, or keeps following the end when it was
+     * scrolled to the end.
+     */
+    public void lineSourceChanged(int removedFromTop) {
+        boolean atEnd = vbar.getValue() >= vbar.getMax();
+        double lh = glyphs.lineHeight();
+        invalidateLines();
+        updateScrollBars();
+        double value = atEnd ? vbar.getMax() : vbar.getValue() - removedFromTop * lh;
+        vbar.setValue(Math.max(0, Math.min(vbar.getMax(), value)));
+        requestRepaint();
+    }
+
+    private boolean showsDocument() {
+        return source == document;
+    }
+
+    private void resetView() {
+        caret = anchor = 0;
+        contentWidth = 0;
+        folds.clear();
+        invalidateLines();
+        vbar.setValue(0);
+        hbar.setValue(0);
+        requestLayout();
+        requestRepaint();
+    }
+
+    public SyntaxHighlighter getHighlighter() {
+        return highlighter;
+    }
+
+    /**
+     * Colours lines with the given highlighter's spans (null for plain text).
+     */
+    public void setHighlighter(SyntaxHighlighter newHighlighter) {
+        if (highlighter != null) {
+            highlighter.removeListener(highlightListener);
+        }
+        highlighter = newHighlighter;
+        folds.clear();
+        invalidateLines();
+        if (highlighter != null) {
+            highlighter.addListener(highlightListener);
+            highlighter.setVisibleLines(firstVisibleLine, lastVisibleLine);
+        }
+        requestRepaint();
+    }
+
+    private void onLinesHighlighted(int fromLine, int toLine) {
+        // fold markers and bracket frames may change anywhere once the structure is complete
+        if (toLine >= firstVisibleLine && fromLine <= lastVisibleLine || highlighter.isStructureCurrent()) {
+            requestRepaint();
+        }
+    }
+
+    public boolean isEditable() {
+        return editable;
+    }
+
+    public void setEditable(boolean editable) {
+        this.editable = editable;
+        requestRepaint();
+    }
+
+    public int getCaretPosition() {
+        return caret;
+    }
+
+    public int getAnchor() {
+        return anchor;
+    }
+
+    public void setCaretPosition(int position) {
+        moveCaret(position, false);
+    }
+
+    public void select(int anchorPosition, int caretPosition) {
+        anchor = clamp(anchorPosition);
+        moveCaret(caretPosition, true);
+    }
+
+    public double getScrollX() {
+        return hbar.getValue();
+    }
+
+    public double getScrollY() {
+        return vbar.getValue();
+    }
+
+    /**
+     * Puts back a selection and scroll position saved from this view earlier
+     * (e.g. when switching back to a buffer), clamped to the current text.
+     */
+    public void restoreViewState(int anchorPosition, int caretPosition, double scrollX, double scrollY) {
+        anchor = clamp(anchorPosition);
+        caret = clamp(caretPosition);
+        contentWidth = Math.max(contentWidth, scrollX + canvas.getWidth()); // lines are measured as they are painted
+        updateScrollBars();
+        vbar.setValue(Math.max(0, Math.min(vbar.getMax(), scrollY)));
+        hbar.setValue(Math.max(0, Math.min(hbar.getMax(), scrollX)));
+        requestRepaint();
+    }
+
+    public void selectAll() {
+        select(0, document.length());
+    }
+
+    public String getSelectedText() {
+        int start = Math.min(caret, anchor);
+        return document.getText(start, Math.max(caret, anchor) - start);
+    }
+
+    /**
+     * Replaces the selection (or inserts at the caret) and moves the caret after the new text.
+     */
+    public void replaceSelection(String text) {
+        int start = Math.min(caret, anchor);
+        int end = Math.max(caret, anchor);
+        document.replace(start, end - start, text);
+        anchor = caret = start + text.length();
+        preferredX = -1;
+        afterCaretMove();
+    }
+
+    /**
+     * Reverts the last undo step of the document and puts the caret after the restored text.
+     */
+    public void undo() {
+        int position = document.getUndoHistory().undo();
+        if (position >= 0) moveCaret(position, false);
+    }
+
+    public void redo() {
+        int position = document.getUndoHistory().redo();
+        if (position >= 0) moveCaret(position, false);
+    }
+
+    /**
+     * Highlights {@code count} ranges of the document, given as sorted, non-overlapping
+     * {@code [start, end)} pairs (e.g. search matches). The array is not copied.
+     * Marks are dropped on the next edit, since their offsets no longer apply.
+     */
+    public void setMarks(int[] ranges, int count) {
+        marks = ranges == null ? new int[0] : ranges;
+        markCount = ranges == null ? 0 : count;
+        requestRepaint();
+    }
+
+    /**
+     * Marks lines (0-based) in the gutter with the worst diagnostic on them. Unlike
+     * {@link #setMarks} the markers survive edits: they move with the lines above
+     * them, and markers of deleted lines move to where the deletion happened.
+     */
+    public void setLineMarkers(NavigableMap<Integer, Diagnostic.Severity> markers) {
+        markerLines = new int[markers.size()];
+        markerSeverities = new Diagnostic.Severity[markers.size()];
+        int i = 0;
+        for (Map.Entry<Integer, Diagnostic.Severity> marker : markers.entrySet()) {
+            markerLines[i] = marker.getKey();
+            markerSeverities[i++] = marker.getValue();
+        }
+        requestRepaint();
+    }
+
+    /**
+     * Index of the first mark that ends after {@code offset}. O(log marks).
+     */
+    private int firstMarkAfter(int offset) {
+        int lo = 0;
+        int hi = markCount;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (marks[2 * mid + 1] <= offset) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    private void onDocumentChanged(DocumentChange change) {
+        caret = change.mapOffset(caret);
+        anchor = change.mapOffset(anchor);
+        markCount = 0;
+        double lh = glyphs.lineHeight();
+        int topLine = firstVisibleLine;
+        double intoTopRow = vbar.getValue() - folds.rowOfLine(topLine) * lh;
+        folds.documentChanged(change);
+        moveLineMarkers(change);
+        if (change.offset() == 0 && change.insertedLength() == document.length()) {
+            contentWidth = 0; // whole text replaced
+        } else if (change.startLine() < topLine && showsDocument()) {
+            // lines added or removed above the viewport (e.g. typed in another view of the
+            // same document) must not move the text in this one
+            int removedEnd = change.startLine() + change.removedLineBreaks();
+            int newTop = topLine > removedEnd
+                    ? topLine + change.insertedLineBreaks() - change.removedLineBreaks() : change.startLine();
+            firstVisibleLine = newTop;
+            updateScrollBars();
+            vbar.setValue(Math.max(0, Math.min(vbar.getMax(), folds.rowOfLine(newTop) * lh + intoTopRow)));
+        }
+        invalidateLines();
+        requestRepaint();
+    }
+
+    private void moveLineMarkers(DocumentChange change) {
+        int line = change.startLine();
+        int removedEnd = line + change.removedLineBreaks();
+        for (int i = 0; i < markerLines.length; i++) {
+            if (markerLines[i] > removedEnd) {
+                markerLines[i] += change.lineDelta();
+            } else if (markerLines[i] > line) {
+                markerLines[i] = line;
+            }
+        }
+    }
+
+    // ---------------------------------------------------------------- layout and painting
+
+    @Override
+    protected void layoutChildren() {
+        double vw = vbar.prefWidth(-1);
+        double hh = hbar.prefHeight(-1);
+        double viewW = Math.max(0, getWidth() - vw);
+        double viewH = Math.max(0, getHeight() - hh);
+        canvas.setWidth(viewW);
+        canvas.setHeight(viewH);
+        canvas.relocate(0, 0);
+        vbar.resizeRelocate(viewW, 0, vw, viewH);
+        hbar.resizeRelocate(0, viewH, viewW, hh);
+        paint();
+    }
+
+    /**
+     * Schedules one repaint; any number of calls within the same event are coalesced.
+     */
+    protected void requestRepaint() {
+        if (!repaintPending) {
+            repaintPending = true;
+            Platform.runLater(() -> {
+                repaintPending = false;
+                paint();
+            });
+        }
+    }
+
+    private void paint() {
+        updateScrollBars();
+        GraphicsContext g = canvas.getGraphicsContext2D();
+        double w = canvas.getWidth();
+        double h = canvas.getHeight();
+        g.setFill(BACKGROUND);
+        g.fillRect(0, 0, w, h);
+        if (w <= 0 || h <= 0) return;
+
+        double lh = glyphs.lineHeight();
+        double scrollY = vbar.getValue();
+        double gutter = gutterWidth();
+        double x0 = gutter + PADDING - hbar.getValue();
+        int lineCount = source.lineCount();
+        if (lineCount == 0) return; // a source still being indexed
+        int rowCount = folds.rowCount(lineCount);
+        int first = Math.min(rowCount - 1, (int) (scrollY / lh));
+        int last = Math.min(rowCount - 1, (int) ((scrollY + h) / lh));
+        ensureCached(first, last);
+        firstVisibleLine = cachedLineNumbers[first - cacheFirst];
+        lastVisibleLine = cachedLineNumbers[last - cacheFirst];
+        if (highlighter != null && showsDocument()) {
+            // not the lines inside folds: they would all be lexed ahead of the rest
+            highlighter.setVisibleLines(firstVisibleLine, Math.min(lastVisibleLine, firstVisibleLine + last - first));
+        }
+
+        int caretLine = showsDocument() ? document.lineOfOffset(caret) : -1;
+        int selStart = Math.min(caret, anchor);
+        int selEnd = Math.max(caret, anchor);
+        g.setFont(glyphs.font());
+
+        for (int row = first; row <= last; row++) {
+            int line = cachedLineNumbers[row - cacheFirst];
+            String text = cachedLines[row - cacheFirst];
+            int lineStart = cachedStarts[row - cacheFirst];
+            double y = row * lh - scrollY;
+
+            if (line == caretLine && selStart == selEnd) {
+                g.setFill(CURRENT_LINE);
+                g.fillRect(0, y, w, lh);
+            }
+            if (markCount > 0 && showsDocument()) {
+                int lineEnd = lineStart + text.length();
+                g.setFill(MATCH);
+                for (int i = firstMarkAfter(lineStart); i < markCount && marks[2 * i] < lineEnd; i++) {
+                    double xs = glyphs.xOf(text, Math.max(marks[2 * i], lineStart) - lineStart);
+                    double xe = glyphs.xOf(text, Math.min(marks[2 * i + 1], lineEnd) - lineStart);
+                    g.fillRect(x0 + xs, y, xe - xs, lh);
+                }
+            }
+            if (selStart != selEnd && selStart <= lineStart + text.length() && selEnd >= lineStart) {
+                int from = Math.max(selStart, lineStart) - lineStart;
+                int to = Math.min(selEnd, lineStart + text.length()) - lineStart;
+                double xs = glyphs.xOf(text, from);
+                double xe = glyphs.xOf(text, to);
+                if (selEnd > lineStart + text.length()) {
+                    xe += glyphs.advance(' '); // selected line break
+                }
+                g.setFill(SELECTION);
+                g.fillRect(x0 + xs, y, xe - xs, lh);
+            }
+            paintLine(g, line, text, x0, y + glyphs.baseline(), w);
+            if (folds.isFolded(line)) {
+                g.setFill(FOLD_MARKER);
+                g.fillText(" \u22ef", x0 + glyphs.width(text), y + glyphs.baseline());
+            }
+        }
+
+        if (selStart == selEnd && isStructureCurrent()) {
+            paintMatchingBrackets(g, caretLine, x0, first, last);
+        }
+        if (gutter > 0) {
+            paintFoldGutter(g, first, last, gutter);
+        }
+
+        if (editable && caretOn && isFocused() && showsDocument() && !folds.isHidden(caretLine)) {
+            int caretRow = folds.rowOfLine(caretLine);
+            if (caretRow >= first && caretRow <= last) {
+                String text = cachedLines[caretRow - cacheFirst];
+                double x = x0 + glyphs.xOf(text, caret - cachedStarts[caretRow - cacheFirst]);
+                if (x >= gutter) {
+                    g.setFill(CARET);
+                    g.fillRect(Math.round(x), caretRow * lh - scrollY, 2, lh);
+                }
+            }
+        }
+    }
+
+    /**
+     * Frames the bracket next to the caret and its partner, red when they do not match.
+     */
+    private void paintMatchingBrackets(GraphicsContext g, int caretLine, double x0, int first, int last) {
+        CodeStructure.BracketPair pair = bracketAtCaret();
+        if (pair == null) return;
+        g.setStroke(pair.matched() ? BRACKET_MATCH : BRACKET_MISMATCH);
+        g.setLineWidth(1);
+        frameColumn(g, pair.openLine(), pair.openColumn(), x0, first, last);
+        frameColumn(g, pair.closeLine(), pair.closeColumn(), x0, first, last);
+    }
+
+    private void frameColumn(GraphicsContext g, int line, int column, double x0, int first, int last) {
+        if (line < 0 || folds.isHidden(line)) return;
+        int row = folds.rowOfLine(line);
+        if (row < first || row > last) return;
+        String text = cachedLines[row - cacheFirst];
+        if (column >= text.length()) return;
+        double xs = glyphs.xOf(text, column);
+        double xe = glyphs.xOf(text, column + 1);
+        double lh = glyphs.lineHeight();
+        g.strokeRect(Math.round(x0 + xs) + 0.5, Math.round(row * lh - vbar.getValue()) + 0.5,
+                Math.round(xe - xs) - 1, Math.round(lh) - 1);
+    }
+
+    /**
+     * Gutter left of the text: a marker on every line a block can be folded at,
+     * and a bar on its left edge for lines with a diagnostic.
+     */
+    private void paintFoldGutter(GraphicsContext g, int first, int last, double gutter) {
+        double lh = glyphs.lineHeight();
+        double scrollY = vbar.getValue();
+        g.setFill(BACKGROUND);
+        g.fillRect(0, 0, gutter, canvas.getHeight());
+        if (markerLines.length > 0) {
+            int firstLine = cachedLineNumbers[first - cacheFirst];
+            int lastLine = cachedLineNumbers[last - cacheFirst];
+            int i = Arrays.binarySearch(markerLines, firstLine);
+            for (i = i < 0 ? -i - 1 : i; i < markerLines.length && markerLines[i] <= lastLine; i++) {
+                if (folds.isHidden(markerLines[i])) continue;
+                g.setFill(MARKER_COLORS[markerSeverities[i].ordinal()]);
+                g.fillRect(0, folds.rowOfLine(markerLines[i]) * lh - scrollY, 3, lh);
+            }
+        }
+        boolean current = isStructureCurrent();
+        CodeStructure structure = highlighter.getStructure();
+        g.setFill(FOLD_MARKER);
+        for (int row = first; row <= last; row++) {
+            int line = cachedLineNumbers[row - cacheFirst];
+            String marker;
+            if (folds.isFolded(line)) {
+                marker = "\u25b8";
+            } else if (current && structure.foldEnd(line) >= 0) {
+                marker = "\u25be";
+            } else {
+                continue;
+            }
+            g.fillText(marker, 3, row * lh - scrollY + glyphs.baseline());
+        }
+    }
+
+    /**
+     * Paints one line's text. {@code x0} is the x of column 0, {@code maxX} the right edge of the viewport.
+     */
+    protected void paintLine(GraphicsContext g, int line, String text, double x0, double baselineY, double maxX) {
+        if (!showsDocument() && source instanceof StyledLineSource styled) {
+            int[] runs = styled.styles(line);
+            if (runs != null) {
+                paintStyledLine(g, text, runs, x0, baselineY, maxX);
+                return;
+            }
+        }
+        int[] spans = highlighter != null && showsDocument() ? highlighter.spans(line) : null;
+        int length = text.length();
+        int pos = 0;
+        double x = 0;
+        if (spans != null) {
+            // spans may be one edit behind the text, so clamp them to the line
+            for (int i = 0; i + 2 < spans.length && pos < length && x0 + x <= maxX; i += 3) {
+                int start = Math.max(pos, Math.min(spans[i], length));
+                int end = Math.min(spans[i] + spans[i + 1], length);
+                if (start > pos) {
+                    g.setFill(TEXT);
+                    x = drawRun(g, text, pos, start, x, x0, baselineY, maxX);
+                }
+                if (end > start) {
+                    g.setFill(TOKEN_COLORS[spans[i + 2]]);
+                    x = drawRun(g, text, start, end, x, x0, baselineY, maxX);
+                }
+                pos = Math.max(pos, Math.max(start, end));
+            }
+        }
+        if (pos < length && x0 + x <= maxX) {
+            g.setFill(TEXT);
+            drawRun(g, text, pos, length, x, x0, baselineY, maxX);
+        }
+    }
+
+    /**
+     * Paints a line of a {@link StyledLineSource} (console output) in the colors
+     * its escape sequences set.
+     */
+    private void paintStyledLine(GraphicsContext g, String text, int[] runs, double x0, double baselineY, double maxX) {
+        int length = text.length();
+        int pos = 0;
+        double x = 0;
+        for (int i = 0; i + 2 < runs.length && pos < length && x0 + x <= maxX; i += 3) {
+            int start = Math.max(pos, Math.min(runs[i], length));
+            int end = Math.min(runs[i] + runs[i + 1], length);
+            if (start > pos) {
+                g.setFill(TEXT);
+                x = drawRun(g, text, pos, start, x, x0, baselineY, maxX);
+            }
+            if (end > start) {
+                x = drawStyledRun(g, text, start, end, runs[i + 2], x, x0, baselineY, maxX);
+            }
+            pos = Math.max(pos, end);
+        }
+        if (pos < length && x0 + x <= maxX) {
+            g.setFill(TEXT);
+            drawRun(g, text, pos, length, x, x0, baselineY, maxX);
+        }
+    }
+
+    private double drawStyledRun(GraphicsContext g, String text, int from, int to, int style,
+                                 double x, double x0, double baselineY, double maxX) {
+        int fg = AnsiDecoder.foreground(style);
+        if ((style & AnsiDecoder.BOLD) != 0 && fg >= 0 && fg < 8) fg += 8; // bold brightens, as in terminals
+        int bg = AnsiDecoder.background(style);
+        Color fore = fg < 0 ? TEXT : ANSI_COLORS[fg];
+        Color back = bg < 0 ? null : ANSI_COLORS[bg];
+        if ((style & AnsiDecoder.INVERSE) != 0) {
+            Color swapped = back == null ? BACKGROUND : back;
+            back = fore;
+            fore = swapped;
+        }
+        if (back != null) {
+            g.setFill(back);
+            g.fillRect(x0 + x, baselineY - glyphs.baseline(), glyphs.xOf(text, to) - x, glyphs.lineHeight());
+        }
+        g.setFill(fore);
+        if ((style & AnsiDecoder.FAINT) != 0) g.setGlobalAlpha(FAINT_OPACITY);
+        double after = drawRun(g, text, from, to, x, x0, baselineY, maxX);
+        g.setGlobalAlpha(1);
+        if ((style & AnsiDecoder.UNDERLINE) != 0) {
+            g.fillRect(x0 + x, baselineY + 1, after - x, 1);
+        }
+        return after;
+    }
+
+    /**
+     * Draws characters {@code [from, to)} of a line starting at line-relative {@code x},
+     * expanding tabs and stopping at the right edge. Returns the x after the run.
+     */
+    protected double drawRun(GraphicsContext g, String text, int from, int to,
+                             double x, double x0, double baselineY, double maxX) {
+        int runStart = from;
+        double runX = x;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c == '\t') {
+                if (i > runStart) g.fillText(text.substring(runStart, i), x0 + runX, baselineY);
+                x = glyphs.tabStop(x);
+                runStart = i + 1;
+                runX = x;
+            } else {
+                x += glyphs.advance(c);
+            }
+            if (x0 + x > maxX) {
+                to = i + 1;
+                break;
+            }
+        }
+        if (to > runStart) g.fillText(text.substring(runStart, to), x0 + runX, baselineY);
+        return x;
+    }
+
+    GlyphCache glyphs() {
+        return glyphs;
+    }
+
+    private void updateScrollBars() {
+        double lh = glyphs.lineHeight();
+        double viewH = canvas.getHeight();
+        double viewW = canvas.getWidth();
+
+        double contentH = folds.rowCount(source.lineCount()) * lh + PADDING;
+        configure(vbar, contentH, viewH, lh);
+        configure(hbar, contentWidth + 2 * PADDING, viewW - gutterWidth(), glyphs.advance(' ') * 4);
+    }
+
+    private static void configure(ScrollBar bar, double content, double view, double unit) {
+        double max = Math.max(0, content - view);
+        bar.setMin(0);
+        bar.setMax(max);
+        bar.setVisibleAmount(content > 0 ? max * view / content : 0);
+        bar.setUnitIncrement(unit);
+        bar.setBlockIncrement(Math.max(unit, view - unit));
+        if (bar.getValue() > max) bar.setValue(max);
+    }
+
+    private void invalidateLines() {
+        cachedLineNumbers = new int[0];
+        cachedLines = new String[0];
+        cachedStarts = new int[0];
+    }
+
+    /**
+     * Caches rows {@code [first, last]} plus overscan; lines hidden by folds are never fetched.
+     */
+    private void ensureCached(int first, int last) {
+        if (first >= cacheFirst && last < cacheFirst + cachedLines.length) return;
+        int from = Math.max(0, first - OVERSCAN);
+        int to = Math.min(folds.rowCount(source.lineCount()) - 1, last + OVERSCAN);
+        cachedLines = new String[Math.max(0, to - from + 1)];
+        cachedStarts = new int[cachedLines.length];
+        cachedLineNumbers = new int[cachedLines.length];
+        for (int row = from; row <= to; row++) {
+            int line = folds.lineOfRow(row);
+            String text;
+            if (showsDocument()) {
+                int start = document.lineStart(line);
+                text = document.getText(start, document.lineEnd(line) - start);
+                cachedStarts[row - from] = start;
+            } else {
+                text = source.getLine(line);
+            }
+            cachedLineNumbers[row - from] = line;
+            cachedLines[row - from] = text;
+            contentWidth = Math.max(contentWidth, glyphs.width(text));
+        }
+        cacheFirst = from;
+    }
+
+    private String lineText(int line) {
+        int row = folds.rowOfLine(line) - cacheFirst;
+        if (row >= 0 && row < cachedLines.length && cachedLineNumbers[row] == line) {
+            return cachedLines[row];
+        }
+        return source.getLine(line);
+    }
+
+    private double gutterWidth() {
+        return highlighter != null && showsDocument() ? FOLD_GUTTER : 0;
+    }
+
+    // ---------------------------------------------------------------- folding and brackets
+
+    private boolean isStructureCurrent() {
+        return highlighter != null && showsDocument() && highlighter.isStructureCurrent();
+    }
+
+    /**
+     * The bracket right after the caret (or else right before it) with its partner.
+     */
+    private CodeStructure.BracketPair bracketAtCaret() {
+        if (!isStructureCurrent()) return null;
+        CodeStructure structure = highlighter.getStructure();
+        int line = document.lineOfOffset(caret);
+        int column = caret - document.lineStart(line);
+        CodeStructure.BracketPair pair = structure.matchBracket(line, column);
+        return pair != null || column == 0 ? pair : structure.matchBracket(line, column - 1);
+    }
+
+    /**
+     * Folds the innermost block around the caret: the one starting on the
+     * caret line, else the closest one above that still contains it.
+     */
+    public void foldAtCaret() {
+        if (!isStructureCurrent()) return;
+        CodeStructure structure = highlighter.getStructure();
+        int line = document.lineOfOffset(caret);
+        for (int header = line; header >= 0 && header > line - FOLD_SEARCH_LINES; header--) {
+            if (folds.isHidden(header)) continue;
+            int end = structure.foldEnd(header);
+            if (end >= 0 && (header == line || end > line)) {
+                foldLines(header, end);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Unfolds the block on the caret line, if it is folded.
+     */
+    public void unfoldAtCaret() {
+        if (!showsDocument()) return;
+        if (folds.unfold(document.lineOfOffset(caret))) afterFoldChange();
+    }
+
+    /**
+     * Moves the caret to the bracket matching the one next to it.
+     */
+    public void jumpToMatchingBracket() {
+        CodeStructure.BracketPair pair = bracketAtCaret();
+        if (pair == null || pair.openLine() < 0 || pair.closeLine() < 0) return;
+        int line = document.lineOfOffset(caret);
+        int column = caret - document.lineStart(line);
+        boolean atOpen = line == pair.openLine()
+                && (column == pair.openColumn() || column == pair.openColumn() + 1);
+        int targetLine = atOpen ? pair.closeLine() : pair.openLine();
+        int targetColumn = atOpen ? pair.closeColumn() : pair.openColumn();
+        moveCaret(document.lineStart(targetLine) + targetColumn, false);
+    }
+
+    private void toggleFold(int line) {
+        if (folds.unfold(line)) {
+            afterFoldChange();
+        } else if (isStructureCurrent()) {
+            int end = highlighter.getStructure().foldEnd(line);
+            if (end >= 0) foldLines(line, end);
+        }
+    }
+
+    private void foldLines(int header, int end) {
+        folds.fold(header, end);
+        // a caret inside the block goes to the end of its header line
+        int caretLine = document.lineOfOffset(caret);
+        if (folds.isHidden(caretLine)) {
+            caret = anchor = document.lineEnd(header);
+        } else if (folds.isHidden(document.lineOfOffset(anchor))) {
+            anchor = caret;
+        }
+        afterFoldChange();
+    }
+
+    private void afterFoldChange() {
+        invalidateLines();
+        updateScrollBars();
+        requestRepaint();
+    }
+
+    // ---------------------------------------------------------------- caret and scrolling
+
+    private int clamp(int position) {
+        return Math.max(0, Math.min(document.length(), position));
+    }
+
+    private void moveCaret(int position, boolean extendSelection) {
+        document.getUndoHistory().seal(); // typing after a caret move is a new undo step
+        caret = clamp(position);
+        if (!extendSelection) anchor = caret;
+        preferredX = -1;
+        afterCaretMove();
+    }
+
+    private void afterCaretMove() {
+        int line = document.lineOfOffset(caret);
+        if (folds.isHidden(line)) {
+            folds.reveal(line);
+            invalidateLines();
+        }
+        restartBlink();
+        scrollToCaret();
+        requestRepaint();
+    }
+
+    private void moveVertical(int rows, boolean extendSelection) {
+        int line = document.lineOfOffset(caret);
+        double x = preferredX >= 0 ? preferredX
+                : glyphs.xOf(lineText(line), caret - document.lineStart(line));
+        int row = folds.rowOfLine(line) + rows;
+        int target = folds.lineOfRow(Math.max(0, Math.min(folds.rowCount(document.lineCount()) - 1, row)));
+        int position = document.lineStart(target) + glyphs.columnAt(lineText(target), x);
+        moveCaret(position, extendSelection);
+        preferredX = x;
+    }
+
+    /**
+     * Scrolls so that the line containing the caret is visible.
+     */
+    public void scrollToCaret() {
+        updateScrollBars();
+        double lh = glyphs.lineHeight();
+        int line = document.lineOfOffset(caret);
+        double y = folds.rowOfLine(line) * lh;
+        double viewH = canvas.getHeight();
+        if (y < vbar.getValue()) {
+            vbar.setValue(y);
+        } else if (y + lh > vbar.getValue() + viewH) {
+            vbar.setValue(Math.min(vbar.getMax(), y + lh - viewH));
+        }
+
+        String text = lineText(line);
+        contentWidth = Math.max(contentWidth, glyphs.width(text));
+        updateScrollBars();
+        double x = glyphs.xOf(text, caret - document.lineStart(line));
+        double viewW = canvas.getWidth() - gutterWidth();
+        double margin = glyphs.advance(' ') * 4;
+        if (x < hbar.getValue()) {
+            hbar.setValue(Math.max(0, x - margin));
+        } else if (x + 2 * PADDING > hbar.getValue() + viewW) {
+            hbar.setValue(Math.min(hbar.getMax(), x + 2 * PADDING + margin - viewW));
+        }
+    }
+
+    /**
+     * Where the caret is drawn, in the view's coordinates: one line high, zero wide.
+     * May lie outside the view when the caret is scrolled away.
+     */
+    public Bounds getCaretBounds() {
+        double lh = glyphs.lineHeight();
+        int line = document.lineOfOffset(caret);
+        double x = gutterWidth() + PADDING - hbar.getValue()
+                + glyphs.xOf(lineText(line), caret - document.lineStart(line));
+        double y = folds.rowOfLine(line) * lh - vbar.getValue();
+        return new BoundingBox(x, y, 0, lh);
+    }
+
+    /**
+     * Moves the caret to {@code column} of {@code line} (both 0-based, clamped to
+     * the text) and scrolls that line to the middle of the view. On a read-only
+     * line source only the view scrolls. Uses the document's line index, so it is
+     * O(log n) however long the file is.
+     */
+    public void goToLine(int line, int column) {
+        line = Math.max(0, Math.min(source.lineCount() - 1, line));
+        if (showsDocument()) {
+            int start = document.lineStart(line);
+            moveCaret(start + Math.max(0, Math.min(document.lineEnd(line) - start, column)), false);
+        }
+        folds.reveal(line);
+        invalidateLines();
+        updateScrollBars();
+        double lh = glyphs.lineHeight();
+        double y = folds.rowOfLine(line) * lh - (canvas.getHeight() - lh) / 2;
+        vbar.setValue(Math.max(0, Math.min(vbar.getMax(), y)));
+        requestRepaint();
+    }
+
+    private int visibleLineCount() {
+        return Math.max(1, (int) (canvas.getHeight() / glyphs.lineHeight()) - 1);
+    }
+
+    private void restartBlink() {
+        caretOn = true;
+        if (isFocused()) {
+            caretBlink.playFromStart();
+        }
+    }
+
+    private int lineAt(double y) {
+        int row = (int) ((y + vbar.getValue()) / glyphs.lineHeight());
+        return folds.lineOfRow(Math.max(0, Math.min(folds.rowCount(source.lineCount()) - 1, row)));
+    }
+
+    private int offsetAt(double x, double y) {
+        int line = lineAt(y);
+        double textX = x + hbar.getValue() - gutterWidth() - PADDING;
+        return document.lineStart(line) + glyphs.columnAt(lineText(line), textX);
+    }
+
+    /**
+     * Keeps positions off the middle of a "\r\n" pair.
+     */
+    private int skipCrLf(int position, int direction) {
+        if (position > 0 && position < document.length()
+                && document.charAt(position - 1) == '\r' && document.charAt(position) == '\n') {
+            return position + (direction < 0 ? -1 : 1);
+        }
+        return position;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private int wordStart(int position) {
+        while (position > 0 && !isWordChar(document.charAt(position - 1))) position--;
+        while (position > 0 && isWordChar(document.charAt(position - 1))) position--;
+        return position;
+    }
+
+    private int wordEnd(int position) {
+        int length = document.length();
+        while (position < length && !isWordChar(document.charAt(position))) position++;
+        while (position < length && isWordChar(document.charAt(position))) position++;
+        return position;
+    }
+
+    // ---------------------------------------------------------------- input
+
+    private void onKeyPressed(KeyEvent e) {
+        if (!showsDocument()) {
+            onViewerKeyPressed(e);
+            return;
+        }
+        boolean shift = e.isShiftDown();
+        boolean shortcut = e.isShortcutDown();
+        int selStart = Math.min(caret, anchor);
+        int selEnd = Math.max(caret, anchor);
+        int line = document.lineOfOffset(caret);
+
+        switch (e.getCode()) {
+            case LEFT -> {
+                if (!shift && selStart != selEnd) moveCaret(selStart, false);
+                else moveCaret(shortcut ? wordStart(caret) : skipCrLf(caret - 1, -1), shift);
+            }
+            case RIGHT -> {
+                if (!shift && selStart != selEnd) moveCaret(selEnd, false);
+                else moveCaret(shortcut ? wordEnd(caret) : skipCrLf(caret + 1, 1), shift);
+            }
+            case UP -> moveVertical(-1, shift);
+            case DOWN -> moveVertical(1, shift);
+            case PAGE_UP -> moveVertical(-visibleLineCount(), shift);
+            case PAGE_DOWN -> moveVertical(visibleLineCount(), shift);
+            case HOME -> {
+                if (shortcut) {
+                    moveCaret(0, shift);
+                } else {
+                    // smart home: first non-blank character, then column 0
+                    int start = document.lineStart(line);
+                    int end = document.lineEnd(line);
+                    int firstNonBlank = start;
+                    while (firstNonBlank < end && Character.isWhitespace(document.charAt(firstNonBlank))) {
+                        firstNonBlank++;
+                    }
+                    moveCaret(caret == firstNonBlank ? start : firstNonBlank, shift);
+                }
+            }
+            case END -> moveCaret(shortcut ? document.length() : document.lineEnd(line), shift);
+            case BACK_SPACE -> {
+                if (!editable) return;
+                if (selStart != selEnd) {
+                    replaceSelection("");
+                } else if (caret > 0) {
+                    anchor = shortcut ? wordStart(caret) : skipCrLf(caret - 1, -1);
+                    replaceSelection("");
+                }
+            }
+            case DELETE -> {
+                if (!editable) return;
+                if (selStart != selEnd) {
+                    replaceSelection("");
+                } else if (caret < document.length()) {
+                    anchor = shortcut ? wordEnd(caret) : skipCrLf(caret + 1, 1);
+                    replaceSelection("");
+                }
+            }
+            case ENTER -> {
+                if (!editable) return;
+                // keep the indentation of the current line
+                int start = document.lineStart(line);
+                int indentEnd = start;
+                while (indentEnd < selStart && (document.charAt(indentEnd) == ' ' || document.charAt(indentEnd) == '\t')) {
+                    indentEnd++;
+                }
+                replaceSelection("\n" + document.getText(start, indentEnd - start));
+            }
+            case TAB -> {
+                if (!editable || shortcut) return;
+                replaceSelection("\t");
+            }
+            case A -> {
+                if (!shortcut) return;
+                selectAll();
+            }
+            case C, INSERT -> {
+                if (!shortcut) return;
+                copy();
+            }
+            case X -> {
+                if (!shortcut || !editable) return;
+                copy();
+                replaceSelection("");
+            }
+            case V -> {
+                if (!shortcut || !editable) return;
+                String text = Clipboard.getSystemClipboard().getString();
+                if (text != null) replaceSelection(text);
+            }
+            case Z -> {
+                if (!shortcut || !editable) return;
+                if (shift) redo();
+                else undo();
+            }
+            case Y -> {
+                if (!shortcut || !editable) return;
+                redo();
+            }
+            case OPEN_BRACKET -> {
+                if (!shortcut || !shift) return;
+                foldAtCaret();
+            }
+            case CLOSE_BRACKET -> {
+                if (!shortcut || !shift) return;
+                unfoldAtCaret();
+            }
+            case BACK_SLASH -> {
+                if (!shortcut || !shift) return;
+                jumpToMatchingBracket();
+            }
+            default -> {
+                return;
+            }
+        }
+        e.consume();
+    }
+
+    /**
+     * Keys for a read-only line source: they scroll the view instead of moving a caret.
+     */
+    private void onViewerKeyPressed(KeyEvent e) {
+        double lh = glyphs.lineHeight();
+        double value = vbar.getValue();
+        switch (e.getCode()) {
+            case UP -> value -= lh;
+            case DOWN -> value += lh;
+            case PAGE_UP -> value -= visibleLineCount() * lh;
+            case PAGE_DOWN -> value += visibleLineCount() * lh;
+            case HOME -> {
+                if (!e.isShortcutDown()) return;
+                value = 0;
+            }
+            case END -> {
+                if (!e.isShortcutDown()) return;
+                value = vbar.getMax();
+            }
+            default -> {
+                return;
+            }
+        }
+        vbar.setValue(Math.max(0, Math.min(vbar.getMax(), value)));
+        e.consume();
+    }
+
+    private void onKeyTyped(KeyEvent e) {
+        if (!editable || !showsDocument()) return;
+        String ch = e.getCharacter();
+        // Ctrl+Alt is AltGr on Windows and produces regular characters
+        if (ch.isEmpty() || (e.isControlDown() && !e.isAltDown()) || e.isMetaDown()) return;
+        char c = ch.charAt(0);
+        if (c < 0x20 || c == 0x7f) return;
+        replaceSelection(ch);
+        e.consume();
+    }
+
+    private void copy() {
+        if (caret == anchor) return;
+        ClipboardContent content = new ClipboardContent();
+        content.putString(getSelectedText());
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+
+    private void onMousePressed(MouseEvent e) {
+        dragSelecting = e.getButton() == MouseButton.PRIMARY
+                && canvas.getBoundsInParent().contains(e.getX(), e.getY());
+        if (!dragSelecting) return;
+        requestFocus();
+        if (!showsDocument()) {
+            dragSelecting = false;
+            return;
+        }
+        if (e.getX() < gutterWidth()) {
+            dragSelecting = false;
+            toggleFold(lineAt(e.getY()));
+            e.consume();
+            return;
+        }
+        int position = offsetAt(e.getX(), e.getY());
+        if (e.getClickCount() == 2) {
+            int start = position;
+            int end = position;
+            while (start > 0 && isWordChar(document.charAt(start - 1))) start--;
+            while (end < document.length() && isWordChar(document.charAt(end))) end++;
+            select(start, end);
+        } else if (e.getClickCount() >= 3) {
+            int line = document.lineOfOffset(position);
+            int end = line + 1 < document.lineCount() ? document.lineStart(line + 1) : document.length();
+            select(document.lineStart(line), end);
+        } else {
+            moveCaret(position, e.isShiftDown());
+        }
+        e.consume();
+    }
+
+    private void onMouseDragged(MouseEvent e) {
+        if (!dragSelecting || !e.isPrimaryButtonDown()) return;
+        moveCaret(offsetAt(e.getX(), e.getY()), true);
+        e.consume();
+    }
+
+    private void onScroll(ScrollEvent e) {
+        double dy = e.isShiftDown() && e.getDeltaX() == 0 ? 0 : e.getDeltaY();
+        double dx = e.isShiftDown() && e.getDeltaX() == 0 ? e.getDeltaY() : e.getDeltaX();
+        vbar.setValue(Math.max(0, Math.min(vbar.getMax(), vbar.getValue() - dy)));
+        hbar.setValue(Math.max(0, Math.min(hbar.getMax(), hbar.getValue() - dx)));
+        e.consume();
+    }
+}
@@ -0,0 +1,311 @@
+package org.example.editor.layout_elements;
+
+import javafx.animation.PauseTransition;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.TextField;
+import javafx.scene.control.ToggleButton;
+import javafx.scene.input.KeyCode;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.VBox;
+import javafx.util.Duration;
+import org.example.editor.document.Document;
+import org.example.editor.document.DocumentListener;
+import org.example.editor.document.DocumentSnapshot;
+import org.example.editor.search.MatchListener;
+import org.example.editor.search.Search;
+import org.example.editor.search.SearchQuery;
+import org.example.editor.search.TextFinder;
+
+import java.util.Arrays;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Pasek wyszukiwania i zamiany nad edytorem (Ctrl+F / Ctrl+H).
+ * Szukanie idzie w tle na snapshocie dokumentu ({@link Search}), trafienia
+ * spływają partiami i są od razu podświetlane. "Replace All" liczy zamiany w tle
+ * i wstawia je jedną edycją – jeden krok cofania i jedno przerysowanie.
+ */
+public class FindBar extends VBox {
+
+    private static final Duration RESEARCH_DELAY = Duration.millis(150);
+
+    private final CodeEditor editor;
+    private final TextField findField = new TextField();
+    private final TextField replaceField = new TextField();
+    private final ToggleButton matchCase = new ToggleButton("Aa");
+    private final ToggleButton wholeWord = new ToggleButton("W");
+    private final ToggleButton regex = new ToggleButton(".*");
+    private final Button replaceButton = new Button("Replace");
+    private final Button replaceAllButton = new Button("Replace All");
+    private final Label status = new Label();
+    private final HBox replaceRow;
+    private final PauseTransition researchTimer = new PauseTransition(RESEARCH_DELAY);
+    private final DocumentListener documentListener = (doc, change) -> onDocumentChanged();
+
+    private Document document;
+    private SearchQuery query;           // null gdy zapytanie jest puste albo błędne
+    private TextFinder finder;           // tylko dla wątku FX; wątki w tle dostają własne (query.finder())
+    private Search search;
+    private int[] ranges = new int[0];   // trafienia jako pary [start, end), rosnąco
+    private int count;
+    private boolean complete;
+
+    public FindBar(CodeEditor editor) {
+        this.editor = editor;
+        getStyleClass().add("find-bar");
+        setSpacing(4);
+        setPadding(new Insets(6, 10, 6, 10));
+        setStyle("-fx-background-color: #2d2d30; -fx-background-radius: 4;");
+        status.setStyle("-fx-text-fill: #d4d4d4;");
+        status.setMinWidth(110);
+
+        findField.setPromptText("Find");
+        findField.setPrefColumnCount(18);
+        replaceField.setPromptText("Replace");
+        replaceField.setPrefColumnCount(18);
+
+        Button previous = new Button("↑");
+        Button next = new Button("↓");
+        Button close = new Button("✕");
+        previous.setOnAction(e -> findNext(false));
+        next.setOnAction(e -> findNext(true));
+        close.setOnAction(e -> close());
+        replaceButton.setOnAction(e -> replace());
+        replaceAllButton.setOnAction(e -> replaceAll());
+
+        HBox findRow = new HBox(4, findField, matchCase, wholeWord, regex, previous, next, status, close);
+        findRow.setAlignment(Pos.CENTER_LEFT);
+        replaceRow = new HBox(4, replaceField, replaceButton, replaceAllButton);
+        replaceRow.setAlignment(Pos.CENTER_LEFT);
+        replaceRow.managedProperty().bind(replaceRow.visibleProperty());
+        getChildren().addAll(findRow, replaceRow);
+
+        findField.textProperty().addListener((obs, o, n) -> restartSearch());
+        matchCase.selectedProperty().addListener((obs, o, n) -> restartSearch());
+        wholeWord.selectedProperty().addListener((obs, o, n) -> restartSearch());
+        regex.selectedProperty().addListener((obs, o, n) -> restartSearch());
+        researchTimer.setOnFinished(e -> restartSearch());
+
+        findField.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ENTER) {
+                findNext(!e.isShiftDown());
+                e.consume();
+            }
+        });
+        replaceField.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ENTER) {
+                replace();
+                e.consume();
+            }
+        });
+        setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ESCAPE) {
+                close();
+                e.consume();
+            }
+        });
+
+        setVisible(false);
+    }
+
+    /**
+     * Pokazuje pasek; zaznaczony tekst (jednoliniowy) staje się szukanym
+     */
+    public void open(boolean withReplace) {
+        EditorView view = editor.getView();
+        String selected = view.getSelectedText();
+        if (!selected.isEmpty() && selected.indexOf('\n') < 0) {
+            findField.setText(selected);
+        }
+        replaceRow.setVisible(withReplace);
+        if (!isVisible()) {
+            setVisible(true);
+            attach(editor.getDocument());
+            restartSearch();
+        }
+        updateButtons();
+        findField.requestFocus();
+        findField.selectAll();
+    }
+
+    public void close() {
+        if (!isVisible()) return;
+        setVisible(false);
+        stopSearch();
+        attach(null);
+        editor.getView().setMarks(null, 0);
+        editor.getView().requestFocus();
+    }
+
+    /**
+     * Wołane przez edytor po przełączeniu bufora
+     */
+    void documentSwitched() {
+        if (!isVisible()) return;
+        attach(editor.getDocument());
+        updateButtons();
+        restartSearch();
+    }
+
+    private void attach(Document newDocument) {
+        if (document != null) document.removeListener(documentListener);
+        document = newDocument;
+        if (document != null) document.addListener(documentListener);
+    }
+
+    private void onDocumentChanged() {
+        // stare offsety już nie pasują – widok sam zdejmuje podświetlenie
+        stopSearch();
+        status.setText("");
+        researchTimer.playFromStart();
+    }
+
+    private void updateButtons() {
+        boolean readOnly = editor.isReadOnly();
+        replaceButton.setDisable(readOnly);
+        replaceAllButton.setDisable(readOnly);
+    }
+
+    // ------------------------------------------------------------ szukanie
+
+    private void stopSearch() {
+        if (search != null) search.cancel();
+        search = null;
+        ranges = new int[0];
+        count = 0;
+        complete = false;
+    }
+
+    private void restartSearch() {
+        researchTimer.stop();
+        stopSearch();
+        query = null;
+        finder = null;
+        if (!isVisible() || document == null) return;
+        editor.getView().setMarks(null, 0);
+        String text = findField.getText();
+        if (text.isEmpty()) {
+            status.setText("");
+            return;
+        }
+        try {
+            SearchQuery newQuery = new SearchQuery(text, matchCase.isSelected(), wholeWord.isSelected(), regex.isSelected());
+            finder = newQuery.finder();
+            query = newQuery;
+        } catch (PatternSyntaxException ex) {
+            status.setText("Invalid regex");
+            return;
+        }
+        status.setText("Searching…");
+        // finder trzyma stan między wywołaniami, więc wyszukiwanie w tle ma swój –
+        // findNext() i replace() używają finder na wątku FX w tym samym czasie
+        search = Search.start(document.snapshot(), query.finder(), new MatchListener() {
+            @Override
+            public void matchesFound(int[] batch, int batchCount) {
+                if (count + batchCount > ranges.length / 2) {
+                    ranges = Arrays.copyOf(ranges, Math.max(2 * (count + batchCount), ranges.length * 2));
+                }
+                System.arraycopy(batch, 0, ranges, 2 * count, 2 * batchCount);
+                count += batchCount;
+                editor.getView().setMarks(ranges, count);
+                status.setText(count + " found…");
+            }
+
+            @Override
+            public void searchFinished(int total, Throwable error) {
+                complete = true;
+                if (error != null) {
+                    status.setText("Search failed");
+                    error.printStackTrace();
+                } else {
+                    status.setText(total == 0 ? "No results" : total + (total == 1 ? " match" : " matches"));
+                }
+            }
+        });
+    }
+
+    /**
+     * Zaznacza następne (albo poprzednie) trafienie względem kursora, z zawinięciem na końcu tekstu
+     */
+    private void findNext(boolean forward) {
+        if (finder == null) return;
+        EditorView view = editor.getView();
+        int selStart = Math.min(view.getAnchor(), view.getCaretPosition());
+        int selEnd = Math.max(view.getAnchor(), view.getCaretPosition());
+        int index;
+        if (count == 0) {
+            // wyniki jeszcze nie spłynęły (albo tekst się zmienił) – szukamy od razu od kursora
+            DocumentSnapshot snapshot = document.snapshot();
+            int[] range = new int[2];
+            if (forward && (finder.find(snapshot, selEnd, range) || finder.find(snapshot, 0, range))) {
+                view.select(range[0], range[1]);
+            }
+            return;
+        }
+        if (forward) {
+            index = firstStartingAtOrAfter(selEnd == selStart ? selEnd : selStart + 1);
+            if (index == count) index = 0;
+        } else {
+            index = firstStartingAtOrAfter(selStart) - 1;
+            if (index < 0) index = count - 1;
+        }
+        view.select(ranges[2 * index], ranges[2 * index + 1]);
+        status.setText((index + 1) + " of " + count + (complete ? "" : "…"));
+    }
+
+    private int firstStartingAtOrAfter(int offset) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ranges[2 * mid] < offset) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    // ------------------------------------------------------------ zamiana
+
+    /**
+     * Zamienia zaznaczone trafienie i przechodzi do następnego
+     */
+    private void replace() {
+        if (finder == null || editor.isReadOnly()) return;
+        EditorView view = editor.getView();
+        int start = Math.min(view.getAnchor(), view.getCaretPosition());
+        int end = Math.max(view.getAnchor(), view.getCaretPosition());
+        DocumentSnapshot snapshot = document.snapshot();
+        int[] range = new int[2];
+        if (finder.find(snapshot, start, range) && range[0] == start && range[1] == end) {
+            String text = finder.replacement(snapshot, start, end, replaceField.getText());
+            document.replace(start, end - start, text);
+            view.select(start + text.length(), start + text.length());
+        }
+        findNext(true);
+    }
+
+    private void replaceAll() {
+        if (finder == null || editor.isReadOnly()) return;
+        Document target = document;
+        DocumentSnapshot snapshot = target.snapshot();
+        replaceAllButton.setDisable(true);
+        status.setText("Replacing…");
+        Search.collectReplacements(snapshot, query.finder(), replaceField.getText())
+                .whenCompleteAsync((r, ex) -> {
+                    updateButtons();
+                    if (ex != null) {
+                        ex.printStackTrace();
+                        status.setText("Replace failed");
+                    } else if (target != document || !snapshot.isCurrent()) {
+                        status.setText("Text changed, try again");
+                    } else {
+                        target.replaceAll(r.ranges(), r.texts(), r.count());
+                        status.setText("Replaced " + r.count());
+                    }
+                }, Platform::runLater);
+    }
+}
@@ -0,0 +1,154 @@
+package org.example.editor.layout_elements;
+
+import org.example.editor.document.DocumentChange;
+
+import java.util.Arrays;
+
+/**
+ * Folded blocks of one {@link EditorView}: sorted, disjoint ranges of hidden
+ * lines, each right below the visible header line of its block. Maps document
+ * lines to rows on screen and back in O(log folds).
+ */
+final class FoldModel {
+
+    private int[] starts = new int[0]; // first hidden line of each fold
+    private int[] ends = new int[0];   // last hidden line of each fold
+    private int[] hiddenBefore = new int[1]; // lines hidden by folds [0, i)
+    private int count;
+
+    boolean isEmpty() {
+        return count == 0;
+    }
+
+    void clear() {
+        count = 0;
+    }
+
+    int rowCount(int lineCount) {
+        return lineCount - hiddenBefore[count];
+    }
+
+    /**
+     * Row of {@code line}, or of its header when the line is hidden.
+     */
+    int rowOfLine(int line) {
+        int i = foldAtOrBefore(line);
+        if (i < 0) return line;
+        if (line <= ends[i]) return starts[i] - 1 - hiddenBefore[i];
+        return line - hiddenBefore[i + 1];
+    }
+
+    int lineOfRow(int row) {
+        // last fold that starts at or before the row
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] - hiddenBefore[mid] <= row) lo = mid + 1;
+            else hi = mid;
+        }
+        return row + hiddenBefore[lo];
+    }
+
+    boolean isHidden(int line) {
+        int i = foldAtOrBefore(line);
+        return i >= 0 && line <= ends[i];
+    }
+
+    boolean isFolded(int header) {
+        int i = foldAtOrBefore(header + 1);
+        return i >= 0 && starts[i] == header + 1;
+    }
+
+    /**
+     * Hides lines {@code (header, end)}; folds starting inside them are merged into the new one.
+     */
+    void fold(int header, int end) {
+        if (end - header < 2 || isHidden(header)) return;
+        int from = header + 1;
+        int to = end - 1;
+        int first = foldAtOrBefore(header) + 1;
+        int last = first;
+        while (last < count && starts[last] <= to) {
+            to = Math.max(to, ends[last]); // blocks of brackets and #if may cross
+            last++;
+        }
+        int removed = last - first;
+        if (count - removed + 1 > starts.length) {
+            starts = Arrays.copyOf(starts, Math.max(8, 2 * starts.length));
+            ends = Arrays.copyOf(ends, starts.length);
+        }
+        System.arraycopy(starts, last, starts, first + 1, count - last);
+        System.arraycopy(ends, last, ends, first + 1, count - last);
+        starts[first] = from;
+        ends[first] = to;
+        count += 1 - removed;
+        recount();
+    }
+
+    /**
+     * Shows the fold under {@code header} again; returns false if there was none.
+     */
+    boolean unfold(int header) {
+        int i = foldAtOrBefore(header + 1);
+        if (i < 0 || starts[i] != header + 1) return false;
+        remove(i);
+        return true;
+    }
+
+    /**
+     * Shows the fold that hides {@code line}, if any.
+     */
+    void reveal(int line) {
+        int i = foldAtOrBefore(line);
+        if (i >= 0 && line <= ends[i]) remove(i);
+    }
+
+    /**
+     * Shifts folds below an edit and drops the ones it touched.
+     */
+    void documentChanged(DocumentChange change) {
+        int line = change.startLine();
+        int removedEnd = line + change.removedLineBreaks();
+        int kept = 0;
+        for (int i = 0; i < count; i++) {
+            if (ends[i] < line) {
+                starts[kept] = starts[i];
+                ends[kept++] = ends[i];
+            } else if (starts[i] > removedEnd) {
+                starts[kept] = starts[i] + change.lineDelta();
+                ends[kept++] = ends[i] + change.lineDelta();
+            }
+        }
+        count = kept;
+        recount();
+    }
+
+    private void remove(int i) {
+        System.arraycopy(starts, i + 1, starts, i, count - i - 1);
+        System.arraycopy(ends, i + 1, ends, i, count - i - 1);
+        count--;
+        recount();
+    }
+
+    private void recount() {
+        if (hiddenBefore.length < count + 1) hiddenBefore = new int[starts.length + 1];
+        for (int i = 0; i < count; i++) {
+            hiddenBefore[i + 1] = hiddenBefore[i] + ends[i] - starts[i] + 1;
+        }
+    }
+
+    /**
+     * Index of the last fold starting at or before {@code line}, or -1.
+     */
+    private int foldAtOrBefore(int line) {
+        int lo = 0;
+        int hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (starts[mid] <= line) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo - 1;
+    }
+}
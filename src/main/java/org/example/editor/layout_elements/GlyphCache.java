@@ -0,0 +1,94 @@
+package org.example.editor.layout_elements;
+
+import javafx.scene.text.Font;
+import javafx.scene.text.Text;
+
+import java.util.Arrays;
+
+/**
+ * Caches glyph advances and line metrics of one font, so that painting and
+ * hit-testing a line never creates text layout nodes.
+ */
+final class GlyphCache {
+
+    static final int TAB_SIZE = 4;
+
+    private final Font font;
+    private final float[] advances = new float[Character.MAX_VALUE + 1];
+    private final Text probe = new Text();
+    private final double lineHeight;
+    private final double baseline;
+    private final double tabWidth;
+
+    GlyphCache(Font font) {
+        this.font = font;
+        Arrays.fill(advances, -1f);
+        probe.setFont(font);
+        probe.setText("Xg");
+        lineHeight = Math.ceil(probe.getLayoutBounds().getHeight());
+        baseline = probe.getBaselineOffset();
+        tabWidth = advance(' ') * TAB_SIZE;
+    }
+
+    Font font() {
+        return font;
+    }
+
+    double lineHeight() {
+        return lineHeight;
+    }
+
+    double baseline() {
+        return baseline;
+    }
+
+    double advance(char c) {
+        float a = advances[c];
+        if (a < 0) {
+            probe.setText(String.valueOf(c));
+            a = (float) probe.getLayoutBounds().getWidth();
+            advances[c] = a;
+        }
+        return a;
+    }
+
+    /**
+     * Next tab stop after {@code x}.
+     */
+    double tabStop(double x) {
+        return (Math.floor(x / tabWidth) + 1) * tabWidth;
+    }
+
+    /**
+     * X position of column {@code column} in {@code line} (tabs expanded).
+     */
+    double xOf(CharSequence line, int column) {
+        double x = 0;
+        int end = Math.min(column, line.length());
+        for (int i = 0; i < end; i++) {
+            char c = line.charAt(i);
+            x = c == '\t' ? tabStop(x) : x + advance(c);
+        }
+        return x;
+    }
+
+    /**
+     * Column whose left edge is closest to {@code x}.
+     */
+    int columnAt(CharSequence line, double x) {
+        double pos = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            double next = c == '\t' ? tabStop(pos) : pos + advance(c);
+            if (x < (pos + next) / 2) {
+                return i;
+            }
+            pos = next;
+        }
+        return line.length();
+    }
+
+    double width(CharSequence line) {
+        return xOf(line, line.length());
+    }
+}
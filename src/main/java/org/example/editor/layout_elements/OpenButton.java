@@ -3,11 +3,8 @@ package org.example.editor.layout_elements;
 import java.io.File;
 import javafx.scene.control.Button;
 import javafx.stage.FileChooser;
-import java.io.IOException;
-import java.nio.file.Files;
 import javafx.stage.Stage;
 import javafx.scene.control.*;
-import org.example.editor.HelloApplication;
 
 public class OpenButton extends Button {
     public OpenButton(Stage stage, CodeEditor codeEditor, OpenFilesPanel openFilesPanel) {
@@ -28,14 +25,7 @@ public class OpenButton extends Button {
     }
 
     private void openFile(File selectedFile, CodeEditor codeEditor, OpenFilesPanel openFilesPanel) {
-        try {
-            String content = Files.readString(selectedFile.toPath());
-            codeEditor.setCode(content);
-            HelloApplication.setCurrentFile(selectedFile);
-            openFilesPanel.addFile(selectedFile); // Add to open files list
-        } catch (IOException ex) {
-            ex.printStackTrace();
-            new Alert(Alert.AlertType.ERROR, ex.getMessage()).showAndWait();
-        }
+        // wczytywanie idzie w tle, plik trafia na listę dopiero po udanym otwarciu
+        codeEditor.openFile(selectedFile, () -> openFilesPanel.addFile(selectedFile)); // Add to open files list
     }
 }
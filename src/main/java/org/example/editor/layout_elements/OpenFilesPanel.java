@@ -1,21 +1,39 @@
 package org.example.editor.layout_elements;
 
+import javafx.collections.ObservableList;
+import javafx.scene.control.Alert;
 import javafx.scene.control.ContextMenu;
 import javafx.scene.control.ListCell;
 import javafx.scene.control.ListView;
 import javafx.scene.control.MenuItem;
+import javafx.scene.control.SelectionMode;
 import javafx.scene.input.MouseButton;
 import javafx.scene.layout.VBox;
+import org.example.editor.io.FolderWatcher;
 import org.example.editor.layout_api.Component;
+import org.example.editor.search.SymbolIndex;
+import org.example.editor.search.TrigramIndex;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class OpenFilesPanel extends Component {
     private final ListView<Object> fileListView = new ListView<>();
     private final File recentFilesStore = new File("recent.txt");
     private final Consumer<File> onFileSelected;
+    private final FolderWatcher watcher = new FolderWatcher(this::applyChanges);
+    private Consumer<FolderWatcher.Changes> onFilesChanged = changes -> {};
 
     public OpenFilesPanel(Consumer<File> onFileSelected) {
         super(new VBox(), "open-files-panel");
@@ -39,7 +57,9 @@ public class OpenFilesPanel extends Component {
                         fileListView.getItems().remove(file);
                         saveRecentFiles();
                     });
-                    menu.getItems().add(removeItem);
+                    MenuItem compareItem = new MenuItem("Compare Selected");
+                    compareItem.setOnAction(e -> compareSelected());
+                    menu.getItems().addAll(removeItem, compareItem);
                     setContextMenu(menu);
 
                 }else if (item instanceof String folderPath) {
@@ -61,6 +81,9 @@ public class OpenFilesPanel extends Component {
 
 
 
+        // Ctrl+click a second file to compare the two
+        fileListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+
         // Handle double-click to open file
         fileListView.setOnMouseClicked(event -> {
             if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
@@ -77,6 +100,36 @@ public class OpenFilesPanel extends Component {
         box.setStyle("-fx-background-color: #1e1e1e; -fx-padding: 6;");
 
         loadRecentFiles();
+        for (File folder : getFolders()) {
+            watcher.watch(folder.toPath());
+            // files may have come and gone while the editor was closed
+            applyChanges(new FolderWatcher.Changes(Set.of(), Set.of(), Set.of(folder.toPath())));
+        }
+    }
+
+    /**
+     * Source files shown for a folder: the .cpp files directly inside it
+     */
+    static boolean isListed(Path file) {
+        return file.toString().endsWith(".cpp");
+    }
+
+    static List<File> listFiles(Path folder) throws IOException {
+        try (Stream<Path> paths = Files.walk(folder, 1)) {
+            return paths
+                    .filter(Files::isRegularFile)
+                    .filter(OpenFilesPanel::isListed)
+                    .map(Path::toFile)
+                    .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Called on the FX thread with every batch of changes made on disk under the
+     * listed folders, after the panel has updated itself
+     */
+    public void setOnFilesChanged(Consumer<FolderWatcher.Changes> onFilesChanged) {
+        this.onFilesChanged = onFilesChanged;
     }
 
     public void addFile(File file) {
@@ -100,8 +153,37 @@ public class OpenFilesPanel extends Component {
         }
 
         saveRecentFiles();
+        watcher.watch(folder.toPath());
+    }
+
+
+    /**
+     * Folders currently listed in the panel
+     */
+    public List<File> getFolders() {
+        List<File> folders = new ArrayList<>();
+        for (Object item : fileListView.getItems()) {
+            if (item instanceof String folderPath) {
+                folders.add(new File(folderPath));
+            }
+        }
+        return folders;
     }
 
+    /**
+     * Opens a side-by-side diff of the two selected files
+     */
+    private void compareSelected() {
+        List<File> selected = new ArrayList<>();
+        for (Object item : fileListView.getSelectionModel().getSelectedItems()) {
+            if (item instanceof File file) selected.add(file);
+        }
+        if (selected.size() != 2) {
+            new Alert(Alert.AlertType.INFORMATION, "Select two files (Ctrl+click) to compare them.").showAndWait();
+            return;
+        }
+        DiffView.compareFiles(selected.get(0), selected.get(1));
+    }
 
     public void removeFile(File file) {
         fileListView.getItems().remove(file);
@@ -159,6 +241,80 @@ public class OpenFilesPanel extends Component {
 
         items.subList(startIndex, endIndex).clear();
         saveRecentFiles();
+        watcher.unwatch(Path.of(folderPath));
+    }
+
+    /**
+     * Applies one batch of disk changes: files deleted from a listed folder
+     * disappear, new ones are inserted in name order, and the list is replaced
+     * once for the whole batch. The search indexes and the listener get the same batch.
+     */
+    private void applyChanges(FolderWatcher.Changes changes) {
+        ObservableList<Object> items = fileListView.getItems();
+        Set<File> gone = new HashSet<>();
+        for (Path path : changes.deleted()) gone.add(path.toFile());
+        Set<Object> listed = new HashSet<>(items);
+        Map<String, List<File>> added = new HashMap<>();
+        for (Path path : changes.changed()) {
+            File file = path.toFile();
+            String folder = file.getParent();
+            if (isListed(path) && listed.contains(folder) && !listed.contains(file)) {
+                added.computeIfAbsent(folder, k -> new ArrayList<>()).add(file);
+            }
+        }
+        for (Path root : changes.rescan()) {
+            String folder = root.toString();
+            if (!listed.contains(folder)) continue;
+            List<File> onDisk;
+            try {
+                onDisk = listFiles(root);
+            } catch (IOException e) {
+                onDisk = List.of(); // the folder itself is gone
+            }
+            Set<File> present = new HashSet<>(onDisk);
+            for (Object item : items) {
+                if (item instanceof File file && folder.equals(file.getParent()) && !present.contains(file)) gone.add(file);
+            }
+            for (File file : onDisk) {
+                if (!listed.contains(file)) added.computeIfAbsent(folder, k -> new ArrayList<>()).add(file);
+            }
+        }
+
+        if (!added.isEmpty() || items.stream().anyMatch(gone::contains)) {
+            Comparator<File> byName = Comparator.comparing(File::getName, String.CASE_INSENSITIVE_ORDER);
+            List<Object> result = new ArrayList<>(items.size() + added.size());
+            int i = 0;
+            while (i < items.size()) {
+                Object item = items.get(i++);
+                if (gone.contains(item)) continue;
+                result.add(item);
+                List<File> extra = item instanceof String folder ? added.remove(folder) : null;
+                if (extra == null) continue;
+
+                // merge the new files into the folder's files, which follow its header
+                extra.sort(byName);
+                int e = 0;
+                while (i < items.size() && items.get(i) instanceof File file && file.getParent().equals(item)) {
+                    i++;
+                    if (gone.contains(file)) continue;
+                    while (e < extra.size() && byName.compare(extra.get(e), file) < 0) result.add(extra.get(e++));
+                    result.add(file);
+                }
+                result.addAll(extra.subList(e, extra.size()));
+            }
+            items.setAll(result);
+            saveRecentFiles();
+        }
+
+        List<Path> touched = new ArrayList<>(changes.changed());
+        touched.addAll(changes.deleted());
+        TrigramIndex.filesChanged(touched);
+        SymbolIndex.filesChanged(touched);
+        for (Path root : changes.rescan()) {
+            TrigramIndex.forFolder(root).refreshLater();
+            SymbolIndex.forFolder(root).refreshLater();
+        }
+        onFilesChanged.accept(changes);
     }
 
     public void addFileToFolder(File file) {
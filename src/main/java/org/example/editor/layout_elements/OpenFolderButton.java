@@ -4,13 +4,12 @@ import javafx.scene.control.Button;
 import javafx.stage.DirectoryChooser;
 import javafx.stage.Stage;
 import org.example.editor.layout_api.Component;
+import org.example.editor.search.SymbolIndex;
+import org.example.editor.search.TrigramIndex;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.*;
 import java.util.List;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 public class OpenFolderButton extends Button {
 
@@ -23,15 +22,13 @@ public class OpenFolderButton extends Button {
             File selectedDir = directoryChooser.showDialog(stage);
 
             if (selectedDir != null && selectedDir.isDirectory()) {
-                try (Stream<Path> paths = Files.walk(selectedDir.toPath(), 1)) {
-                    List<File> files = paths
-                            .filter(Files::isRegularFile)
-                            .filter(p -> p.toString().endsWith(".cpp"))
-                            .map(Path::toFile)
-                            .collect(Collectors.toList());
+                try {
+                    List<File> files = OpenFilesPanel.listFiles(selectedDir.toPath());
 
                     if (!files.isEmpty()) {
                         openFilesPanel.addFolder(selectedDir, files);
+                        TrigramIndex.prepare(selectedDir.toPath()); // indeksowanie w tle pod "Find in Folder"
+                        SymbolIndex.prepare(selectedDir.toPath());  // i pod F12 / Ctrl+T
                     }
                 } catch (IOException ex) {
                     ex.printStackTrace();
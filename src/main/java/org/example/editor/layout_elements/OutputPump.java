@@ -0,0 +1,128 @@
+package org.example.editor.layout_elements;
+
+import javafx.animation.AnimationTimer;
+import javafx.application.Platform;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Przenosi wyjście kompilatora i uruchomionego programu z wątków, które je czytają,
+ * na wątek FX – partiami, a nie po jednym {@code Platform.runLater} na linię.
+ * Wątki dopisują tekst do kolejki bez blokad, a {@link AnimationTimer} raz na klatkę
+ * zbiera to, co się uzbierało (do {@link #MAX_CHARS_PER_PULSE} znaków), i przekazuje
+ * jednym wywołaniem. Timer chodzi tylko wtedy, gdy jest co przenosić.
+ * <p>
+ * Gdy UI nie nadąża i w kolejce czeka ponad {@link #MAX_QUEUED_CHARS} znaków, nowe
+ * linie są pomijane – proces nie czeka na konsolę – a w wyjściu zostaje znacznik
+ * z liczbą pominiętych linii.
+ */
+public class OutputPump {
+
+    static final int MAX_QUEUED_CHARS = 8 << 20;
+    static final int MAX_CHARS_PER_PULSE = 1 << 20;
+
+    /**
+     * Miejsce w wyjściu, w którym pominięto linie
+     */
+    private static final class Dropped {
+        long lines; // pod blokadą pompy
+    }
+
+    private final Consumer<String> sink;
+    private final ConcurrentLinkedQueue<Object> queue = new ConcurrentLinkedQueue<>(); // String albo Dropped
+    private final AtomicLong queuedChars = new AtomicLong();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            drain();
+        }
+    };
+    private Dropped dropping; // znacznik, do którego liczą się kolejne pominięte linie
+
+    /**
+     * @param sink dostaje na wątku FX kolejne partie tekstu, np. {@link ConsoleView#appendCode}
+     */
+    public OutputPump(Consumer<String> sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * Dodaje linię (bez znaku końca linii) – z dowolnego wątku
+     */
+    public void offerLine(String line) {
+        offer(line + System.lineSeparator());
+    }
+
+    /**
+     * Dodaje tekst – z dowolnego wątku
+     */
+    public void offer(String text) {
+        if (text.isEmpty()) return;
+        if (queuedChars.get() >= MAX_QUEUED_CHARS) {
+            drop();
+            return;
+        }
+        queuedChars.addAndGet(text.length());
+        queue.add(text);
+        wake();
+    }
+
+    private synchronized void drop() {
+        if (dropping == null) {
+            dropping = new Dropped();
+            queue.add(dropping);
+            wake();
+        }
+        dropping.lines++;
+    }
+
+    private void wake() {
+        if (running.compareAndSet(false, true)) {
+            Platform.runLater(timer::start);
+        }
+    }
+
+    /**
+     * Pomija wszystko, co jeszcze czeka w kolejce (np. wyjście poprzedniego uruchomienia)
+     */
+    public void clear() {
+        Object item;
+        while ((item = queue.poll()) != null) {
+            if (item instanceof String text) queuedChars.addAndGet(-text.length());
+        }
+        synchronized (this) {
+            dropping = null;
+        }
+    }
+
+    private void drain() {
+        StringBuilder batch = new StringBuilder();
+        Object item;
+        while (batch.length() < MAX_CHARS_PER_PULSE && (item = queue.poll()) != null) {
+            if (item instanceof String text) {
+                queuedChars.addAndGet(-text.length());
+                batch.append(text);
+                continue;
+            }
+            long lines;
+            synchronized (this) {
+                if (dropping == item) dropping = null; // następne pominięcia dostaną nowy znacznik
+                lines = ((Dropped) item).lines;
+            }
+            batch.append("[... ").append(lines).append(lines == 1 ? " line" : " lines")
+                    .append(" of output dropped - the console could not keep up ...]")
+                    .append(System.lineSeparator());
+        }
+        if (!batch.isEmpty()) {
+            sink.accept(batch.toString());
+            return;
+        }
+        timer.stop(); // nic nie czeka – nie ma po co budzić każdej klatki
+        running.set(false);
+        if (!queue.isEmpty()) wake(); // coś doszło między poll() a set(false)
+    }
+}
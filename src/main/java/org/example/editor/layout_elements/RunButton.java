@@ -3,10 +3,16 @@ package org.example.editor.layout_elements;
 import javafx.application.Platform;
 import javafx.scene.control.Button;
 import javafx.stage.Stage;
-import org.example.editor.HelloApplication;
+import org.example.editor.diagnostics.DiagnosticIndex;
+import org.example.editor.document.DocumentSnapshot;
+import org.example.editor.io.MappedTextFile;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
@@ -17,24 +23,26 @@ public class RunButton extends Button {
     private final CodeEditor codeEditor;
     private final ConsoleView consoleView;
     private final CppCompiler compiler;
+    private final OutputPump output;   // wyjście z wątków w tle trafia do konsoli raz na klatkę
+    private volatile Path lastCapture; // plik z wyjściem poprzedniego uruchomienia w trybie przechwytywania
 
     public RunButton(Stage stage, CodeEditor codeEditor, ConsoleView consoleView, String compilerPath) {
         super("Compile & Run");
         this.stage = stage;
         this.codeEditor = codeEditor;
         this.consoleView = consoleView;
-        this.compiler = new CppCompiler(compilerPath, line ->
-                Platform.runLater(() ->
-                        consoleView.appendCode(line + System.lineSeparator())
-                )
-        );
+        this.output = new OutputPump(consoleView::appendCode);
+        this.compiler = new CppCompiler(compilerPath, output::offerLine);
 
         setOnAction(evt -> onRun());
     }
 
     private void onRun() {
-        File src = HelloApplication.getCurrentFile();
+        File src = codeEditor.getFile();
+        output.clear();
         consoleView.setCode("");
+        codeEditor.setDiagnostics(null);
+        boolean capture = consoleView.isCaptureOutput();
 
         if (src == null) {
             consoleView.setCode("No file open to compile." + System.lineSeparator());
@@ -47,57 +55,94 @@ public class RunButton extends Button {
         String exeName = baseName + (isWindows ? ".exe" : "");
         String outputBin = parentDir + File.separator + exeName;
 
+        // Kompilujemy zawartość edytora (snapshot), a nie to, co akurat leży na dysku;
+        // plik tylko do odczytu (duży albo jeszcze wczytywany) kompilujemy prosto z dysku
+        DocumentSnapshot snapshot = codeEditor.isReadOnly() ? null : codeEditor.snapshot();
+
         consoleView.appendCode("Compiling '" + src.getName() + "' to '" + exeName + "'..." + System.lineSeparator());
 
         // KOMILACJA W OSOBNYM WĄTKU
         new Thread(() -> {
+            Path tmpSrc = null;
             try {
+                if (snapshot != null) {
+                    tmpSrc = writeTempSource(src, snapshot);
+                }
                 CppCompiler.CompilationResult result = compiler.compile(
-                        List.of(src.getAbsolutePath()),
+                        List.of(tmpSrc != null ? tmpSrc.toString() : src.getAbsolutePath()),
                         outputBin,
-                        List.of("-std=c++17", "-fno-diagnostics-color", "-pipe")
+                        List.of("-std=c++17", "-fdiagnostics-color=always", "-pipe", "-iquote", parentDir)
                 );
 
-                Platform.runLater(() -> {
-                    if (!result.message.isEmpty()) {
-                        consoleView.appendCode(result.message + System.lineSeparator());
-                    }
-                    if (!result.stdout.isEmpty()) {
-                        consoleView.appendCode(result.stdout);
-                    }
-                    if (!result.stderr.isEmpty()) {
-                        consoleView.appendCode("Errors:" + System.lineSeparator() + result.stderr);
-                    }
-
-                    if (!result.success()) {
-                        consoleView.appendCode(System.lineSeparator() + "Compilation failed (exit code "
-                                + result.exitCode + ")." + System.lineSeparator());
-                        return;
-                    }
-
-                    File exeFile = new File(outputBin);
-                    if (!exeFile.exists()) {
-                        consoleView.appendCode("Executable not found at: "
-                                + exeFile.getAbsolutePath() + System.lineSeparator());
-                        return;
-                    }
-
-                    consoleView.appendCode(System.lineSeparator() + "Running '" + exeName + "'..." + System.lineSeparator());
-                    runExecutable(exeFile, 50);
-                });
+                if (!result.message.isEmpty()) {
+                    output.offerLine(result.message);
+                }
+                if (!result.stdout.isEmpty()) {
+                    output.offer(result.stdout);
+                }
+                if (!result.stderr.isEmpty()) {
+                    output.offer("Errors:" + System.lineSeparator() + result.stderr);
+                }
+                DiagnosticIndex diagnostics = result.diagnostics;
+                if (diagnostics.errorCount() + diagnostics.warningCount() > 0) {
+                    output.offerLine(plural(diagnostics.errorCount(), "error") + ", "
+                            + plural(diagnostics.warningCount(), "warning") + " - F8 in the editor goes to the next one");
+                }
+                Platform.runLater(() -> codeEditor.setDiagnostics(diagnostics));
+
+                if (!result.success()) {
+                    output.offer(System.lineSeparator() + "Compilation failed (exit code "
+                            + result.exitCode + ")." + System.lineSeparator());
+                    return;
+                }
+
+                File exeFile = new File(outputBin);
+                if (!exeFile.exists()) {
+                    output.offerLine("Executable not found at: " + exeFile.getAbsolutePath());
+                    return;
+                }
+
+                output.offer(System.lineSeparator() + "Running '" + exeName + "'..." + System.lineSeparator());
+                runExecutable(exeFile, 50, capture); // czeka na program w tym wątku, nie na wątku FX
 
             } catch (IOException | InterruptedException | ExecutionException | TimeoutException e) {
-                Platform.runLater(() -> {
-                    consoleView.appendCode("Build error: " + e.getMessage() + System.lineSeparator());
-                });
+                output.offerLine("Build error: " + e.getMessage());
+            } finally {
+                if (tmpSrc != null) {
+                    try {
+                        Files.deleteIfExists(tmpSrc);
+                    } catch (IOException ignored) {}
+                }
             }
         }).start();
     }
 
-    private void runExecutable(File exe, long timeoutSec) {
+    private static String plural(int count, String noun) {
+        return count + " " + noun + (count == 1 ? "" : "s");
+    }
+
+    /**
+     * Zapisuje snapshot strumieniowo do tymczasowego pliku .cpp. Dyrektywa #line
+     * sprawia, że komunikaty kompilatora i __FILE__ wskazują prawdziwy plik, a -iquote
+     * – że jego względne #include dalej działają.
+     */
+    private static Path writeTempSource(File src, DocumentSnapshot snapshot) throws IOException {
+        Path tmp = Files.createTempFile(src.getName().replaceFirst("\\.cpp$", "") + "-", ".cpp");
+        try (Writer writer = Files.newBufferedWriter(tmp)) {
+            writer.write("#line 1 \"" + src.getAbsolutePath().replace("\\", "\\\\") + "\"\n");
+            snapshot.writeTo(writer);
+        }
+        return tmp;
+    }
+
+    private void runExecutable(File exe, long timeoutSec, boolean capture) {
         ProcessBuilder pb = new ProcessBuilder(exe.getAbsolutePath());
         pb.directory(exe.getParentFile());
         pb.redirectErrorStream(true);
+        if (capture) {
+            runCaptured(pb, exe, timeoutSec);
+            return;
+        }
 
         try {
             Process proc = pb.start();
@@ -107,10 +152,7 @@ public class RunButton extends Button {
                         new java.io.InputStreamReader(proc.getInputStream()))) {
                     String line;
                     while ((line = reader.readLine()) != null) {
-                        String finalLine = line;
-                        Platform.runLater(() ->
-                                consoleView.appendCode(finalLine + System.lineSeparator())
-                        );
+                        output.offerLine(line);
                     }
                 } catch (IOException ignored) {}
             });
@@ -119,16 +161,62 @@ public class RunButton extends Button {
 
             if (!proc.waitFor(timeoutSec, TimeUnit.SECONDS)) {
                 proc.destroyForcibly();
-                Platform.runLater(() ->
-                        consoleView.appendCode("Process timed out after " + timeoutSec + "s" + System.lineSeparator())
-                );
+                output.offerLine("Process timed out after " + timeoutSec + "s");
             }
             outputThread.join(100);
         } catch (IOException | InterruptedException e) {
-            Platform.runLater(() ->
-                    consoleView.appendCode("Run error: " + e.getMessage() + System.lineSeparator())
-            );
+            output.offerLine("Run error: " + e.getMessage());
             Thread.currentThread().interrupt();
         }
     }
+
+    /**
+     * Wyjście programu idzie prosto do pliku ({@code Redirect.appendTo}) – JVM w ogóle
+     * nie dotyka tych bajtów, nie ma wątku czytającego ani dekodowania linii. Konsola
+     * pokazuje plik przez mapowanie, w miarę jak rośnie. Komunikat o przekroczeniu
+     * czasu jest dopisywany na końcu pliku, pod wyjściem programu.
+     */
+    private void runCaptured(ProcessBuilder pb, File exe, long timeoutSec) {
+        MappedTextFile shown = null;
+        try {
+            Path file = newCaptureFile(exe);
+            pb.redirectOutput(ProcessBuilder.Redirect.appendTo(file.toFile()));
+            output.offerLine("Output is captured to " + file);
+            Process proc = pb.start();
+            MappedTextFile mapped = shown = MappedTextFile.follow(file);
+            Platform.runLater(() -> consoleView.showCapture(mapped));
+
+            if (!proc.waitFor(timeoutSec, TimeUnit.SECONDS)) {
+                proc.destroyForcibly().waitFor();
+                Files.writeString(file, System.lineSeparator() + "Process timed out after " + timeoutSec + "s"
+                        + System.lineSeparator(), StandardOpenOption.APPEND);
+            }
+        } catch (IOException e) {
+            output.offerLine("Run error: " + e.getMessage());
+        } catch (InterruptedException e) {
+            output.offerLine("Run error: " + e.getMessage());
+            Thread.currentThread().interrupt();
+        } finally {
+            if (shown != null) shown.stopFollowing();
+        }
+    }
+
+    /**
+     * Nowy plik tymczasowy na wyjście programu; plik z poprzedniego uruchomienia
+     * (konsola już go nie pokazuje) jest usuwany
+     */
+    private Path newCaptureFile(File exe) throws IOException {
+        Path previous = lastCapture;
+        if (previous != null) {
+            try {
+                Files.deleteIfExists(previous);
+            } catch (IOException ignored) {
+                // np. jeszcze zmapowany na Windows – zostanie usunięty przy wyjściu
+            }
+        }
+        Path file = Files.createTempFile(exe.getName().replaceFirst("\\.exe$", "") + "-output-", ".txt");
+        file.toFile().deleteOnExit();
+        lastCapture = file;
+        return file;
+    }
 }
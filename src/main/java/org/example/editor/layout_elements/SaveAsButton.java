@@ -5,11 +5,9 @@ import javafx.stage.FileChooser;
 import javafx.scene.control.Button;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
-import org.example.editor.HelloApplication;
 
 import java.io.File;
-import java.io.IOException;
-import java.nio.file.Files;
+import java.util.concurrent.CompletionException;
 
 public class SaveAsButton extends Button {
 
@@ -17,6 +15,11 @@ public class SaveAsButton extends Button {
         super("Save As");
 
         setOnAction(e -> {
+            if (codeEditor.isReadOnly()) {
+                new Alert(AlertType.INFORMATION,
+                        "The file is still loading or too large to edit, so it cannot be saved from the editor.").showAndWait();
+                return;
+            }
             FileChooser fileChooser = new FileChooser();
             fileChooser.setTitle("Save C++ File As");
             fileChooser.getExtensionFilters().add(
@@ -25,15 +28,17 @@ public class SaveAsButton extends Button {
 
             File selectedFile = fileChooser.showSaveDialog(stage);
             if (selectedFile != null) {
-                try {
-                    Files.writeString(selectedFile.toPath(), codeEditor.getCode());
-                    HelloApplication.setCurrentFile(selectedFile);       // ✅ update current file
-                    openFilesPanel.addFileToFolder(selectedFile);
-                    // ✅ add to list
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                    new Alert(AlertType.ERROR, ex.getMessage()).showAndWait();
-                }
+                // zapis w tle; po udanym zapisie plik staje się bieżący
+                codeEditor.save(selectedFile).whenComplete((written, ex) -> {
+                    if (ex == null) {
+                        openFilesPanel.addFileToFolder(selectedFile);
+                        // ✅ add to list
+                    } else {
+                        Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                        cause.printStackTrace();
+                        new Alert(AlertType.ERROR, cause.getMessage()).showAndWait();
+                    }
+                });
             }
         });
     }
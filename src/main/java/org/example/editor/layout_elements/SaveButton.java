@@ -1,14 +1,12 @@
 package org.example.editor.layout_elements;
 
 import javafx.stage.Stage;
-import java.nio.file.Files;
 import javafx.stage.FileChooser;
 import javafx.scene.control.Button;
 import javafx.scene.control.*;
-import org.example.editor.HelloApplication;
 
-import java.io.IOException;
 import java.io.File;
+import java.util.concurrent.CompletionException;
 
 
 public class SaveButton extends Button {
@@ -16,32 +14,49 @@ public class SaveButton extends Button {
     public SaveButton(Stage stage, CodeEditor codeEditor) {
         super("Save");
         setOnAction(e -> {
-            if (HelloApplication.getCurrentFile() == null) {
+            if (codeEditor.isReadOnly()) {
+                showAlert(Alert.AlertType.INFORMATION, "Read-only file",
+                        "The file is still loading or too large to edit, so it cannot be saved from the editor.");
+                return;
+            }
+            File target = codeEditor.getFile();
+            if (target == null) {
                 FileChooser fileChooser = new FileChooser();
                 fileChooser.setTitle("Save C++ File As");
                 fileChooser.getExtensionFilters().add(
                         new FileChooser.ExtensionFilter("C++ Files", "*.cpp")
                 );
-                File selectedFile = fileChooser.showSaveDialog(stage);
-                if (selectedFile != null) {
-                    try {
-                        Files.writeString(selectedFile.toPath(), codeEditor.getCode());
-                    } catch (IOException ex) {
-                        ex.printStackTrace();
-                        new Alert(Alert.AlertType.ERROR, ex.getMessage()).showAndWait();
-                    }
-                }
-            } else {
-                try {
-                    Files.writeString(HelloApplication.getCurrentFile().toPath(), codeEditor.getCode());
-                } catch (IOException ex) {
-                    ex.printStackTrace();
-                    showAlert(Alert.AlertType.ERROR, "File Save Failed", ex.getMessage());
-                }
+                target = fileChooser.showSaveDialog(stage);
+                if (target == null) return;
+            } else if (codeEditor.isChangedOnDisk() && !confirmOverwrite(codeEditor, target)) {
+                return;
             }
+            // zapis idzie w tle; wynik wraca na wątek FX
+            codeEditor.save(target).whenComplete((written, ex) -> {
+                if (ex != null) {
+                    Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+                    cause.printStackTrace();
+                    showAlert(Alert.AlertType.ERROR, "File Save Failed", cause.getMessage());
+                }
+            });
         });
     }
 
+    /**
+     * Plik zmienił się na dysku (np. wygenerował go skrypt) – pytamy, zanim go nadpiszemy
+     */
+    private boolean confirmOverwrite(CodeEditor codeEditor, File target) {
+        ButtonType compare = new ButtonType("Compare…");
+        ButtonType overwrite = new ButtonType("Overwrite");
+        Alert a = new Alert(Alert.AlertType.WARNING, null, compare, overwrite, ButtonType.CANCEL);
+        a.setTitle("File Changed on Disk");
+        a.setHeaderText(target.getName() + " was changed on disk since it was opened.");
+        a.setContentText("Compare it with the editor to take over its changes, or overwrite it with the editor's text.");
+        ButtonType choice = a.showAndWait().orElse(ButtonType.CANCEL);
+        if (choice == compare) codeEditor.compareWithDisk();
+        return choice == overwrite;
+    }
+
     private void showAlert(Alert.AlertType type, String header, String content) {
         Alert a = new Alert(type);
         a.setTitle(type == Alert.AlertType.ERROR ? "Error" : "Info");
@@ -0,0 +1,164 @@
+package org.example.editor.layout_elements;
+
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.control.Button;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.control.ToggleButton;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import org.example.editor.document.DocumentSnapshot;
+import org.example.editor.layout_api.Component;
+import org.example.editor.search.FolderSearch;
+import org.example.editor.search.SearchQuery;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Panel "Find in Folder" – szuka we wszystkich plikach folderów z {@link OpenFilesPanel}
+ * równolegle ({@link FolderSearch}); wyniki pojawiają się na liście w trakcie szukania,
+ * szukanie można przerwać. Dwuklik (albo Enter) otwiera plik na trafieniu.
+ * Pliki z niezapisanymi zmianami są przeszukiwane w snapshocie bufora, a nie na dysku.
+ */
+public class SearchResultsPanel extends Component {
+
+    private final TextField queryField = new TextField();
+    private final ToggleButton matchCase = new ToggleButton("Aa");
+    private final ToggleButton wholeWord = new ToggleButton("W");
+    private final ToggleButton regex = new ToggleButton(".*");
+    private final Button searchButton = new Button("Find in Folder");
+    private final Button cancelButton = new Button("Cancel");
+    private final Label status = new Label();
+    private final ListView<FolderSearch.Match> results = new ListView<>();
+    private final Supplier<List<File>> folders;
+    private final Supplier<Map<Path, DocumentSnapshot>> unsaved;
+    private final Consumer<FolderSearch.Match> onOpen;
+    private FolderSearch search;
+
+    public SearchResultsPanel(String id, Supplier<List<File>> folders, Supplier<Map<Path, DocumentSnapshot>> unsaved,
+                              Consumer<FolderSearch.Match> onOpen) {
+        super(new VBox(), id);
+        this.folders = folders;
+        this.unsaved = unsaved;
+        this.onOpen = onOpen;
+
+        queryField.setPromptText("Search in folders");
+        HBox.setHgrow(queryField, Priority.ALWAYS);
+        cancelButton.setDisable(true);
+        status.setStyle("-fx-text-fill: #d4d4d4;");
+
+        searchButton.setOnAction(e -> start());
+        queryField.setOnAction(e -> start());
+        cancelButton.setOnAction(e -> cancel());
+
+        HBox bar = new HBox(4, queryField, matchCase, wholeWord, regex, searchButton, cancelButton, status);
+        bar.setAlignment(Pos.CENTER_LEFT);
+
+        // lista jest wirtualizowana – tysiące wyników to tylko widoczne komórki
+        results.setCellFactory(list -> new ListCell<>() {
+            @Override
+            protected void updateItem(FolderSearch.Match match, boolean empty) {
+                super.updateItem(match, empty);
+                setText(empty || match == null ? null
+                        : match.file().getFileName() + ":" + (match.line() + 1) + ":  " + match.preview());
+            }
+        });
+        results.setOnMouseClicked(e -> {
+            if (e.getButton() == MouseButton.PRIMARY && e.getClickCount() == 2) openSelected();
+        });
+        results.setOnKeyPressed(e -> {
+            if (e.getCode() == KeyCode.ENTER) openSelected();
+        });
+
+        VBox box = (VBox) this.region;
+        box.setSpacing(4);
+        box.setPadding(new Insets(6));
+        box.setStyle("-fx-background-color: #1e1e1e;");
+        box.getChildren().addAll(bar, results);
+        VBox.setVgrow(results, Priority.ALWAYS);
+    }
+
+    /**
+     * Ustawia szukany tekst i zaczyna szukanie
+     */
+    public void search(String text) {
+        queryField.setText(text);
+        start();
+    }
+
+    public void focusQuery() {
+        queryField.requestFocus();
+        queryField.selectAll();
+    }
+
+    private void start() {
+        cancel();
+        results.getItems().clear();
+        String text = queryField.getText();
+        List<Path> roots = folders.get().stream().filter(File::isDirectory).map(File::toPath).toList();
+        if (text.isEmpty()) {
+            status.setText("");
+            return;
+        }
+        if (roots.isEmpty()) {
+            status.setText("No folders open");
+            return;
+        }
+        SearchQuery query = new SearchQuery(text, matchCase.isSelected(), wholeWord.isSelected(), regex.isSelected());
+        long startTime = System.currentTimeMillis();
+        try {
+            search = FolderSearch.start(roots, unsaved.get(), query, new FolderSearch.Listener() {
+                @Override
+                public void matchesFound(List<FolderSearch.Match> matches) {
+                    results.getItems().addAll(matches);
+                    status.setText(results.getItems().size() + " found…");
+                }
+
+                @Override
+                public void searchFinished(int filesSearched, int matches, boolean limitReached) {
+                    search = null;
+                    cancelButton.setDisable(true);
+                    status.setText(matches + (limitReached ? "+" : "") + " matches in " + filesSearched
+                            + " files (" + (System.currentTimeMillis() - startTime) + " ms)");
+                }
+            });
+        } catch (PatternSyntaxException ex) {
+            status.setText("Invalid regex");
+            return;
+        }
+        cancelButton.setDisable(false);
+        status.setText("Searching…");
+    }
+
+    private void cancel() {
+        if (search == null) return;
+        search.cancel();
+        search = null;
+        cancelButton.setDisable(true);
+        status.setText("Cancelled, " + results.getItems().size() + " found");
+    }
+
+    private void openSelected() {
+        FolderSearch.Match match = results.getSelectionModel().getSelectedItem();
+        if (match != null) onOpen.accept(match);
+    }
+
+    public void setDesignMode(boolean isDesign) {
+        for (var child : ((VBox) this.region).getChildren()) {
+            child.setMouseTransparent(isDesign); // wyłącza przechwytywanie kliknięć
+            child.setFocusTraversable(!isDesign); // nie łapie focusa
+        }
+    }
+}
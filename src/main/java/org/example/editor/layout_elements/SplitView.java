@@ -0,0 +1,67 @@
+package org.example.editor.layout_elements;
+
+import javafx.scene.layout.Pane;
+import org.example.editor.buffer.Buffer;
+import org.example.editor.layout_api.Component;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Drugi widok pliku pokazywanego w {@link CodeEditor} – np. początek i koniec tego samego
+ * pliku obok siebie. Rysuje ten sam dokument i tę samą kolorowankę co edytor (jedna kopia
+ * tekstu, jedna historia cofania), ale ma własny kursor, zaznaczenie, zwinięcia i przewinięcie.
+ * Zmiany wpisane w którymkolwiek widoku docierają do pozostałych przyrostowo, przez
+ * słuchaczy dokumentu. Tworzy go {@link CodeEditor#createSplitView}; do układu dodaje się
+ * go jak każdy inny komponent.
+ */
+public class SplitView extends Component {
+
+    private record ViewState(int anchor, int caret, double scrollX, double scrollY) {
+    }
+
+    private final EditorView view;
+    // kursor i przewinięcie tego widoku osobno dla każdego bufora
+    private final Map<Buffer, ViewState> states = new WeakHashMap<>();
+    private Buffer buffer;
+
+    SplitView(String id, Buffer shown) {
+        super(new Pane(), id);
+        view = new EditorView(shown.getDocument());
+        Pane pane = (Pane) this.region;
+        pane.getChildren().add(view);
+        pane.widthProperty().addListener((obs, oldVal, newVal) -> view.setPrefWidth(newVal.doubleValue()));
+        pane.heightProperty().addListener((obs, oldVal, newVal) -> view.setPrefHeight(newVal.doubleValue()));
+        show(shown);
+    }
+
+    /**
+     * Przełącza widok na bufor pokazany właśnie w edytorze
+     */
+    void show(Buffer shown) {
+        if (buffer != null && buffer.isLoaded()) {
+            states.put(buffer, new ViewState(view.getAnchor(), view.getCaretPosition(), view.getScrollX(), view.getScrollY()));
+        }
+        buffer = shown;
+        view.setDocument(shown.getDocument());
+        view.setHighlighter(shown.getHighlighter());
+        view.setLineSource(shown.getMappedFile());
+        ViewState state = states.get(shown);
+        if (state != null) {
+            view.restoreViewState(state.anchor(), state.caret(), state.scrollX(), state.scrollY());
+        }
+    }
+
+    void setEditable(boolean editable) {
+        view.setEditable(editable);
+    }
+
+    void setDesignMode(boolean isDesign) {
+        view.setMouseTransparent(isDesign);
+        view.setFocusTraversable(!isDesign);
+    }
+
+    public EditorView getView() {
+        return view;
+    }
+}
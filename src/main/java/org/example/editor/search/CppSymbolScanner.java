@@ -0,0 +1,447 @@
+package org.example.editor.search;
+
+import org.example.editor.highlight.CppLexer;
+import org.example.editor.highlight.TokenType;
+
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Finds the definitions in one C++ file for {@link SymbolIndex}, ctags-style:
+ * the text goes through {@link CppLexer} and a small state machine over its
+ * tokens, with no real parsing. Records namespaces, classes / structs / unions /
+ * enums, typedefs and aliases, functions with a body, macros and variables at
+ * namespace scope. Function bodies are skipped by counting braces, so nothing
+ * local to a function is recorded. Not thread-safe; one instance per file.
+ */
+final class CppSymbolScanner {
+
+    private record Token(TokenType type, String text, int line, int column) {
+
+        boolean is(String s) {
+            return text.equals(s);
+        }
+    }
+
+    private enum ScopeKind {NAMESPACE, TYPE, BODY}
+
+    private record Scope(ScopeKind kind, String name, List<Token> prefix) {
+    }
+
+    // stands for a "{ ... }" already closed, e.g. in "struct { ... } name;"
+    private static final Token BLOCK = new Token(TokenType.BRACKET, "{}", -1, -1);
+
+    private static final Set<String> TYPE_KEYWORDS = Set.of("class", "struct", "union", "enum");
+    private static final Set<String> ACCESS = Set.of("public", "private", "protected");
+    private static final Set<String> NOT_A_FUNCTION = Set.of(
+            "if", "for", "while", "switch", "catch", "return", "sizeof", "alignof", "decltype", "static_assert");
+
+    private final Path file;
+    private final List<SymbolIndex.Symbol> symbols = new ArrayList<>();
+    private final Deque<Scope> scopes = new ArrayDeque<>();
+    private final List<Token> statement = new ArrayList<>();
+    private int parenDepth;  // "(" open in the current statement
+    private int bodyDepth;   // braces open in the innermost BODY scope
+
+    private int[] tokens = new int[96];
+    private int tokenCount;
+
+    private CppSymbolScanner(Path file) {
+        this.file = file;
+    }
+
+    static List<SymbolIndex.Symbol> scan(Path file, CharSequence text) {
+        CppSymbolScanner scanner = new CppSymbolScanner(file);
+        int state = CppLexer.NORMAL;
+        boolean directive = false; // the previous line was a directive continued with a backslash
+        int n = text.length();
+        int line = 0;
+        for (int start = 0; start <= n; line++) {
+            int end = start;
+            while (end < n && text.charAt(end) != '\n') end++;
+            int contentEnd = end > start && text.charAt(end - 1) == '\r' ? end - 1 : end;
+            String lineText = text.subSequence(start, contentEnd).toString();
+            scanner.tokenCount = 0;
+            state = CppLexer.lexLine(lineText, state, scanner::collect);
+            boolean isDirective = scanner.line(lineText, line, directive);
+            directive = isDirective && !lineText.isEmpty() && lineText.charAt(lineText.length() - 1) == '\\';
+            start = end + 1;
+        }
+        return scanner.symbols;
+    }
+
+    private void collect(int start, int length, TokenType type) {
+        if (type == TokenType.COMMENT) return;
+        if (tokenCount + 3 > tokens.length) tokens = Arrays.copyOf(tokens, tokens.length * 2);
+        tokens[tokenCount++] = start;
+        tokens[tokenCount++] = length;
+        tokens[tokenCount++] = type.ordinal();
+    }
+
+    /**
+     * Feeds the tokens of one line; returns whether it is a preprocessor line.
+     */
+    private boolean line(String text, int line, boolean continuedDirective) {
+        if (continuedDirective) return true;
+        if (tokenCount > 0 && TokenType.of(tokens[2]) == TokenType.PREPROCESSOR) {
+            String directive = text.substring(tokens[0] + 1, tokens[0] + tokens[1]).strip();
+            if (directive.equals("define") && tokenCount >= 6 && TokenType.of(tokens[5]) != TokenType.OPERATOR) {
+                add(text.substring(tokens[3], tokens[3] + tokens[4]), SymbolIndex.Kind.MACRO, "", line, tokens[3]);
+            }
+            return true;
+        }
+        for (int i = 0; i < tokenCount; i += 3) {
+            TokenType type = TokenType.of(tokens[i + 2]);
+            token(new Token(type, text.substring(tokens[i], tokens[i] + tokens[i + 1]), line, tokens[i]));
+        }
+        return false;
+    }
+
+    private void token(Token t) {
+        Scope top = scopes.peek();
+        if (top != null && top.kind == ScopeKind.BODY) {
+            if (t.type == TokenType.BRACKET && t.is("{")) {
+                bodyDepth++;
+            } else if (t.type == TokenType.BRACKET && t.is("}") && --bodyDepth == 0) {
+                scopes.pop();
+                startStatement();
+            }
+            return;
+        }
+
+        if (t.type == TokenType.BRACKET && parenDepth == 0 && t.is("{")) {
+            open();
+        } else if (t.type == TokenType.BRACKET && parenDepth == 0 && t.is("}")) {
+            startStatement();
+            if (top != null) {
+                scopes.pop();
+                if (top.kind == ScopeKind.TYPE) {
+                    // "} name;" after a type declares variables or typedef names
+                    statement.addAll(top.prefix);
+                    statement.add(BLOCK);
+                }
+            }
+        } else if (t.type == TokenType.OPERATOR && parenDepth == 0 && t.is(";")) {
+            declaration();
+            startStatement();
+        } else if (t.type == TokenType.OPERATOR && t.is(":") && statement.size() == 1
+                && ACCESS.contains(statement.get(0).text)) {
+            startStatement();
+        } else {
+            if (t.type == TokenType.BRACKET && t.is("(")) parenDepth++;
+            if (t.type == TokenType.BRACKET && t.is(")") && parenDepth > 0) parenDepth--;
+            statement.add(t);
+        }
+    }
+
+    private void startStatement() {
+        statement.clear();
+        parenDepth = 0;
+    }
+
+    /**
+     * A "{" outside function bodies: classifies the statement before it.
+     */
+    private void open() {
+        int firstParen = -1;
+        int equals = -1;
+        int typeKeyword = -1;
+        int namespaceKeyword = -1;
+        boolean externC = false;
+        int parens = 0;
+        int angles = 0;
+        for (int i = 0; i < statement.size(); i++) {
+            Token t = statement.get(i);
+            if (t.is("(")) {
+                if (parens == 0 && angles == 0 && firstParen < 0) firstParen = i;
+                parens++;
+            } else if (t.is(")")) {
+                parens--;
+            }
+            if (parens > 0 || t.is(")")) continue;
+            if (t.type == TokenType.OPERATOR && t.is("<") && !isOperatorName(i)) angles++;
+            else if (t.type == TokenType.OPERATOR && t.is(">") && angles > 0 && !isOperatorName(i)) angles--;
+            if (angles > 0) continue;
+            if (t.type == TokenType.OPERATOR && t.is("=") && equals < 0) equals = i;
+            if (t.type == TokenType.KEYWORD && TYPE_KEYWORDS.contains(t.text)
+                    && typeKeyword < 0 && firstParen < 0 && equals < 0) {
+                typeKeyword = i;
+            }
+            if (t.type == TokenType.KEYWORD && t.is("namespace")) namespaceKeyword = i;
+            if (t.type == TokenType.KEYWORD && t.is("extern") && i + 1 < statement.size()
+                    && statement.get(i + 1).type == TokenType.STRING) {
+                externC = true;
+            }
+        }
+
+        boolean namespaceLevel = isNamespaceLevel();
+        if (namespaceKeyword >= 0 && firstParen < 0) {
+            Token name = null;
+            StringBuilder qualified = new StringBuilder();
+            for (int i = namespaceKeyword + 1; i < statement.size(); i++) {
+                Token t = statement.get(i);
+                if (t.type == TokenType.IDENTIFIER) {
+                    if (name != null) qualified.append("::");
+                    qualified.append(t.text);
+                    name = t;
+                }
+            }
+            if (name != null) add(name.text, SymbolIndex.Kind.NAMESPACE, scopeName(), name.line, name.column);
+            push(ScopeKind.NAMESPACE, name == null ? null : qualified.toString(), List.of());
+        } else if (externC && typeKeyword < 0) {
+            push(ScopeKind.NAMESPACE, null, List.of());
+        } else if (typeKeyword >= 0) {
+            Token keyword = statement.get(typeKeyword);
+            int nameAt = typeName(typeKeyword + 1);
+            String name = nameAt < 0 ? null : statement.get(nameAt).text;
+            if (name != null) {
+                Token t = statement.get(nameAt);
+                add(name, kindOf(keyword.text), join(scopeName(), qualifier(nameAt)), t.line, t.column);
+            }
+            String qualified = name == null ? null : join(qualifier(nameAt), name);
+            push(ScopeKind.TYPE, qualified, List.copyOf(statement));
+        } else if (equals >= 0 && (firstParen < 0 || firstParen > equals)) {
+            // "int table[] = { ... }"
+            if (namespaceLevel) addVariable(0, equals, SymbolIndex.Kind.VARIABLE);
+            pushBody();
+        } else if (firstParen > 0) {
+            function(firstParen);
+            pushBody();
+        } else {
+            // "int x{0}" at namespace scope; anything else is a block to skip
+            if (namespaceLevel && statement.size() >= 2 && last().type == TokenType.IDENTIFIER) {
+                addVariable(0, statement.size(), SymbolIndex.Kind.VARIABLE);
+            }
+            pushBody();
+        }
+        startStatement();
+    }
+
+    /**
+     * Index of the name after "class" / "struct" / ...: the last identifier
+     * before the base list or the end, outside attributes; -1 if anonymous.
+     */
+    private int typeName(int from) {
+        int name = -1;
+        int depth = 0;
+        for (int i = from; i < statement.size(); i++) {
+            Token t = statement.get(i);
+            if (t.is("(") || t.is("[")) depth++;
+            else if ((t.is(")") || t.is("]")) && depth > 0) depth--;
+            if (depth > 0) continue;
+            if (t.type == TokenType.OPERATOR && t.is(":") && !isScopeColon(i)) break;
+            if (t.type == TokenType.OPERATOR && t.is("<")) break; // specialization arguments
+            if (t.type == TokenType.IDENTIFIER) name = i;
+        }
+        return name;
+    }
+
+    /**
+     * True for the symbols of "operator<" and the like.
+     */
+    private boolean isOperatorName(int i) {
+        while (i > 0 && statement.get(i - 1).type == TokenType.OPERATOR) i--;
+        return i > 0 && statement.get(i - 1).is("operator");
+    }
+
+    private boolean isScopeColon(int i) {
+        return (i + 1 < statement.size() && statement.get(i + 1).is(":"))
+                || (i > 0 && statement.get(i - 1).is(":"));
+    }
+
+    /**
+     * "A::B" of "A::B::name" (the tokens right before {@code nameAt}), or "".
+     */
+    private String qualifier(int nameAt) {
+        String qualifier = "";
+        int i = nameAt;
+        while (i >= 3 && statement.get(i - 1).is(":") && statement.get(i - 2).is(":")
+                && statement.get(i - 3).type == TokenType.IDENTIFIER) {
+            qualifier = join(statement.get(i - 3).text, qualifier);
+            i -= 3;
+        }
+        return qualifier;
+    }
+
+    private void function(int paren) {
+        int nameAt = paren - 1;
+        Token name = statement.get(nameAt);
+        String text;
+        int operator = -1;
+        for (int i = 0; i < paren; i++) {
+            if (statement.get(i).is("operator") && statement.get(i).type == TokenType.KEYWORD) operator = i;
+        }
+        if (operator >= 0) {
+            StringBuilder sb = new StringBuilder("operator");
+            for (int i = operator + 1; i < paren; i++) sb.append(statement.get(i).text);
+            if (operator + 1 == paren) sb.append("()"); // "operator()(...)"
+            text = sb.toString();
+            name = statement.get(operator);
+            nameAt = operator;
+        } else {
+            if (name.type != TokenType.IDENTIFIER || NOT_A_FUNCTION.contains(name.text)) return;
+            if (nameAt > 0 && statement.get(nameAt - 1).is("~")) {
+                text = "~" + name.text;
+                nameAt--;
+            } else {
+                text = name.text;
+            }
+            if (nameAt > 0) {
+                Token before = statement.get(nameAt - 1);
+                if (before.is(".") || before.is("=") || (before.is(">") && nameAt > 1 && statement.get(nameAt - 2).is("-"))) {
+                    return;
+                }
+            }
+        }
+        add(text, SymbolIndex.Kind.FUNCTION, join(scopeName(), qualifier(nameAt)), name.line, name.column);
+    }
+
+    /**
+     * A ";" outside function bodies: typedefs, aliases and variables.
+     */
+    private void declaration() {
+        if (statement.isEmpty()) return;
+        Token first = statement.get(0);
+        if (first.is("using")) {
+            if (statement.size() > 2 && statement.get(1).type == TokenType.IDENTIFIER && statement.get(2).is("=")) {
+                Token name = statement.get(1);
+                add(name.text, SymbolIndex.Kind.TYPEDEF, scopeName(), name.line, name.column);
+            }
+            return;
+        }
+        if (first.is("friend") || first.is("template") || first.is("static_assert")) return;
+
+        int block = statement.lastIndexOf(BLOCK);
+        boolean typedef = false;
+        boolean extern = false;
+        for (int i = 0; i < statement.size(); i++) {
+            Token t = statement.get(i);
+            if (t.type != TokenType.KEYWORD) continue;
+            if (t.is("typedef")) typedef = true;
+            if (t.is("extern")) extern = true;
+            if (TYPE_KEYWORDS.contains(t.text) && block < 0 && !typedef) return; // forward declaration
+        }
+        if (typedef) {
+            addVariable(block + 1, statement.size(), SymbolIndex.Kind.TYPEDEF);
+        } else if (isNamespaceLevel() && !extern) {
+            addVariable(block + 1, statement.size(), SymbolIndex.Kind.VARIABLE);
+        }
+    }
+
+    /**
+     * Adds the names declared by tokens {@code [from, to)}: one per comma
+     * separated declarator, the last identifier before its initializer or
+     * array bounds. A declarator with parameters is a prototype and is skipped,
+     * except the {@code (*name)} of a function pointer typedef.
+     */
+    private void addVariable(int from, int to, SymbolIndex.Kind kind) {
+        int segment = from;
+        while (segment < to) {
+            int end = segment;
+            int depth = 0;
+            int angles = 0;
+            boolean initializer = false;
+            Token name = null;
+            Token pointerName = null;
+            boolean parameters = false;
+            for (; end < to; end++) {
+                Token t = statement.get(end);
+                if (t.is("(") || t.is("[") || t.is("{") || t.is("{}")) {
+                    if (t.is("(") && depth == 0 && !initializer) {
+                        if (end + 2 < to && statement.get(end + 1).is("*")
+                                && statement.get(end + 2).type == TokenType.IDENTIFIER) {
+                            pointerName = statement.get(end + 2);
+                        } else if (pointerName == null) {
+                            parameters = true;
+                        }
+                    }
+                    if (!t.is("{}")) depth++;
+                    continue;
+                }
+                if (t.is(")") || t.is("]") || t.is("}")) {
+                    depth--;
+                    continue;
+                }
+                if (depth > 0) continue;
+                if (!initializer && t.type == TokenType.OPERATOR && t.is("<")) angles++;
+                else if (!initializer && t.type == TokenType.OPERATOR && t.is(">") && angles > 0) angles--;
+                if (angles > 0) continue;
+                if (t.type == TokenType.OPERATOR && t.is(",")) break;
+                if (t.type == TokenType.OPERATOR && (t.is("=") || t.is(":"))) {
+                    if (t.is(":") && isScopeColon(end)) continue;
+                    initializer = true;
+                }
+                if (!initializer && t.type == TokenType.IDENTIFIER) name = t;
+            }
+            Token declared = pointerName != null ? pointerName : parameters ? null : name;
+            // a lone word is a macro call, not a declaration (unless it follows "} ")
+            boolean alone = segment == 0 && name != null && countWords(segment, end) < 2;
+            if (declared != null && !alone) {
+                add(declared.text, kind, scopeName(), declared.line, declared.column);
+            }
+            segment = end + 1;
+        }
+    }
+
+    private int countWords(int from, int to) {
+        int words = 0;
+        for (int i = from; i < to; i++) {
+            TokenType type = statement.get(i).type;
+            if (type == TokenType.IDENTIFIER || type == TokenType.TYPE || type == TokenType.KEYWORD) words++;
+        }
+        return words;
+    }
+
+    private Token last() {
+        return statement.get(statement.size() - 1);
+    }
+
+    private boolean isNamespaceLevel() {
+        Scope top = scopes.peek();
+        return top == null || top.kind == ScopeKind.NAMESPACE;
+    }
+
+    private void push(ScopeKind kind, String name, List<Token> prefix) {
+        scopes.push(new Scope(kind, name, prefix));
+    }
+
+    private void pushBody() {
+        push(ScopeKind.BODY, null, List.of());
+        bodyDepth = 1;
+    }
+
+    /**
+     * Enclosing namespaces and types, outermost first, joined with "::".
+     */
+    private String scopeName() {
+        String name = "";
+        for (Scope scope : scopes) { // innermost first
+            if (scope.name != null) name = join(scope.name, name);
+        }
+        return name;
+    }
+
+    private static String join(String outer, String inner) {
+        if (outer.isEmpty()) return inner;
+        if (inner.isEmpty()) return outer;
+        return outer + "::" + inner;
+    }
+
+    private static SymbolIndex.Kind kindOf(String keyword) {
+        return switch (keyword) {
+            case "class" -> SymbolIndex.Kind.CLASS;
+            case "struct" -> SymbolIndex.Kind.STRUCT;
+            case "union" -> SymbolIndex.Kind.UNION;
+            default -> SymbolIndex.Kind.ENUM;
+        };
+    }
+
+    private void add(String name, SymbolIndex.Kind kind, String scope, int line, int column) {
+        symbols.add(new SymbolIndex.Symbol(name, kind, scope, file, line, column));
+    }
+}
@@ -0,0 +1,468 @@
+package org.example.editor.search;
+
+import javafx.application.Platform;
+import org.example.editor.document.DocumentSnapshot;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Searches every text file under a set of folders in parallel.
+ * <p>
+ * Each folder's {@link TrigramIndex} picks the files that can contain a match
+ * (it is built by the first search and refreshed in the background after every
+ * later one); only those are read, split among the workers of a fork-join pool
+ * sized to the cores.
+ * Each file is read into a per-worker direct buffer (or memory-mapped when it is
+ * large) and a literal query is matched on the raw bytes, UTF-8 encoded, with a
+ * Boyer-Moore-Horspool scan - no file is decoded to a String. Only the line
+ * around a match is decoded, for the preview. A regex query decodes the file
+ * into a reusable CharBuffer instead. Hidden folders and binary files (a NUL in
+ * the first block) are skipped; case-insensitive literal search folds ASCII only.
+ * <p>
+ * Files with unsaved changes in the editor are searched in a snapshot of their
+ * buffer instead of on disk, so the results match what the user sees.
+ * <p>
+ * Matches are streamed to the FX thread as they are found, coalesced into one
+ * event at a time, up to {@link #MAX_MATCHES}.
+ */
+public final class FolderSearch {
+
+    public static final int MAX_MATCHES = 20_000;
+
+    private static final int SPLIT_THRESHOLD = 8;
+    private static final long MAP_THRESHOLD = 1 << 20;
+    private static final int BINARY_PROBE = 8192;
+    private static final int PREVIEW_BYTES = 240;
+    private static final int MAX_DECODED = 64 << 20;     // larger files are skipped by a regex search
+    private static final int MAX_CACHED_CHARS = 4 << 20; // bigger decode buffers are not kept per worker
+    private static final int CANCEL_CHECK_BYTES = 1 << 16;
+
+    static final ForkJoinPool POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors(), pool -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+        t.setName("folder-search-" + t.getPoolIndex());
+        t.setDaemon(true);
+        return t;
+    }, null, false);
+
+    // Per-worker scratch buffers, grown as needed
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(1 << 18));
+    private static final ThreadLocal<CharBuffer> DECODE_BUFFER =
+            ThreadLocal.withInitial(() -> CharBuffer.allocate(1 << 18));
+
+    /**
+     * One match: {@code line} and {@code column} are 0-based, {@code column} and
+     * {@code length} count chars, as in the editor.
+     */
+    public record Match(Path file, int line, int column, int length, String preview) {
+    }
+
+    /**
+     * Receives results on the FX thread; nothing is delivered after {@link #cancel()}.
+     */
+    public interface Listener {
+        void matchesFound(List<Match> matches);
+
+        void searchFinished(int filesSearched, int matches, boolean limitReached);
+    }
+
+    private final List<Path> roots;
+    private final Map<Path, DocumentSnapshot> unsaved;
+    private final SearchQuery query;
+    private final Listener listener;
+    private final byte[] pattern;     // literal query as UTF-8, ASCII-folded unless matchCase
+    private final int[] shift = new int[256];
+    private final Pattern regex;
+    private final ConcurrentLinkedQueue<Match> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicInteger matchCount = new AtomicInteger();
+    private final AtomicInteger filesSearched = new AtomicInteger();
+    private volatile boolean cancelled;
+
+    private FolderSearch(List<Path> roots, Map<Path, DocumentSnapshot> unsaved, SearchQuery query, Listener listener) {
+        this.roots = roots;
+        this.unsaved = unsaved;
+        this.query = query;
+        this.listener = listener;
+        if (query.regex()) {
+            // compiled the same way as in the editor, on the caller's thread so errors surface there
+            regex = ((RegexFinder) query.finder()).pattern();
+            pattern = null;
+        } else {
+            regex = null;
+            pattern = query.text().getBytes(StandardCharsets.UTF_8);
+            int m = pattern.length;
+            for (int i = 0; i < m; i++) {
+                pattern[i] = fold(pattern[i]);
+            }
+            Arrays.fill(shift, Math.max(1, m));
+            for (int i = 0; i < m - 1; i++) {
+                shift[pattern[i] & 0xFF] = m - 1 - i;
+            }
+        }
+    }
+
+    /**
+     * Starts searching all files under {@code roots}.
+     *
+     * @throws java.util.regex.PatternSyntaxException if a regex query is invalid
+     */
+    public static FolderSearch start(List<Path> roots, SearchQuery query, Listener listener) {
+        return start(roots, Map.of(), query, listener);
+    }
+
+    /**
+     * Starts searching all files under {@code roots}, taking the text of the files
+     * in {@code unsaved} (absolute, normalized paths) from their snapshots.
+     *
+     * @throws java.util.regex.PatternSyntaxException if a regex query is invalid
+     */
+    public static FolderSearch start(List<Path> roots, Map<Path, DocumentSnapshot> unsaved,
+                                     SearchQuery query, Listener listener) {
+        FolderSearch search = new FolderSearch(roots, unsaved, query, listener);
+        POOL.execute(search::run);
+        return search;
+    }
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private boolean stopped() {
+        return cancelled || matchCount.get() >= MAX_MATCHES;
+    }
+
+    private void run() {
+        if (!query.text().isEmpty()) {
+            Set<Path> candidates = new LinkedHashSet<>(); // folders may be nested in each other
+            for (Path root : roots) {
+                TrigramIndex index = TrigramIndex.forFolder(root);
+                if (!index.isCurrent()) {
+                    index.refresh(this::isCancelled); // the first search waits for the folder to be indexed
+                } else {
+                    index.refreshLater(); // changes made outside the editor count from the next search
+                }
+                candidates.addAll(index.candidates(query));
+            }
+            candidates.removeAll(unsaved.keySet()); // what is on disk is out of date
+            searchUnsaved();
+            List<Path> files = new ArrayList<>(candidates);
+            new Scan(files, 0, files.size()).invoke();
+        }
+        Platform.runLater(() -> {
+            if (cancelled) return;
+            drain();
+            int total = Math.min(matchCount.get(), MAX_MATCHES);
+            listener.searchFinished(filesSearched.get(), total, matchCount.get() >= MAX_MATCHES);
+        });
+    }
+
+    /**
+     * Walks the folders, skipping hidden ones, and passes every non-empty regular
+     * file (with absolute, normalized path) to {@code visitor}.
+     */
+    static void walk(List<Path> roots, BooleanSupplier stop, BiConsumer<Path, BasicFileAttributes> visitor) {
+        for (Path root : roots) {
+            try {
+                Files.walkFileTree(root, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+                        if (stop.getAsBoolean()) return FileVisitResult.TERMINATE;
+                        Path name = dir.getFileName();
+                        boolean hidden = name != null && name.toString().startsWith(".") && !dir.equals(root);
+                        return hidden ? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                        if (attrs.isRegularFile() && attrs.size() > 0 && attrs.size() <= Integer.MAX_VALUE) {
+                            visitor.accept(file.toAbsolutePath().normalize(), attrs);
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                        return FileVisitResult.CONTINUE; // unreadable entries are skipped
+                    }
+                });
+            } catch (IOException ignored) {
+                // the folder disappeared - nothing to search there
+            }
+        }
+    }
+
+    /**
+     * Searches files {@code [from, to)}, splitting the range among the workers.
+     */
+    private final class Scan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Path> files;
+        private final int from;
+        private final int to;
+
+        Scan(List<Path> files, int from, int to) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SPLIT_THRESHOLD) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Scan(files, from, mid), new Scan(files, mid, to));
+                return;
+            }
+            for (int i = from; i < to && !stopped(); i++) {
+                try {
+                    searchFile(files.get(i));
+                } catch (IOException | RuntimeException ignored) {
+                    // unreadable or vanished file - skip it
+                }
+            }
+        }
+    }
+
+    private void searchFile(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0 || size > Integer.MAX_VALUE) return;
+            ByteBuffer bytes = read(channel, size);
+            if (isBinary(bytes)) return;
+            filesSearched.incrementAndGet();
+            if (regex != null) {
+                searchDecoded(file, bytes);
+            } else {
+                searchBytes(file, bytes);
+            }
+        }
+    }
+
+    /**
+     * The whole file: mapped when large, otherwise read into this worker's buffer
+     * (valid until its next read).
+     */
+    static ByteBuffer read(FileChannel channel, long size) throws IOException {
+        if (size > MAP_THRESHOLD) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        ByteBuffer bytes = READ_BUFFER.get();
+        if (bytes.capacity() < size) {
+            bytes = ByteBuffer.allocateDirect(Integer.highestOneBit((int) size) << 1);
+            READ_BUFFER.set(bytes);
+        }
+        bytes.clear().limit((int) size);
+        while (bytes.hasRemaining() && channel.read(bytes) >= 0) {
+            // keep reading until the file is in
+        }
+        bytes.flip();
+        return bytes;
+    }
+
+    static boolean isBinary(ByteBuffer bytes) {
+        int n = Math.min(bytes.limit(), BINARY_PROBE);
+        for (int i = 0; i < n; i++) {
+            if (bytes.get(i) == 0) return true;
+        }
+        return false;
+    }
+
+    private byte fold(byte b) {
+        return !query.matchCase() && b >= 'A' && b <= 'Z' ? (byte) (b + ('a' - 'A')) : b;
+    }
+
+    private static boolean isWordByte(byte b) {
+        return b < 0 || b == '_' || (b >= '0' && b <= '9') || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+    }
+
+    /**
+     * Horspool scan of the raw bytes; lines are counted incrementally between matches.
+     */
+    private void searchBytes(Path file, ByteBuffer bytes) {
+        int m = pattern.length;
+        int n = bytes.limit();
+        byte lastOfPattern = pattern[m - 1];
+        int line = 0;
+        int lineStart = 0;
+        int counted = 0;   // '\n' counted in [0, counted)
+        int i = 0;
+        int checkpoint = CANCEL_CHECK_BYTES;
+        while (i + m <= n) {
+            if (i >= checkpoint) { // huge files can be cancelled midway
+                if (cancelled) return;
+                checkpoint = i + CANCEL_CHECK_BYTES;
+            }
+            byte last = fold(bytes.get(i + m - 1));
+            if (last == lastOfPattern) {
+                int j = m - 2;
+                while (j >= 0 && fold(bytes.get(i + j)) == pattern[j]) {
+                    j--;
+                }
+                if (j < 0 && (!query.wholeWord()
+                        || ((i == 0 || !isWordByte(bytes.get(i - 1))) && (i + m == n || !isWordByte(bytes.get(i + m)))))) {
+                    for (; counted < i; counted++) {
+                        if (bytes.get(counted) == '\n') {
+                            line++;
+                            lineStart = counted + 1;
+                        }
+                    }
+                    int column = utf16Length(bytes, lineStart, i);
+                    if (!report(new Match(file, line, column, utf16Length(bytes, i, i + m),
+                            preview(bytes, lineStart, i)))) {
+                        return;
+                    }
+                    i += m;
+                    continue;
+                }
+            }
+            i += shift[last & 0xFF];
+        }
+    }
+
+    /**
+     * Decodes the file into a reused CharBuffer (never a String) and runs the regex over it.
+     */
+    private void searchDecoded(Path file, ByteBuffer bytes) {
+        if (bytes.limit() > MAX_DECODED) return;
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = DECODE_BUFFER.get();
+        if (chars.capacity() < bytes.limit()) {
+            chars = CharBuffer.allocate(Integer.highestOneBit(bytes.limit()) << 1);
+            if (chars.capacity() <= MAX_CACHED_CHARS) DECODE_BUFFER.set(chars);
+        }
+        chars.clear();
+        decoder.decode(bytes, chars, true);
+        decoder.flush(chars);
+        chars.flip();
+
+        Matcher matcher = regex.matcher(chars);
+        int line = 0;
+        int lineStart = 0;
+        int counted = 0;
+        int from = 0;
+        while (from <= chars.limit() && matcher.find(from) && !cancelled) {
+            int start = matcher.start();
+            int end = matcher.end();
+            for (; counted < start; counted++) {
+                if (chars.get(counted) == '\n') {
+                    line++;
+                    lineStart = counted + 1;
+                }
+            }
+            int lineEnd = lineStart;
+            while (lineEnd < chars.limit() && lineEnd - lineStart < PREVIEW_BYTES && chars.get(lineEnd) != '\n') {
+                lineEnd++;
+            }
+            String preview = chars.subSequence(lineStart, lineEnd).toString().strip();
+            if (!report(new Match(file, line, start - lineStart, end - start, preview))) return;
+            from = end > start ? end : end + 1;
+        }
+    }
+
+    /**
+     * Searches the snapshots of unsaved files under the roots with the editor's finder.
+     */
+    private void searchUnsaved() {
+        TextFinder finder = query.finder();
+        int[] range = new int[2];
+        for (Map.Entry<Path, DocumentSnapshot> entry : unsaved.entrySet()) {
+            Path file = entry.getKey();
+            if (roots.stream().noneMatch(file::startsWith)) continue;
+            DocumentSnapshot text = entry.getValue();
+            filesSearched.incrementAndGet();
+            int from = 0;
+            while (from <= text.length() && !stopped() && finder.find(text, from, range)) {
+                int line = text.lineOfOffset(range[0]);
+                int lineStart = text.lineStart(line);
+                int previewStart = Math.max(lineStart, range[0] - PREVIEW_BYTES / 2);
+                int previewEnd = Math.min(text.lineEnd(line), previewStart + PREVIEW_BYTES);
+                String preview = text.getText(previewStart, previewEnd - previewStart).strip();
+                if (!report(new Match(file, line, range[0] - lineStart, range[1] - range[0], preview))) return;
+                from = range[1] > range[0] ? range[1] : range[1] + 1;
+            }
+        }
+    }
+
+    /**
+     * Number of UTF-16 chars encoded by the UTF-8 bytes {@code [from, to)}.
+     */
+    private static int utf16Length(ByteBuffer bytes, int from, int to) {
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            int b = bytes.get(i) & 0xFF;
+            if ((b & 0xC0) != 0x80) n++;      // not a continuation byte
+            if (b >= 0xF0) n++;               // 4-byte sequence = surrogate pair
+        }
+        return n;
+    }
+
+    private static String preview(ByteBuffer bytes, int lineStart, int matchStart) {
+        int start = Math.max(lineStart, matchStart - PREVIEW_BYTES / 2);
+        while (start > lineStart && (bytes.get(start) & 0xC0) == 0x80) start--; // whole characters
+        int end = start;
+        int n = bytes.limit();
+        while (end < n && end - start < PREVIEW_BYTES && bytes.get(end) != '\n') end++;
+        byte[] line = new byte[end - start];
+        bytes.get(start, line);
+        return new String(line, StandardCharsets.UTF_8).strip();
+    }
+
+    /**
+     * Queues a match for the FX thread. Returns false once the search should stop.
+     */
+    private boolean report(Match match) {
+        if (cancelled || matchCount.getAndIncrement() >= MAX_MATCHES) return false;
+        pending.add(match);
+        if (drainScheduled.compareAndSet(false, true)) {
+            Platform.runLater(this::drain);
+        }
+        return true;
+    }
+
+    private void drain() {
+        drainScheduled.set(false);
+        if (cancelled) return;
+        List<Match> batch = new ArrayList<>();
+        Match match;
+        while ((match = pending.poll()) != null) {
+            batch.add(match);
+        }
+        if (!batch.isEmpty()) listener.matchesFound(batch);
+    }
+}
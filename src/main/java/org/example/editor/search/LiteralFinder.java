@@ -0,0 +1,90 @@
+package org.example.editor.search;
+
+import java.util.Arrays;
+
+/**
+ * Literal search with the Boyer-Moore-Horspool bad-character rule.
+ * <p>
+ * The text is copied window by window into a char array (a piece-tree snapshot
+ * is not random-access cheap), and the last character of each alignment decides
+ * how far to skip - for a pattern of length m most of the text is never looked
+ * at, up to m characters are skipped per step. The skip table is indexed by the
+ * low byte of the character; characters that collide keep the smallest shift,
+ * which is still safe. Case-insensitive search folds both sides.
+ */
+final class LiteralFinder extends TextFinder {
+
+    private static final int WINDOW = 1 << 16;
+
+    private final char[] pattern;
+    private final int[] shift = new int[256];
+    private final boolean matchCase;
+    private final boolean wholeWord;
+    private char[] window;
+    private CharSequence windowText;   // immutable text the window was copied from
+    private int windowStart;
+    private int windowLength;
+
+    LiteralFinder(SearchQuery query) {
+        matchCase = query.matchCase();
+        wholeWord = query.wholeWord();
+        pattern = query.text().toCharArray();
+        int m = pattern.length;
+        for (int i = 0; i < m; i++) {
+            pattern[i] = fold(pattern[i]);
+        }
+        Arrays.fill(shift, Math.max(1, m));
+        for (int i = 0; i < m - 1; i++) {
+            shift[pattern[i] & 0xFF] = m - 1 - i;
+        }
+    }
+
+    private char fold(char c) {
+        return matchCase ? c : Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    @Override
+    public boolean find(CharSequence text, int from, int[] range) {
+        int m = pattern.length;
+        int n = text.length();
+        if (m == 0) return false;
+        if (window == null) window = new char[WINDOW + m - 1];
+        char[] buf = window;
+        char lastOfPattern = pattern[m - 1];
+
+        int pos = Math.max(0, from);
+        while (pos + m <= n) {
+            // consecutive calls usually continue inside the window copied last time
+            if (text != windowText || pos < windowStart || pos + m > windowStart + windowLength) {
+                windowLength = Math.min(n - pos, buf.length);
+                copy(text, pos, pos + windowLength, buf);
+                windowStart = pos;
+                windowText = text;
+            }
+            int i = pos - windowStart;
+            while (i + m <= windowLength) {
+                char last = fold(buf[i + m - 1]);
+                if (last == lastOfPattern) {
+                    int j = m - 2;
+                    while (j >= 0 && fold(buf[i + j]) == pattern[j]) {
+                        j--;
+                    }
+                    int start = windowStart + i;
+                    if (j < 0 && (!wholeWord || isWholeWord(text, start, start + m))) {
+                        range[0] = start;
+                        range[1] = start + m;
+                        return true;
+                    }
+                }
+                i += shift[last & 0xFF];
+            }
+            pos = windowStart + i; // the next alignment did not fit into the window
+        }
+        return false;
+    }
+
+    @Override
+    public String replacement(CharSequence text, int start, int end, String template) {
+        return template;
+    }
+}
@@ -0,0 +1,19 @@
+package org.example.editor.search;
+
+/**
+ * Receives the results of a {@link Search} on the FX thread. Nothing is
+ * delivered after the search was cancelled.
+ */
+public interface MatchListener {
+
+    /**
+     * {@code count} more matches as {@code [start, end)} pairs in {@code ranges}, in text order.
+     */
+    void matchesFound(int[] ranges, int count);
+
+    /**
+     * The search is over; {@code error} is non-null if it failed (e.g. a regex
+     * that overflowed the stack).
+     */
+    void searchFinished(int total, Throwable error);
+}
@@ -0,0 +1,101 @@
+package org.example.editor.search;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Regular expression search. {@code ^} and {@code $} match at line boundaries.
+ */
+final class RegexFinder extends TextFinder {
+
+    // Same word characters as TextFinder.isWordChar
+    private static final String NOT_WORD_BEFORE = "(?<![\\p{L}\\p{N}_])";
+    private static final String NOT_WORD_AFTER = "(?![\\p{L}\\p{N}_])";
+
+    private final Pattern pattern;
+    private Matcher matcher;
+    private CharSequence input;
+
+    RegexFinder(SearchQuery query) {
+        int flags = Pattern.MULTILINE;
+        if (!query.matchCase()) {
+            flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+        }
+        String regex = query.text();
+        if (query.wholeWord()) {
+            regex = NOT_WORD_BEFORE + "(?:" + regex + ")" + NOT_WORD_AFTER;
+        }
+        pattern = Pattern.compile(regex, flags);
+    }
+
+    Pattern pattern() {
+        return pattern;
+    }
+
+    private Matcher matcher(CharSequence text) {
+        if (input != text) {
+            matcher = pattern.matcher(text);
+            input = text;
+        }
+        return matcher;
+    }
+
+    @Override
+    public boolean find(CharSequence text, int from, int[] range) {
+        if (from > text.length()) return false;
+        Matcher m = matcher(text);
+        if (!m.find(Math.max(0, from))) return false;
+        range[0] = m.start();
+        range[1] = m.end();
+        return true;
+    }
+
+    @Override
+    public String replacement(CharSequence text, int start, int end, String template) {
+        Matcher m = matcher(text);
+        m.region(start, text.length());
+        m.useTransparentBounds(true);  // look-behind and \b see the text before the match
+        m.useAnchoringBounds(false);
+        try {
+            if (!m.lookingAt() || m.end() != end) return template;
+            return expand(m, template);
+        } finally {
+            m.reset();
+        }
+    }
+
+    /**
+     * Expands {@code $n}, {@code ${name}} and backslash escapes like
+     * {@link Matcher#appendReplacement}, plus {@code \n} and {@code \t}.
+     */
+    private static String expand(Matcher m, String template) {
+        StringBuilder sb = new StringBuilder(template.length());
+        int i = 0;
+        while (i < template.length()) {
+            char c = template.charAt(i++);
+            if (c == '\\' && i < template.length()) {
+                char next = template.charAt(i++);
+                sb.append(next == 'n' ? '\n' : next == 't' ? '\t' : next);
+            } else if (c == '$' && i < template.length() && template.charAt(i) == '{') {
+                int close = template.indexOf('}', i);
+                if (close < 0) throw new IllegalArgumentException("Missing '}' in replacement: " + template);
+                String group = m.group(template.substring(i + 1, close));
+                if (group != null) sb.append(group);
+                i = close + 1;
+            } else if (c == '$' && i < template.length() && Character.isDigit(template.charAt(i))) {
+                int group = template.charAt(i++) - '0';
+                // take more digits while they still name an existing group, like Matcher does
+                while (i < template.length() && Character.isDigit(template.charAt(i))
+                        && group * 10 + (template.charAt(i) - '0') <= m.groupCount()) {
+                    group = group * 10 + (template.charAt(i++) - '0');
+                }
+                if (group > m.groupCount()) throw new IndexOutOfBoundsException("No group " + group);
+                String text = m.group(group);
+                if (text != null) sb.append(text);
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,137 @@
+package org.example.editor.search;
+
+import javafx.application.Platform;
+import org.example.editor.document.Document;
+import org.example.editor.document.DocumentSnapshot;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * A search running on a background thread over an immutable text, typically a
+ * {@link DocumentSnapshot}, so the user can keep typing meanwhile.
+ * <p>
+ * Matches are streamed to the FX thread in batches: the first match is sent
+ * right away, then batches grow (and are also flushed every
+ * {@link #FLUSH_MILLIS}) so hundreds of thousands of matches cost a handful
+ * of FX events rather than one each.
+ */
+public final class Search {
+
+    private static final int FIRST_BATCH = 64;
+    private static final int MAX_BATCH = 1 << 14;
+    private static final long FLUSH_MILLIS = 50;
+
+    // One worker: a new search normally cancels the previous one anyway
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "search");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private final CharSequence text;
+    private final TextFinder finder;
+    private final MatchListener listener;
+    private volatile boolean cancelled;
+
+    private Search(CharSequence text, TextFinder finder, MatchListener listener) {
+        this.text = text;
+        this.finder = finder;
+        this.listener = listener;
+    }
+
+    /**
+     * Starts searching {@code text} (which must not change meanwhile) for matches of {@code finder}.
+     */
+    public static Search start(CharSequence text, TextFinder finder, MatchListener listener) {
+        Search search = new Search(text, finder, listener);
+        EXECUTOR.execute(search::run);
+        return search;
+    }
+
+    /**
+     * Stops the search; the listener gets no further calls. Safe to call from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    private void run() {
+        int[] range = new int[2];
+        int[] batch = new int[2 * FIRST_BATCH];
+        int n = 0;
+        int total = 0;
+        long lastFlush = System.currentTimeMillis();
+        Throwable error = null;
+        try {
+            int from = 0;
+            while (!cancelled && finder.find(text, from, range)) {
+                batch[n++] = range[0];
+                batch[n++] = range[1];
+                from = range[1] > range[0] ? range[1] : range[1] + 1; // step over an empty match
+                long now = System.currentTimeMillis();
+                if (n == batch.length || total == 0 || now - lastFlush >= FLUSH_MILLIS) {
+                    publish(batch, n);
+                    total += n / 2;
+                    batch = new int[Math.min(batch.length * 4, 2 * MAX_BATCH)];
+                    n = 0;
+                    lastFlush = now;
+                }
+            }
+        } catch (RuntimeException | StackOverflowError e) {
+            error = e;
+        }
+        publish(batch, n);
+        int found = total + n / 2;
+        Throwable failure = error;
+        Platform.runLater(() -> {
+            if (!cancelled) listener.searchFinished(found, failure);
+        });
+    }
+
+    private void publish(int[] batch, int n) {
+        if (n == 0 || cancelled) return;
+        Platform.runLater(() -> {
+            if (!cancelled) listener.matchesFound(batch, n / 2);
+        });
+    }
+
+    /**
+     * Match ranges of a replace-all with the text for each, ready for
+     * {@link Document#replaceAll}.
+     */
+    public record Replacements(int[] ranges, String[] texts, int count) {
+    }
+
+    /**
+     * Finds every match in {@code text} on the search thread and computes its
+     * replacement. Completes on the search thread.
+     */
+    public static CompletableFuture<Replacements> collectReplacements(CharSequence text, TextFinder finder,
+                                                                     String template) {
+        return CompletableFuture.supplyAsync(() -> {
+            int[] range = new int[2];
+            int[] ranges = new int[256];
+            String[] texts = new String[128];
+            int count = 0;
+            int from = 0;
+            while (finder.find(text, from, range)) {
+                if (2 * count == ranges.length) {
+                    ranges = Arrays.copyOf(ranges, ranges.length * 2);
+                    texts = Arrays.copyOf(texts, texts.length * 2);
+                }
+                ranges[2 * count] = range[0];
+                ranges[2 * count + 1] = range[1];
+                texts[count++] = finder.replacement(text, range[0], range[1], template);
+                from = range[1] > range[0] ? range[1] : range[1] + 1;
+            }
+            return new Replacements(ranges, texts, count);
+        }, EXECUTOR);
+    }
+}
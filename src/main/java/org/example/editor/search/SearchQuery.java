@@ -0,0 +1,22 @@
+package org.example.editor.search;
+
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * What to look for: the search text and how to interpret it.
+ *
+ * @param matchCase whether letters must match in case
+ * @param wholeWord whether a match must not be preceded or followed by a letter, digit or '_'
+ * @param regex     whether {@code text} is a {@link java.util.regex.Pattern regular expression}
+ */
+public record SearchQuery(String text, boolean matchCase, boolean wholeWord, boolean regex) {
+
+    /**
+     * Compiles the query. A literal query uses a Boyer-Moore-Horspool scan.
+     *
+     * @throws PatternSyntaxException if a regex query is not a valid pattern
+     */
+    public TextFinder finder() {
+        return regex ? new RegexFinder(this) : new LiteralFinder(this);
+    }
+}
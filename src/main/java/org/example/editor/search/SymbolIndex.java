@@ -0,0 +1,558 @@
+package org.example.editor.search;
+
+import org.example.editor.highlight.PrefixTrie;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Index of the C++ definitions under one folder - namespaces, types, typedefs,
+ * functions, macros and namespace-scope variables - for go-to-definition and
+ * "find symbol".
+ * <p>
+ * Files are scanned by {@link CppSymbolScanner} in parallel on the folder search
+ * pool. The symbols of every file are saved under {@code ~/.editor/index} with
+ * the file's size, modification time and a 64-bit hash of its content: on the
+ * next start files whose size and time still match are not read at all, and a
+ * file whose content hash is already known (touched, renamed, copied) is not
+ * scanned again. Queries are answered from an immutable in-memory view - a map
+ * by name for exact lookups and lower-cased names in sorted order for prefix and
+ * substring search, and the names in a {@link PrefixTrie} for completion -
+ * rebuilt in the background after every change, so a query never waits for
+ * indexing. All methods are thread-safe.
+ */
+public final class SymbolIndex {
+
+    public enum Kind {
+        NAMESPACE, CLASS, STRUCT, UNION, ENUM, TYPEDEF, FUNCTION, MACRO, VARIABLE
+    }
+
+    /**
+     * A definition. {@code scope} holds the enclosing namespaces and types ("" at
+     * global scope); line and column are 0-based.
+     */
+    public record Symbol(String name, Kind kind, String scope, Path file, int line, int column) {
+
+        public String qualifiedName() {
+            return scope.isEmpty() ? name : scope + "::" + name;
+        }
+    }
+
+    private static final int MAGIC = 0x53594D31; // "SYM1"
+    private static final int VERSION = 1;        // bump whenever the scanner starts finding different symbols
+    private static final int BATCH = 256;        // changed files scanned in parallel at a time
+    private static final int FEW_CHANGES = 16;   // more changed files at once are picked up by a refresh
+    private static final long MAX_FILE = 16L << 20;
+    private static final Set<String> EXTENSIONS = Set.of(
+            "c", "cc", "cpp", "cxx", "c++", "h", "hh", "hpp", "hxx", "h++", "inl", "ipp", "tpp");
+
+    private static final Map<Path, SymbolIndex> OPEN = new ConcurrentHashMap<>();
+
+    private record FileSymbols(Path path, long size, long modified, long hash, List<Symbol> symbols) {
+    }
+
+    private record Change(Path path, long size, long modified, FileSymbols old) {
+    }
+
+    /**
+     * What queries read: symbols sorted by lower-cased name, the same names joined
+     * by '\n' (for substring search with one {@code indexOf} per match) with
+     * the offset of each, the symbols by exact name, and the names counted by
+     * definitions for completion.
+     */
+    private record View(String[] lowerNames, Symbol[] sorted, String joined, int[] offsets,
+                        Map<String, Symbol[]> byName, PrefixTrie names) {
+    }
+
+    private final Path root;
+    private final Path store;
+    private final Object refreshLock = new Object();
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+    private final Map<Path, FileSymbols> files = new HashMap<>();
+    private boolean loaded;
+    private boolean unsaved;           // updated by update() since the last save
+    private volatile boolean current;  // a full refresh has completed
+    private volatile View view = new View(new String[0], new Symbol[0], "", new int[0], Map.of(), new PrefixTrie());
+
+    private SymbolIndex(Path root) {
+        this.root = root;
+        Path name = root.getFileName();
+        String prefix = name == null ? "root" : name.toString().replaceAll("[^A-Za-z0-9._-]", "_");
+        this.store = Path.of(System.getProperty("user.home"), ".editor", "index",
+                prefix + "-" + Integer.toHexString(root.toString().hashCode()) + ".sym");
+    }
+
+    /**
+     * The index of {@code folder}. It is loaded or built by the first {@link #refresh}.
+     */
+    public static SymbolIndex forFolder(Path folder) {
+        return OPEN.computeIfAbsent(folder.toAbsolutePath().normalize(), SymbolIndex::new);
+    }
+
+    /**
+     * Loads (or builds) and refreshes the index of {@code folder} in the background.
+     */
+    public static void prepare(Path folder) {
+        SymbolIndex index = forFolder(folder);
+        FolderSearch.POOL.execute(() -> index.refresh(() -> false));
+    }
+
+    /**
+     * Re-scans {@code file} in the background in every open index covering it,
+     * e.g. after the editor saved it.
+     */
+    public static void fileChanged(Path file) {
+        filesChanged(List.of(file));
+    }
+
+    /**
+     * Re-scans changed or deleted files in the background. An index with more
+     * than {@link #FEW_CHANGES} of them (a build, a checkout) is refreshed as a
+     * whole instead of file by file.
+     */
+    public static void filesChanged(Collection<Path> files) {
+        for (SymbolIndex index : OPEN.values()) {
+            List<Path> inside = new ArrayList<>();
+            for (Path file : files) {
+                Path path = file.toAbsolutePath().normalize();
+                if (isSource(path) && path.startsWith(index.root)) inside.add(path);
+            }
+            if (inside.size() > FEW_CHANGES) {
+                index.refreshLater();
+            } else {
+                for (Path path : inside) {
+                    FolderSearch.POOL.execute(() -> index.update(path));
+                }
+            }
+        }
+    }
+
+    /**
+     * Definitions named {@code name} in all open folders. Each folder is then
+     * refreshed in the background, so changes made outside the editor show up
+     * in the next answer.
+     */
+    public static List<Symbol> findDefinitions(String name) {
+        List<Symbol> result = new ArrayList<>();
+        for (SymbolIndex index : OPEN.values()) {
+            result.addAll(index.definitions(name));
+            index.refreshLater();
+        }
+        return result;
+    }
+
+    /**
+     * Up to {@code limit} symbols of all open folders whose name contains
+     * {@code query}, ignoring case; names starting with it come first.
+     */
+    public static List<Symbol> findSymbols(String query, int limit) {
+        List<Symbol> prefixed = new ArrayList<>();
+        List<Symbol> others = new ArrayList<>();
+        for (SymbolIndex index : OPEN.values()) {
+            index.find(query, limit, prefixed, others);
+            index.refreshLater();
+        }
+        Comparator<Symbol> byName = Comparator.comparing(Symbol::name, String.CASE_INSENSITIVE_ORDER);
+        prefixed.sort(byName);
+        others.sort(byName);
+        prefixed.addAll(others);
+        return prefixed.size() > limit ? new ArrayList<>(prefixed.subList(0, limit)) : prefixed;
+    }
+
+    /**
+     * Up to {@code limit} names of all open folders starting with {@code prefix}
+     * (case-sensitive), each with its number of definitions, the most defined
+     * first per folder. For completion, so unlike the other queries it does not
+     * schedule a refresh.
+     */
+    public static Map<String, Integer> namesStartingWith(String prefix, int limit) {
+        Map<String, Integer> result = new LinkedHashMap<>();
+        int[] ids = new int[limit];
+        for (SymbolIndex index : OPEN.values()) {
+            PrefixTrie names = index.view.names;
+            int found = names.top(prefix, ids);
+            for (int i = 0; i < found; i++) {
+                result.merge(names.word(ids[i]), names.countOf(ids[i]), Integer::sum);
+            }
+        }
+        return result;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Whether the folder has been fully indexed (or the index loaded and checked) at least once.
+     */
+    public boolean isCurrent() {
+        return current;
+    }
+
+    /**
+     * Runs {@link #refresh} in the background unless one is already waiting to run.
+     */
+    public void refreshLater() {
+        if (refreshQueued.compareAndSet(false, true)) {
+            FolderSearch.POOL.execute(() -> {
+                refreshQueued.set(false);
+                refresh(() -> false);
+            });
+        }
+    }
+
+    // ---------------------------------------------------------------- queries
+
+    /**
+     * Definitions named exactly {@code name}, by file and line.
+     */
+    public List<Symbol> definitions(String name) {
+        Symbol[] found = view.byName.get(name);
+        return found == null ? List.of() : List.of(found);
+    }
+
+    /**
+     * Adds up to {@code limit} symbols whose name starts with {@code query}
+     * (ignoring case) to {@code prefixed}, and when there are fewer, up to the
+     * rest of the limit whose name contains it elsewhere to {@code others}.
+     */
+    private void find(String query, int limit, List<Symbol> prefixed, List<Symbol> others) {
+        View v = view;
+        String q = query.toLowerCase(Locale.ROOT);
+        int from = Arrays.binarySearch(v.lowerNames, q);
+        if (from < 0) from = -from - 1;
+        else while (from > 0 && v.lowerNames[from - 1].equals(q)) from--;
+        int found = 0;
+        for (int i = from; i < v.lowerNames.length && found < limit && v.lowerNames[i].startsWith(q); i++) {
+            prefixed.add(v.sorted[i]);
+            found++;
+        }
+        if (q.isEmpty() || q.indexOf('\n') >= 0) return;
+        int at = v.joined.indexOf(q);
+        while (at >= 0 && found < limit) {
+            int i = Arrays.binarySearch(v.offsets, at);
+            if (i < 0) {
+                i = -i - 2; // inside the name
+                others.add(v.sorted[i]);
+                found++;
+            }
+            at = i + 1 < v.offsets.length ? v.joined.indexOf(q, v.offsets[i + 1]) : -1;
+        }
+    }
+
+    // ---------------------------------------------------------------- updates
+
+    /**
+     * Brings the index up to date with the folder: loads the saved index on first
+     * use, then scans new and modified C++ files (in parallel) and drops deleted
+     * ones. Stops early, keeping what was done so far, once {@code stop} says so.
+     */
+    public void refresh(BooleanSupplier stop) {
+        synchronized (refreshLock) {
+            boolean changed = unsaved;
+            if (!loaded) {
+                loaded = true;
+                load();
+                rebuildView();
+            }
+            List<Change> changes = new ArrayList<>();
+            Set<Path> seen = new HashSet<>();
+            FolderSearch.walk(List.of(root), stop, (path, attrs) -> {
+                if (!isSource(path)) return;
+                seen.add(path);
+                long modified = attrs.lastModifiedTime().toMillis();
+                FileSymbols old;
+                synchronized (this) {
+                    old = files.get(path);
+                }
+                if (old == null || old.size != attrs.size() || old.modified != modified) {
+                    changes.add(new Change(path, attrs.size(), modified, old));
+                }
+            });
+            if (stop.getAsBoolean()) return;
+            synchronized (this) {
+                changed |= files.keySet().removeIf(path -> !seen.contains(path));
+            }
+
+            Map<Long, FileSymbols> byHash = new HashMap<>();
+            if (!changes.isEmpty()) {
+                synchronized (this) {
+                    for (FileSymbols f : files.values()) byHash.put(f.hash, f);
+                }
+            }
+            for (int from = 0; from < changes.size() && !stop.getAsBoolean(); from += BATCH) {
+                List<Change> batch = changes.subList(from, Math.min(changes.size(), from + BATCH));
+                FileSymbols[] scanned = new FileSymbols[batch.size()];
+                FolderSearch.POOL.invoke(new Scan(batch, byHash, scanned, 0, batch.size()));
+                synchronized (this) {
+                    for (FileSymbols f : scanned) files.put(f.path, f);
+                }
+                changed = true;
+            }
+            if (changed) {
+                rebuildView();
+                save();
+            }
+            current = true;
+        }
+    }
+
+    /**
+     * Re-scans one file, or drops it if it no longer exists.
+     */
+    public void update(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        synchronized (refreshLock) {
+            if (!loaded) return; // the first refresh will read it anyway
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                attrs = null;
+            }
+            if (attrs == null || !attrs.isRegularFile()) {
+                synchronized (this) {
+                    if (files.remove(path) == null) return;
+                }
+            } else {
+                FileSymbols old;
+                synchronized (this) {
+                    old = files.get(path);
+                }
+                FileSymbols f = scan(new Change(path, attrs.size(), attrs.lastModifiedTime().toMillis(), old), Map.of());
+                synchronized (this) {
+                    files.put(path, f);
+                }
+            }
+            unsaved = true; // saved with the next refresh
+            rebuildView();
+        }
+    }
+
+    private static boolean isSource(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return dot > 0 && EXTENSIONS.contains(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+    }
+
+    /**
+     * Scans a range of changed files, split among the workers.
+     */
+    private static final class Scan extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Change> changes;
+        private final Map<Long, FileSymbols> byHash;
+        private final FileSymbols[] out;
+        private final int from;
+        private final int to;
+
+        Scan(List<Change> changes, Map<Long, FileSymbols> byHash, FileSymbols[] out, int from, int to) {
+            this.changes = changes;
+            this.byHash = byHash;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 4) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Scan(changes, byHash, out, from, mid), new Scan(changes, byHash, out, mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                out[i] = scan(changes.get(i), byHash);
+            }
+        }
+    }
+
+    /**
+     * Symbols of a changed file. When its content hash matches the old version
+     * or another known file, their symbols are reused instead of scanning.
+     */
+    private static FileSymbols scan(Change change, Map<Long, FileSymbols> byHash) {
+        try (FileChannel channel = FileChannel.open(change.path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_FILE) return new FileSymbols(change.path, change.size, change.modified, 0, List.of());
+            ByteBuffer bytes = FolderSearch.read(channel, size);
+            long hash = hash(bytes);
+            FileSymbols known = change.old != null && change.old.hash == hash ? change.old : byHash.get(hash);
+            List<Symbol> symbols;
+            if (known != null) {
+                symbols = known.path.equals(change.path) ? known.symbols : moved(known.symbols, change.path);
+            } else if (FolderSearch.isBinary(bytes)) {
+                symbols = List.of();
+            } else {
+                symbols = List.copyOf(CppSymbolScanner.scan(change.path, StandardCharsets.UTF_8.decode(bytes)));
+            }
+            return new FileSymbols(change.path, change.size, change.modified, hash, symbols);
+        } catch (IOException | RuntimeException e) {
+            // unreadable now - looked at again when its size or time changes
+            return new FileSymbols(change.path, change.size, change.modified, 0, List.of());
+        }
+    }
+
+    private static List<Symbol> moved(List<Symbol> symbols, Path file) {
+        List<Symbol> result = new ArrayList<>(symbols.size());
+        for (Symbol s : symbols) {
+            result.add(new Symbol(s.name, s.kind, s.scope, file, s.line, s.column));
+        }
+        return result;
+    }
+
+    /**
+     * 64-bit FNV-1a of the buffer's content.
+     */
+    private static long hash(ByteBuffer bytes) {
+        long h = 0xcbf29ce484222325L;
+        int n = bytes.limit();
+        for (int i = 0; i < n; i++) {
+            h = (h ^ (bytes.get(i) & 0xFF)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    /**
+     * Replaces the query view with one built from the current symbols.
+     */
+    private void rebuildView() {
+        List<Symbol> all = new ArrayList<>();
+        synchronized (this) {
+            for (FileSymbols f : files.values()) all.addAll(f.symbols);
+        }
+        record Keyed(String lower, Symbol symbol) {
+        }
+        Keyed[] keyed = new Keyed[all.size()];
+        for (int i = 0; i < keyed.length; i++) {
+            Symbol s = all.get(i);
+            keyed[i] = new Keyed(s.name.toLowerCase(Locale.ROOT), s);
+        }
+        Arrays.sort(keyed, Comparator.comparing(Keyed::lower)
+                .thenComparing(k -> k.symbol.file.toString())
+                .thenComparingInt(k -> k.symbol.line));
+
+        String[] lowerNames = new String[keyed.length];
+        Symbol[] sorted = new Symbol[keyed.length];
+        int[] offsets = new int[keyed.length];
+        StringBuilder joined = new StringBuilder(keyed.length * 16);
+        Map<String, List<Symbol>> byName = new HashMap<>();
+        PrefixTrie names = new PrefixTrie();
+        for (int i = 0; i < keyed.length; i++) {
+            lowerNames[i] = keyed[i].lower;
+            offsets[i] = joined.length();
+            joined.append(keyed[i].lower).append('\n');
+            sorted[i] = keyed[i].symbol;
+            byName.computeIfAbsent(sorted[i].name, k -> new ArrayList<>(1)).add(sorted[i]);
+            names.add(sorted[i].name, 1);
+        }
+        Map<String, Symbol[]> byNameArrays = new HashMap<>(byName.size() * 2);
+        byName.forEach((name, list) -> byNameArrays.put(name, list.toArray(new Symbol[0])));
+        view = new View(lowerNames, sorted, joined.toString(), offsets, byNameArrays, names);
+    }
+
+    // ---------------------------------------------------------------- storage
+
+    private void save() {
+        byte[] data;
+        synchronized (this) {
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 + files.size() * 256);
+                DataOutputStream out = new DataOutputStream(buffer);
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                TrigramIndex.writeString(out, root.toString());
+                out.writeInt(files.size());
+                for (FileSymbols f : files.values()) {
+                    TrigramIndex.writeString(out, root.relativize(f.path).toString());
+                    out.writeLong(f.size);
+                    out.writeLong(f.modified);
+                    out.writeLong(f.hash);
+                    out.writeInt(f.symbols.size());
+                    for (Symbol s : f.symbols) {
+                        out.writeByte(s.kind.ordinal());
+                        TrigramIndex.writeString(out, s.name);
+                        TrigramIndex.writeString(out, s.scope);
+                        out.writeInt(s.line);
+                        out.writeInt(s.column);
+                    }
+                }
+                data = buffer.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // cannot happen in memory
+            }
+            unsaved = false;
+        }
+        try {
+            Files.createDirectories(store.getParent());
+            Path temp = store.resolveSibling(store.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(data);
+            }
+            try {
+                Files.move(temp, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, store, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // the index keeps working from memory, it is only rebuilt next time
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void load() {
+        if (!Files.exists(store)) return;
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(store));
+            if (in.getInt() != MAGIC || in.getInt() != VERSION || !TrigramIndex.readString(in).equals(root.toString())) {
+                return;
+            }
+            Kind[] kinds = Kind.values();
+            int fileCount = in.getInt();
+            for (int i = 0; i < fileCount; i++) {
+                Path path = root.resolve(TrigramIndex.readString(in));
+                long size = in.getLong();
+                long modified = in.getLong();
+                long hash = in.getLong();
+                Symbol[] symbols = new Symbol[in.getInt()];
+                for (int k = 0; k < symbols.length; k++) {
+                    Kind kind = kinds[in.get()];
+                    String name = TrigramIndex.readString(in);
+                    String scope = TrigramIndex.readString(in);
+                    symbols[k] = new Symbol(name, kind, scope, path, in.getInt(), in.getInt());
+                }
+                files.put(path, new FileSymbols(path, size, modified, hash, List.of(symbols)));
+            }
+        } catch (IOException | RuntimeException e) {
+            // unreadable or from another version - the folder is scanned again
+            files.clear();
+        }
+    }
+}
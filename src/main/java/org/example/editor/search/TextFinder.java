@@ -0,0 +1,49 @@
+package org.example.editor.search;
+
+import org.example.editor.document.DocumentSnapshot;
+
+/**
+ * Finds matches of a compiled {@link SearchQuery} in a {@link CharSequence},
+ * typically a {@link DocumentSnapshot}. A finder keeps scratch state between
+ * calls, so it must be used by one thread at a time.
+ */
+public abstract class TextFinder {
+
+    /**
+     * Finds the first match that starts at or after {@code from} and stores its
+     * {@code [start, end)} in {@code range[0]} and {@code range[1]}.
+     * Returns false if there is none.
+     */
+    public abstract boolean find(CharSequence text, int from, int[] range);
+
+    /**
+     * Text that replaces the match {@code [start, end)} found by this finder.
+     * For a regex query {@code $1}, {@code ${name}}, {@code \n} and {@code \t}
+     * in the template are expanded; a literal query uses the template as is.
+     */
+    public abstract String replacement(CharSequence text, int start, int end, String template);
+
+    static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    static boolean isWholeWord(CharSequence text, int start, int end) {
+        return (start == 0 || !isWordChar(text.charAt(start - 1)))
+                && (end == text.length() || !isWordChar(text.charAt(end)));
+    }
+
+    /**
+     * Copies {@code [from, to)} of {@code text} into {@code dst}, in bulk where the type allows it.
+     */
+    static void copy(CharSequence text, int from, int to, char[] dst) {
+        if (text instanceof DocumentSnapshot snapshot) {
+            snapshot.getChars(from, to, dst, 0);
+        } else if (text instanceof String s) {
+            s.getChars(from, to, dst, 0);
+        } else {
+            for (int i = from; i < to; i++) {
+                dst[i - from] = text.charAt(i);
+            }
+        }
+    }
+}
@@ -0,0 +1,830 @@
+package org.example.editor.search;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Trigram index of the text files under one folder, used by {@link FolderSearch}
+ * to narrow a query down to the files that can contain a match before any of
+ * them is read.
+ * <p>
+ * Every file is reduced to the set of byte trigrams it contains, with ASCII
+ * letters folded to lower case and every non-ASCII byte folded into one symbol,
+ * so one index serves case-sensitive and case-insensitive queries alike. Each
+ * trigram maps to the sorted ids of the files containing it - a posting list,
+ * stored as varint-encoded gaps in one shared byte array. A query looks up the
+ * trigrams of its literal text (for a regex: of the literal runs every match
+ * must contain) and intersects their lists; the surviving files are then
+ * searched as usual to verify the matches.
+ * <p>
+ * The index is saved under {@code ~/.editor/index} and kept current by
+ * {@link #refresh}, which only re-reads files whose size or modification time
+ * changed, and by {@link #update} for single files the editor knows it wrote.
+ * Their new trigrams go into a small in-memory delta while their old postings
+ * are ignored; the delta is merged into the posting lists once it covers
+ * {@link #MERGE_FRACTION} of the files (or gets large), and the merged index is
+ * written back. All methods are thread-safe.
+ */
+public final class TrigramIndex {
+
+    private static final int MAGIC = 0x54474931; // "TGI1"
+    private static final int ALPHABET = 129;     // 128 ASCII symbols + one for any non-ASCII byte
+    private static final int PAIR = ALPHABET * ALPHABET;
+    private static final int TRIGRAMS = PAIR * ALPHABET;
+    private static final int FEW_CHANGES = 16;   // more changed files at once are picked up by a refresh
+    private static final int BATCH = 512;        // changed files read in parallel at a time
+    private static final double MERGE_FRACTION = 0.125;
+    private static final int MIN_MERGE_TRIGRAMS = 1 << 20;
+    private static final long MAX_FILE = 64L << 20;
+    private static final int[] NONE = new int[0];
+
+    private static final Map<Path, TrigramIndex> OPEN = new ConcurrentHashMap<>();
+    private static final ThreadLocal<BitSet> SEEN = ThreadLocal.withInitial(() -> new BitSet(TRIGRAMS));
+
+    private record Entry(Path path, long size, long modified) {
+    }
+
+    private record Change(Path path, long size, long modified, Integer id) {
+    }
+
+    private final Path root;
+    private final Path store;
+    private final Object refreshLock = new Object();
+    private final AtomicBoolean refreshQueued = new AtomicBoolean();
+    private boolean loaded;
+    private volatile boolean current; // a full refresh has completed
+
+    // Posting list of trigram keys[i] is postings[offsets[i], offsets[i + 1])
+    private int[] keys = NONE;
+    private int[] offsets = {0};
+    private byte[] postings = new byte[0];
+
+    private final List<Entry> files = new ArrayList<>();     // by id, null once the file is gone
+    private final Map<Path, Integer> ids = new HashMap<>();
+    private final BitSet stale = new BitSet();                 // postings of these ids are outdated
+    private final BitSet unindexed = new BitSet();             // too large or unreadable - always a candidate
+    private final Map<Integer, int[]> delta = new HashMap<>(); // current trigrams of files changed since the merge
+    private long deltaTrigrams;
+    private int liveFiles;
+
+    private TrigramIndex(Path root) {
+        this.root = root;
+        Path name = root.getFileName();
+        String prefix = name == null ? "root" : name.toString().replaceAll("[^A-Za-z0-9._-]", "_");
+        this.store = Path.of(System.getProperty("user.home"), ".editor", "index",
+                prefix + "-" + Integer.toHexString(root.toString().hashCode()) + ".tgi");
+    }
+
+    /**
+     * The index of {@code folder}. It is loaded or built by the first {@link #refresh}.
+     */
+    public static TrigramIndex forFolder(Path folder) {
+        return OPEN.computeIfAbsent(folder.toAbsolutePath().normalize(), TrigramIndex::new);
+    }
+
+    /**
+     * Loads (or builds) and refreshes the index of {@code folder} in the background,
+     * so the first search there does not have to wait for it.
+     */
+    public static void prepare(Path folder) {
+        TrigramIndex index = forFolder(folder);
+        FolderSearch.POOL.execute(() -> index.refresh(() -> false));
+    }
+
+    /**
+     * Re-indexes {@code file} in the background in every open index covering it,
+     * e.g. after the editor saved it.
+     */
+    public static void fileChanged(Path file) {
+        filesChanged(List.of(file));
+    }
+
+    /**
+     * Re-indexes changed or deleted files in the background. An index with more
+     * than {@link #FEW_CHANGES} of them (a build, a checkout) is refreshed as a
+     * whole instead of file by file.
+     */
+    public static void filesChanged(Collection<Path> files) {
+        for (TrigramIndex index : OPEN.values()) {
+            List<Path> inside = new ArrayList<>();
+            for (Path file : files) {
+                Path path = file.toAbsolutePath().normalize();
+                if (path.startsWith(index.root)) inside.add(path);
+            }
+            if (inside.size() > FEW_CHANGES) {
+                index.refreshLater();
+            } else {
+                for (Path path : inside) {
+                    FolderSearch.POOL.execute(() -> index.update(path));
+                }
+            }
+        }
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /**
+     * Whether the folder has been fully indexed (or the index loaded and checked) at least once.
+     */
+    public boolean isCurrent() {
+        return current;
+    }
+
+    /**
+     * Runs {@link #refresh} in the background unless one is already waiting to run.
+     */
+    public void refreshLater() {
+        if (refreshQueued.compareAndSet(false, true)) {
+            FolderSearch.POOL.execute(() -> {
+                refreshQueued.set(false);
+                refresh(() -> false);
+            });
+        }
+    }
+
+    // ---------------------------------------------------------------- queries
+
+    /**
+     * Files that may contain a match of {@code query} - every file when the query
+     * has no literal run of three bytes to look up. Call {@link #refresh} first
+     * to account for changes on disk.
+     */
+    public synchronized List<Path> candidates(SearchQuery query) {
+        int[] required = requiredTrigrams(query);
+        List<Path> result = new ArrayList<>();
+        if (required == null) {
+            for (Entry e : files) {
+                if (e != null) result.add(e.path);
+            }
+            return result;
+        }
+
+        // shortest list first, so the running intersection stays small
+        long[] bySize = new long[required.length];
+        for (int i = 0; i < required.length; i++) {
+            int k = Arrays.binarySearch(keys, required[i]);
+            bySize[i] = (long) (k < 0 ? 0 : offsets[k + 1] - offsets[k]) << 32 | i;
+        }
+        Arrays.sort(bySize);
+        int[] found = null;
+        for (long entry : bySize) {
+            int k = Arrays.binarySearch(keys, required[(int) entry]);
+            int[] list = k < 0 ? NONE : decode(k);
+            found = found == null ? list : intersect(found, list);
+            if (found.length == 0) break;
+        }
+
+        for (int id : found) {
+            if (!stale.get(id)) result.add(files.get(id).path);
+        }
+        for (Map.Entry<Integer, int[]> d : delta.entrySet()) {
+            if (containsAll(d.getValue(), required)) result.add(files.get(d.getKey()).path);
+        }
+        for (int id = unindexed.nextSetBit(0); id >= 0; id = unindexed.nextSetBit(id + 1)) {
+            result.add(files.get(id).path);
+        }
+        return result;
+    }
+
+    private int[] decode(int k) {
+        int from = offsets[k];
+        int to = offsets[k + 1];
+        int[] out = new int[to - from]; // every id takes at least one byte
+        int n = 0;
+        int id = -1;
+        int pos = from;
+        while (pos < to) {
+            int gap = 0;
+            int shiftBits = 0;
+            byte b;
+            do {
+                b = postings[pos++];
+                gap |= (b & 0x7F) << shiftBits;
+                shiftBits += 7;
+            } while (b < 0);
+            id += gap;
+            out[n++] = id;
+        }
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    private static int[] intersect(int[] a, int[] b) {
+        int[] out = new int[Math.min(a.length, b.length)];
+        int n = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                out[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(out, n);
+    }
+
+    private static boolean containsAll(int[] sortedTrigrams, int[] required) {
+        for (int t : required) {
+            if (Arrays.binarySearch(sortedTrigrams, t) < 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Sorted trigrams every match of {@code query} contains, or null when the
+     * query cannot be narrowed.
+     */
+    static int[] requiredTrigrams(SearchQuery query) {
+        List<String> literals = query.regex()
+                ? requiredLiterals(query.text(), !query.matchCase())
+                : List.of(query.text());
+        if (literals == null) return null;
+        BitSet set = new BitSet();
+        for (String literal : literals) {
+            byte[] bytes = literal.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i + 2 < bytes.length; i++) {
+                set.set((symbol(bytes[i]) * ALPHABET + symbol(bytes[i + 1])) * ALPHABET + symbol(bytes[i + 2]));
+            }
+        }
+        return set.isEmpty() ? null : set.stream().toArray();
+    }
+
+    /**
+     * Literal runs that every match of {@code regex} must contain, taken from the
+     * top level of the pattern only: groups, classes, escapes like {@code \d} or
+     * {@code \x41} (with all their arguments), {@code .}, anchors and quantifiers
+     * end a run, and a char made optional by {@code *}, {@code ?} or {@code {n,m}}
+     * is dropped from it. Returns null for a top-level alternation or inline flags,
+     * where nothing is certainly required.
+     * <p>
+     * Case-insensitive matching is Unicode-aware, so {@code k}, {@code s} and
+     * {@code i} may also match non-ASCII letters (Kelvin sign, long s, dotted I);
+     * runs are split at them in that case.
+     */
+    static List<String> requiredLiterals(String regex, boolean ignoreCase) {
+        if (regex.matches("(?s).*\\(\\?[-a-zA-Z].*")) return null;
+        List<String> runs = new ArrayList<>();
+        StringBuilder run = new StringBuilder();
+        boolean lastInRun = false; // the previous atom is the last char of run
+        int n = regex.length();
+        for (int i = 0; i < n; i++) {
+            char c = regex.charAt(i);
+            char literal = 0;
+            switch (c) {
+                case '\\' -> {
+                    if (i + 1 >= n) break;
+                    char next = regex.charAt(++i);
+                    if (next == 'Q') {
+                        int end = regex.indexOf("\\E", i + 1);
+                        i = end < 0 ? n : end + 1;
+                    } else if (!Character.isLetterOrDigit(next)) {
+                        literal = next;
+                    } else {
+                        i = endOfEscape(regex, i); // with its arguments, e.g. \x41 or \k<name>
+                    }
+                }
+                case '[' -> i = endOfClass(regex, i);
+                case '(' -> {
+                    int depth = 1;
+                    while (++i < n && depth > 0) {
+                        char g = regex.charAt(i);
+                        if (g == '\\') i++;
+                        else if (g == '[') i = endOfClass(regex, i);
+                        else if (g == '(') depth++;
+                        else if (g == ')') depth--;
+                    }
+                    i--;
+                }
+                case '|' -> {
+                    return null;
+                }
+                case '*', '?', '{' -> {
+                    if (lastInRun) run.setLength(run.length() - 1);
+                    if (c == '{') {
+                        int end = regex.indexOf('}', i);
+                        i = end < 0 ? n : end;
+                    }
+                }
+                case '+', '.', '^', '$', ')' -> {
+                    // "ab+" still requires "ab", but the run cannot go on past it
+                }
+                default -> literal = c;
+            }
+            if (literal != 0 && !(ignoreCase && "kKsSiI".indexOf(literal) >= 0)) {
+                run.append(literal);
+                lastInRun = true;
+                continue;
+            }
+            runs.add(run.toString());
+            run.setLength(0);
+            lastInRun = false;
+        }
+        runs.add(run.toString());
+        runs.removeIf(String::isEmpty);
+        return runs;
+    }
+
+    /**
+     * Index of the last char of the escape whose letter or digit is at {@code at}.
+     */
+    private static int endOfEscape(String regex, int at) {
+        int n = regex.length();
+        char c = regex.charAt(at);
+        int i = at + 1;
+        switch (c) {
+            case 'x' -> {
+                if (i < n && regex.charAt(i) == '{') return closing(regex, i, '}');
+                while (i < n && i < at + 3 && Character.digit(regex.charAt(i), 16) >= 0) i++;
+            }
+            case 'u' -> {
+                while (i < n && i < at + 5 && Character.digit(regex.charAt(i), 16) >= 0) i++;
+            }
+            case '0' -> {
+                while (i < n && i < at + 4 && Character.digit(regex.charAt(i), 8) >= 0) i++;
+            }
+            case 'c' -> i = Math.min(n, i + 1);
+            case 'k' -> {
+                if (i < n && regex.charAt(i) == '<') return closing(regex, i, '>');
+            }
+            case 'p', 'P', 'N' -> {
+                if (i < n && regex.charAt(i) == '{') return closing(regex, i, '}');
+                i = Math.min(n, i + 1);
+            }
+            default -> {
+                if (c >= '1' && c <= '9') { // back reference, as many digits as follow
+                    while (i < n && Character.isDigit(regex.charAt(i))) i++;
+                }
+            }
+        }
+        return i - 1;
+    }
+
+    private static int closing(String regex, int open, char close) {
+        int end = regex.indexOf(close, open);
+        return end < 0 ? regex.length() - 1 : end;
+    }
+
+    private static int endOfClass(String regex, int open) {
+        int i = open + 1;
+        if (i < regex.length() && regex.charAt(i) == '^') i++;
+        if (i < regex.length() && regex.charAt(i) == ']') i++;
+        int depth = 1;
+        for (; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') i++;
+            else if (c == '[') depth++;
+            else if (c == ']' && --depth == 0) return i;
+        }
+        return regex.length();
+    }
+
+    private static int symbol(byte b) {
+        if (b < 0) return 128;
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+
+    // ---------------------------------------------------------------- updates
+
+    /**
+     * Brings the index up to date with the folder: loads the saved index on first
+     * use, then re-reads new and modified files (in parallel) and drops deleted
+     * ones. The first call on a new folder indexes all of it. Stops early, keeping
+     * what was done so far, once {@code stop} says so.
+     */
+    public void refresh(BooleanSupplier stop) {
+        synchronized (refreshLock) {
+            if (!loaded) {
+                loaded = true;
+                load();
+            }
+            List<Change> changes = new ArrayList<>();
+            BitSet seen = new BitSet();
+            FolderSearch.walk(List.of(root), stop, (path, attrs) -> {
+                long modified = attrs.lastModifiedTime().toMillis();
+                synchronized (this) {
+                    Integer id = ids.get(path);
+                    if (id != null) seen.set(id);
+                    Entry e = id == null ? null : files.get(id);
+                    if (e == null || e.size != attrs.size() || e.modified != modified) {
+                        changes.add(new Change(path, attrs.size(), modified, id));
+                    }
+                }
+            });
+            if (stop.getAsBoolean()) return;
+
+            boolean merged = false;
+            synchronized (this) {
+                for (int id = 0; id < files.size(); id++) {
+                    if (files.get(id) != null && !seen.get(id)) remove(id);
+                }
+            }
+            for (int from = 0; from < changes.size() && !stop.getAsBoolean(); from += BATCH) {
+                List<Change> batch = changes.subList(from, Math.min(changes.size(), from + BATCH));
+                int[][] trigrams = new int[batch.size()][];
+                FolderSearch.POOL.invoke(new Extract(batch, trigrams, 0, batch.size()));
+                synchronized (this) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        apply(batch.get(i), trigrams[i]);
+                    }
+                    // keeps the delta's memory bounded while a whole folder is indexed
+                    if (deltaTrigrams > Math.max(MIN_MERGE_TRIGRAMS, postings.length / 2)) {
+                        merge();
+                        merged = true;
+                    }
+                }
+            }
+            synchronized (this) {
+                if (delta.size() + stale.cardinality() > MERGE_FRACTION * liveFiles) {
+                    merge();
+                    merged = true;
+                }
+            }
+            if (merged) save();
+            current = true;
+        }
+    }
+
+    /**
+     * Re-reads one file, or drops it if it no longer exists.
+     */
+    public void update(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        synchronized (refreshLock) {
+            if (!loaded) return; // the first refresh will read it anyway
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (IOException e) {
+                attrs = null;
+            }
+            Integer id;
+            synchronized (this) {
+                id = ids.get(path);
+                if (attrs == null || !attrs.isRegularFile() || attrs.size() == 0) {
+                    if (id != null) remove(id);
+                    return;
+                }
+            }
+            int[] trigrams = trigramsOf(path);
+            synchronized (this) {
+                apply(new Change(path, attrs.size(), attrs.lastModifiedTime().toMillis(), ids.get(path)), trigrams);
+            }
+        }
+    }
+
+    private void apply(Change change, int[] trigrams) {
+        int id;
+        if (change.id == null) {
+            id = files.size();
+            files.add(null);
+            ids.put(change.path, id);
+        } else {
+            id = change.id;
+            stale.set(id);
+            int[] old = delta.remove(id);
+            if (old != null) deltaTrigrams -= old.length;
+        }
+        if (files.get(id) == null) liveFiles++;
+        files.set(id, new Entry(change.path, change.size, change.modified));
+        if (trigrams == null) {
+            unindexed.set(id);
+        } else {
+            unindexed.clear(id);
+            delta.put(id, trigrams);
+            deltaTrigrams += trigrams.length;
+        }
+    }
+
+    private void remove(int id) {
+        ids.remove(files.get(id).path);
+        files.set(id, null);
+        liveFiles--;
+        stale.set(id);
+        unindexed.clear(id);
+        int[] old = delta.remove(id);
+        if (old != null) deltaTrigrams -= old.length;
+    }
+
+    /**
+     * Reads the trigrams of a range of changed files, split among the workers.
+     */
+    private static final class Extract extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<Change> changes;
+        private final int[][] out;
+        private final int from;
+        private final int to;
+
+        Extract(List<Change> changes, int[][] out, int from, int to) {
+            this.changes = changes;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > 8) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Extract(changes, out, from, mid), new Extract(changes, out, mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                out[i] = trigramsOf(changes.get(i).path);
+            }
+        }
+    }
+
+    /**
+     * Sorted trigrams of a file; none for a binary file (it is never searched),
+     * null when it is too large or cannot be read (it is always searched).
+     */
+    private static int[] trigramsOf(Path file) {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > MAX_FILE) return null;
+            ByteBuffer bytes = FolderSearch.read(channel, size);
+            if (FolderSearch.isBinary(bytes)) return NONE;
+            BitSet seen = SEEN.get();
+            int[] trigrams = new int[256];
+            int count = 0;
+            int n = bytes.limit();
+            int key = 0;
+            for (int i = 0; i < n; i++) {
+                key = key % PAIR * ALPHABET + symbol(bytes.get(i));
+                if (i >= 2 && !seen.get(key)) {
+                    seen.set(key);
+                    if (count == trigrams.length) trigrams = Arrays.copyOf(trigrams, count * 2);
+                    trigrams[count++] = key;
+                }
+            }
+            trigrams = Arrays.copyOf(trigrams, count);
+            for (int t : trigrams) seen.clear(t); // only the bits set here, not the whole set
+            Arrays.sort(trigrams);
+            return trigrams;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Rewrites the posting lists with the delta folded in and stale postings left
+     * out. The live files are renumbered in order, so ids of deleted files are
+     * reclaimed and every list stays sorted.
+     */
+    private void merge() {
+        int[] renumber = new int[files.size()];
+        List<Entry> live = new ArrayList<>(liveFiles);
+        BitSet liveUnindexed = new BitSet();
+        for (int id = 0; id < files.size(); id++) {
+            Entry e = files.get(id);
+            if (e == null) {
+                renumber[id] = -1;
+                continue;
+            }
+            renumber[id] = live.size();
+            if (unindexed.get(id)) liveUnindexed.set(live.size());
+            live.add(e);
+        }
+
+        // the delta inverted with a counting sort: ids containing trigram t are
+        // byTrigram[t == 0 ? 0 : bucketEnd[t - 1], bucketEnd[t]), in increasing order
+        int[] bucketEnd = new int[TRIGRAMS];
+        for (int[] trigrams : delta.values()) {
+            for (int t : trigrams) bucketEnd[t]++;
+        }
+        for (int t = 0, sum = 0; t < TRIGRAMS; t++) { // bucket starts first...
+            int size = bucketEnd[t];
+            bucketEnd[t] = sum;
+            sum += size;
+        }
+        int[] byTrigram = new int[Math.toIntExact(deltaTrigrams)];
+        Integer[] changed = delta.keySet().toArray(new Integer[0]);
+        Arrays.sort(changed);
+        for (Integer id : changed) {
+            for (int t : delta.get(id)) byTrigram[bucketEnd[t]++] = renumber[id]; // ...then their ends
+        }
+
+        ByteSink out = new ByteSink(postings.length + byTrigram.length * 2);
+        int[] newKeys = new int[keys.length + 1024];
+        int[] newOffsets = new int[newKeys.length + 1];
+        int count = 0;
+        int k = 0;
+        for (int t = 0; t < TRIGRAMS; t++) {
+            int p = t == 0 ? 0 : bucketEnd[t - 1];
+            int pEnd = bucketEnd[t];
+            boolean inBase = k < keys.length && keys[k] == t;
+            if (!inBase && p == pEnd) continue;
+            int[] base = inBase ? decode(k++) : NONE;
+            int start = out.size;
+            int last = -1;
+            int i = 0;
+            while (true) {
+                while (i < base.length && stale.get(base[i])) i++;
+                int fromBase = i < base.length ? renumber[base[i]] : Integer.MAX_VALUE;
+                int fromDelta = p < pEnd ? byTrigram[p] : Integer.MAX_VALUE;
+                if (fromBase == Integer.MAX_VALUE && fromDelta == Integer.MAX_VALUE) break;
+                int next;
+                if (fromBase < fromDelta) {
+                    next = fromBase;
+                    i++;
+                } else {
+                    next = fromDelta;
+                    p++;
+                }
+                out.writeVarint(next - last);
+                last = next;
+            }
+            if (out.size > start) {
+                if (count == newKeys.length) {
+                    newKeys = Arrays.copyOf(newKeys, count * 2);
+                    newOffsets = Arrays.copyOf(newOffsets, count * 2 + 1);
+                }
+                newKeys[count] = t;
+                newOffsets[count++] = start;
+            }
+        }
+        newOffsets[count] = out.size;
+
+        keys = Arrays.copyOf(newKeys, count);
+        offsets = Arrays.copyOf(newOffsets, count + 1);
+        postings = Arrays.copyOf(out.bytes, out.size);
+        files.clear();
+        files.addAll(live);
+        ids.clear();
+        for (int id = 0; id < live.size(); id++) ids.put(live.get(id).path, id);
+        unindexed.clear();
+        unindexed.or(liveUnindexed);
+        stale.clear();
+        delta.clear();
+        deltaTrigrams = 0;
+    }
+
+    private static final class ByteSink {
+        byte[] bytes;
+        int size;
+
+        ByteSink(int capacity) {
+            bytes = new byte[Math.max(capacity, 64)];
+        }
+
+        void writeVarint(int value) {
+            if (size + 5 > bytes.length) bytes = Arrays.copyOf(bytes, bytes.length * 2);
+            while ((value & ~0x7F) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+    }
+
+    // ---------------------------------------------------------------- storage
+
+    /*
+     * Format (big-endian): magic, root, file count, then per file a tag
+     * (0 deleted, 1 indexed, 2 always searched), its path relative to the root,
+     * size and modification time; then the trigram count, the sorted trigrams,
+     * the offsets of their posting lists and the posting bytes. Files whose
+     * postings are not current are stored with size -1, so the next refresh
+     * reads them again.
+     */
+
+    private void save() {
+        byte[] header;
+        int[] savedKeys;
+        int[] savedOffsets;
+        byte[] savedPostings;
+        synchronized (this) {
+            try {
+                ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 + files.size() * 48);
+                DataOutputStream out = new DataOutputStream(buffer);
+                out.writeInt(MAGIC);
+                writeString(out, root.toString());
+                out.writeInt(files.size());
+                for (int id = 0; id < files.size(); id++) {
+                    Entry e = files.get(id);
+                    if (e == null) {
+                        out.writeByte(0);
+                        continue;
+                    }
+                    boolean current = unindexed.get(id) || (!stale.get(id) && !delta.containsKey(id));
+                    out.writeByte(unindexed.get(id) ? 2 : 1);
+                    writeString(out, root.relativize(e.path).toString());
+                    out.writeLong(current ? e.size : -1);
+                    out.writeLong(e.modified);
+                }
+                out.writeInt(keys.length);
+                header = buffer.toByteArray();
+            } catch (IOException e) {
+                throw new IllegalStateException(e); // cannot happen in memory
+            }
+            savedKeys = keys;
+            savedOffsets = offsets;
+            savedPostings = postings;
+        }
+        try {
+            Files.createDirectories(store.getParent());
+            Path temp = store.resolveSibling(store.getFileName() + ".tmp");
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                out.write(header);
+                out.write(toBytes(savedKeys));
+                out.write(toBytes(savedOffsets));
+                out.write(savedPostings);
+            }
+            try {
+                Files.move(temp, store, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temp, store, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // the index keeps working from memory, it is only rebuilt next time
+            e.printStackTrace();
+        }
+    }
+
+    private synchronized void load() {
+        if (!Files.exists(store)) return;
+        try {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(store));
+            if (in.getInt() != MAGIC || !readString(in).equals(root.toString())) return;
+            int fileCount = in.getInt();
+            for (int id = 0; id < fileCount; id++) {
+                byte tag = in.get();
+                if (tag == 0) {
+                    files.add(null);
+                    stale.set(id);
+                    continue;
+                }
+                Path path = root.resolve(readString(in));
+                files.add(new Entry(path, in.getLong(), in.getLong()));
+                ids.put(path, id);
+                if (tag == 2) unindexed.set(id);
+                liveFiles++;
+            }
+            int count = in.getInt();
+            keys = new int[count];
+            offsets = new int[count + 1];
+            in.asIntBuffer().get(keys);
+            in.position(in.position() + 4 * count);
+            in.asIntBuffer().get(offsets);
+            in.position(in.position() + 4 * (count + 1));
+            postings = new byte[offsets[count]];
+            in.get(postings);
+        } catch (IOException | RuntimeException e) {
+            // unreadable or from another version - the folder is indexed again
+            keys = NONE;
+            offsets = new int[]{0};
+            postings = new byte[0];
+            files.clear();
+            ids.clear();
+            stale.clear();
+            unindexed.clear();
+            liveFiles = 0;
+        }
+    }
+
+    static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toBytes(int[] values) {
+        ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+        buffer.asIntBuffer().put(values);
+        return buffer.array();
+    }
+}